@@ -16,6 +16,8 @@ import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class ChunkWriter extends OutputStream {
   //////////////////////////////////////////////////
@@ -35,6 +37,15 @@ public class ChunkWriter extends OutputStream {
 
   static public final String XMLDOCUMENTHEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
 
+  // Max number of idle chunk buffers kept for reuse
+  static final int MAXPOOLED = 64;
+
+  //////////////////////////////////////////////////
+  // Static variables
+
+  // Full size chunk buffers are reused across responses
+  static protected final Queue<ByteBuffer> chunkpool = new ConcurrentLinkedQueue<>();
+
   //////////////////////////////////////////////////
   // Type declarations
 
@@ -234,7 +245,8 @@ public class ChunkWriter extends OutputStream {
       sendDXR(errbody8);
     } else {// mode == DATA
       // clear any partial chunk
-      chunk.clear();
+      if (chunk != null)
+        chunk.clear();
       // create an error header
       int flags = DapUtil.CHUNK_ERROR | DapUtil.CHUNK_END;
       chunkheader(errbody8.length, flags, header);
@@ -257,7 +269,7 @@ public class ChunkWriter extends OutputStream {
     // and amount to write is zero,
     // go ahead and write the zero size chunk.
     if (chunk == null)
-      chunk = ByteBuffer.allocate(maxbuffersize);
+      chunk = allocateChunk();
 
     int buffersize = chunk.position();
     chunkheader(buffersize, flags, header);
@@ -270,6 +282,68 @@ public class ChunkWriter extends OutputStream {
   }
 
 
+  protected ByteBuffer allocateChunk() {
+    ByteBuffer buf = (maxbuffersize == MAXCHUNKSIZE) ? chunkpool.poll() : null;
+    if (buf == null)
+      buf = ByteBuffer.allocate(maxbuffersize);
+    buf.clear();
+    return buf.order(getWriteOrder());
+  }
+
+  protected void releaseChunk() {
+    if (chunk != null && chunk.capacity() == MAXCHUNKSIZE && chunkpool.size() < MAXPOOLED)
+      chunkpool.offer(chunk);
+    chunk = null;
+  }
+
+  //////////////////////////////////////////////////
+  // Direct encoding API
+
+  /**
+   * Check that count more bytes can be written without exceeding the write limit.
+   *
+   * @param count number of bytes the caller intends to write
+   * @throws DapException if the limit would be exceeded
+   */
+  public void ensureWritable(long count) throws DapException {
+    if (writecount + count >= writelimit)
+      throw new DapException("Attempt to write too much data: limit=" + writelimit)
+          .setCode(DapCodes.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+  }
+
+  /**
+   * Get the chunk buffer, so that a caller can encode data directly into it,
+   * rather than passing a byte[] to write(). The next byte goes at the buffer's
+   * position, and there is always room for at least one byte; a full chunk is
+   * written out first. The caller puts bytes into the buffer (advancing its position),
+   * then calls commit() with the number of bytes added. The buffer must not
+   * be retained past commit().
+   *
+   * @return the chunk buffer; it is heap based
+   * @throws IOException on IO related errors
+   */
+  public ByteBuffer reserve() throws IOException {
+    verifystate();
+    if (chunk == null)
+      chunk = allocateChunk();
+    if (state == State.DMR) {
+      chunk.clear(); // reset
+      state = State.DATA;
+    }
+    if (!chunk.hasRemaining())
+      writeChunk(DapUtil.CHUNK_DATA);
+    return chunk;
+  }
+
+  /**
+   * Account for bytes put directly into the buffer returned by reserve().
+   *
+   * @param count number of bytes added
+   */
+  public void commit(int count) {
+    writecount += count;
+  }
+
   static public void chunkheader(int length, int flags, ByteBuffer hdrbuf) throws DapException {
     if (length > MAXCHUNKSIZE || length < 0)
       throw new DapException("Illegal chunk size: " + length);
@@ -310,7 +384,14 @@ public class ChunkWriter extends OutputStream {
     if (closed)
       return;
     closed = true;
+    try {
+      finish();
+    } finally {
+      releaseChunk();
+    }
+  }
 
+  protected void finish() throws IOException {
     if (dmr8 != null) {
       sendDXR(dmr8);
       dmr8 = null;
@@ -412,7 +493,7 @@ public class ChunkWriter extends OutputStream {
       throw new DapException("Attempt to write too much data: limit=" + writecount + len)
           .setCode(DapCodes.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
     if (chunk == null)
-      chunk = ByteBuffer.allocate(maxbuffersize).order(getWriteOrder());
+      chunk = allocateChunk();
     if (state == State.DMR) {
       chunk.clear(); // reset
       state = State.DATA;
@@ -430,7 +511,8 @@ public class ChunkWriter extends OutputStream {
           avail = chunk.remaining();
         }
         int towrite = (left < avail ? left : avail);
-        chunk.put(b, off, towrite);
+        chunk.put(b, offset, towrite);
+        offset += towrite;
         left -= towrite;
         avail -= towrite;
       } while (left > 0);
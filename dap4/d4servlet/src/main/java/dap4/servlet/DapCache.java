@@ -8,22 +8,36 @@ package dap4.servlet;
 import dap4.core.ce.CEConstraint;
 import dap4.core.data.DSP;
 import dap4.core.data.DSPRegistry;
+import dap4.core.dmr.DapDataset;
+import dap4.core.dmr.DapStructure;
+import dap4.core.dmr.DapVariable;
 import dap4.core.util.DapContext;
 import dap4.core.util.DapException;
 import dap4.dap4lib.DapCodes;
+import dap4.dap4lib.DapLog;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * Provide an LRU cache of DSPs.
  * It is expected (for now) that this is only used on the server side.
- * The cache key is assumed to be the DSP object.
- * The cache is synchronized to avoid race conditions.
- * Note that we do not have to release because Java
- * uses garbage collection and entries will be purged
- * if the LRU cache is full.
+ * The cache key is the DSP location (path).
+ * Lookups do not share a lock: concurrent opens of the same path
+ * share a single DSP.open, and opens of different paths proceed
+ * in parallel.
+ * Each entry is weighed by an estimate of the memory held by the open DSP
+ * and its DMR, in bytes, and the least recently used entries are evicted
+ * when the total weight exceeds the limit.
+ * An entry is dropped when the modification time of its file changes.
+ * Callers must call release() when done with a DSP from open(),
+ * so that evicted DSPs are closed only when no longer in use.
  * Singleton class
  */
 
@@ -32,7 +46,13 @@ abstract public class DapCache {
   //////////////////////////////////////////////////
   // Constants
 
-  static final int MAXFILES = 100; // size of the cache
+  static final long MAXWEIGHT = 50L * 1000 * 1000; // default size of the cache, in bytes
+
+  // rough heap cost of an open DSP, and of the metadata kept for each variable, dimension and attribute
+  static final long BYTES_PER_ENTRY = 10 * 1000;
+  static final long BYTES_PER_VARIABLE = 2000;
+  static final long BYTES_PER_DIMENSION = 200;
+  static final long BYTES_PER_ATTRIBUTE = 200;
 
   static public final String MATCHMETHOD = "dspMatch";
 
@@ -45,13 +65,37 @@ abstract public class DapCache {
   static public DSPRegistry dspregistry = new DSPRegistry();
 
   /**
-   * Define an lru cache of known DSP objects: oldest first.
+   * The cached DSP objects, by path.
    */
-  static protected List<DSP> lru = new ArrayList<DSP>();
+  static protected Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Entries by DSP, to find the entry on release.
+   */
+  static protected Map<DSP, Entry> owners = new ConcurrentHashMap<>();
+
+  static protected long maxweight = MAXWEIGHT;
+  static protected final AtomicLong totalweight = new AtomicLong();
+  static protected final Object evictlock = new Object();
+
+  // statistics
+  static protected final AtomicLong hits = new AtomicLong();
+  static protected final AtomicLong misses = new AtomicLong();
+  static protected final AtomicLong evictions = new AtomicLong();
+  static protected final AtomicLong invalidations = new AtomicLong();
 
   // This should be set by any subclass
   static protected DSPFactory factory = null;
 
+  /**
+   * Opens the DSP for a path; replaced in tests.
+   */
+  interface Opener {
+    DSP open(String path, DapContext cxt) throws IOException;
+  }
+
+  static Opener opener = DapCache::openDSP;
+
   static public void setFactory(DSPFactory f) {
     factory = f;
   }
@@ -60,46 +104,274 @@ abstract public class DapCache {
     return factory;
   }
 
-  static public synchronized DSP open(String path, DapContext cxt) throws IOException {
+  /**
+   * @param bytes approximate upper limit on the memory held by cached DSPs
+   */
+  static public void setMaxWeight(long bytes) {
+    maxweight = bytes;
+    evict();
+  }
+
+  /**
+   * Get the DSP for a path, opening it if it is not cached.
+   * The caller must call release() when done with it.
+   *
+   * @param path the path to the resource
+   * @param cxt the context to use if the DSP must be opened
+   * @return an open DSP
+   * @throws IOException if no DSP matches the path, or the DSP cannot be opened
+   */
+  static public DSP open(String path, DapContext cxt) throws IOException {
     assert cxt != null;
-    int lrusize = lru.size();
-    for (int i = lrusize - 1; i >= 0; i--) {
-      DSP dsp = lru.get(i);
-      String dsppath = dsp.getLocation();
-      if (dsppath.equals(path)) {
-        // move to the front of the queue to maintain LRU property
-        lru.remove(i);
-        lru.add(dsp);
-        CEConstraint.release(lru.get(0).getDMR());
+    long lastmodified = new File(path).lastModified(); // 0 if not a local file
+    for (;;) {
+      Entry entry = entries.get(path);
+      if (entry != null && entry.lastmodified != lastmodified) {
+        // the file has changed
+        if (entries.remove(path, entry)) {
+          invalidations.incrementAndGet();
+          entry.retire();
+        }
+        continue;
+      }
+
+      boolean created = false;
+      if (entry == null) {
+        Entry fresh = new Entry(path, lastmodified);
+        entry = entries.putIfAbsent(path, fresh);
+        if (entry == null) {
+          entry = fresh;
+          created = true;
+        }
+      }
+
+      if (!entry.acquire())
+        continue; // evicted between lookup and acquire
+
+      (created ? misses : hits).incrementAndGet();
+      try {
+        DSP dsp = created ? entry.load(cxt) : entry.get();
+        if (created)
+          evict();
         return dsp;
+      } catch (IOException | RuntimeException e) {
+        entries.remove(path, entry);
+        entry.release();
+        entry.retire();
+        throw e;
       }
     }
-    // No match found, create and initialize it.
-    // If cache is full, remove oldest entry
-    if (lrusize == MAXFILES) {
-      // make room
-      lru.remove(0);
-      CEConstraint.release(lru.get(0).getDMR());
+  }
+
+  /**
+   * Indicate that the caller of open() is done with the DSP.
+   *
+   * @param dsp as returned from open(), may be null
+   */
+  static public void release(DSP dsp) {
+    if (dsp == null)
+      return;
+    Entry entry = owners.get(dsp);
+    if (entry != null)
+      entry.release();
+  }
+
+  static synchronized public void flush() // for testing
+      throws Exception {
+    for (Entry entry : entries.values()) {
+      if (entries.remove(entry.path, entry))
+        entry.close();
+    }
+  }
+
+  /**
+   * @return a summary of cache statistics
+   */
+  static public String getStatistics() {
+    return String.format("DapCache: entries=%d bytes=%d/%d hits=%d misses=%d evictions=%d invalidations=%d",
+        entries.size(), totalweight.get(), maxweight, hits.get(), misses.get(), evictions.get(), invalidations.get());
+  }
+
+  /**
+   * Estimate the memory held by an open DSP, from its DMR.
+   *
+   * @param dmr may be null
+   * @return estimated size in bytes
+   */
+  static long estimateWeight(DapDataset dmr) {
+    long weight = BYTES_PER_ENTRY;
+    if (dmr != null) {
+      weight += BYTES_PER_ATTRIBUTE * size(dmr.getAttributes());
+      for (DapVariable var : dmr.getTopVariables())
+        weight += estimateWeight(var);
     }
-    // Find dsp that can process this path
+    return weight;
+  }
+
+  static private long estimateWeight(DapVariable var) {
+    long weight = BYTES_PER_VARIABLE + BYTES_PER_DIMENSION * size(var.getDimensions())
+        + BYTES_PER_ATTRIBUTE * size(var.getAttributes());
+    if (var.getBaseType() instanceof DapStructure) { // includes sequences
+      for (DapVariable field : ((DapStructure) var.getBaseType()).getFields())
+        weight += estimateWeight(field);
+    }
+    return weight;
+  }
+
+  static private int size(Map<?, ?> map) {
+    return map == null ? 0 : map.size();
+  }
+
+  static private int size(List<?> list) {
+    return list == null ? 0 : list.size();
+  }
+
+  // Find dsp that can process this path, and open it
+  static private DSP openDSP(String path, DapContext cxt) throws IOException {
     DSP dsp = dspregistry.findMatchingDSP(path, cxt);
     if (dsp == null)
       throw new DapException("Resource has no matching DSP: " + path).setCode(DapCodes.SC_FORBIDDEN);
     dsp.setContext(cxt);
     dsp.open(path);
-    lru.add(dsp);
     return dsp;
   }
 
-  static synchronized public void flush() // for testing
-      throws Exception {
-    while (lru.size() > 0) {
-      DSP dsp = lru.get(0);
-      CEConstraint.release(dsp.getDMR());
-      dsp.close();
-      lru.remove(0);
+  // Remove least recently used entries until under the weight limit.
+  static protected void evict() {
+    synchronized (evictlock) {
+      while (totalweight.get() > maxweight && entries.size() > 1) {
+        Entry oldest = null;
+        for (Entry entry : entries.values()) {
+          if (entry.isLoaded() && (oldest == null || entry.lastaccess < oldest.lastaccess))
+            oldest = entry;
+        }
+        if (oldest == null)
+          return;
+        if (entries.remove(oldest.path, oldest)) {
+          evictions.incrementAndGet();
+          oldest.retire();
+        }
+      }
     }
   }
 
+  //////////////////////////////////////////////////
+
+  /**
+   * One cached DSP. It is closed once it has been removed from the cache
+   * and its last user has released it.
+   */
+  static protected class Entry {
+    final String path;
+    final long lastmodified;
+    volatile long lastaccess = System.nanoTime();
+
+    // guarded by this
+    private FutureTask<DSP> loader;
+    private DSP dsp;
+    private long weight;
+    private int refcount;
+    private boolean retired;
+    private boolean closed;
+
+    Entry(String path, long lastmodified) {
+      this.path = path;
+      this.lastmodified = lastmodified;
+    }
+
+    // Called only by the thread that created the entry
+    DSP load(DapContext cxt) throws IOException {
+      FutureTask<DSP> task = new FutureTask<>(() -> opener.open(path, cxt));
+      synchronized (this) {
+        loader = task;
+        notifyAll();
+      }
+      task.run();
+      DSP result = get();
+      DapDataset dmr = result.getDMR();
+      synchronized (this) {
+        weight = estimateWeight(dmr);
+        if (!retired)
+          totalweight.addAndGet(weight);
+        owners.put(result, this);
+        this.dsp = result; // if already retired, our caller's release() will close it
+      }
+      return result;
+    }
+
+    // Wait for the loading thread
+    DSP get() throws IOException {
+      FutureTask<DSP> task;
+      synchronized (this) {
+        while (loader == null) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting to open " + path, e);
+          }
+        }
+        task = loader;
+      }
+      try {
+        DSP result = task.get();
+        lastaccess = System.nanoTime();
+        return result;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting to open " + path, e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException)
+          throw (IOException) cause;
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        throw new DapException(cause);
+      }
+    }
+
+    synchronized boolean isLoaded() {
+      return dsp != null;
+    }
+
+    synchronized boolean acquire() {
+      if (retired)
+        return false;
+      refcount++;
+      return true;
+    }
+
+    synchronized void release() {
+      refcount--;
+      if (retired && refcount <= 0)
+        close();
+    }
+
+    // No longer in the cache: close when the last user releases it.
+    synchronized void retire() {
+      if (!retired && dsp != null)
+        totalweight.addAndGet(-weight); // no longer counts against the cache
+      retired = true;
+      if (refcount <= 0)
+        close();
+    }
+
+    synchronized void close() {
+      if (!retired && dsp != null)
+        totalweight.addAndGet(-weight);
+      retired = true;
+      DSP toclose = dsp;
+      if (closed || toclose == null)
+        return; // already closed, or not opened (yet)
+      closed = true;
+      owners.remove(toclose);
+      try {
+        CEConstraint.release(toclose.getDMR());
+        toclose.close();
+      } catch (IOException e) {
+        DapLog.error("DapCache: cannot close " + path + ": " + e.getMessage());
+      }
+    }
+  }
 
 } // DapCache
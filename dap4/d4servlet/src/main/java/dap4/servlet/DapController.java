@@ -276,42 +276,46 @@ abstract public class DapController extends HttpServlet {
     String realpath = getResourcePath(drq, drq.getDatasetPath());
 
     DSP dsp = DapCache.open(realpath, cxt);
-    DapDataset dmr = dsp.getDMR();
+    try {
+      DapDataset dmr = dsp.getDMR();
 
-    /* Annotate with our endianness */
-    ByteOrder order = (ByteOrder) cxt.get(Dap4Util.DAP4ENDIANTAG);
-    setEndianness(dmr, order);
+      /* Annotate with our endianness */
+      ByteOrder order = (ByteOrder) cxt.get(Dap4Util.DAP4ENDIANTAG);
+      setEndianness(dmr, order);
 
-    // Process any constraint view
-    CEConstraint ce = null;
-    String sce = drq.queryLookup(DapProtocol.CONSTRAINTTAG);
-    ce = CEConstraint.compile(sce, dmr);
-    setConstraint(dmr, ce);
+      // Process any constraint view
+      CEConstraint ce = null;
+      String sce = drq.queryLookup(DapProtocol.CONSTRAINTTAG);
+      ce = CEConstraint.compile(sce, dmr);
+      setConstraint(dmr, ce);
 
-    // Provide a PrintWriter for capturing the DMR.
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter(sw);
+      // Provide a PrintWriter for capturing the DMR.
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter(sw);
 
-    // Get the DMR as a string
-    DMRPrinter dapprinter = new DMRPrinter(dmr, ce, pw, drq.getFormat());
-    if (cxt.get(Dap4Util.DAP4TESTTAG) != null)
-      dapprinter.testprint();
-    else
-      dapprinter.print();
-    pw.close();
-    sw.close();
+      // Get the DMR as a string
+      DMRPrinter dapprinter = new DMRPrinter(dmr, ce, pw, drq.getFormat());
+      if (cxt.get(Dap4Util.DAP4TESTTAG) != null)
+        dapprinter.testprint();
+      else
+        dapprinter.print();
+      pw.close();
+      sw.close();
 
-    String sdmr = sw.toString();
-    if (DEBUG)
-      System.err.println("Sending: DMR:\n" + sdmr);
+      String sdmr = sw.toString();
+      if (DEBUG)
+        System.err.println("Sending: DMR:\n" + sdmr);
 
-    addCommonHeaders(drq);// Add relevant headers
+      addCommonHeaders(drq);// Add relevant headers
 
-    // Wrap the outputstream with a Chunk writer
-    OutputStream out = drq.getOutputStream();
-    ChunkWriter cw = new ChunkWriter(out, RequestMode.DMR, order);
-    cw.cacheDMR(sdmr);
-    cw.close();
+      // Wrap the outputstream with a Chunk writer
+      OutputStream out = drq.getOutputStream();
+      ChunkWriter cw = new ChunkWriter(out, RequestMode.DMR, order);
+      cw.cacheDMR(sdmr);
+      cw.close();
+    } finally {
+      DapCache.release(dsp);
+    }
   }
 
   /**
@@ -329,72 +333,76 @@ abstract public class DapController extends HttpServlet {
     String realpath = getResourcePath(drq, drq.getDatasetPath());
 
     DSP dsp = DapCache.open(realpath, cxt);
-    if (dsp == null)
-      throw new DapException("No such file: " + drq.getResourceRoot());
-    DapDataset dmr = dsp.getDMR();
-    if (DUMPDMR) {
-      printDMR(dmr);
-      System.err.println(printDMR(dmr));
-      System.err.flush();
-    }
+    try {
+      if (dsp == null)
+        throw new DapException("No such file: " + drq.getResourceRoot());
+      DapDataset dmr = dsp.getDMR();
+      if (DUMPDMR) {
+        printDMR(dmr);
+        System.err.println(printDMR(dmr));
+        System.err.flush();
+      }
 
-    /* Annotate with our endianness */
-    ByteOrder order = (ByteOrder) cxt.get(Dap4Util.DAP4ENDIANTAG);
-    setEndianness(dmr, order);
+      /* Annotate with our endianness */
+      ByteOrder order = (ByteOrder) cxt.get(Dap4Util.DAP4ENDIANTAG);
+      setEndianness(dmr, order);
 
-    // Process any constraint
-    CEConstraint ce = null;
-    String sce = drq.queryLookup(DapProtocol.CONSTRAINTTAG);
-    ce = CEConstraint.compile(sce, dmr);
-    setConstraint(dmr, ce);
+      // Process any constraint
+      CEConstraint ce = null;
+      String sce = drq.queryLookup(DapProtocol.CONSTRAINTTAG);
+      ce = CEConstraint.compile(sce, dmr);
+      setConstraint(dmr, ce);
 
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter(sw);
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter(sw);
 
-    // Get the DMR as a string
-    DMRPrinter dapprinter = new DMRPrinter(dmr, ce, pw, drq.getFormat());
-    dapprinter.print();
-    pw.close();
-    sw.close();
-
-    String sdmr = sw.toString();
-    if (DEBUG || DUMPDMR)
-      System.err.println("Sending: Data DMR:\n" + sdmr);
-
-    // Wrap the outputstream with a Chunk writer
-    OutputStream out = drq.getOutputStream();
-    ChunkWriter cw = new ChunkWriter(out, RequestMode.DAP, order);
-    cw.setWriteLimit(getBinaryWriteLimit());
-    cw.cacheDMR(sdmr);
-    cw.flush();
-
-    addCommonHeaders(drq);
-
-    // Dump the databuffer part
-    switch (drq.getFormat()) {
-      case TEXT:
-      case XML:
-      case HTML:
-        throw new IOException("Unsupported return format: " + drq.getFormat());
-      /*
-       * sw = new StringWriter();
-       * DAPPrint dp = new DAPPrint(sw);
-       * dp.print(dsp.getDataset(), ce);
-       * break;
-       */
-      case NONE:
-      default:
-        DapSerializer writer = new DapSerializer(dsp, ce, cw, order, drq.getChecksumMode());
-        writer.write(dsp.getDMR());
-        cw.flush();
-        cw.close();
-        break;
-    }
-    // Should we dump data?
-    if (DUMPDATA) {
-      byte[] data = cw.getDump();
-      if (data != null)
-        DapDump.dumpbytestream(data, cw.getWriteOrder(), "ChunkWriter.write");
+      // Get the DMR as a string
+      DMRPrinter dapprinter = new DMRPrinter(dmr, ce, pw, drq.getFormat());
+      dapprinter.print();
+      pw.close();
+      sw.close();
+
+      String sdmr = sw.toString();
+      if (DEBUG || DUMPDMR)
+        System.err.println("Sending: Data DMR:\n" + sdmr);
+
+      // Wrap the outputstream with a Chunk writer
+      OutputStream out = drq.getOutputStream();
+      ChunkWriter cw = new ChunkWriter(out, RequestMode.DAP, order);
+      cw.setWriteLimit(getBinaryWriteLimit());
+      cw.cacheDMR(sdmr);
+      cw.flush();
+
+      addCommonHeaders(drq);
+
+      // Dump the databuffer part
+      switch (drq.getFormat()) {
+        case TEXT:
+        case XML:
+        case HTML:
+          throw new IOException("Unsupported return format: " + drq.getFormat());
+        /*
+         * sw = new StringWriter();
+         * DAPPrint dp = new DAPPrint(sw);
+         * dp.print(dsp.getDataset(), ce);
+         * break;
+         */
+        case NONE:
+        default:
+          DapSerializer writer = new DapSerializer(dsp, ce, cw, order, drq.getChecksumMode());
+          writer.write(dsp.getDMR());
+          cw.flush();
+          cw.close();
+          break;
+      }
+      // Should we dump data?
+      if (DUMPDATA) {
+        byte[] data = cw.getDump();
+        if (data != null)
+          DapDump.dumpbytestream(data, cw.getWriteOrder(), "ChunkWriter.write");
+      }
+    } finally {
+      DapCache.release(dsp);
     }
   }
 
@@ -63,6 +63,7 @@ public class SerialWriter {
 
   protected ByteBuffer crcbuffer = null;
   protected ByteBuffer countbuffer = null;
+  protected ByteBuffer elembuffer = null; // one value that must be split across chunks
 
   //////////////////////////////////////////////////
   // Constructor(s)
@@ -75,6 +76,7 @@ public class SerialWriter {
         .order(order);
     this.crcbuffer = ByteBuffer.allocate(4) // 4==sizeof(crc32 digest)
         .order(order);
+    this.elembuffer = ByteBuffer.allocate(MAXINTOBJECTSIZE).order(order);
     if ("CRC32".equalsIgnoreCase(DapUtil.DIGESTER)) {
       // use the one from java.util.zip.CRC32
       this.checksum = new java.util.zip.CRC32();
@@ -273,6 +275,11 @@ public class SerialWriter {
    */
   public void writeAtomicArray(DapType daptype, Object values) throws IOException {
     assert values != null && values.getClass().isArray();
+    TypeSort atomtype = daptype.getAtomicType();
+    if (output instanceof ChunkWriter && isFixedSize(atomtype) && !DEBUG && !DUMPDATA && !DUMPCSUM) {
+      writeFixedArray((ChunkWriter) output, atomtype, values);
+      return;
+    }
     ByteBuffer buf = SerialWriter.encodeArray(daptype, values, this.order);
     byte[] bytes = buf.array();
     int len = buf.position();
@@ -287,6 +294,104 @@ public class SerialWriter {
     }
   }
 
+  /**
+   * Encode an array of fixed size values directly into the chunk buffer of a ChunkWriter,
+   * a chunk at a time, so that no intermediate buffer for the whole array is allocated.
+   * The output is identical to that of encodeArray().
+   *
+   * @param cw the output
+   * @param atomtype type of the values; must satisfy isFixedSize()
+   * @param values the array of values
+   * @throws IOException
+   */
+  protected void writeFixedArray(ChunkWriter cw, TypeSort atomtype, Object values) throws IOException {
+    int elemsize = (int) TypeSort.getSize(atomtype);
+    int count = Array.getLength(values);
+    cw.ensureWritable((long) elemsize * count);
+    boolean summing = this.checksummode.enabled(ChecksumMode.DAP);
+    int index = 0;
+    while (index < count) {
+      ByteBuffer chunk = cw.reserve().order(this.order);
+      int n = Math.min(count - index, chunk.remaining() / elemsize);
+      if (n == 0) {
+        // Not enough room for a whole element; let the ChunkWriter split it across chunks
+        elembuffer.clear();
+        encodeFixed(elembuffer.order(this.order), atomtype, values, index, 1);
+        writeBytes(elembuffer.array(), elemsize);
+        index++;
+        continue;
+      }
+      int start = chunk.position();
+      encodeFixed(chunk, atomtype, values, index, n);
+      int len = n * elemsize;
+      if (summing)
+        this.checksum.update(chunk.array(), chunk.arrayOffset() + start, len);
+      cw.commit(len);
+      index += n;
+    }
+  }
+
+  /**
+   * Encode n values of a fixed size type, starting at values[index],
+   * at the position of buf, and advance the position.
+   */
+  static protected void encodeFixed(ByteBuffer buf, TypeSort atomtype, Object values, int index, int n)
+      throws DapException {
+    int total = (int) TypeSort.getSize(atomtype) * n;
+    switch (atomtype) {
+      case Char:
+        char[] datac = (char[]) values;
+        for (int i = index; i < index + n; i++) {
+          buf.put((byte) (0xFFL & (long) (datac[i])));
+        }
+        return;
+      case UInt8:
+      case Int8:
+        buf.put((byte[]) values, index, n);
+        return;
+      case Int16:
+      case UInt16:
+        buf.asShortBuffer().put((short[]) values, index, n);
+        break;
+      case Int32:
+      case UInt32:
+        buf.asIntBuffer().put((int[]) values, index, n);
+        break;
+      case Int64:
+      case UInt64:
+        buf.asLongBuffer().put((long[]) values, index, n);
+        break;
+      case Float32:
+        buf.asFloatBuffer().put((float[]) values, index, n);
+        break;
+      case Float64:
+        buf.asDoubleBuffer().put((double[]) values, index, n);
+        break;
+      default:
+        throw new DapException("Not a fixed size type: " + atomtype);
+    }
+    buf.position(buf.position() + total); // because we are using asXXXBuffer
+  }
+
+  static protected boolean isFixedSize(TypeSort atomtype) {
+    switch (atomtype) {
+      case Char:
+      case UInt8:
+      case Int8:
+      case Int16:
+      case UInt16:
+      case Int32:
+      case UInt32:
+      case Int64:
+      case UInt64:
+      case Float32:
+      case Float64:
+        return true;
+      default:
+        return false;
+    }
+  }
+
   /**
    * Write out a set of bytes
    *
@@ -0,0 +1,126 @@
+package dap4.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import dap4.core.data.DSP;
+import dap4.core.dmr.DapDataset;
+import dap4.core.dmr.DapDimension;
+import dap4.core.dmr.DapVariable;
+import dap4.core.util.DapContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestDapCache {
+  private static final DapCache.Opener defaultOpener = DapCache.opener;
+
+  private final Map<DSP, AtomicInteger> users = new ConcurrentHashMap<>();
+  private final Set<DSP> closed = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean closedInUse = new AtomicBoolean();
+  private final AtomicBoolean closedTwice = new AtomicBoolean();
+
+  @After
+  public void resetCache() throws Exception {
+    DapCache.flush();
+    DapCache.opener = defaultOpener;
+    DapCache.setMaxWeight(DapCache.MAXWEIGHT);
+  }
+
+  private DSP makeDsp(DapDataset dmr) throws Exception {
+    DSP dsp = mock(DSP.class);
+    when(dsp.getDMR()).thenReturn(dmr);
+    users.put(dsp, new AtomicInteger());
+    doAnswer(invocation -> {
+      if (users.get(dsp).get() != 0)
+        closedInUse.set(true);
+      if (!closed.add(dsp))
+        closedTwice.set(true);
+      return null;
+    }).when(dsp).close();
+    return dsp;
+  }
+
+  private static DapDataset makeDmr(int nvars, int ndims) {
+    List<DapVariable> vars = new ArrayList<>();
+    for (int i = 0; i < nvars; i++) {
+      DapVariable var = mock(DapVariable.class);
+      List<DapDimension> dims = new ArrayList<>();
+      for (int j = 0; j < ndims; j++)
+        dims.add(mock(DapDimension.class));
+      when(var.getDimensions()).thenReturn(dims);
+      vars.add(var);
+    }
+    DapDataset dmr = mock(DapDataset.class);
+    when(dmr.getTopVariables()).thenReturn(vars);
+    return dmr;
+  }
+
+  @Test
+  public void shouldWeighByMetadataSize() {
+    assertThat(DapCache.estimateWeight(null)).isEqualTo(DapCache.BYTES_PER_ENTRY);
+    assertThat(DapCache.estimateWeight(makeDmr(10, 2))).isEqualTo(
+        DapCache.BYTES_PER_ENTRY + 10 * (DapCache.BYTES_PER_VARIABLE + 2 * DapCache.BYTES_PER_DIMENSION));
+  }
+
+  @Test
+  public void shouldEvictByWeight() throws Exception {
+    DapCache.opener = (path, cxt) -> makeDsp(makeDmr(path.endsWith("big") ? 100 : 1, 1));
+    long big = DapCache.estimateWeight(makeDmr(100, 1));
+    DapCache.setMaxWeight(big + DapCache.estimateWeight(makeDmr(1, 1)));
+
+    for (String path : new String[] {"/small1", "/small2", "/big"})
+      DapCache.release(DapCache.open(path, new DapContext()));
+    assertThat(DapCache.totalweight.get()).isAtMost(DapCache.maxweight);
+    assertThat(closed).hasSize(1); // the least recently used small one
+  }
+
+  @Test
+  public void shouldCloseEvictedDspsOnlyAfterRelease() throws Exception {
+    DapCache.opener = (path, cxt) -> makeDsp(makeDmr(1, 1));
+    long maxWeight = 3 * DapCache.estimateWeight(makeDmr(1, 1));
+    DapCache.setMaxWeight(maxWeight);
+
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        Random random = new Random(t);
+        results.add(pool.submit(() -> {
+          for (int i = 0; i < 500; i++) {
+            DSP dsp = DapCache.open("/no/such/file" + random.nextInt(10), new DapContext());
+            users.get(dsp).incrementAndGet();
+            Thread.yield();
+            users.get(dsp).decrementAndGet();
+            DapCache.release(dsp);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> result : results)
+        result.get();
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(closedInUse.get()).isFalse();
+    assertThat(closedTwice.get()).isFalse();
+    assertThat(DapCache.evictions.get()).isGreaterThan(0L);
+    assertThat(DapCache.totalweight.get()).isAtMost(maxWeight);
+    assertThat(closed).hasSize(users.size() - DapCache.entries.size());
+    assertThat(Collections.disjoint(closed, DapCache.owners.keySet())).isTrue();
+  }
+}
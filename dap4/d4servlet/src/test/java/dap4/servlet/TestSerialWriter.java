@@ -0,0 +1,254 @@
+package dap4.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import dap4.core.data.ChecksumMode;
+import dap4.core.dmr.DapType;
+import dap4.core.dmr.TypeSort;
+import dap4.core.util.DapException;
+import dap4.dap4lib.RequestMode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * SerialWriter.writeFixedArray() encodes straight into the ChunkWriter's buffer. Its output must be the same, byte
+ * for byte, as encoding with encodeArray() and writing the bytes.
+ */
+public class TestSerialWriter {
+  private static final TypeSort[] FIXED_TYPES = {TypeSort.Char, TypeSort.Int8, TypeSort.UInt8, TypeSort.Int16,
+      TypeSort.UInt16, TypeSort.Int32, TypeSort.UInt32, TypeSort.Int64, TypeSort.UInt64, TypeSort.Float32,
+      TypeSort.Float64};
+  private static final ByteOrder[] ORDERS = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+  private static final String DMR = "<Dataset name=\"test\"/>";
+
+  private final Random random = new Random(17);
+
+  @Before
+  public void clearPool() {
+    ChunkWriter.chunkpool.clear();
+  }
+
+  static DapType makeType(TypeSort atomtype) {
+    DapType daptype = mock(DapType.class);
+    when(daptype.getAtomicType()).thenReturn(atomtype);
+    when(daptype.getTypeName()).thenReturn(atomtype.name());
+    return daptype;
+  }
+
+  static Object makeValues(TypeSort atomtype, int n, Random random) {
+    switch (atomtype) {
+      case Char:
+        char[] c = new char[n];
+        for (int i = 0; i < n; i++)
+          c[i] = (char) random.nextInt(0x10000); // only the low byte is written
+        return c;
+      case Int8:
+      case UInt8:
+        byte[] b = new byte[n];
+        random.nextBytes(b);
+        return b;
+      case Int16:
+      case UInt16:
+        short[] s = new short[n];
+        for (int i = 0; i < n; i++)
+          s[i] = (short) random.nextInt();
+        return s;
+      case Int32:
+      case UInt32:
+        int[] ints = new int[n];
+        for (int i = 0; i < n; i++)
+          ints[i] = random.nextInt();
+        return ints;
+      case Int64:
+      case UInt64:
+        long[] l = new long[n];
+        for (int i = 0; i < n; i++)
+          l[i] = random.nextLong();
+        return l;
+      case Float32:
+        float[] f = new float[n];
+        for (int i = 0; i < n; i++)
+          f[i] = random.nextFloat() * 1000 - 500;
+        return f;
+      case Float64:
+        double[] d = new double[n];
+        for (int i = 0; i < n; i++)
+          d[i] = random.nextGaussian();
+        return d;
+      default:
+        throw new IllegalArgumentException(atomtype.name());
+    }
+  }
+
+  private static byte[] encodeArray(TypeSort atomtype, Object values, ByteOrder order) throws IOException {
+    ByteBuffer buf = SerialWriter.encodeArray(makeType(atomtype), values, order);
+    return Arrays.copyOf(buf.array(), buf.position());
+  }
+
+  @Test
+  public void shouldEncodeFixedLikeEncodeArray() throws IOException {
+    for (ByteOrder order : ORDERS) {
+      for (TypeSort atomtype : FIXED_TYPES) {
+        Object values = makeValues(atomtype, 100, random);
+        byte[] expected = encodeArray(atomtype, values, order);
+        int elemsize = (int) TypeSort.getSize(atomtype);
+
+        // the whole array, at an offset in the buffer
+        ByteBuffer buf = ByteBuffer.allocate(expected.length + 3).order(order);
+        buf.position(3);
+        SerialWriter.encodeFixed(buf, atomtype, values, 0, 100);
+        assertThat(buf.position()).isEqualTo(expected.length + 3);
+        assertThat(Arrays.copyOfRange(buf.array(), 3, buf.position())).isEqualTo(expected);
+
+        // a piece from the middle of the array
+        buf = ByteBuffer.allocate(expected.length).order(order);
+        SerialWriter.encodeFixed(buf, atomtype, values, 10, 25);
+        assertThat(Arrays.copyOf(buf.array(), buf.position()))
+            .isEqualTo(Arrays.copyOfRange(expected, 10 * elemsize, 35 * elemsize));
+      }
+    }
+  }
+
+  @Test
+  public void shouldWriteSameChunksAsWriteBytes() throws IOException {
+    for (ByteOrder order : ORDERS) {
+      for (TypeSort atomtype : FIXED_TYPES) {
+        Object values = makeValues(atomtype, 50000, random); // several chunks
+        assertThat(writeDirect(order, 0, atomtype, values)).isEqualTo(writeThroughStream(order, 0, atomtype, values));
+      }
+    }
+  }
+
+  @Test
+  public void shouldSplitValuesAcrossChunkBoundaries() throws IOException {
+    // a chunk of 13 bytes, after a 3 byte prefix, so that values keep straddling the chunk boundaries
+    for (ByteOrder order : ORDERS) {
+      for (TypeSort atomtype : FIXED_TYPES) {
+        Object values = makeValues(atomtype, 101, random);
+        byte[] direct = writeDirect(order, 13, atomtype, values);
+        assertThat(direct).isEqualTo(writeThroughStream(order, 13, atomtype, values));
+        assertThat(getData(direct)).isEqualTo(getData(writeThroughStream(order, 0, atomtype, values)));
+      }
+    }
+  }
+
+  @Test
+  public void shouldChecksumEncodedValues() throws IOException {
+    for (TypeSort atomtype : FIXED_TYPES) {
+      Object values = makeValues(atomtype, 1000, random);
+      CRC32 crc = new CRC32();
+      crc.update(new byte[] {1, 2, 3});
+      crc.update(encodeArray(atomtype, values, ByteOrder.BIG_ENDIAN));
+      String expected = String.format("%08x", crc.getValue());
+
+      ChunkWriter cw = makeChunkWriter(new ByteArrayOutputStream(), ByteOrder.BIG_ENDIAN, 13);
+      SerialWriter sw = new SerialWriter(cw, ByteOrder.BIG_ENDIAN, ChecksumMode.DAP);
+      writeVariable(sw, atomtype, values);
+      assertThat(sw.getLastChecksum()).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void shouldReusePooledChunks() throws IOException {
+    ChunkWriter first = makeChunkWriter(new ByteArrayOutputStream(), ByteOrder.BIG_ENDIAN, 0);
+    ByteBuffer chunk = first.reserve();
+    first.close();
+    assertThat(ChunkWriter.chunkpool).containsExactly(chunk);
+    // a pooled chunk still holds the bytes of the last response; they must not show through
+    Arrays.fill(chunk.array(), (byte) 0x55);
+
+    Object values = makeValues(TypeSort.Float64, 10000, random);
+    assertThat(writeDirect(ByteOrder.BIG_ENDIAN, 0, TypeSort.Float64, values))
+        .isEqualTo(writeThroughStream(ByteOrder.BIG_ENDIAN, 0, TypeSort.Float64, values));
+    assertThat(ChunkWriter.chunkpool).hasSize(1);
+
+    // only full size chunks are pooled
+    ChunkWriter small = makeChunkWriter(new ByteArrayOutputStream(), ByteOrder.BIG_ENDIAN, 13);
+    ByteBuffer smallChunk = small.reserve();
+    small.close();
+    assertThat(ChunkWriter.chunkpool).doesNotContain(smallChunk);
+  }
+
+  @Test
+  public void shouldCountCommittedBytesAgainstWriteLimit() throws IOException {
+    ChunkWriter cw = makeChunkWriter(new ByteArrayOutputStream(), ByteOrder.BIG_ENDIAN, 0);
+    cw.setWriteLimit(1000);
+    ByteBuffer chunk = cw.reserve();
+    chunk.put(new byte[600]);
+    cw.commit(600);
+    cw.ensureWritable(399);
+    assertThrows(DapException.class, () -> cw.ensureWritable(400));
+  }
+
+  private static ChunkWriter makeChunkWriter(OutputStream out, ByteOrder order, int chunkSize) throws IOException {
+    ChunkWriter cw = new ChunkWriter(out, RequestMode.DAP, order);
+    if (chunkSize > 0)
+      cw.setBufferSize(chunkSize);
+    cw.cacheDMR(DMR);
+    cw.flush();
+    return cw;
+  }
+
+  private static void writeVariable(SerialWriter sw, TypeSort atomtype, Object values) throws IOException {
+    sw.startVariable();
+    sw.writeBytes(new byte[] {1, 2, 3}, 3); // puts the values off the element alignment
+    sw.writeAtomicArray(makeType(atomtype), values);
+    sw.endVariable();
+  }
+
+  // SerialWriter sees a ChunkWriter, and encodes into its chunks
+  static byte[] writeDirect(ByteOrder order, int chunkSize, TypeSort atomtype, Object values) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ChunkWriter cw = makeChunkWriter(out, order, chunkSize)) {
+      writeVariable(new SerialWriter(cw, order, ChecksumMode.DAP), atomtype, values);
+    }
+    return out.toByteArray();
+  }
+
+  // SerialWriter sees some other stream, so it encodes the whole array with encodeArray() and writes the bytes
+  static byte[] writeThroughStream(ByteOrder order, int chunkSize, TypeSort atomtype, Object values)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ChunkWriter cw = makeChunkWriter(out, order, chunkSize)) {
+      OutputStream notAChunkWriter = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          cw.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          cw.write(b, off, len);
+        }
+      };
+      writeVariable(new SerialWriter(notAChunkWriter, order, ChecksumMode.DAP), atomtype, values);
+    }
+    return out.toByteArray();
+  }
+
+  // the data in a chunked response, without the DMR and the chunk headers
+  private static byte[] getData(byte[] response) {
+    ByteBuffer in = ByteBuffer.wrap(response).order(ByteOrder.BIG_ENDIAN);
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    boolean first = true; // the DMR
+    while (in.remaining() >= 4) {
+      int length = in.getInt() & 0xFFFF;
+      if (!first)
+        data.write(response, in.position(), length);
+      in.position(in.position() + length);
+      first = false;
+    }
+    return data.toByteArray();
+  }
+}
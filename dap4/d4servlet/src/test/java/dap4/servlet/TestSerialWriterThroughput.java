@@ -0,0 +1,99 @@
+package dap4.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import dap4.core.data.ChecksumMode;
+import dap4.core.dmr.DapType;
+import dap4.core.dmr.TypeSort;
+import dap4.dap4lib.RequestMode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ucar.unidata.util.test.category.NotPullRequest;
+
+/**
+ * Compare the time to serialize large arrays with SerialWriter.writeFixedArray(), which encodes into the
+ * ChunkWriter's chunks, against encodeArray() into a buffer for the whole array followed by writeBytes().
+ * Use -Dtds.benchmark.values=100000000 for larger arrays.
+ */
+@Category(NotPullRequest.class)
+public class TestSerialWriterThroughput {
+  private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final int ITERATIONS = 5;
+
+  @Test
+  public void compareDirectAndBufferedEncoding() throws IOException {
+    int n = Integer.getInteger("tds.benchmark.values", 10_000_000);
+    Random random = new Random(17);
+    for (TypeSort atomtype : new TypeSort[] {TypeSort.Int16, TypeSort.Int32, TypeSort.Float32, TypeSort.Float64}) {
+      DapType daptype = TestSerialWriter.makeType(atomtype);
+      Object values = TestSerialWriter.makeValues(atomtype, n, random);
+      long expected = n * TypeSort.getSize(atomtype);
+
+      for (int i = 0; i < ITERATIONS; i++) {
+        CountingOutputStream direct = new CountingOutputStream();
+        long start = System.nanoTime();
+        write(direct, false, daptype, values);
+        report(atomtype + " writeFixedArray", expected, System.nanoTime() - start);
+
+        CountingOutputStream buffered = new CountingOutputStream();
+        start = System.nanoTime();
+        write(buffered, true, daptype, values);
+        report(atomtype + " encodeArray", expected, System.nanoTime() - start);
+
+        assertThat(direct.count).isEqualTo(buffered.count);
+        assertThat(direct.count).isGreaterThan(expected);
+      }
+    }
+  }
+
+  private static void write(OutputStream out, boolean hideChunkWriter, DapType daptype, Object values)
+      throws IOException {
+    try (ChunkWriter cw = new ChunkWriter(out, RequestMode.DAP, ByteOrder.LITTLE_ENDIAN)) {
+      cw.setWriteLimit(Long.MAX_VALUE);
+      cw.cacheDMR("<Dataset name=\"benchmark\"/>");
+      cw.flush();
+      // SerialWriter only encodes into the chunks when it writes to a ChunkWriter
+      OutputStream target = !hideChunkWriter ? cw : new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          cw.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          cw.write(b, off, len);
+        }
+      };
+      SerialWriter sw = new SerialWriter(target, ByteOrder.LITTLE_ENDIAN, ChecksumMode.DAP);
+      sw.startVariable();
+      sw.writeAtomicArray(daptype, values);
+      sw.endVariable();
+    }
+  }
+
+  private static void report(String what, long bytes, long nanos) {
+    double seconds = nanos / 1e9;
+    logger.info(String.format("%-28s %8.1f ms %8.1f MB/s", what, seconds * 1000, bytes / (1024.0 * 1024.0) / seconds));
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
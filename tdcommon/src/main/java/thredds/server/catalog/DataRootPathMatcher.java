@@ -8,51 +8,53 @@ import thredds.client.catalog.Dataset;
 import thredds.server.catalog.tracker.DataRootExt;
 import thredds.server.catalog.tracker.DataRootTracker;
 import ucar.nc2.util.AliasTranslator;
-import ucar.unidata.util.StringUtil2;
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Find the dataRoot path from the request, by getting the longest match.
- * Use a TreeSet for minimum in-memory use.
+ * The paths are kept in an immutable PathTrie, which is rebuilt by the thread that changes the paths and swapped in
+ * atomically, so lookups never lock or build. Paths are only added while the catalogs are read, before this is in use,
+ * or rarely, when a data root is read lazily from its catalog, or when a changed catalog is reloaded. Those changes
+ * are made between beginUpdate() and endUpdate(), so the trie is rebuilt once for the batch.
  * Keep the objects in a separate map that could be off-heap and persistent.
  *
  * @author caron
  * @since 4/1/2015
  */
+@ThreadSafe
 public class DataRootPathMatcher {
   static private final Logger logger = LoggerFactory.getLogger(DataRootPathMatcher.class);
   static private org.slf4j.Logger logCatalogInit = org.slf4j.LoggerFactory.getLogger("catalogInit");
-  static private final boolean debug = false;
   static private final String ERROR = "*** ERROR: ";
   static private boolean skipTestDataDir = true;
 
-  private static class PathComparator implements Comparator<String> {
-    public int compare(String s1, String s2) {
-      int compare = s2.compareTo(s1); // reverse sort
-      if (debug)
-        System.out.println(" compare " + s1 + " to " + s2 + " = " + compare);
-      return compare;
-    }
-  }
-
   /////////////////////////////////////////////////////////////////////////////////////////
 
   private ConfigCatalogCache ccc;
   private DataRootTracker tracker;
 
-  private final TreeSet<String> treeSet = new TreeSet<>(new PathComparator()); // this should be in-memory for speed
-  private final Map<String, DataRootExt> map = new HashMap<>(); // this could be turned into an off-heap cache if
-                                                                // needed, with persistence.
+  private volatile PathTrie trie = new PathTrie.Builder().build();
+  private final Map<String, DataRootExt> map = new ConcurrentHashMap<>(); // this could be turned into an off-heap
+                                                                          // cache if needed, with persistence.
+  private int updating; // nesting of beginUpdate(), guarded by map
+  private boolean trieStale; // paths changed during the update, guarded by map
 
   public DataRootPathMatcher(ConfigCatalogCache ccc, DataRootTracker tracker) {
     this.ccc = ccc;
     this.tracker = tracker;
 
-    for (DataRootExt dre : tracker.getDataRoots()) {
-      put(dre);
+    beginUpdate();
+    try {
+      for (DataRootExt dre : tracker.getDataRoots()) {
+        put(dre);
+      }
+    } finally {
+      endUpdate();
     }
   }
 
@@ -62,12 +64,80 @@ public class DataRootPathMatcher {
    * @return true if not already exist
    */
   private boolean put(DataRootExt dataRootExt) {
-    map.put(dataRootExt.getPath(), dataRootExt);
-    String path = dataRootExt.getPath();
-    if (!path.endsWith("/")) {
-      path += "/";
+    DataRootExt old = map.put(dataRootExt.getPath(), dataRootExt);
+    if (old != null)
+      return false;
+    pathsChanged();
+    return true;
+  }
+
+  /**
+   * Start a batch of changes to the data roots. Until the matching endUpdate(), lookups see the paths from before
+   * the batch. Calls may be nested.
+   */
+  public void beginUpdate() {
+    synchronized (map) {
+      updating++;
+    }
+  }
+
+  /**
+   * End a batch of changes to the data roots, and rebuild the trie if any path was added or removed.
+   */
+  public void endUpdate() {
+    synchronized (map) {
+      if (updating == 0)
+        throw new IllegalStateException("endUpdate() without beginUpdate()");
+      updating--;
+      if (updating == 0 && trieStale)
+        rebuildTrie();
+    }
+  }
+
+  // rebuild now, or at the end of the update
+  private void pathsChanged() {
+    synchronized (map) {
+      if (updating > 0)
+        trieStale = true;
+      else
+        rebuildTrie();
+    }
+  }
+
+  // called with the lock on map held
+  private void rebuildTrie() {
+    PathTrie.Builder builder = new PathTrie.Builder();
+    for (String path : map.keySet())
+      builder.add(path);
+    trie = builder.build();
+    trieStale = false;
+  }
+
+  /**
+   * Remove a data root, unless it has been replaced by one with the same path.
+   *
+   * @return true if it was removed
+   */
+  public boolean removeRoot(DataRootExt dataRootExt) {
+    if (!map.remove(dataRootExt.getPath(), dataRootExt))
+      return false;
+    pathsChanged();
+    tracker.removeDataRoot(dataRootExt);
+    return true;
+  }
+
+  /**
+   * Get the data roots defined in a catalog.
+   *
+   * @param catalogRelPath the catalog, relative to the content root
+   */
+  public List<DataRootExt> getRoots(String catalogRelPath) {
+    List<DataRootExt> result = new ArrayList<>();
+    for (DataRootExt dre : map.values()) {
+      if (catalogRelPath.equals(dre.getCatLocation()))
+        result.add(dre);
     }
-    return treeSet.add(path);
+    return result;
   }
 
   /**
@@ -77,7 +147,7 @@ public class DataRootPathMatcher {
    * @return true if already contains the key
    */
   public boolean contains(String path) {
-    return treeSet.contains(path);
+    return map.containsKey(path);
   }
 
   public DataRootExt get(String path) {
@@ -100,27 +170,7 @@ public class DataRootPathMatcher {
    * @return the value whose key is the longest that matches path, or null if none
    */
   public String findLongestPathMatch(String reqPath) {
-    if (!reqPath.endsWith("/")) {
-      reqPath += "/";
-    }
-    SortedSet<String> tail = treeSet.tailSet(reqPath);
-    if (tail.isEmpty()) {
-      return null;
-    }
-
-    // check for common starting chars
-    for (String key : tail) {
-      if (reqPath.startsWith(key)) {
-        return key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
-      }
-
-      // terminate when there's no match at all.
-      if (StringUtil2.match(reqPath, key) == 0) {
-        break;
-      }
-    }
-
-    return null;
+    return trie.findLongestMatch(reqPath);
   }
 
   /**
@@ -136,7 +186,8 @@ public class DataRootPathMatcher {
 
     DataRootExt dataRootExt = map.get(path);
     if (dataRootExt == null) {
-      logger.error("DataRootPathMatcher found path {} but not in map", path);
+      // removed by an update that has not finished
+      logger.debug("DataRootPathMatcher found path {} but not in map", path);
       return null;
     }
     return convert2DataRoot(dataRootExt);
@@ -148,18 +199,27 @@ public class DataRootPathMatcher {
     if (dataRoot != null)
       return dataRoot;
 
-    // otherwise must read the catalog that its in
-    dataRoot = readDataRootFromCatalog(dataRootExt);
-    dataRootExt.setDataRoot(dataRoot);
-    return dataRoot;
+    // otherwise must read the catalog that its in, one at a time
+    synchronized (this) {
+      dataRoot = dataRootExt.getDataRoot();
+      if (dataRoot != null)
+        return dataRoot;
+      dataRoot = readDataRootFromCatalog(dataRootExt);
+      dataRootExt.setDataRoot(dataRoot);
+      return dataRoot;
+    }
   }
 
   private @Nonnull DataRoot readDataRootFromCatalog(DataRootExt dataRootExt) {
     try {
       ConfigCatalog cat = ccc.get(dataRootExt.getCatLocation());
-      extractDataRoots(dataRootExt.getCatLocation(), cat.getDatasetsLocal(), false, null); // will create a new
-                                                                                           // DataRootExt and replace
-                                                                                           // this one in the map
+      beginUpdate();
+      try {
+        // will create a new DataRootExt and replace this one in the map
+        extractDataRoots(dataRootExt.getCatLocation(), cat.getDatasetsLocal(), false, null);
+      } finally {
+        endUpdate();
+      }
       DataRootExt dataRootExtNew = map.get(dataRootExt.getPath());
       if (null == dataRootExtNew) {
         logger.error("Reading catalog " + dataRootExt.getCatLocation() + " failed to find dataRoot path="
@@ -349,6 +409,9 @@ public class DataRootPathMatcher {
 
   private void putRoot(DataRoot droot, String catalogRelPath) {
     DataRootExt drootExt = new DataRootExt(droot, catalogRelPath);
+    DataRootExt old = map.get(drootExt.getPath());
+    if (old != null)
+      tracker.removeDataRoot(old); // replaced
     put(drootExt);
     tracker.trackDataRoot(drootExt);
   }
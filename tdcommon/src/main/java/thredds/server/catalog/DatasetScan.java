@@ -69,6 +69,10 @@ public class DatasetScan extends CatalogRef {
   static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DatasetScan.class);
   static private Service latestService, fileService;
   static private AllowedServicesIF allowedServices;
+  static private DirectoryListingCache listingCache; // null means dont cache
+  static private int pageSize; // 0 means no paging
+
+  static public final String CATALOG_PAGE = "catalog_page"; // page n > 1 of a directory is catalog_page<n>.xml
 
   static public void setSpecialServices(Service _latestService, Service _fileService) {
     if (latestService != null && !latestService.equals(_latestService)) // mocking framework sets multiple times
@@ -81,6 +85,47 @@ public class DatasetScan extends CatalogRef {
     allowedServices = _allowedServices;
   }
 
+  static public void setListingCache(DirectoryListingCache _listingCache) {
+    listingCache = _listingCache;
+  }
+
+  /** Drop the cached listings of all DatasetScans, when the catalogs are reread. */
+  static public void invalidateAllListings() {
+    DirectoryListingCache cache = listingCache;
+    if (cache != null)
+      cache.invalidateAll();
+  }
+
+  /**
+   * Directories with more than pageSize entries are split into catalogs of pageSize entries.
+   * 
+   * @param _pageSize max entries in one catalog; 0 means no limit
+   */
+  static public void setPageSize(int _pageSize) {
+    pageSize = _pageSize;
+  }
+
+  /**
+   * The page of a directory that a catalog filename asks for.
+   *
+   * @param filename catalog filename, eg catalog.xml or catalog_page2.xml
+   * @return the page, starting at 1
+   */
+  static public int getPage(String filename) {
+    if (filename.startsWith(CATALOG_PAGE) && filename.endsWith(".xml")) {
+      try {
+        return Math.max(1, Integer.parseInt(filename.substring(CATALOG_PAGE.length(), filename.length() - 4)));
+      } catch (NumberFormatException e) {
+        return 1;
+      }
+    }
+    return 1;
+  }
+
+  private static String getPageFilename(int page) {
+    return page == 1 ? "catalog.xml" : CATALOG_PAGE + page + ".xml";
+  }
+
   private final DatasetScanConfig config;
   private final AddTimeCoverageEnhancer addTimeCoverage;
   private final List<RegExpNamer> namers;
@@ -164,6 +209,18 @@ public class DatasetScan extends CatalogRef {
    * @return the catalog for this path or null if build unsuccessful.
    */
   public CatalogBuilder makeCatalogForDirectory(String orgPath, URI baseURI) throws IOException {
+    return makeCatalogForDirectory(orgPath, baseURI, 1);
+  }
+
+  /**
+   * Build the catalog for one page of the given path. See setPageSize().
+   *
+   * @param orgPath the part of the baseURI that is the path
+   * @param baseURI the base URL for the catalog, used to resolve relative URLs.
+   * @param page the page, starting at 1
+   * @return the catalog for this path or null if build unsuccessful.
+   */
+  public CatalogBuilder makeCatalogForDirectory(String orgPath, URI baseURI, int page) throws IOException {
 
     // Get the dataset location.
     String dataDirRelative = translatePathToReletiveLocation(orgPath, config.path);
@@ -231,7 +288,17 @@ public class DatasetScan extends CatalogRef {
     // scan and sort the directory
     List<MFile> mfiles = getSortedFiles(directory, config.getSortFilesAscending());
 
-    if (config.addLatest != null && config.addLatest.latestOnTop)
+    int npages = (pageSize > 0) ? Math.max(1, (mfiles.size() + pageSize - 1) / pageSize) : 1;
+    if (page > npages)
+      throw new FileNotFoundException("No page " + page + " of directory. URL path = " + orgPath);
+    if (npages > 1) {
+      top.setName(name + " (page " + page + " of " + npages + ")");
+      mfiles = mfiles.subList((page - 1) * pageSize, Math.min(page * pageSize, mfiles.size()));
+      if (page > 1)
+        addPageRef(top, parentId, "Previous page", page - 1, npages);
+    }
+
+    if (config.addLatest != null && config.addLatest.latestOnTop && page == 1)
       top.addDataset(makeLatestProxy(top, parentId));
 
     // create Datasets
@@ -270,13 +337,24 @@ public class DatasetScan extends CatalogRef {
       ds.put(Dataset.Id, parentId + mfile.getName());
     }
 
-    if (config.addLatest != null && !config.addLatest.latestOnTop)
+    if (config.addLatest != null && !config.addLatest.latestOnTop && page == 1)
       top.addDataset(makeLatestProxy(top, parentId));
 
+    if (page < npages)
+      addPageRef(top, parentId, "Next page", page + 1, npages);
+
     // make the catalog
     return catBuilder;
   }
 
+  private void addPageRef(DatasetBuilder top, String parentId, String title, int page, int npages) {
+    CatalogRefBuilder catref = new CatalogRefBuilder(top);
+    catref.setTitle(title + " (" + page + " of " + npages + ")");
+    catref.setHref(getPageFilename(page));
+    catref.put(Dataset.Id, parentId + getPageFilename(page));
+    top.addDataset(catref);
+  }
+
   private static String getDataDir(String scanDir, String dataDirRelative) {
     if (dataDirRelative.length() <= 1) {
       return scanDir;
@@ -289,24 +367,41 @@ public class DatasetScan extends CatalogRef {
   ///////////////////////
   // Scan and sort
 
+  /** Drop the cached listings of this DatasetScan, when it is replaced by reloading its catalog. */
+  public void invalidateListings() {
+    DirectoryListingCache cache = listingCache;
+    if (cache != null)
+      cache.invalidate(this);
+  }
+
+  // files before directories, each sorted by name
   private List<MFile> getSortedFiles(MFile directory, final boolean isSortIncreasing) throws IOException {
+    DirectoryListingCache cache = listingCache;
+    List<MFile> sorted = (cache != null) ? cache.get(this, directory, this::scanAndSort) : scanAndSort(directory);
+    if (isSortIncreasing)
+      return sorted;
+
+    // reverse the files and the directories, keeping files first
+    int ndirs = 0;
+    while (ndirs < sorted.size() && sorted.get(sorted.size() - 1 - ndirs).isDirectory())
+      ndirs++;
+    int nfiles = sorted.size() - ndirs;
+    List<MFile> result = new ArrayList<>(sorted.size());
+    for (int i = nfiles - 1; i >= 0; i--)
+      result.add(sorted.get(i));
+    for (int i = sorted.size() - 1; i >= nfiles; i--)
+      result.add(sorted.get(i));
+    return result;
+  }
 
-    // scan the directory
+  // scan the directory and sort in increasing order
+  private List<MFile> scanAndSort(MFile directory) throws IOException {
     List<MFile> mfiles = getFiles(directory);
-
-    // sort them
-    Collections.sort(mfiles, new Comparator<MFile>() {
-      public int compare(MFile o1, MFile o2) {
-        if (o1.isDirectory() != o2.isDirectory())
-          return o1.isDirectory() ? 1 : -1;
-
-        if (isSortIncreasing)
-          return o1.getName().compareTo(o2.getName());
-        else
-          return o2.getName().compareTo(o1.getName());
-      }
+    mfiles.sort((o1, o2) -> {
+      if (o1.isDirectory() != o2.isDirectory())
+        return o1.isDirectory() ? 1 : -1;
+      return o1.getName().compareTo(o2.getName());
     });
-
     return mfiles;
   }
 
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.catalog;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import thredds.filesystem.MFileOS;
+import thredds.filesystem.MFileOS7;
+import thredds.inventory.MFile;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Cache of the filtered and sorted directory listings of DatasetScans, so that a catalog request does not list
+ * a large directory each time.
+ * <p>
+ * A listing is made again when it is older than maxAge, or when the last modified time of the directory has changed.
+ * Local directories are also watched, so that files added, removed or modified by this host are seen immediately.
+ * Changes made by other hosts on network file systems are not reported by the watch, and rely on the other checks.
+ * The size of the cache is bounded by the total number of files in its listings.
+ */
+@ThreadSafe
+public class DirectoryListingCache implements Closeable {
+  static private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DirectoryListingCache.class);
+
+  /** Makes the listing of a directory. */
+  public interface Lister {
+    List<MFile> list(MFile directory) throws IOException;
+  }
+
+  private final long maxAgeMsecs;
+  private final Cache<Key, Listing> cache;
+
+  // null if the file system does not support watching
+  private final WatchService watcher;
+  private final Map<Path, Watch> watched = new ConcurrentHashMap<>();
+
+  /**
+   * Create the cache, and start the thread that watches local directories.
+   *
+   * @param maxFiles max total number of files in all listings
+   * @param maxAgeSecs max age of a listing
+   */
+  public DirectoryListingCache(long maxFiles, int maxAgeSecs) {
+    this.maxAgeMsecs = TimeUnit.SECONDS.toMillis(maxAgeSecs);
+    // listings are made by DatasetScans, which are replaced when the catalogs are reread
+    this.cache = CacheBuilder.newBuilder().maximumWeight(maxFiles)
+        .weigher((Key key, Listing listing) -> listing.files.size() + 1).expireAfterAccess(1, TimeUnit.HOURS)
+        .removalListener(this::removed).build();
+
+    WatchService ws = null;
+    try {
+      ws = FileSystems.getDefault().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      log.warn("Local directories will not be watched: " + e.getMessage());
+    }
+    this.watcher = ws;
+    if (watcher != null) {
+      Thread thread = new Thread(this::watch, "DirectoryListingCache");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Get the listing of a directory, calling lister to make it if it is not cached or is out of date.
+   *
+   * @param owner the DatasetScan that owns the listing, whose filters and sort order lister applies
+   * @param directory the directory
+   * @param lister makes the listing
+   * @return the listing, unmodifiable
+   */
+  public List<MFile> get(Object owner, MFile directory, Lister lister) throws IOException {
+    Key key = new Key(owner, directory.getPath(), getLocalPath(directory));
+    long dirLastModified = directory.getLastModified();
+    Listing listing = cache.getIfPresent(key);
+    if (listing != null) {
+      if (listing.isValid(dirLastModified, maxAgeMsecs))
+        return listing.files;
+      cache.asMap().remove(key, listing);
+    }
+
+    try {
+      // concurrent requests for the same directory wait for a single listing
+      return cache.get(key, () -> makeListing(key, directory, dirLastModified, lister)).files;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  private Listing makeListing(Key key, MFile directory, long dirLastModified, Lister lister) throws IOException {
+    Watch watch = key.localPath == null ? null : watch(key.localPath);
+    // note the changes before listing, so that a change made while listing is not missed
+    long changes = watch == null ? 0 : watch.changes.get();
+    List<MFile> files = lister.list(directory);
+    return new Listing(Collections.unmodifiableList(files), dirLastModified, System.currentTimeMillis(), watch,
+        changes);
+  }
+
+  /**
+   * Drop the listings of one owner, when it is replaced.
+   *
+   * @param owner the DatasetScan that made the listings
+   */
+  public void invalidate(Object owner) {
+    cache.invalidateAll(cache.asMap().keySet().stream().filter(key -> key.owner == owner).collect(Collectors.toList()));
+  }
+
+  /** Drop all listings. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /** Stop watching. */
+  @Override
+  public void close() throws IOException {
+    cache.invalidateAll();
+    if (watcher != null)
+      watcher.close();
+  }
+
+  ////////////////////////////////////////////////////////////
+
+  @Nullable
+  private Watch watch(Path dir) {
+    if (watcher == null)
+      return null;
+    return watched.computeIfAbsent(dir, d -> {
+      try {
+        return new Watch(d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+      } catch (IOException | ClosedWatchServiceException e) {
+        log.debug("Cannot watch " + d + ": " + e.getMessage());
+        return null;
+      }
+    });
+  }
+
+  private void watch() {
+    while (true) {
+      WatchKey watchKey;
+      try {
+        watchKey = watcher.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      Path dir = (Path) watchKey.watchable();
+      watchKey.pollEvents(); // any event, including OVERFLOW, means the listing must be made again
+      Watch watch = watched.get(dir);
+      if (watch != null && watch.key == watchKey)
+        watch.changes.incrementAndGet();
+      if (!watchKey.reset() && watch != null)
+        watched.remove(dir, watch); // the directory is gone
+    }
+  }
+
+  // stop watching a directory when it no longer has a listing
+  private void removed(RemovalNotification<Key, Listing> notification) {
+    Path dir = notification.getKey().localPath;
+    if (notification.getCause() == RemovalCause.REPLACED || dir == null)
+      return;
+    if (cache.asMap().keySet().stream().anyMatch(key -> dir.equals(key.localPath)))
+      return;
+    Watch watch = watched.get(dir);
+    if (watch != null && watched.remove(dir, watch))
+      watch.key.cancel();
+  }
+
+  @Nullable
+  private static Path getLocalPath(MFile file) {
+    if (file instanceof MFileOS)
+      return ((MFileOS) file).getFile().toPath();
+    if (file instanceof MFileOS7)
+      return ((MFileOS7) file).getNioPath();
+    return null;
+  }
+
+  private static class Watch {
+    private final WatchKey key;
+    private final AtomicLong changes = new AtomicLong();
+
+    Watch(WatchKey key) {
+      this.key = key;
+    }
+  }
+
+  @Immutable
+  private static class Listing {
+    private final List<MFile> files;
+    private final long dirLastModified;
+    private final long made;
+    private final Watch watch; // null if not watched
+    private final long changes; // of watch, when the listing was started
+
+    Listing(List<MFile> files, long dirLastModified, long made, Watch watch, long changes) {
+      this.files = files;
+      this.dirLastModified = dirLastModified;
+      this.made = made;
+      this.watch = watch;
+      this.changes = changes;
+    }
+
+    boolean isValid(long dirLastModified, long maxAgeMsecs) {
+      return this.dirLastModified == dirLastModified && System.currentTimeMillis() - made < maxAgeMsecs
+          && (watch == null || (watch.key.isValid() && watch.changes.get() == changes));
+    }
+  }
+
+  @Immutable
+  private static class Key {
+    private final Object owner;
+    private final String dirPath;
+    private final Path localPath; // null if not a local directory
+
+    Key(Object owner, String dirPath, Path localPath) {
+      this.owner = owner;
+      this.dirPath = dirPath;
+      this.localPath = localPath;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (o == null || getClass() != o.getClass())
+        return false;
+      Key that = (Key) o;
+      return owner == that.owner && dirPath.equals(that.dirPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(owner), dirPath);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.catalog;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A trie of paths, split into segments at '/', to find the longest path that is a prefix of a request path.
+ * Only whole segments match: "model" matches "model/run" but not "models/run".
+ * A lookup takes time proportional to the number of segments in the request path, not the number of paths.
+ * Immutable once built, so it can be shared between threads without locking.
+ */
+@Immutable
+class PathTrie {
+
+  private static class Node {
+    private Map<String, Node> children; // null if none
+    private String path; // non-null if a path ends here
+  }
+
+  private final Node root;
+  private final int size;
+
+  private PathTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Find the longest path that matches the start of reqPath, on segment boundaries.
+   *
+   * @param reqPath the request path
+   * @return the matching path, without a trailing '/', or null if none
+   */
+  @Nullable
+  String findLongestMatch(String reqPath) {
+    Node node = root;
+    String result = null;
+    int start = 0;
+    int len = reqPath.length();
+    while (node.children != null) {
+      int end = reqPath.indexOf('/', start);
+      if (end < 0)
+        end = len;
+      node = node.children.get(reqPath.substring(start, end));
+      if (node == null)
+        break;
+      if (node.path != null)
+        result = node.path;
+      if (end == len)
+        break;
+      start = end + 1;
+    }
+    return result;
+  }
+
+  /** Not thread-safe. */
+  static class Builder {
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * Add a path. A trailing '/' is ignored.
+     *
+     * @return true if not already present
+     */
+    boolean add(String path) {
+      if (path.endsWith("/"))
+        path = path.substring(0, path.length() - 1);
+
+      Node node = root;
+      int start = 0;
+      int len = path.length();
+      while (true) {
+        int end = path.indexOf('/', start);
+        if (end < 0)
+          end = len;
+        if (node.children == null)
+          node.children = new HashMap<>(4);
+        node = node.children.computeIfAbsent(path.substring(start, end), s -> new Node());
+        if (end == len)
+          break;
+        start = end + 1;
+      }
+
+      if (node.path != null)
+        return false;
+      node.path = path;
+      size++;
+      return true;
+    }
+
+    /** The builder must not be used after this. */
+    PathTrie build() {
+      return new PathTrie(root, size);
+    }
+  }
+}
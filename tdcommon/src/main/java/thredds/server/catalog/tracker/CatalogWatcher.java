@@ -3,6 +3,8 @@ package thredds.server.catalog.tracker;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -12,8 +14,11 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
@@ -21,63 +26,61 @@ import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 /**
- * Put a watch on directories for when catalogs change. not used yet
+ * Put a watch on directories for when catalogs change.
+ * Changed catalog files are collected until the directories have been quiet for a while, so that saving a file,
+ * or copying in a set of catalogs, is reported to the Listener once.
  *
  * @author caron
  * @since 6/9/2015
  */
 public class CatalogWatcher implements Closeable {
+  static private org.slf4j.Logger catalogInitLog = org.slf4j.LoggerFactory.getLogger("catalogInit");
+
+  public interface Listener {
+    /** Catalog files were created, changed or deleted. */
+    void catalogsChanged(Set<Path> catalogFiles);
+
+    /** Events were lost, so any catalog may have changed. */
+    void overflow();
+  }
 
   private final WatchService watcher;
-  private final DatasetTracker tracker;
-  private final boolean enable;
-  private final Map<WatchKey, Path> keys;
-  private boolean recursive = true;
-  private boolean trace = true;
+  private final Listener listener;
+  private final long quietMsecs;
+  private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+  private final Set<Path> recursive = ConcurrentHashMap.newKeySet(); // new subdirectories of these are watched too
+  private Thread thread;
 
   @SuppressWarnings("unchecked")
   static <T> WatchEvent<T> cast(WatchEvent<?> event) {
     return (WatchEvent<T>) event;
   }
 
-  public CatalogWatcher(DatasetTracker tracker, boolean enable) throws IOException {
-    this.tracker = tracker;
-    this.enable = enable;
+  /**
+   * @param listener told about changed catalogs, from the watcher thread
+   * @param quietMsecs wait for this long without events before telling the listener
+   */
+  public CatalogWatcher(Listener listener, long quietMsecs) throws IOException {
+    this.listener = listener;
+    this.quietMsecs = quietMsecs;
     this.watcher = FileSystems.getDefault().newWatchService();
-    this.keys = new HashMap<>();
-
-    // enable trace after initial registration
-    this.trace = true;
   }
 
   /**
-   * Register the given directory with the WatchService
+   * Register the given directory with the WatchService. Registering a directory again does nothing.
    */
   public void register(Path dir) throws IOException {
-    if (!enable)
-      return;
-
     WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
-    if (trace) {
-      Path prev = keys.get(key);
-      if (prev == null) {
-        System.out.format("CatalogWatcher register: %s%n", dir);
-      } else {
-        if (!dir.equals(prev)) {
-          System.out.format("update: %s -> %s%n", prev, dir);
-        }
-      }
-    }
-    keys.put(key, dir);
+    if (keys.put(key, dir) == null)
+      catalogInitLog.debug("CatalogWatcher register: {}", dir);
   }
 
   /**
    * Register the given directory, and all its sub-directories, with the
-   * WatchService.
+   * WatchService. Sub-directories created later are registered when they appear.
    */
   public void registerAll(final Path start) throws IOException {
-    if (!enable)
-      return;
+    recursive.add(start);
 
     // register directory and sub-directories
     Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
@@ -89,73 +92,110 @@ public class CatalogWatcher implements Closeable {
     });
   }
 
+  public int getNumberOfDirectories() {
+    return keys.size();
+  }
+
+  /** Process events in a daemon thread, until closed. */
+  public synchronized void start() {
+    if (thread != null)
+      return;
+    thread = new Thread(this::processEvents, "CatalogWatcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
   /**
    * Process all events for keys queued to the watcher
    */
-  public void processEvents() {
-    if (!enable)
-      return;
-
-    for (;;) {
-
-      // wait for key to be signalled
-      WatchKey key;
+  void processEvents() {
+    while (true) {
+      Set<Path> changed = new HashSet<>();
+      boolean overflow;
       try {
-        key = watcher.take();
-      } catch (InterruptedException x) {
+        // wait for key to be signalled, then collect until quiet
+        WatchKey key = watcher.take();
+        overflow = false;
+        while (key != null) {
+          overflow |= processKey(key, changed);
+          key = watcher.poll(quietMsecs, TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
         return;
       }
 
-      Path dir = keys.get(key);
-      if (dir == null) {
-        System.err.println("WatchKey not recognized!!");
-        continue;
+      try {
+        if (overflow)
+          listener.overflow();
+        else if (!changed.isEmpty())
+          listener.catalogsChanged(changed);
+      } catch (Throwable t) {
+        catalogInitLog.error("CatalogWatcher listener failed", t);
       }
+    }
+  }
 
+  // return true if events were lost
+  private boolean processKey(WatchKey key, Set<Path> changed) {
+    boolean overflow = false;
+    Path dir = keys.get(key);
+    if (dir != null) {
       for (WatchEvent<?> event : key.pollEvents()) {
         WatchEvent.Kind kind = event.kind();
-
-        // TBD - provide example of how OVERFLOW event is handled
         if (kind == OVERFLOW) {
+          overflow = true;
           continue;
         }
 
         // Context for directory entry event is the file name of entry
         WatchEvent<Path> ev = cast(event);
-        Path name = ev.context();
-        Path child = dir.resolve(name);
+        Path child = dir.resolve(ev.context());
+        if (child.getFileName().toString().endsWith(".xml")) {
+          changed.add(child);
 
-        // print out event
-        System.out.format("%s: %s%n", event.kind().name(), child);
-
-        // if directory is created, and watching recursively, then
-        // register it and its sub-directories
-        if (recursive && (kind == ENTRY_CREATE)) {
+        } else if (kind == ENTRY_CREATE && isRecursive(dir) && Files.isDirectory(child, NOFOLLOW_LINKS)) {
+          // a new directory: watch it, and pick up any catalogs copied in before it was watched
           try {
-            if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-              registerAll(child);
-            }
-          } catch (IOException x) {
-            // ignore to keep sample readbale
+            registerAll(child);
+            addCatalogs(child, changed);
+          } catch (IOException ioe) {
+            catalogInitLog.warn("CatalogWatcher failed to register {}", child, ioe);
           }
         }
       }
+    }
 
-      // reset key and remove from set if directory no longer accessible
-      boolean valid = key.reset();
-      if (!valid) {
-        keys.remove(key);
+    // reset key and remove from set if directory no longer accessible
+    if (!key.reset())
+      keys.remove(key);
+    return overflow;
+  }
 
-        // all directories are inaccessible
-        if (keys.isEmpty()) {
-          break;
-        }
+  private boolean isRecursive(Path dir) {
+    for (Path start : recursive) {
+      if (dir.startsWith(start))
+        return true;
+    }
+    return false;
+  }
+
+  private void addCatalogs(Path dir, Set<Path> changed) throws IOException {
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+      for (Path p : ds) {
+        if (Files.isDirectory(p, NOFOLLOW_LINKS))
+          addCatalogs(p, changed);
+        else if (p.getFileName().toString().endsWith(".xml"))
+          changed.add(p);
       }
     }
   }
 
   @Override
   public void close() throws IOException {
-    watcher.close();
+    watcher.close(); // ends processEvents()
+    synchronized (this) {
+      if (thread != null)
+        thread.interrupt();
+    }
   }
 }
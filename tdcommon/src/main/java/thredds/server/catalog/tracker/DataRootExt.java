@@ -23,7 +23,7 @@ public class DataRootExt implements Comparable<DataRootExt> {
   private String name;
   private String restrict;
 
-  private DataRoot dataRoot;
+  private volatile DataRoot dataRoot;
 
   public DataRootExt() {}
 
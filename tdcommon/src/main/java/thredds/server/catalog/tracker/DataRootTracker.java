@@ -42,14 +42,14 @@ public class DataRootTracker {
     changed = true;
   }
 
-  public boolean trackDataRoot(DataRootExt ds) {
+  public synchronized boolean trackDataRoot(DataRootExt ds) {
     changed = true;
     if (callback != null)
       callback.hasDataRoot(ds);
     return dataRoots.add(ds);
   }
 
-  boolean removeDataRoot(DataRootExt ds) {
+  public synchronized boolean removeDataRoot(DataRootExt ds) {
     changed = true;
     return dataRoots.remove(ds);
   }
@@ -76,7 +76,7 @@ public class DataRootTracker {
     return count;
   }
 
-  public void save() throws IOException {
+  public synchronized void save() throws IOException {
     if (!changed)
       return;
     try (DataOutputStream out = new DataOutputStream(new FileOutputStream(filepath))) {
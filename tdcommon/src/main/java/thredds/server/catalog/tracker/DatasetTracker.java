@@ -4,6 +4,7 @@ package thredds.server.catalog.tracker;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Formatter;
+import java.util.Set;
 import thredds.client.catalog.Dataset;
 import thredds.server.catalog.ConfigCatalog;
 
@@ -30,6 +31,9 @@ public interface DatasetTracker extends Closeable {
   // datasets
   boolean trackDataset(long catId, Dataset ds, Callback callback);
 
+  // forget the datasets of these catalogs, when they are reloaded or deleted
+  void removeDatasets(Set<Long> catIds);
+
   String findResourceControl(String path);
 
   String findNcml(String path);
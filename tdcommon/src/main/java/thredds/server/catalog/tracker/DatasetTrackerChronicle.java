@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Formatter;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * DatasetTracker using ChronicleMap
@@ -212,6 +213,11 @@ public class DatasetTrackerChronicle implements DatasetTracker {
     return true;
   }
 
+  public void removeDatasets(Set<Long> catIds) {
+    if (datasetMap.entrySet().removeIf(entry -> catIds.contains(entry.getValue().catId)))
+      changed = true;
+  }
+
   public String findResourceControl(String path) {
     DatasetExt dext = datasetMap.get(path);
     if (dext == null)
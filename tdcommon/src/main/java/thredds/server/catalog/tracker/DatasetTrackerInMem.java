@@ -11,6 +11,7 @@ import thredds.server.catalog.FeatureCollectionRef;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * DatasetTracker using in memory hash table
@@ -30,6 +31,7 @@ public class DatasetTrackerInMem implements DatasetTracker {
 
   // InvDataset (not DatasetScan, DatasetFmrc) that have an NcML element in it. key is the request Path
   private Map<String, String> ncmlDatasetHash = new HashMap<>();
+  private Map<String, Long> catIdHash = new HashMap<>(); // path, catId of the datasets in the other maps
   // private int count;
 
   public boolean init(String dirPath, long maxDatasets) {
@@ -43,8 +45,10 @@ public class DatasetTrackerInMem implements DatasetTracker {
     if (dataset.getRestrictAccess() != null) {
       if (callback != null)
         callback.hasRestriction(dataset);
-      else
+      else {
         putResourceControl(dataset);
+        catIdHash.put(dataset.getUrlPath(), catId);
+      }
     }
 
     // dont track ncml for DatasetScan or FeatureCollectionRef
@@ -62,10 +66,22 @@ public class DatasetTrackerInMem implements DatasetTracker {
       String ncml = xmlOut.outputString(ncmlElem);
       System.out.printf("%s%n", ncml);
       ncmlDatasetHash.put(dataset.getUrlPath(), ncml);
+      catIdHash.put(dataset.getUrlPath(), catId);
     }
     return true;
   }
 
+  @Override
+  public void removeDatasets(Set<Long> catIds) {
+    catIdHash.entrySet().removeIf(entry -> {
+      if (!catIds.contains(entry.getValue()))
+        return false;
+      resourceControlHash.remove(entry.getKey());
+      ncmlDatasetHash.remove(entry.getKey());
+      return true;
+    });
+  }
+
   /**
    * This tracks Dataset elements that have resource control attributes
    *
@@ -130,6 +146,7 @@ public class DatasetTrackerInMem implements DatasetTracker {
   public boolean reinit() {
     resourceControlHash = new HashMap<>(); // path, restrictAccess string for datasets
     ncmlDatasetHash = new HashMap<>();
+    catIdHash = new HashMap<>();
     return true;
   }
 
@@ -3,6 +3,7 @@ package thredds.server.catalog.tracker;
 
 import thredds.client.catalog.Dataset;
 import java.util.Formatter;
+import java.util.Set;
 
 /**
  * Description
@@ -33,6 +34,9 @@ public class DatasetTrackerNoop implements DatasetTracker {
     return false;
   }
 
+  @Override
+  public void removeDatasets(Set<Long> catIds) {}
+
   @Override
   public String findResourceControl(String path) {
     return null;
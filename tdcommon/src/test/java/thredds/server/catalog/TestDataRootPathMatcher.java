@@ -0,0 +1,71 @@
+package thredds.server.catalog;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.server.catalog.tracker.DataRootTracker;
+
+/**
+ * Lookups use the trie from before an update until the update ends; a change outside of an update is seen at once.
+ */
+public class TestDataRootPathMatcher {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private DataRootPathMatcher matcher;
+
+  @Before
+  public void setup() throws IOException {
+    DataRootTracker tracker = new DataRootTracker(tempFolder.newFolder().getPath(), true, null);
+    matcher = new DataRootPathMatcher(null, tracker);
+  }
+
+  private void addRoot(String path) {
+    assertThat(matcher.addRoot(new DatasetRootConfig(path, "/data/" + path), "catalog.xml", true)).isTrue();
+  }
+
+  @Test
+  public void shouldSeeSingleChangesAtOnce() {
+    addRoot("model");
+    assertThat(matcher.findLongestPathMatch("model/gfs/run.nc")).isEqualTo("model");
+    assertThat(matcher.findDataRoot("model/gfs/run.nc").getDirLocation()).isEqualTo("/data/model");
+
+    assertThat(matcher.removeRoot(matcher.get("model"))).isTrue();
+    assertThat(matcher.findLongestPathMatch("model/gfs/run.nc")).isNull();
+  }
+
+  @Test
+  public void shouldPublishBatchAtEndUpdate() {
+    addRoot("model");
+
+    matcher.beginUpdate();
+    addRoot("model/gfs");
+    addRoot("obs");
+    matcher.removeRoot(matcher.get("model"));
+
+    // the old paths, until the update is done
+    assertThat(matcher.findLongestPathMatch("model/gfs/run.nc")).isEqualTo("model");
+    assertThat(matcher.findLongestPathMatch("obs/metar")).isNull();
+    assertThat(matcher.findDataRoot("model/gfs/run.nc")).isNull(); // removed
+
+    matcher.beginUpdate(); // nested
+    matcher.endUpdate();
+    assertThat(matcher.findLongestPathMatch("obs/metar")).isNull();
+
+    matcher.endUpdate();
+    assertThat(matcher.findLongestPathMatch("model/gfs/run.nc")).isEqualTo("model/gfs");
+    assertThat(matcher.findLongestPathMatch("model/nam/run.nc")).isNull();
+    assertThat(matcher.findDataRoot("obs/metar").getDirLocation()).isEqualTo("/data/obs");
+  }
+
+  @Test
+  public void shouldRejectUnmatchedEndUpdate() {
+    assertThrows(IllegalStateException.class, matcher::endUpdate);
+  }
+}
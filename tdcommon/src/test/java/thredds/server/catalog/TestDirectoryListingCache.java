@@ -0,0 +1,127 @@
+package thredds.server.catalog;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.inventory.MFile;
+import thredds.inventory.MFiles;
+
+public class TestDirectoryListingCache {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File dir;
+  private DirectoryListingCache cache;
+  private final AtomicInteger listings = new AtomicInteger();
+
+  @Before
+  public void setup() throws IOException {
+    dir = tempFolder.newFolder("scan");
+    Files.write(new File(dir, "a.nc").toPath(), new byte[10]);
+    Files.write(new File(dir, "b.nc").toPath(), new byte[10]);
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    if (cache != null)
+      cache.close();
+  }
+
+  @Test
+  public void shouldReuseListing() throws IOException {
+    cache = new DirectoryListingCache(1000, 3600);
+    Object owner = new Object();
+
+    List<MFile> first = cache.get(owner, directory(), this::list);
+    List<MFile> second = cache.get(owner, directory(), this::list);
+
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(listings.get()).isEqualTo(1);
+    assertThat(first).hasSize(2);
+  }
+
+  @Test
+  public void shouldKeepOwnersApart() throws IOException {
+    cache = new DirectoryListingCache(1000, 3600);
+
+    cache.get(new Object(), directory(), this::list);
+    cache.get(new Object(), directory(), this::list);
+
+    assertThat(listings.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldSeeNewFile() throws Exception {
+    cache = new DirectoryListingCache(1000, 3600);
+    Object owner = new Object();
+    cache.get(owner, directory(), this::list);
+
+    Files.write(new File(dir, "c.nc").toPath(), new byte[10]);
+
+    assertThat(waitForSize(owner, 3)).isTrue();
+  }
+
+  @Test
+  public void shouldSeeModifiedFile() throws Exception {
+    cache = new DirectoryListingCache(1000, 3600);
+    Object owner = new Object();
+    cache.get(owner, directory(), this::list);
+
+    // does not change the directory, so only the watch sees it
+    Files.write(new File(dir, "a.nc").toPath(), new byte[20]);
+
+    long deadline = System.currentTimeMillis() + 10 * 1000;
+    while (cache.get(owner, directory(), this::list).get(0).getLength() != 20) {
+      assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      Thread.sleep(50);
+    }
+  }
+
+  @Test
+  public void shouldExpire() throws IOException {
+    cache = new DirectoryListingCache(1000, 0);
+    Object owner = new Object();
+
+    cache.get(owner, directory(), this::list);
+    cache.get(owner, directory(), this::list);
+
+    assertThat(listings.get()).isEqualTo(2);
+  }
+
+  private boolean waitForSize(Object owner, int size) throws Exception {
+    long deadline = System.currentTimeMillis() + 10 * 1000;
+    while (System.currentTimeMillis() < deadline) {
+      if (cache.get(owner, directory(), this::list).size() == size)
+        return true;
+      Thread.sleep(50);
+    }
+    return false;
+  }
+
+  private MFile directory() throws IOException {
+    return MFiles.create(dir.getPath());
+  }
+
+  private List<MFile> list(MFile directory) throws IOException {
+    listings.incrementAndGet();
+    List<MFile> result = new ArrayList<>();
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files)
+        result.add(MFiles.create(file.getPath()));
+    }
+    result.sort((a, b) -> a.getName().compareTo(b.getName()));
+    return result;
+  }
+}
@@ -0,0 +1,74 @@
+package thredds.server.catalog;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TestPathTrie {
+
+  @Test
+  public void shouldMatchWholeSegments() {
+    PathTrie.Builder builder = new PathTrie.Builder();
+    builder.add("model");
+    builder.add("model/gfs/");
+    builder.add("/thredds/dods/test");
+    PathTrie trie = builder.build();
+
+    assertThat(trie.findLongestMatch("model")).isEqualTo("model");
+    assertThat(trie.findLongestMatch("model/")).isEqualTo("model");
+    assertThat(trie.findLongestMatch("model/nam/run.nc")).isEqualTo("model");
+    assertThat(trie.findLongestMatch("model/gfs/run.nc")).isEqualTo("model/gfs");
+    assertThat(trie.findLongestMatch("models/gfs")).isNull();
+    assertThat(trie.findLongestMatch("mod")).isNull();
+    assertThat(trie.findLongestMatch("/thredds/dods/test/file.nc")).isEqualTo("/thredds/dods/test");
+    assertThat(trie.findLongestMatch("thredds/dods/test/file.nc")).isNull();
+    assertThat(trie.findLongestMatch("")).isNull();
+  }
+
+  @Test
+  public void shouldNotAddTwice() {
+    PathTrie.Builder builder = new PathTrie.Builder();
+    assertThat(builder.add("a/b")).isTrue();
+    assertThat(builder.add("a/b/")).isFalse();
+    assertThat(builder.add("a")).isTrue();
+    assertThat(builder.build().size()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldAgreeWithPrefixScan() {
+    Random random = new Random(42);
+    List<String> paths = new ArrayList<>();
+    PathTrie.Builder builder = new PathTrie.Builder();
+    for (int i = 0; i < 20000; i++) {
+      String path = randomPath(random);
+      paths.add(path);
+      builder.add(path);
+    }
+    PathTrie trie = builder.build();
+
+    for (int i = 0; i < 2000; i++) {
+      String reqPath = randomPath(random) + "/file.nc";
+      assertThat(trie.findLongestMatch(reqPath)).isEqualTo(prefixScan(paths, reqPath));
+    }
+  }
+
+  private static String randomPath(Random random) {
+    StringBuilder sb = new StringBuilder("root");
+    int nsegments = 1 + random.nextInt(4);
+    for (int i = 0; i < nsegments; i++)
+      sb.append('/').append("d").append(random.nextInt(8));
+    return sb.toString();
+  }
+
+  private static String prefixScan(List<String> paths, String reqPath) {
+    String result = null;
+    for (String path : paths) {
+      if ((reqPath + "/").startsWith(path + "/") && (result == null || path.length() > result.length()))
+        result = path;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,75 @@
+package thredds.server.catalog.tracker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCatalogWatcher {
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final BlockingQueue<Set<Path>> changes = new LinkedBlockingQueue<>();
+
+  private CatalogWatcher makeWatcher() throws IOException {
+    return new CatalogWatcher(new CatalogWatcher.Listener() {
+      public void catalogsChanged(Set<Path> catalogFiles) {
+        changes.add(catalogFiles);
+      }
+
+      public void overflow() {}
+    }, 200);
+  }
+
+  // changes may come in more than one batch on a slow file system
+  private Set<Path> waitForChanges(int expected) throws InterruptedException {
+    Set<Path> result = new HashSet<>();
+    while (result.size() < expected) {
+      Set<Path> batch = changes.poll(30, TimeUnit.SECONDS);
+      if (batch == null)
+        break;
+      result.addAll(batch);
+    }
+    return result;
+  }
+
+  @Test
+  public void shouldReportChangedCatalogs() throws Exception {
+    Path dir = tempFolder.getRoot().toPath();
+    Path catalog = Files.write(dir.resolve("catalog.xml"), "<catalog/>".getBytes());
+    try (CatalogWatcher watcher = makeWatcher()) {
+      watcher.register(dir);
+      watcher.start();
+
+      Files.write(catalog, "<catalog name='changed'/>".getBytes());
+      Path added = Files.write(dir.resolve("added.xml"), "<catalog/>".getBytes());
+      Files.write(dir.resolve("notes.txt"), "not a catalog".getBytes());
+      assertThat(waitForChanges(2)).containsExactly(catalog, added);
+    }
+  }
+
+  @Test
+  public void shouldWatchNewDirectories() throws Exception {
+    Path dir = tempFolder.newFolder("scan").toPath();
+    try (CatalogWatcher watcher = makeWatcher()) {
+      watcher.registerAll(dir);
+      watcher.start();
+
+      Path subdir = Files.createDirectories(dir.resolve("a/b"));
+      Path nested = Files.write(subdir.resolve("nested.xml"), "<catalog/>".getBytes());
+      assertThat(waitForChanges(1)).containsExactly(nested);
+
+      Path later = Files.write(subdir.resolve("later.xml"), "<catalog/>".getBytes());
+      assertThat(waitForChanges(1)).containsExactly(later);
+    }
+  }
+}
@@ -6,6 +6,7 @@ import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.util.Set;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
@@ -83,6 +84,34 @@ public class TestDatasetTrackerChronicle {
     }
   }
 
+  @Test
+  public void shouldRemoveDatasetsOfCatalogs() throws IOException {
+    try (DatasetTrackerChronicle datasetTracker =
+        new DatasetTrackerChronicle(tempFolder.getRoot().getAbsolutePath(), 10, 1)) {
+      datasetTracker.trackDataset(1, mockDataset(100, "path1"), null);
+      datasetTracker.trackDataset(2, mockDataset(100, "path2"), null);
+      datasetTracker.trackDataset(3, mockDataset(100, "path3"), null);
+
+      datasetTracker.removeDatasets(Set.of(1L, 3L));
+      assertThat(datasetTracker.getCount()).isEqualTo(1);
+      assertThat(datasetTracker.findNcml("path1")).isNull();
+      assertThat(datasetTracker.findNcml("path2")).isNotNull();
+    }
+  }
+
+  @Test
+  public void shouldFindTrackedDatasetsBeforeAndAfterSave() throws IOException {
+    try (DatasetTrackerChronicle datasetTracker =
+        new DatasetTrackerChronicle(tempFolder.getRoot().getAbsolutePath(), 10, 1)) {
+      datasetTracker.trackDataset(1, mockDataset(100, "path"), null);
+      assertThat(datasetTracker.findNcml("path")).isNotNull();
+
+      datasetTracker.save();
+      assertThat(datasetTracker.findNcml("path")).isNotNull();
+      assertThat(datasetTracker.getCount()).isEqualTo(1);
+    }
+  }
+
   private static Dataset mockDataset(int ncmlLength, String path) {
     final Dataset dataset = mock(Dataset.class);
     when(dataset.getNcmlElement()).thenReturn(createNcml(ncmlLength));
@@ -11,10 +11,7 @@ import ucar.nc2.dataset.VariableDS;
 import ucar.nc2.dt.ugrid.topology.Topology;
 import cern.colt.list.IntArrayList;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Properties;
-import java.util.Set;
 import java.util.Arrays;
 import ucar.nc2.Attribute;
 import ucar.nc2.Variable;
@@ -24,7 +21,7 @@ import ucar.nc2.dataset.VariableEnhanced;
 import ucar.nc2.dt.ugrid.geom.LatLonPoint2D;
 import ucar.nc2.dt.ugrid.geom.LatLonPolygon2D;
 import ucar.nc2.dt.ugrid.geom.LatLonRectangle2D;
-import ucar.nc2.dt.ugrid.rtree.RTree;
+import ucar.nc2.dt.ugrid.rtree.PackedRTree;
 import ucar.unidata.geoloc.LatLonPoint;
 import ucar.unidata.geoloc.LatLonPointImpl;
 import ucar.unidata.geoloc.LatLonRect;
@@ -41,10 +38,16 @@ public class Mesh {
   private static final String NODE_COORDINATES = "node_coordinates";
   private static final String FACE_COORDINATES = "face_coordinates";
   private static final String FACE_NODE_CONNECTIVITY = "face_node_connectivity";
+  private static final MeshArrays EMPTY = new MeshArrays(1, new int[0], new double[0], new double[0], null, null);
+
+  // polygons further than this from a point are not found by getCellFromLatLon
+  private static final double SEARCH_RADIUS = 0.5;
 
   private String name;
-  private RTree rtree;
-  private List<Cell> cells = new ArrayList<Cell>();
+  private String location;
+  private volatile PackedRTree index;
+  // the faces, nodes and their coordinates; Cells are made from these when asked for
+  private MeshArrays arrays = EMPTY;
   // A Mesh should only have one connectivity array!
   private Topology topology = new Topology();
   private List<CoordinateSystem> coordinate_systems = new ArrayList<CoordinateSystem>();
@@ -53,11 +56,7 @@ public class Mesh {
 
   public Mesh(NetcdfDataset ds, VariableEnhanced v) {
     name = v.getFullName();
-
-    Properties props = new Properties();
-    props.setProperty("MaxNodeEntries", "30");
-    props.setProperty("MinNodeEntries", "15");
-    rtree = new RTree(props);
+    location = ds.getLocation();
 
     processTopologyVariable(ds, v);
   }
@@ -118,13 +117,27 @@ public class Mesh {
         }
       }
     }
-    cells = topology.createCells(locations, coordinate_systems);
+    MeshArrays read = topology.createMeshArrays(locations, coordinate_systems);
+    if (read != null) {
+      arrays = read;
+    }
+  }
+
+  /**
+   * Makes the spatial index of the faces, if it is not made yet. The index is read from the {@link MeshIndexCache} if
+   * it was written there before, else it is built in one pass over the face bounding boxes.
+   */
+  public synchronized void buildRTree() {
+    if (index == null) {
+      index = MeshIndexCache.getIndex(location, name, arrays);
+    }
   }
 
-  public void buildRTree() {
-    for (int i = 0; i < cells.size(); i++) {
-      rtree.add(cells.get(i).getPolygon(), i);
+  private PackedRTree getIndex() {
+    if (index == null) {
+      buildRTree();
     }
+    return index;
   }
 
   public String getName() {
@@ -132,146 +145,178 @@ public class Mesh {
   }
 
   public int getSize() {
-    return cells.size();
+    return arrays.getFaceCount();
   }
 
   public int getTreeSize() {
-    return rtree.size();
+    PackedRTree made = index;
+    return made == null ? 0 : made.size();
+  }
+
+  /**
+   * @return the faces, nodes and their coordinates as primitive arrays
+   */
+  public MeshArrays getMeshArrays() {
+    return arrays;
   }
 
   public int getNodeSize() {
-    int i = 0;
-    for (Cell c : cells) {
-      if (c.hasNodes()) {
-        i += c.getNodes().size();
-      }
-    }
-    return i;
+    return arrays.getNodeRefCount();
   }
 
   public double[][] getNodeLatLons() {
-    double[][] ll = new double[this.getUniqueNodeSize()][2];
-    double[] d = new double[2];
-    for (Node n : getUniqueNodes()) {
-      d[0] = n.getGeoPoint().getLatitude();
-      d[1] = n.getGeoPoint().getLongitude();
-      ll[ll.length - 1] = d;
+    double[][] ll = new double[this.getUniqueNodeSize()][];
+    boolean[] used = arrays.getUsedNodes();
+    int count = 0;
+    for (int i = 0; i < used.length; i++) {
+      if (used[i]) {
+        ll[count++] = new double[] {arrays.getNodeLat(i), arrays.getNodeLon(i)};
+      }
     }
     return ll;
   }
 
   public int[] getNodeIndexes() {
     int[] in = new int[this.getUniqueNodeSize()];
-    for (Node n : getUniqueNodes()) {
-      in[in.length - 1] = n.getDataIndex();
+    boolean[] used = arrays.getUsedNodes();
+    int count = 0;
+    for (int i = 0; i < used.length; i++) {
+      if (used[i]) {
+        in[count++] = i;
+      }
     }
     return in;
   }
 
   public ArrayList<Node> getUniqueNodes() {
-    ArrayList<Node> ents = new ArrayList<Node>();
-    for (Cell c : cells) {
-      if (c.hasNodes()) {
-        ents.addAll(c.getNodes());
-      }
+    ArrayList<Node> unique = new ArrayList<Node>(this.getUniqueNodeSize());
+    for (int i : getNodeIndexes()) {
+      unique.add(arrays.makeNode(i));
     }
-    Set set = new HashSet(ents);
-    ArrayList unique = new ArrayList(set);
     return unique;
   }
 
   public int getUniqueNodeSize() {
-    return getUniqueNodes().size();
+    return arrays.getUsedNodeCount();
   }
 
   public ArrayList<Edge> getUniqueEdges() {
-    ArrayList<Edge> ents = new ArrayList<Edge>();
-    for (Cell c : cells) {
-      if (c.hasEdges()) {
-        ents.addAll(c.getEdges());
-      }
-    }
-    Set set = new HashSet(ents);
-    ArrayList unique = new ArrayList(set);
-    return unique;
+    // TODO: Support edge coordinates
+    return new ArrayList<Edge>();
   }
 
   public int getEdgeSize() {
-    int i = 0;
-    for (Cell c : cells) {
-      if (c.hasEdges()) {
-        i += c.getEdges().size();
-      }
-    }
-    return i;
+    return 0;
   }
 
   public ArrayList<Face> getUniqueFaces() {
-    ArrayList<Face> ents = new ArrayList<Face>();
-    for (Cell c : cells) {
-      if (c.hasFaces()) {
-        ents.addAll(c.getFaces());
-      }
+    ArrayList<Face> unique = new ArrayList<Face>(this.getFaceSize());
+    for (int i = 0; i < this.getFaceSize(); i++) {
+      unique.add(arrays.makeFace(i));
     }
-    Set set = new HashSet(ents);
-    ArrayList unique = new ArrayList(set);
     return unique;
   }
 
   public int getFaceSize() {
-    int i = 0;
-    for (Cell c : cells) {
-      if (c.hasFaces()) {
-        i += c.getFaces().size();
-      }
-    }
-    return i;
+    return arrays.hasFaceCoordinates() ? arrays.getFaceCount() : 0;
   }
 
   public LatLonRect getLatLonBoundingBox() {
-    LatLonRectangle2D bounds = rtree.getBounds();
-    return new LatLonRect((LatLonPoint) new LatLonPointImpl(bounds.getLatMin(), bounds.getLonMin()),
-        (LatLonPoint) new LatLonPointImpl(bounds.getLatMax(), bounds.getLonMax()));
+    double[] bounds = arrays.getBounds();
+    if (bounds == null) {
+      return null;
+    }
+    return new LatLonRect((LatLonPoint) new LatLonPointImpl(bounds[0], bounds[1]),
+        (LatLonPoint) new LatLonPointImpl(bounds[2], bounds[3]));
   }
 
   public Cell getCellFromLatLon(double lat, double lon) {
     LatLonPoint2D p = new LatLonPoint2D.Double(lat, lon);
-    return cells.get(rtree.nearest(p));
+    return getCellFromLatLon(p);
   }
 
-  public Cell getCellFromLatLon(LatLonPoint2D p) {
-    return cells.get(rtree.nearest(p));
+  /**
+   * @return the cell whose polygon is nearest to the point, the one with the nearest centroid if several are as near,
+   *         or null if none is within 0.5 degrees
+   */
+  public Cell getCellFromLatLon(final LatLonPoint2D p) {
+    IntArrayList nearest = getIndex().nearest(p.getLatitude(), p.getLongitude(), SEARCH_RADIUS,
+        face -> arrays.makePolygon(face).distance(p));
+    if (nearest.isEmpty()) {
+      return null;
+    }
+    int closest = nearest.get(0);
+    if (nearest.size() > 1) {
+      double distanceSq = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < nearest.size(); i++) {
+        double d = arrays.makePolygon(nearest.get(i)).getCentroid().distanceSq(p);
+        if (d < distanceSq) {
+          distanceSq = d;
+          closest = nearest.get(i);
+        }
+      }
+    }
+    return arrays.makeCell(closest);
+  }
+
+  /**
+   * @return the face indexes of the polygons that intersect p, in increasing order
+   */
+  public IntArrayList getFacesInPolygon(LatLonPolygon2D p) {
+    IntArrayList faces = new IntArrayList();
+    if (p.getVertexCount() == 0) {
+      return faces;
+    }
+    double[] bounds = p.getBoundingLatLonValues();
+    IntArrayList candidates = getIndex().search(bounds[0], bounds[1], bounds[2], bounds[3]);
+    for (int i = 0; i < candidates.size(); i++) {
+      int face = candidates.get(i);
+      if (p.intersects(arrays.makePolygon(face))) {
+        faces.add(face);
+      }
+    }
+    return faces;
   }
 
   public ArrayList<Cell> getCellsInPolygon(LatLonPolygon2D p) {
-    IntArrayList polys = rtree.intersects(p);
-    ArrayList<Cell> containedCells = new ArrayList<Cell>(polys.size());
-    for (int i : polys.elements()) {
-      containedCells.add(this.cells.get(i));
+    IntArrayList faces = getFacesInPolygon(p);
+    ArrayList<Cell> containedCells = new ArrayList<Cell>(faces.size());
+    for (int i = 0; i < faces.size(); i++) {
+      containedCells.add(arrays.makeCell(faces.get(i)));
     }
     return containedCells;
   }
 
+  /**
+   * @return a Cell for each face, made when it is read
+   */
   public List<Cell> getCells() {
-    return cells;
+    return arrays.getCells();
   }
 
   public List<Cell> getPolygons() {
-    return cells;
+    return arrays.getCells();
   }
 
   public Topology getTopology() {
     return topology;
   }
 
-  public Mesh subset(LatLonRect bounds) {
+  /**
+   * Finds the faces that intersect a box, and the nodes they use.
+   *
+   * @param bounds the box
+   * @return the faces and nodes, renumbered
+   */
+  public MeshSubset subset(LatLonRect bounds) {
     LatLonRectangle2D r = new LatLonRectangle2D(
         new LatLonPoint2D.Double(bounds.getUpperLeftPoint().getLatitude(), bounds.getUpperLeftPoint().getLongitude()),
         new LatLonPoint2D.Double(bounds.getLowerRightPoint().getLatitude(),
             bounds.getLowerRightPoint().getLongitude()));
     LatLonPolygon2D p = new LatLonPolygon2D.Double(r);
-    ArrayList<Cell> containedCells = this.getCellsInPolygon(p);
-    return null;
+    IntArrayList faces = this.getFacesInPolygon(p);
+    faces.trimToSize();
+    return MeshSubset.of(arrays, faces.elements());
   }
 
   @Override
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2011-2022 University Corporation for Atmospheric Research/Unidata and Applied Science Associates
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.concurrent.Immutable;
+import ucar.nc2.dt.ugrid.geom.LatLonPoint2D;
+import ucar.nc2.dt.ugrid.geom.LatLonPolygon2D;
+import ucar.nc2.dt.ugrid.rtree.PackedRTree;
+
+/**
+ * The geometry of a mesh as primitive arrays: the nodes of each face, the node and face coordinates and the bounding
+ * box of each face. {@link Cell}, {@link Node} and {@link Face} objects are only made when a caller asks for them.
+ *
+ * Immutable once made.
+ */
+@Immutable
+public class MeshArrays {
+
+  /** Marks the unused slots of a face with fewer nodes than the widest one. */
+  public static final int NO_NODE = -1;
+
+  private final int faceCount;
+  private final int nodesPerFace;
+  private final int[] faceNodes; // nodesPerFace zero based node indexes for each face, padded with NO_NODE
+  private final double[] nodeLats;
+  private final double[] nodeLons;
+  private final double[] faceLats; // null if the mesh has no face coordinates
+  private final double[] faceLons;
+  private final double[] faceBounds; // south, west, north, east for each face, as LatLonPolygon2D computes them
+  private final int usedNodeCount;
+  private final int nodeRefCount;
+
+  /**
+   * Makes the arrays of a mesh. The arrays are used as they are, not copied.
+   *
+   * @param nodesPerFace the most nodes of any face
+   * @param faceNodes the zero based node indexes of each face, face by face, padded with {@link #NO_NODE}
+   * @param nodeLats latitude of each node
+   * @param nodeLons longitude of each node
+   * @param faceLats latitude of each face, or null
+   * @param faceLons longitude of each face, or null
+   */
+  public MeshArrays(int nodesPerFace, int[] faceNodes, double[] nodeLats, double[] nodeLons, double[] faceLats,
+      double[] faceLons) {
+    if (nodesPerFace <= 0 || faceNodes.length % nodesPerFace != 0)
+      throw new IllegalArgumentException("Connectivity length " + faceNodes.length + " is not a multiple of "
+          + nodesPerFace + " nodes per face");
+    if (nodeLats.length != nodeLons.length)
+      throw new IllegalArgumentException("Node latitudes and longitudes differ in length");
+    this.nodesPerFace = nodesPerFace;
+    this.faceCount = faceNodes.length / nodesPerFace;
+    if (faceLats != null && (faceLats.length != faceCount || faceLons == null || faceLons.length != faceCount))
+      throw new IllegalArgumentException("Face coordinates do not match " + faceCount + " faces");
+
+    this.faceNodes = faceNodes;
+    this.nodeLats = nodeLats;
+    this.nodeLons = nodeLons;
+    this.faceLats = faceLats;
+    this.faceLons = faceLons;
+
+    boolean[] used = new boolean[nodeLats.length];
+    int used_count = 0;
+    int ref_count = 0;
+    for (int i = 0; i < faceNodes.length; i++) {
+      int node = faceNodes[i];
+      if (node == NO_NODE)
+        continue;
+      if (node < 0 || node >= nodeLats.length)
+        throw new IllegalArgumentException("Face " + (i / nodesPerFace) + " refers to node " + node + " of "
+            + nodeLats.length);
+      ref_count++;
+      if (!used[node]) {
+        used[node] = true;
+        used_count++;
+      }
+    }
+    this.usedNodeCount = used_count;
+    this.nodeRefCount = ref_count;
+
+    this.faceBounds = new double[4 * faceCount];
+    for (int f = 0; f < faceCount; f++) {
+      computeBounds(f);
+    }
+  }
+
+  // follows LatLonPolygon2D.Double.lineTo, so that the boxes are the ones of the polygons
+  private void computeBounds(int face) {
+    double south = Double.NaN, west = Double.NaN, north = Double.NaN, east = Double.NaN;
+    boolean crossesDateline = false;
+    double lastLat = Double.NaN, lastLon = Double.NaN;
+    boolean first = true;
+    for (int k = 0; k < nodesPerFace; k++) {
+      int node = faceNodes[face * nodesPerFace + k];
+      if (node == NO_NODE)
+        continue;
+      double lat = nodeLats[node];
+      double lon = nodeLons[node];
+      if (Double.isNaN(lat) || Double.isNaN(lon))
+        continue;
+      if (first) {
+        south = north = lat;
+        west = east = lon;
+        first = false;
+      } else if (lat != lastLat || lon != lastLon) {
+        if ((lastLon > 90 & lon < 0) || (lastLon < -90 & lon > 0) || (lon > 90 & lastLon < 0)
+            || (lon < -90 & lastLon > 0)) {
+          crossesDateline = true;
+        }
+        if (crossesDateline) {
+          double lon360 = LatLonPoint2D.normLon360(lon);
+          west = LatLonPoint2D.normLon(Math.min(LatLonPoint2D.normLon360(west), lon360));
+          east = LatLonPoint2D.normLon(Math.max(LatLonPoint2D.normLon360(east), lon360));
+        } else {
+          west = Math.min(west, lon);
+          east = Math.max(east, lon);
+        }
+        north = Math.max(north, lat);
+        south = Math.min(south, lat);
+      }
+      lastLat = lat;
+      lastLon = lon;
+    }
+    faceBounds[4 * face] = south;
+    faceBounds[4 * face + 1] = west;
+    faceBounds[4 * face + 2] = north;
+    faceBounds[4 * face + 3] = east;
+  }
+
+  public int getFaceCount() {
+    return faceCount;
+  }
+
+  public int getNodeCount() {
+    return nodeLats.length;
+  }
+
+  /** @return the number of nodes used by at least one face */
+  public int getUsedNodeCount() {
+    return usedNodeCount;
+  }
+
+  /** @return the number of nodes of all faces, counting shared nodes once for each face */
+  public int getNodeRefCount() {
+    return nodeRefCount;
+  }
+
+  public int getNodesPerFace() {
+    return nodesPerFace;
+  }
+
+  /** @return the zero based index of the k-th node of a face, or {@link #NO_NODE} */
+  public int getFaceNode(int face, int k) {
+    return faceNodes[face * nodesPerFace + k];
+  }
+
+  public double getNodeLat(int node) {
+    return nodeLats[node];
+  }
+
+  public double getNodeLon(int node) {
+    return nodeLons[node];
+  }
+
+  public boolean hasFaceCoordinates() {
+    return faceLats != null;
+  }
+
+  public double getFaceLat(int face) {
+    return faceLats[face];
+  }
+
+  public double getFaceLon(int face) {
+    return faceLons[face];
+  }
+
+  /** @return south, west, north, east of the face, NaN if it has no nodes */
+  public double[] getFaceBounds(int face) {
+    double[] bounds = new double[4];
+    System.arraycopy(faceBounds, 4 * face, bounds, 0, 4);
+    return bounds;
+  }
+
+  /** @return for each node, whether it is used by at least one face */
+  public boolean[] getUsedNodes() {
+    boolean[] used = new boolean[nodeLats.length];
+    for (int node : faceNodes) {
+      if (node != NO_NODE)
+        used[node] = true;
+    }
+    return used;
+  }
+
+  /**
+   * @return south, west, north, east of all faces, or null if there are none. Longitudes are the smallest and largest
+   *         of any face, faces across the dateline are not joined up.
+   */
+  public double[] getBounds() {
+    double south = Double.MAX_VALUE, west = Double.MAX_VALUE, north = -Double.MAX_VALUE, east = -Double.MAX_VALUE;
+    for (int f = 0; f < faceCount; f++) {
+      if (Double.isNaN(faceBounds[4 * f]))
+        continue;
+      south = Math.min(south, faceBounds[4 * f]);
+      west = Math.min(west, faceBounds[4 * f + 1]);
+      north = Math.max(north, faceBounds[4 * f + 2]);
+      east = Math.max(east, faceBounds[4 * f + 3]);
+    }
+    return south > north ? null : new double[] {south, west, north, east};
+  }
+
+  /**
+   * Builds a spatial index of the faces by their bounding boxes. Faces without nodes are left out.
+   *
+   * @param nodeSize the most children of a node of the tree
+   */
+  public PackedRTree buildIndex(int nodeSize) {
+    return PackedRTree.build(faceBounds, nodeSize);
+  }
+
+  /**
+   * @return a hash of the face bounding boxes, which changes when an index built from them would
+   */
+  public long getBoundsSignature() {
+    long hash = faceCount;
+    for (double bound : faceBounds) {
+      hash = 31 * hash + Double.doubleToLongBits(bound);
+    }
+    return hash;
+  }
+
+  /** Makes the polygon of a face from its nodes. */
+  public LatLonPolygon2D makePolygon(int face) {
+    LatLonPolygon2D polygon = new LatLonPolygon2D.Double();
+    for (int k = 0; k < nodesPerFace; k++) {
+      int node = getFaceNode(face, k);
+      if (node != NO_NODE)
+        polygon.lineTo(nodeLats[node], nodeLons[node]);
+    }
+    return polygon;
+  }
+
+  public Node makeNode(int node) {
+    Node n = new Node();
+    n.setDataIndex(node);
+    n.setGeoPoint(new LatLonPoint2D.Double(nodeLats[node], nodeLons[node]));
+    return n;
+  }
+
+  /** @return the Face at the coordinates of a face, or null if the mesh has no face coordinates */
+  public Face makeFace(int face) {
+    if (faceLats == null)
+      return null;
+    Face f = new Face();
+    f.setDataIndex(face);
+    f.setGeoPoint(new LatLonPoint2D.Double(faceLats[face], faceLons[face]));
+    return f;
+  }
+
+  /** Makes a Cell for a face, with its own Node and Face objects. */
+  public Cell makeCell(int face) {
+    Cell cell = new Cell();
+    if (faceLats != null) {
+      ArrayList<Face> faces = new ArrayList<Face>(1);
+      faces.add(makeFace(face));
+      cell.setFaces(faces);
+    }
+    ArrayList<Node> nodes = new ArrayList<Node>(nodesPerFace);
+    for (int k = 0; k < nodesPerFace; k++) {
+      int node = getFaceNode(face, k);
+      if (node != NO_NODE)
+        nodes.add(makeNode(node));
+    }
+    cell.setNodes(nodes);
+    cell.setConnectivityIndex(face);
+    return cell;
+  }
+
+  /** @return a list that makes the Cell of a face each time it is read */
+  public List<Cell> getCells() {
+    return new AbstractList<Cell>() {
+      @Override
+      public Cell get(int index) {
+        if (index < 0 || index >= faceCount)
+          throw new IndexOutOfBoundsException("Face " + index + " of " + faceCount);
+        return makeCell(index);
+      }
+
+      @Override
+      public int size() {
+        return faceCount;
+      }
+    };
+  }
+}
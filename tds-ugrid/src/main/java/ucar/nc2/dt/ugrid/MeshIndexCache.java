@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2022 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ucar.nc2.dt.ugrid.rtree.PackedRTree;
+
+/**
+ * Keeps the spatial indexes of meshes between opens. When a directory is set, the index of a mesh is written there the
+ * first time the mesh is indexed, and memory mapped when the same mesh is opened again. Otherwise indexes are only
+ * kept in memory.
+ */
+@ThreadSafe
+public class MeshIndexCache {
+  private static final Logger logger = LoggerFactory.getLogger(MeshIndexCache.class);
+
+  private static volatile Path directory;
+
+  private MeshIndexCache() {}
+
+  /**
+   * Set the directory for index files, or null to not write them.
+   */
+  public static void setDirectory(@Nullable Path dir) {
+    directory = dir;
+  }
+
+  @Nullable
+  public static Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Gets the index of a mesh, from its file if there is one made from the same faces, else by building it.
+   *
+   * @param location the location of the dataset, or null if it is not in a file
+   * @param meshName the name of the mesh variable
+   * @param arrays the faces of the mesh
+   * @return the index, whose items are face indexes
+   */
+  static PackedRTree getIndex(@Nullable String location, String meshName, MeshArrays arrays) {
+    Path file = getIndexFile(location, meshName);
+    long signature = arrays.getBoundsSignature();
+    if (file != null) {
+      try {
+        PackedRTree index = PackedRTree.read(file, signature);
+        if (index != null) {
+          logger.debug("Mapped index of {} faces from {}", index.size(), file);
+          return index;
+        }
+      } catch (IOException e) {
+        logger.warn("Cannot read mesh index {}", file, e);
+      }
+    }
+
+    PackedRTree index = arrays.buildIndex(PackedRTree.DEFAULT_NODE_SIZE);
+    if (file != null) {
+      try {
+        index.write(file, signature);
+      } catch (IOException e) {
+        logger.warn("Cannot write mesh index {}", file, e);
+      }
+    }
+    return index;
+  }
+
+  @Nullable
+  static Path getIndexFile(@Nullable String location, String meshName) {
+    Path dir = directory;
+    if (dir == null || location == null || location.isEmpty()) {
+      return null;
+    }
+    String key = location + "#" + meshName;
+    String name = key.replaceAll("[^A-Za-z0-9._-]", "_");
+    if (name.length() > 150) {
+      name = name.substring(name.length() - 150);
+    }
+    // names that only differ in the replaced characters still get their own file
+    return dir.resolve(name + "-" + Integer.toHexString(key.hashCode()) + ".rtree");
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2022 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The faces of a mesh in a region, the nodes they use, and their connectivity renumbered to count only those nodes.
+ * Faces and nodes keep their order in the full mesh. Nothing here is proportional to the size of the full mesh.
+ */
+@Immutable
+public class MeshSubset {
+
+  private final int nodesPerFace;
+  private final int[] faces; // face index in the full mesh of each face of the subset
+  private final int[] nodes; // node index in the full mesh of each node of the subset, increasing
+  private final int[] connectivity; // nodesPerFace subset node indexes for each face, padded with NO_NODE
+
+  private MeshSubset(int nodesPerFace, int[] faces, int[] nodes, int[] connectivity) {
+    this.nodesPerFace = nodesPerFace;
+    this.faces = faces;
+    this.nodes = nodes;
+    this.connectivity = connectivity;
+  }
+
+  /**
+   * Makes the subset of some faces.
+   *
+   * @param arrays the full mesh
+   * @param faces face indexes in the full mesh, increasing
+   */
+  public static MeshSubset of(MeshArrays arrays, int[] faces) {
+    int nodesPerFace = arrays.getNodesPerFace();
+
+    // the nodes used, sorted and without duplicates
+    int[] used = new int[faces.length * nodesPerFace];
+    int count = 0;
+    for (int face : faces) {
+      for (int k = 0; k < nodesPerFace; k++) {
+        int node = arrays.getFaceNode(face, k);
+        if (node != MeshArrays.NO_NODE) {
+          used[count++] = node;
+        }
+      }
+    }
+    Arrays.sort(used, 0, count);
+    int unique = 0;
+    for (int i = 0; i < count; i++) {
+      if (unique == 0 || used[i] != used[unique - 1]) {
+        used[unique++] = used[i];
+      }
+    }
+    int[] nodes = Arrays.copyOf(used, unique);
+
+    // the new index of a node is its place in nodes
+    int[] connectivity = new int[faces.length * nodesPerFace];
+    for (int i = 0; i < faces.length; i++) {
+      for (int k = 0; k < nodesPerFace; k++) {
+        int node = arrays.getFaceNode(faces[i], k);
+        connectivity[i * nodesPerFace + k] =
+            node == MeshArrays.NO_NODE ? MeshArrays.NO_NODE : Arrays.binarySearch(nodes, node);
+      }
+    }
+    return new MeshSubset(nodesPerFace, faces.clone(), nodes, connectivity);
+  }
+
+  public int getFaceCount() {
+    return faces.length;
+  }
+
+  public int getNodeCount() {
+    return nodes.length;
+  }
+
+  public int getNodesPerFace() {
+    return nodesPerFace;
+  }
+
+  /** @return the index in the full mesh of a face of the subset */
+  public int getFace(int i) {
+    return faces[i];
+  }
+
+  /** @return the index in the full mesh of a node of the subset */
+  public int getNode(int i) {
+    return nodes[i];
+  }
+
+  /** @return the index in the full mesh of each face of the subset, increasing */
+  public int[] getFaces() {
+    return faces.clone();
+  }
+
+  /** @return the index in the full mesh of each node of the subset, increasing */
+  public int[] getNodes() {
+    return nodes.clone();
+  }
+
+  /** @return the subset index of the k-th node of a face of the subset, or {@link MeshArrays#NO_NODE} */
+  public int getFaceNode(int i, int k) {
+    return connectivity[i * nodesPerFace + k];
+  }
+}
@@ -15,11 +15,10 @@ import ucar.nc2.dt.ugrid.topology.Topology;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
 import ucar.ma2.IndexIterator;
@@ -37,8 +36,6 @@ import ucar.nc2.dataset.VariableDS;
 import ucar.nc2.dt.UGridDataset.Meshset;
 import ucar.nc2.dt.UGridDatatype;
 import ucar.nc2.dt.ugrid.geom.LatLonPoint2D;
-import ucar.nc2.dt.ugrid.geom.LatLonPolygon2D;
-import ucar.nc2.dt.ugrid.geom.LatLonRectangle2D;
 import ucar.nc2.dt.ugrid.utils.NcdsFactory;
 import ucar.nc2.dt.ugrid.utils.NcdsFactory.NcdsTemplate;
 import ucar.unidata.geoloc.LatLonPoint;
@@ -54,6 +51,11 @@ public class MeshVariable implements UGridDatatype {
 
   private static final Logger logger = LoggerFactory.getLogger(MeshVariable.class);
 
+  // entities this close together are read in one range, rather than seeking between them
+  static final int MAX_READ_GAP = 256;
+  // but a range is no longer than this, and has no more entities that are not wanted than ones that are
+  static final int MAX_READ_SPAN = 65536;
+
   private VariableDS vs;
   private UGridDataset dataset;
   private Meshset meshset;
@@ -281,31 +283,20 @@ public class MeshVariable implements UGridDatatype {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
-  public void subsetToDataset(UGridDataset ugd, NetcdfDataset ncd, List<Cell> containedCells) {
+  public void subsetToDataset(UGridDataset ugd, NetcdfDataset ncd, MeshSubset subset) {
 
-    // Get unique node indexes, so we know how large the Node array is going to be.
-    List<Entity> list = new ArrayList<Entity>();
+    // The indexes of the entities in the subset, increasing, so we know how large the arrays are going to be.
+    MeshArrays arrays = meshset.getMesh().getMeshArrays();
+    boolean onFaces = cellLocation.equals("face");
+    int[] indexes;
     if (cellLocation.equals("node")) {
-      for (Cell c : containedCells) {
-        for (Node n : c.getNodes()) {
-          list.add(n);
-        }
-      }
-    } else if (cellLocation.equals("face")) {
-      for (Cell c : containedCells) {
-        for (Face n : c.getFaces()) {
-          list.add(n);
-        }
-      }
-    } else if (cellLocation.equals("edge")) {
-      for (Cell c : containedCells) {
-        for (Edge n : c.getEdges()) {
-          list.add(n);
-        }
-      }
+      indexes = subset.getNodes();
+    } else if (onFaces) {
+      indexes = subset.getFaces();
+    } else {
+      logger.warn("Cannot subset {} on location {}", vs.getFullName(), cellLocation);
+      return;
     }
-    Set set = new HashSet(list);
-    ArrayList<Entity> unique_entities = new ArrayList<Entity>(set);
 
     /*
      * Add all coordinate axis that this MeshVariable uses (ie. lat, lon, depth, time)
@@ -391,13 +382,11 @@ public class MeshVariable implements UGridDatatype {
           CoordinateAxis latAxis = cs.getLatAxis();
           Dimension node_dim = ncd.findDimension(latAxis.getDimension(0).getFullName());
           if (node_dim == null) {
-            node_dim =
-                ncd.addDimension(null, new Dimension(latAxis.getDimension(0).getFullName(), unique_entities.size()));
+            node_dim = ncd.addDimension(null, new Dimension(latAxis.getDimension(0).getFullName(), indexes.length));
           }
           data_index = vs.findDimensionIndex(node_dim.getFullName());
           ncd.finish();
 
-          int count;
           // Lat
           Variable newLat = ncd.findVariable(latAxis.getFullNameEscaped());
           if (newLat == null) {
@@ -411,10 +400,8 @@ public class MeshVariable implements UGridDatatype {
             ncd.addVariable(null, newLat);
             ncd.addCoordinateAxis(new VariableDS(null, newLat, true));
             Array lats = Array.factory(latAxis.getOriginalDataType(), newLat.getShape());
-            count = 0;
-            for (Entity k : unique_entities) {
-              lats.setObject(count, k.getGeoPoint().getLatitude());
-              count++;
+            for (int i = 0; i < indexes.length; i++) {
+              lats.setDouble(i, getLatitude(arrays, onFaces, indexes[i]));
             }
             newLat.setCachedData(lats);
           }
@@ -434,10 +421,8 @@ public class MeshVariable implements UGridDatatype {
             ncd.addVariable(null, newLon);
             ncd.addCoordinateAxis(new VariableDS(null, newLon, true));
             Array lons = Array.factory(lonAxis.getOriginalDataType(), newLon.getShape());
-            count = 0;
-            for (Entity k : unique_entities) {
-              lons.setObject(count, k.getGeoPoint().getLongitude());
-              count++;
+            for (int i = 0; i < indexes.length; i++) {
+              lons.setDouble(i, getLongitude(arrays, onFaces, indexes[i]));
             }
             newLon.setCachedData(lons);
             ncd.finish();
@@ -448,62 +433,130 @@ public class MeshVariable implements UGridDatatype {
 
       /*
        * Now add this actual MeshVariable, now that the file has
-       * been set up with the correct Dimensions.
-       * TODO: Subset this variable.
-       * 
-       * Options:
-       * 1.) Iterate over the containedCells.get(i).getNodes().get(j).getDataIndex()
-       * and slice out each data index from this variable into a new variable.
-       * Update the topology with the new data index.
-       * 2.) Get the min and max data indexes from the topology and only
-       * reindex that section of the data variables. Don't have to take
-       * individual slices from the data variable doing it this way, but
-       * still need to reindex the topology.
-       * 3.) Set the unused data indexes to its FillValue
+       * been set up with the correct Dimensions, with only the
+       * values of the entities in the subset.
        */
-
       Variable newVar = ncd.findVariable(vs.getFullNameEscaped());
       if (newVar == null) {
-        newVar = new VariableDS(ugd.getNetcdfDataset(), null, null, vs.getShortName(), vs.getOriginalDataType(),
+        newVar = new VariableDS(ugd.getNetcdfDataset(), null, null, vs.getShortName(), vs.getDataType(),
             vs.getDimensionsString(), vs.getUnitsString(), vs.getDescription());
         for (Attribute a : (List<Attribute>) vs.getAttributes()) {
           newVar.addAttribute(a);
         }
+        // the values are read already scaled
+        if (vs.getDataType() != vs.getOriginalDataType()) {
+          newVar.removeAttributeIgnoreCase("scale_factor");
+          newVar.removeAttributeIgnoreCase("add_offset");
+        }
         ncd.addVariable(null, newVar);
         ncd.finish();
       }
 
-      ArrayList<Range> r = new ArrayList<Range>();
-      // Time
-      if (time_index != -1) {
-        r.add(time_index, new Range(time_length));
-      }
-      // Vertical
-      if (z_index != -1) {
-        r.add(z_index, new Range(z_length));
-      }
-      // Data
-      // System.out.println(newVar);
       if (data_index != -1) {
-        r.add(data_index, new Range(0, 10));
+        newVar.setCachedData(readEntities(indexes, data_index));
+      } else {
+        newVar.setCachedData(vs.read());
       }
-      newVar.setCachedData(vs.read(r));
       ncd.finish();
 
-    } catch (IOException ioe) {
+    } catch (IOException | InvalidRangeException e) {
+      logger.error("Error subsetting {}", vs.getFullName(), e);
+    }
+  }
+
+  private static double getLatitude(MeshArrays arrays, boolean onFaces, int index) {
+    if (onFaces) {
+      return arrays.hasFaceCoordinates() ? arrays.getFaceLat(index) : Double.NaN;
+    }
+    return arrays.getNodeLat(index);
+  }
 
-    } catch (InvalidRangeException ivre) {
+  private static double getLongitude(MeshArrays arrays, boolean onFaces, int index) {
+    if (onFaces) {
+      return arrays.hasFaceCoordinates() ? arrays.getFaceLon(index) : Double.NaN;
+    }
+    return arrays.getNodeLon(index);
+  }
+
+  /**
+   * Splits entity indexes into runs, each read as one range. A run takes the next index while it is within
+   * MAX_READ_GAP of the last one, the range stays within MAX_READ_SPAN, and at least half of the range is wanted.
+   * So a sparse but evenly spread subset is not read as the whole dimension.
+   *
+   * @param indexes the entity indexes, increasing
+   * @return the position in indexes where each run starts, followed by indexes.length
+   */
+  static int[] splitRuns(int[] indexes) {
+    int[] bounds = new int[indexes.length + 1];
+    int nruns = 0;
+    int start = 0;
+    while (start < indexes.length) {
+      bounds[nruns++] = start;
+      int end = start + 1;
+      while (end < indexes.length && indexes[end] - indexes[end - 1] <= MAX_READ_GAP) {
+        int span = indexes[end] - indexes[start] + 1;
+        int wanted = end - start + 1;
+        if (span > MAX_READ_SPAN || span - wanted > wanted) {
+          break;
+        }
+        end++;
+      }
+      start = end;
+    }
+    bounds[nruns++] = indexes.length;
+    return Arrays.copyOf(bounds, nruns);
+  }
+
+  /**
+   * Reads the values at some entities, all of the other dimensions. Indexes that are close together are read as one
+   * range, so a compact region costs a few reads and not one read per entity.
+   *
+   * @param indexes the entity indexes, increasing
+   * @param dim the entity dimension of the variable
+   * @return the values, with the entity dimension the length of indexes
+   */
+  Array readEntities(int[] indexes, int dim) throws IOException, InvalidRangeException {
+    int[] shape = vs.getShape();
+    int[] subsetShape = shape.clone();
+    subsetShape[dim] = indexes.length;
+    Array result = Array.factory(vs.getDataType(), subsetShape);
+    if (result.getSize() == 0) {
+      return result;
+    }
 
+    int outer = 1;
+    for (int i = 0; i < dim; i++) {
+      outer *= shape[i];
+    }
+    int inner = 1;
+    for (int i = dim + 1; i < shape.length; i++) {
+      inner *= shape[i];
     }
+
+    List<Range> ranges = new ArrayList<Range>();
+    for (int length : shape) {
+      ranges.add(new Range(length));
+    }
+    int[] runs = splitRuns(indexes);
+    for (int r = 0; r + 1 < runs.length; r++) {
+      int start = runs[r];
+      int end = runs[r + 1];
+      int first = indexes[start];
+      int runLength = indexes[end - 1] - first + 1;
+      ranges.set(dim, new Range(first, indexes[end - 1]));
+      Array run = vs.read(ranges);
+      for (int o = 0; o < outer; o++) {
+        for (int i = start; i < end; i++) {
+          Array.arraycopy(run, (o * runLength + indexes[i] - first) * inner, result, (o * indexes.length + i) * inner,
+              inner);
+        }
+      }
+    }
+    return result;
   }
 
   public UGridDataset subsetToSelf(LatLonRect bounds) {
-    LatLonRectangle2D r = new LatLonRectangle2D(
-        new LatLonPoint2D.Double(bounds.getUpperLeftPoint().getLatitude(), bounds.getUpperLeftPoint().getLongitude()),
-        new LatLonPoint2D.Double(bounds.getLowerRightPoint().getLatitude(),
-            bounds.getLowerRightPoint().getLongitude()));
-    LatLonPolygon2D p = new LatLonPolygon2D.Double(r);
-    List<Cell> containedCells = meshset.getMesh().getCellsInPolygon(p);
+    MeshSubset subset = meshset.getMesh().subset(bounds);
 
     // Create a new subsat UGridDataset and return
     NetcdfDataset ncd = null;
@@ -514,8 +567,6 @@ public class MeshVariable implements UGridDatatype {
         ncd.addAttribute(null, a);
       }
 
-      Dimension ds = new Dimension("nodes", containedCells.size());
-
       for (CoordinateSystem cs : dataset.getNetcdfDataset().getCoordinateSystems()) {
         for (Dimension d : cs.getDomain()) {
           if (ncd.findDimension(d.getFullName()) == null) {
@@ -540,9 +591,7 @@ public class MeshVariable implements UGridDatatype {
       ncd.addVariable(null, meshset.getDescriptionVariable());
 
       // Connectivity Variable for this MeshVariable
-      ncd.addVariable(null, getConnectivityVariable().subsetToVariable(containedCells));
-
-      // ncd.addVariable(null, subsetToVariable(containedCells));
+      ncd.addVariable(null, getConnectivityVariable().subsetToVariable(subset));
 
       // Now add the data
       // vs.setCachedData(null);
@@ -566,6 +615,9 @@ public class MeshVariable implements UGridDatatype {
     final LatLonPoint2D p = new LatLonPoint2D.Double(point.getLatitude(), point.getLongitude());
     Cell c = meshset.getMesh().getCellFromLatLon(p);
     double z = -1;
+    if (c == null) {
+      return z;
+    }
 
     List<? extends Entity> e;
     if (cellLocation.equals("node")) {
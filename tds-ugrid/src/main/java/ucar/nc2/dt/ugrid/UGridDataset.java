@@ -40,9 +40,6 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 
 import ucar.nc2.constants.CF;
-import ucar.nc2.dt.ugrid.geom.LatLonPoint2D;
-import ucar.nc2.dt.ugrid.geom.LatLonPolygon2D;
-import ucar.nc2.dt.ugrid.geom.LatLonRectangle2D;
 import ucar.nc2.dt.ugrid.utils.NcdsFactory;
 import ucar.nc2.dt.ugrid.utils.NcdsFactory.NcdsTemplate;
 import ucar.unidata.geoloc.ProjectionRect;
@@ -377,30 +374,24 @@ public class UGridDataset implements ucar.nc2.dt.UGridDataset, ucar.nc2.ft.Featu
           new Attribute("History", "Subset by NetCDF-Java UGRID Library; Translation date = " + new Date() + ";"));
 
       Mesh m4;
-      LatLonRectangle2D r = new LatLonRectangle2D(
-          new LatLonPoint2D.Double(bounds.getUpperLeftPoint().getLatitude(), bounds.getUpperLeftPoint().getLongitude()),
-          new LatLonPoint2D.Double(bounds.getLowerRightPoint().getLatitude(),
-              bounds.getLowerRightPoint().getLongitude()));
-      LatLonPolygon2D p = new LatLonPolygon2D.Double(r);
-      List<Cell> containedCells;
+      MeshSubset meshSubset;
       for (ucar.nc2.dt.UGridDataset.Meshset ms3 : this.getMeshsets()) {
         ncd.addVariable(null, ms3.getDescriptionVariable());
 
         m4 = ms3.getMesh();
-        m4.buildRTree();
-        containedCells = m4.getCellsInPolygon(p);
+        meshSubset = m4.subset(bounds);
 
         /*
          * Create the subsat Topology
          */
-        m4.getTopology().subsetToDataset(this, ncd, containedCells);
+        m4.getTopology().subsetToDataset(this, ncd, meshSubset);
 
         /*
          * MeshVariables which are on this Meshset
          */
         List<UGridDatatype> mvs = ms3.getMeshVariables();
         for (UGridDatatype mv : mvs) {
-          ((MeshVariable) mv).subsetToDataset(this, ncd, containedCells);
+          ((MeshVariable) mv).subsetToDataset(this, ncd, meshSubset);
         }
       }
       ncd.finish();
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2022 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid.rtree;
+
+import cern.colt.list.IntArrayList;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An R-tree built in one pass over the bounding boxes of its items, instead of by inserting them one at a time.
+ * <p>
+ * The items are sorted along a Hilbert curve through the centers of their boxes and grouped nodeSize at a time, and
+ * the groups are grouped the same way up to the root. The tree is kept in two flat buffers, the leaves first, so it
+ * can be written to a file and memory mapped when it is needed again, instead of being built again.
+ * <p>
+ * Boxes are south, west, north, east in degrees. A box whose west longitude is east of its east longitude crosses the
+ * dateline, and is kept with its east longitude past 180. Immutable once built.
+ */
+@Immutable
+public class PackedRTree {
+
+  public static final int DEFAULT_NODE_SIZE = 16;
+
+  private static final int MAGIC = 0x55525452; // "URTR"
+  private static final int VERSION = 1;
+  private static final int HILBERT_ORDER = 15; // so that Hilbert values fit in a positive int
+
+  private final int nodeSize;
+  private final int numItems;
+  private final int[] levelEnds; // end entry of each level, the leaves first and the root last
+  private final DoubleBuffer boxes; // south, west, north, east of each entry
+  private final IntBuffer ids; // the item of a leaf entry, the first child entry of a node
+
+  private PackedRTree(int nodeSize, int numItems, int[] levelEnds, DoubleBuffer boxes, IntBuffer ids) {
+    this.nodeSize = nodeSize;
+    this.numItems = numItems;
+    this.levelEnds = levelEnds;
+    this.boxes = boxes;
+    this.ids = ids;
+  }
+
+  /**
+   * Builds the tree.
+   *
+   * @param bounds south, west, north, east of each item; an item with a NaN south bound is left out
+   * @param nodeSize the most children of a node
+   * @return the tree, whose items are the indexes of the boxes in bounds
+   */
+  public static PackedRTree build(double[] bounds, int nodeSize) {
+    if (nodeSize < 2)
+      throw new IllegalArgumentException("Node size must be at least 2");
+    int count = bounds.length / 4;
+    int n = 0;
+    for (int i = 0; i < count; i++) {
+      if (!Double.isNaN(bounds[4 * i]))
+        n++;
+    }
+
+    List<Integer> ends = new ArrayList<>();
+    int numEntries = n;
+    ends.add(n);
+    for (int levelSize = n; levelSize > 1;) {
+      levelSize = (levelSize + nodeSize - 1) / nodeSize;
+      numEntries += levelSize;
+      ends.add(numEntries);
+    }
+    int[] levelEnds = new int[ends.size()];
+    for (int i = 0; i < levelEnds.length; i++)
+      levelEnds[i] = ends.get(i);
+
+    // the extent of the centers, to scale them onto the Hilbert curve
+    double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+    int[] items = new int[n];
+    int k = 0;
+    for (int i = 0; i < count; i++) {
+      if (Double.isNaN(bounds[4 * i]))
+        continue;
+      items[k++] = i;
+      double x = centerX(bounds, i);
+      double y = (bounds[4 * i] + bounds[4 * i + 2]) / 2;
+      minX = Math.min(minX, x);
+      maxX = Math.max(maxX, x);
+      minY = Math.min(minY, y);
+      maxY = Math.max(maxY, y);
+    }
+
+    int cells = (1 << HILBERT_ORDER) - 1;
+    double scaleX = maxX > minX ? cells / (maxX - minX) : 0;
+    double scaleY = maxY > minY ? cells / (maxY - minY) : 0;
+    long[] keys = new long[n];
+    for (k = 0; k < n; k++) {
+      int i = items[k];
+      int hx = (int) ((centerX(bounds, i) - minX) * scaleX);
+      int hy = (int) (((bounds[4 * i] + bounds[4 * i + 2]) / 2 - minY) * scaleY);
+      keys[k] = ((long) hilbert(hx, hy) << 32) | k;
+    }
+    Arrays.sort(keys);
+
+    double[] b = new double[4 * numEntries];
+    int[] id = new int[numEntries];
+    for (int pos = 0; pos < n; pos++) {
+      int i = items[(int) keys[pos]];
+      b[4 * pos] = bounds[4 * i];
+      b[4 * pos + 1] = bounds[4 * i + 1];
+      b[4 * pos + 2] = bounds[4 * i + 2];
+      b[4 * pos + 3] = bounds[4 * i + 3] < bounds[4 * i + 1] ? bounds[4 * i + 3] + 360 : bounds[4 * i + 3];
+      id[pos] = i;
+    }
+
+    int pos = n;
+    for (int level = 1; level < levelEnds.length; level++) {
+      int childStart = level == 1 ? 0 : levelEnds[level - 2];
+      int childEnd = levelEnds[level - 1];
+      for (int child = childStart; child < childEnd; child += nodeSize) {
+        int end = Math.min(child + nodeSize, childEnd);
+        double south = Double.POSITIVE_INFINITY, west = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY, east = Double.NEGATIVE_INFINITY;
+        for (int c = child; c < end; c++) {
+          south = Math.min(south, b[4 * c]);
+          west = Math.min(west, b[4 * c + 1]);
+          north = Math.max(north, b[4 * c + 2]);
+          east = Math.max(east, b[4 * c + 3]);
+        }
+        b[4 * pos] = south;
+        b[4 * pos + 1] = west;
+        b[4 * pos + 2] = north;
+        b[4 * pos + 3] = east;
+        id[pos] = child;
+        pos++;
+      }
+    }
+    return new PackedRTree(nodeSize, n, levelEnds, DoubleBuffer.wrap(b), IntBuffer.wrap(id));
+  }
+
+  private static double centerX(double[] bounds, int i) {
+    double west = bounds[4 * i + 1];
+    double east = bounds[4 * i + 3];
+    return (west + (east < west ? east + 360 : east)) / 2;
+  }
+
+  // the distance along a Hilbert curve through a grid of 2^HILBERT_ORDER cells on a side
+  private static int hilbert(int x, int y) {
+    int n = 1 << HILBERT_ORDER;
+    int d = 0;
+    for (int s = n / 2; s > 0; s /= 2) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += s * s * ((3 * rx) ^ ry);
+      if (ry == 0) {
+        if (rx == 1) {
+          x = n - 1 - x;
+          y = n - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+
+  /** @return the number of items */
+  public int size() {
+    return numItems;
+  }
+
+  private int root() {
+    return levelEnds[levelEnds.length - 1] - 1;
+  }
+
+  /**
+   * Finds the items whose box intersects a box.
+   *
+   * @return the items, in increasing order
+   */
+  public IntArrayList search(double south, double west, double north, double east) {
+    IntArrayList result = new IntArrayList();
+    if (numItems == 0)
+      return result;
+    if (east < west)
+      east += 360;
+    // boxes across the dateline reach past 180, so also look one turn around each way
+    for (int turn = -1; turn <= 1; turn++) {
+      search(root(), levelEnds.length - 1, south, west + 360 * turn, north, east + 360 * turn, result);
+    }
+    result.sort();
+    int n = 0;
+    for (int i = 0; i < result.size(); i++) {
+      if (n == 0 || result.getQuick(i) != result.getQuick(n - 1))
+        result.setQuick(n++, result.getQuick(i));
+    }
+    result.setSize(n);
+    return result;
+  }
+
+  private void search(int entry, int level, double south, double west, double north, double east,
+      IntArrayList result) {
+    if (boxes.get(4 * entry) > north || boxes.get(4 * entry + 2) < south || boxes.get(4 * entry + 1) > east
+        || boxes.get(4 * entry + 3) < west)
+      return;
+    if (level == 0) {
+      result.add(ids.get(entry));
+      return;
+    }
+    int first = ids.get(entry);
+    int end = Math.min(first + nodeSize, levelEnds[level - 1]);
+    for (int child = first; child < end; child++) {
+      search(child, level - 1, south, west, north, east, result);
+    }
+  }
+
+  /**
+   * Finds the items nearest to a point.
+   *
+   * @param searchRadius items further than this are not found
+   * @param distance the distance of an item from the point, not less than the distance of its box
+   * @return the items at the smallest distance, in increasing order; empty if none are within the search radius
+   */
+  public IntArrayList nearest(double lat, double lon, double searchRadius, IntToDoubleFunction distance) {
+    IntArrayList result = new IntArrayList();
+    if (numItems == 0)
+      return result;
+    double[] best = {searchRadius};
+    nearest(root(), levelEnds.length - 1, lat, lon, best, distance, result);
+    result.sort();
+    return result;
+  }
+
+  private void nearest(int entry, int level, double lat, double lon, double[] best, IntToDoubleFunction distance,
+      IntArrayList result) {
+    if (level == 0) {
+      int item = ids.get(entry);
+      double d = distance.applyAsDouble(item);
+      if (d < best[0]) {
+        best[0] = d;
+        result.clear();
+      }
+      if (d <= best[0])
+        result.add(item);
+      return;
+    }
+    if (boxDistance(entry, lat, lon) > best[0])
+      return;
+
+    // visit the nearest children first, so that the others are more often too far away
+    int first = ids.get(entry);
+    int end = Math.min(first + nodeSize, levelEnds[level - 1]);
+    int[] children = new int[end - first];
+    double[] dists = new double[end - first];
+    for (int c = 0; c < children.length; c++) {
+      double d = boxDistance(first + c, lat, lon);
+      int j = c;
+      while (j > 0 && dists[j - 1] > d) {
+        dists[j] = dists[j - 1];
+        children[j] = children[j - 1];
+        j--;
+      }
+      dists[j] = d;
+      children[j] = first + c;
+    }
+    for (int c = 0; c < children.length && dists[c] <= best[0]; c++) {
+      nearest(children[c], level - 1, lat, lon, best, distance, result);
+    }
+  }
+
+  private double boxDistance(int entry, double lat, double lon) {
+    double dy = Math.max(0, Math.max(boxes.get(4 * entry) - lat, lat - boxes.get(4 * entry + 2)));
+    double dx = Double.POSITIVE_INFINITY;
+    for (int turn = -1; turn <= 1; turn++) {
+      double x = lon + 360 * turn;
+      dx = Math.min(dx, Math.max(0, Math.max(boxes.get(4 * entry + 1) - x, x - boxes.get(4 * entry + 3))));
+    }
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  private static int headerSize(int levels) {
+    int size = 4 * 6 + 8 + 4 * levels;
+    return (size + 7) / 8 * 8;
+  }
+
+  /**
+   * Writes the tree to a file, replacing it atomically. Safe to call concurrently for the same file.
+   *
+   * @param signature describes the items; the file is only read back with the same signature
+   */
+  public void write(Path file, long signature) throws IOException {
+    int numEntries = ids.limit();
+    int headerSize = headerSize(levelEnds.length);
+    long size = headerSize + 8L * boxes.limit() + 4L * numEntries;
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("Index of " + numItems + " items is too large to map");
+
+    Files.createDirectories(file.getParent());
+    // a temporary file of its own, so that concurrent writers of the same index do not write into each other
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(signature);
+        out.putInt(nodeSize);
+        out.putInt(numItems);
+        out.putInt(numEntries);
+        out.putInt(levelEnds.length);
+        for (int end : levelEnds)
+          out.putInt(end);
+        out.position(headerSize);
+        out.asDoubleBuffer().put(boxes.duplicate());
+        out.position(headerSize + 8 * boxes.limit());
+        out.asIntBuffer().put(ids.duplicate());
+        out.force();
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp); // only if it was not moved
+    }
+  }
+
+  /**
+   * Memory maps a tree written by write().
+   *
+   * @return the tree, or null if the file does not exist or was written with another signature
+   */
+  @Nullable
+  public static PackedRTree read(Path file, long signature) throws IOException {
+    if (!Files.exists(file))
+      return null;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < headerSize(0) || size > Integer.MAX_VALUE)
+        return null;
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getLong() != signature)
+        return null;
+      int nodeSize = in.getInt();
+      int numItems = in.getInt();
+      int numEntries = in.getInt();
+      int levels = in.getInt();
+      if (nodeSize < 2 || levels < 1 || levels > 64 || numEntries < numItems
+          || size != headerSize(levels) + 36L * numEntries)
+        return null;
+      int[] levelEnds = new int[levels];
+      for (int i = 0; i < levels; i++)
+        levelEnds[i] = in.getInt();
+      if (levelEnds[0] != numItems || levelEnds[levels - 1] != numEntries)
+        return null;
+
+      int headerSize = headerSize(levels);
+      in.position(headerSize);
+      DoubleBuffer boxes = in.slice().limit(32 * numEntries).asDoubleBuffer();
+      in.position(headerSize + 32 * numEntries);
+      IntBuffer ids = in.slice().asIntBuffer();
+      return new PackedRTree(nodeSize, numItems, levelEnds, boxes, ids);
+    }
+  }
+}
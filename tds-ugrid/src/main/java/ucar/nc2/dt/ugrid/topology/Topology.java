@@ -7,9 +7,7 @@ package ucar.nc2.dt.ugrid.topology;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import ucar.ma2.*;
 import ucar.nc2.Attribute;
@@ -20,11 +18,9 @@ import ucar.nc2.dataset.CoordinateSystem;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.VariableDS;
 import ucar.nc2.dt.ugrid.Cell;
-import ucar.nc2.dt.ugrid.Edge;
-import ucar.nc2.dt.ugrid.Face;
-import ucar.nc2.dt.ugrid.Node;
+import ucar.nc2.dt.ugrid.MeshArrays;
+import ucar.nc2.dt.ugrid.MeshSubset;
 import ucar.nc2.dt.ugrid.UGridDataset;
-import ucar.nc2.dt.ugrid.geom.LatLonPoint2D;
 
 /**
  *
@@ -105,6 +101,19 @@ public class Topology {
   }
 
   public List<Cell> createCells(List<String> locations, List<CoordinateSystem> coords) {
+    MeshArrays arrays = createMeshArrays(locations, coords);
+    return arrays == null ? null : arrays.getCells();
+  }
+
+  /**
+   * Reads the connectivity and coordinates of the mesh into primitive arrays, without making an object for each
+   * cell.
+   *
+   * @param locations "node" or "face" for each coordinate system
+   * @param coords the coordinate systems of the nodes and faces
+   * @return the arrays, or null if they could not be read
+   */
+  public MeshArrays createMeshArrays(List<String> locations, List<CoordinateSystem> coords) {
     try {
       CoordinateSystem node_cs = null;
       CoordinateSystem face_cs = null;
@@ -120,90 +129,66 @@ public class Topology {
         // }
       }
 
-      List<Cell> cells = new ArrayList<Cell>();
-      Node node;
-      Face face;
-      Edge edge;
-      Cell cell;
-      int index;
-
-      Array arr = face_node_connectivity_variable.read();
-      Array arri = MAMath.convert(arr, DataType.INT);
-      int[][] conn_data = (int[][]) arri.copyToNDJavaArray();
-
       double[] face_lats = null;
       double[] face_lons = null;
-      ArrayList<Face> unique_faces = null;
       if (face_cs != null) {
         face_lats = (double[]) face_cs.getLatAxis().read().get1DJavaArray(double.class);
         face_lons = (double[]) face_cs.getLonAxis().read().get1DJavaArray(double.class);
-        unique_faces = new ArrayList<Face>(face_lats.length);
-        for (int g = 0; g < face_lats.length; g++) {
-          face = new Face();
-          face.setDataIndex(g);
-          face.setGeoPoint(new LatLonPoint2D.Double(face_lats[g], face_lons[g]));
-          unique_faces.add(face);
-        }
       }
 
       double[] node_lats = (double[]) node_cs.getLatAxis().read().get1DJavaArray(double.class);
       double[] node_lons = (double[]) node_cs.getLonAxis().read().get1DJavaArray(double.class);
-      ArrayList<Node> unique_nodes = new ArrayList<Node>(node_lats.length);
-      for (int j = 0; j < node_lats.length; j++) {
-        node = new Node();
-        node.setDataIndex(j);
-        node.setGeoPoint(new LatLonPoint2D.Double(node_lats[j], node_lons[j]));
-        unique_nodes.add(node);
-      }
 
-      ArrayList<Node> nodes = new ArrayList<Node>();
-      ArrayList<Face> faces = new ArrayList<Face>();
-      if (this.isTall()) {
-        for (int i = 0; i < conn_data.length; i++) {
-          cell = new Cell();
-          nodes.clear();
-          faces.clear();
-          for (int k = 0; k < conn_data[i].length; k++) {
-            index = conn_data[i][k] - startIndex;
-            nodes.add(unique_nodes.get(index));
-          }
-          if (!cell.hasFaces() && unique_faces != null) {
-            faces.add(unique_faces.get(i));
-            cell.setFaces(faces);
-          }
-          cell.setNodes((ArrayList<Node>) nodes.clone());
-          cell.setConnectivityIndex(i);
-          cells.add(cell);
-        }
-      } else {
-        for (int i = 0; i < conn_data[0].length; i++) {
-          cell = new Cell();
-          nodes.clear();
-          faces.clear();
-          for (int k = 0; k < conn_data.length; k++) {
-            index = conn_data[k][i] - startIndex;
-            nodes.add(unique_nodes.get(index));
-          }
-          if (!cell.hasFaces() && unique_faces != null) {
-            faces.add(unique_faces.get(i));
-            cell.setFaces(faces);
-          }
-          cell.setNodes((ArrayList<Node>) nodes.clone());
-          cell.setConnectivityIndex(i);
-          cells.add(cell);
-        }
-      }
-      return cells;
+      return new MeshArrays(getNodesPerFace(), readFaceNodes(), node_lats, node_lons, face_lats, face_lons);
     } catch (IOException e) {
       return null;
     }
   }
 
-  public void subsetToDataset(UGridDataset ugd, NetcdfDataset ncd, List<Cell> containedCells) {
+  /**
+   * @return the most nodes of any face
+   */
+  public int getNodesPerFace() {
+    return face_node_connectivity_variable.getDimension(this.isTall() ? 1 : 0).getLength();
+  }
+
+  /**
+   * Reads the connectivity face by face, with zero based node indexes and missing nodes set to
+   * {@link MeshArrays#NO_NODE}.
+   */
+  private int[] readFaceNodes() throws IOException {
+    Array arr = face_node_connectivity_variable.read();
+    int[] raw = (int[]) arr.get1DJavaArray(int.class);
+    int nodes_per_face = getNodesPerFace();
+    int face_count = raw.length / nodes_per_face;
+
+    boolean has_fill = false;
+    int fill = 0;
+    Attribute fill_value = face_node_connectivity_variable.findAttributeIgnoreCase("_FillValue");
+    if (fill_value != null && fill_value.getNumericValue() != null) {
+      has_fill = true;
+      fill = fill_value.getNumericValue().intValue();
+    }
+
+    // [N0] [1,2,3] is already face by face, the wide layout has to be turned around
+    int[] face_nodes = this.isTall() ? raw : new int[raw.length];
+    for (int i = 0; i < face_count; i++) {
+      for (int k = 0; k < nodes_per_face; k++) {
+        int value = this.isTall() ? raw[i * nodes_per_face + k] : raw[k * face_count + i];
+        face_nodes[i * nodes_per_face + k] =
+            (has_fill && value == fill) || value < startIndex ? MeshArrays.NO_NODE : value - startIndex;
+      }
+    }
+    return face_nodes;
+  }
+
+  /**
+   * Adds the connectivity of a subset to a dataset, numbering the nodes of the subset from zero.
+   */
+  public void subsetToDataset(UGridDataset ugd, NetcdfDataset ncd, MeshSubset subset) {
 
     /*
      * The 'NFaces' dimension... or the number of sides of the polygons in the grid.
-     * We are assuming this is 3 in other parts of the code, but not here.
      */
     String cell_number_dimension_name;
     Dimension max_cell_size_dim;
@@ -222,13 +207,9 @@ public class Topology {
     ncd.finish();
 
     // Create cell_dim of correct size if it does not exist
-
-    Set set = new HashSet(containedCells);
-    ArrayList<Cell> unique_cells = new ArrayList<Cell>(set);
-
     Dimension cell_dim = ncd.findDimension(cell_number_dimension_name);
     if (cell_dim == null) {
-      cell_dim = ncd.addDimension(null, new Dimension(cell_number_dimension_name, unique_cells.size()));
+      cell_dim = ncd.addDimension(null, new Dimension(cell_number_dimension_name, subset.getFaceCount()));
     }
     ncd.finish();
 
@@ -240,51 +221,62 @@ public class Topology {
     // When subsetting, we set the start_index to zero.
     newConn.removeAttributeIgnoreCase("start_index");
     newConn.addAttribute(new Attribute("start_index", 0));
-    ncd.finish();
-    int[] shape = new int[] {newConn.getDimension(0).getLength(), newConn.getDimension(1).getLength()};
-    ArrayInt conn_data = new ArrayInt.D2(shape[0], shape[1], false);
-    Index ima = conn_data.getIndex();
-    for (int i = 0; i < unique_cells.size(); i++) {
-      for (int j = 0; j < unique_cells.get(i).getNodes().size(); j++) {
-        if (this.isTall()) {
-          conn_data.set(ima.set(j, i), unique_cells.get(i).getNodes().get(j).getDataIndex());
-        } else {
-          conn_data.set(ima.set(j, i), unique_cells.get(i).getNodes().get(j).getDataIndex());
-        }
-      }
-    }
-
-    // TODO: Reindex the topology here.
-    // Array conn_data = Array.factory(DataType.INT, shape, raw_data);
-    newConn.setCachedData(conn_data);
+    addFillValue(newConn);
+    newConn.setCachedData(makeConnectivity(subset));
 
     ncd.addVariable(null, newConn);
     ncd.finish();
   }
 
-  public VariableDS subsetToVariable(List<Cell> containedCells) {
+  /**
+   * Makes a connectivity variable for a subset, numbering the nodes of the subset from zero.
+   */
+  public VariableDS subsetToVariable(MeshSubset subset) {
     Variable newV = new Variable(face_node_connectivity_variable);
-    int[] shape = new int[] {newV.getShape(0), newV.getShape(1)};
-    int[][] conn = new int[shape[0]][shape[1]];
-    int count = 0;
-    for (Cell c : containedCells) {
-      for (int i = 0; i < c.getNodes().size(); i++) {
-        if (this.isTall()) {
-          conn[count][i] = c.getNodes().get(i).getDataIndex();
-        } else {
-          conn[i][count] = c.getNodes().get(i).getDataIndex();
-        }
-      }
-      count++;
-    }
+    int face_dim = this.isTall() ? 0 : 1;
+    List<Dimension> dims = new ArrayList<Dimension>(newV.getDimensions());
+    dims.set(face_dim, new Dimension(dims.get(face_dim).getShortName(), subset.getFaceCount()));
+    newV.setDimensions(dims);
     // When subsetting, we set the start_index to zero.
     newV.removeAttributeIgnoreCase("start_index");
     newV.addAttribute(new Attribute("start_index", 0));
-    newV.setCachedData(Array.factory(DataType.INT, shape, conn));
+    addFillValue(newV);
+    newV.setCachedData(makeConnectivity(subset));
 
     return new VariableDS(null, newV, false);
   }
 
+  // missing nodes were marked by being below start_index, which is now zero, so they need a fill value
+  private static void addFillValue(Variable conn) {
+    if (conn.findAttributeIgnoreCase("_FillValue") == null) {
+      conn.addAttribute(new Attribute("_FillValue", MeshArrays.NO_NODE));
+    }
+  }
+
+  // the connectivity of a subset in the layout of this topology, missing nodes as the fill value
+  private Array makeConnectivity(MeshSubset subset) {
+    int nodes_per_face = subset.getNodesPerFace();
+    int face_count = subset.getFaceCount();
+    Attribute fill_value = face_node_connectivity_variable.findAttributeIgnoreCase("_FillValue");
+    int fill = (fill_value != null && fill_value.getNumericValue() != null) ? fill_value.getNumericValue().intValue()
+        : MeshArrays.NO_NODE;
+
+    int[] conn = new int[face_count * nodes_per_face];
+    for (int i = 0; i < face_count; i++) {
+      for (int k = 0; k < nodes_per_face; k++) {
+        int node = subset.getFaceNode(i, k);
+        int value = node == MeshArrays.NO_NODE ? fill : node;
+        if (this.isTall()) {
+          conn[i * nodes_per_face + k] = value;
+        } else {
+          conn[k * face_count + i] = value;
+        }
+      }
+    }
+    int[] shape = this.isTall() ? new int[] {face_count, nodes_per_face} : new int[] {nodes_per_face, face_count};
+    return Array.factory(DataType.INT, shape, conn);
+  }
+
   // public HashMap generateIndexMap(List<Cell> containedCells) {
   // HashMap<Integer,Integer> news = new HashMap<Integer,Integer>();
   // for (Cell c : containedCells) {
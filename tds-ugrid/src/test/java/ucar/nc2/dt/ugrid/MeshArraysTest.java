@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2022 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import ucar.nc2.dt.ugrid.geom.LatLonPolygon2D;
+
+/**
+ * Tests the primitive array mesh against the polygons and cells made from it.
+ */
+public class MeshArraysTest {
+
+  // two triangles sharing an edge, a quad with one unused slot, and node 5 which no face uses
+  private static MeshArrays makeMesh() {
+    int[] faceNodes = {0, 1, 2, MeshArrays.NO_NODE, 1, 3, 2, MeshArrays.NO_NODE, 2, 3, 4, 6};
+    double[] lats = {0, 0, 1, 1, 2, 5, 2};
+    double[] lons = {0, 1, 0, 1, 1, 5, 0};
+    double[] faceLats = {0.3, 0.7, 1.5};
+    double[] faceLons = {0.3, 0.7, 0.5};
+    return new MeshArrays(4, faceNodes, lats, lons, faceLats, faceLons);
+  }
+
+  @Test
+  public void shouldCountNodes() {
+    MeshArrays mesh = makeMesh();
+    assertThat(mesh.getFaceCount()).isEqualTo(3);
+    assertThat(mesh.getNodeCount()).isEqualTo(7);
+    assertThat(mesh.getUsedNodeCount()).isEqualTo(6);
+    assertThat(mesh.getNodeRefCount()).isEqualTo(10);
+    assertThat(mesh.getUsedNodes()).isEqualTo(new boolean[] {true, true, true, true, true, false, true});
+    assertThat(mesh.getBounds()).isEqualTo(new double[] {0, 0, 2, 1});
+  }
+
+  @Test
+  public void shouldMakeCells() {
+    MeshArrays mesh = makeMesh();
+    List<Cell> cells = mesh.getCells();
+    assertThat(cells).hasSize(3);
+
+    Cell quad = cells.get(2);
+    assertThat(quad.getNodeIndexes()).isEqualTo(new int[] {2, 3, 4, 6});
+    assertThat(quad.getFaces()).hasSize(1);
+    assertThat(quad.getFaces().get(0).getDataIndex()).isEqualTo(2);
+    assertThat(quad.getPolygon().getVertexCount()).isEqualTo(4);
+
+    assertThat(cells.get(0).getNodeIndexes()).isEqualTo(new int[] {0, 1, 2});
+    assertThat(cells.get(1).getFaces().get(0).getGeoPoint().getLatitude()).isEqualTo(0.7);
+  }
+
+  @Test
+  public void shouldMatchPolygonBounds() {
+    Random random = new Random(7);
+    int nodes = 1000;
+    double[] lats = new double[nodes];
+    double[] lons = new double[nodes];
+    for (int i = 0; i < nodes; i++) {
+      lats[i] = 180 * random.nextDouble() - 90;
+      lons[i] = 360 * random.nextDouble() - 180;
+    }
+    int faces = 2000;
+    int[] faceNodes = new int[3 * faces];
+    for (int i = 0; i < faceNodes.length; i++) {
+      faceNodes[i] = random.nextInt(nodes);
+    }
+    MeshArrays mesh = new MeshArrays(3, faceNodes, lats, lons, null, null);
+
+    for (int f = 0; f < faces; f++) {
+      LatLonPolygon2D polygon = mesh.makePolygon(f);
+      assertThat(mesh.getFaceBounds(f)).isEqualTo(polygon.getBoundingLatLonValues());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectMissingNode() {
+    new MeshArrays(3, new int[] {0, 1, 3}, new double[3], new double[3], null, null);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2022 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests that a subset keeps only the nodes its faces use, and that its connectivity points back at the same nodes.
+ */
+public class MeshSubsetTest {
+
+  // two triangles sharing an edge, a quad, and a triangle far from the others
+  private static MeshArrays makeMesh() {
+    int[] faceNodes = {0, 1, 2, MeshArrays.NO_NODE, 1, 3, 2, MeshArrays.NO_NODE, 2, 3, 4, 6, 5, 7, 8,
+        MeshArrays.NO_NODE};
+    double[] lats = {0, 0, 1, 1, 2, 50, 2, 50, 51};
+    double[] lons = {0, 1, 0, 1, 1, 50, 0, 51, 50};
+    return new MeshArrays(4, faceNodes, lats, lons, null, null);
+  }
+
+  @Test
+  public void shouldRenumberNodes() {
+    MeshSubset subset = MeshSubset.of(makeMesh(), new int[] {1, 3});
+    assertThat(subset.getFaceCount()).isEqualTo(2);
+    assertThat(subset.getNodesPerFace()).isEqualTo(4);
+    assertThat(subset.getFaces()).isEqualTo(new int[] {1, 3});
+    assertThat(subset.getNodes()).isEqualTo(new int[] {1, 2, 3, 5, 7, 8});
+
+    assertThat(subset.getFaceNode(0, 0)).isEqualTo(0);
+    assertThat(subset.getFaceNode(0, 1)).isEqualTo(2);
+    assertThat(subset.getFaceNode(0, 2)).isEqualTo(1);
+    assertThat(subset.getFaceNode(0, 3)).isEqualTo(MeshArrays.NO_NODE);
+    assertThat(subset.getFaceNode(1, 0)).isEqualTo(3);
+    assertThat(subset.getFaceNode(1, 2)).isEqualTo(5);
+  }
+
+  @Test
+  public void shouldBeEmpty() {
+    MeshSubset subset = MeshSubset.of(makeMesh(), new int[0]);
+    assertThat(subset.getFaceCount()).isEqualTo(0);
+    assertThat(subset.getNodeCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldKeepNodesOfFaces() {
+    Random random = new Random(11);
+    int nodes = 500;
+    int faces = 1000;
+    int[] faceNodes = new int[3 * faces];
+    for (int i = 0; i < faceNodes.length; i++) {
+      faceNodes[i] = random.nextInt(nodes);
+    }
+    MeshArrays mesh = new MeshArrays(3, faceNodes, new double[nodes], new double[nodes], null, null);
+
+    int[] picked = random.ints(0, faces).distinct().limit(100).sorted().toArray();
+    MeshSubset subset = MeshSubset.of(mesh, picked);
+    boolean[] used = new boolean[subset.getNodeCount()];
+    for (int i = 0; i < picked.length; i++) {
+      for (int k = 0; k < 3; k++) {
+        int node = subset.getFaceNode(i, k);
+        assertThat(subset.getNode(node)).isEqualTo(mesh.getFaceNode(picked[i], k));
+        used[node] = true;
+      }
+    }
+    for (int i = 0; i < used.length; i++) {
+      assertThat(used[i]).isTrue();
+      if (i > 0) {
+        assertThat(subset.getNode(i)).isGreaterThan(subset.getNode(i - 1));
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2022 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.dataset.VariableDS;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Tests that the values read at some entities are the same as reading each entity alone, whether the entities are
+ * read in one run or several, and wherever the entity dimension is.
+ */
+public class MeshVariableTest {
+
+  private static final int TIMES = 3;
+  private static final int NODES = 1000;
+  private static final int LEVELS = 2;
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  // each value encodes its own index, exactly representable as a float
+  private static float value(int time, int node, int level) {
+    return time * 100000 + node * 10 + level;
+  }
+
+  private File makeFile() throws IOException, InvalidRangeException {
+    File file = new File(tempFolder.getRoot(), "mesh.nc");
+    NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(file.getPath());
+    builder.addDimension("time", TIMES);
+    builder.addDimension("node", NODES);
+    builder.addDimension("level", LEVELS);
+    builder.addVariable("node_first", DataType.FLOAT, "node level").addAttribute(new Attribute("location", "node"));
+    builder.addVariable("node_middle", DataType.FLOAT, "time node level")
+        .addAttribute(new Attribute("location", "node"));
+    builder.addVariable("node_last", DataType.FLOAT, "time node").addAttribute(new Attribute("location", "node"));
+
+    try (NetcdfFormatWriter writer = builder.build()) {
+      Array first = Array.factory(DataType.FLOAT, new int[] {NODES, LEVELS});
+      Array middle = Array.factory(DataType.FLOAT, new int[] {TIMES, NODES, LEVELS});
+      Array last = Array.factory(DataType.FLOAT, new int[] {TIMES, NODES});
+      for (int t = 0; t < TIMES; t++) {
+        for (int n = 0; n < NODES; n++) {
+          for (int z = 0; z < LEVELS; z++) {
+            middle.setFloat(middle.getIndex().set(t, n, z), value(t, n, z));
+            if (t == 0) {
+              first.setFloat(first.getIndex().set(n, z), value(0, n, z));
+            }
+          }
+          last.setFloat(last.getIndex().set(t, n), value(t, n, 0));
+        }
+      }
+      writer.write("node_first", first);
+      writer.write("node_middle", middle);
+      writer.write("node_last", last);
+    }
+    return file;
+  }
+
+  // close together, exactly MAX_READ_GAP apart, and just over it, so the indexes are read in several runs
+  private static int[] scatteredIndexes() {
+    int gap = MeshVariable.MAX_READ_GAP;
+    return new int[] {0, 1, 2, 2 + gap, 3 + 2 * gap, 4 + 2 * gap, NODES - 1};
+  }
+
+  @Test
+  public void shouldReadMeshDimensionFirst() throws Exception {
+    int[] indexes = scatteredIndexes();
+    try (NetcdfDataset ncd = NetcdfDatasets.openDataset(makeFile().getPath())) {
+      Array result = read(ncd, "node_first", indexes, 0);
+      assertThat(result.getShape()).isEqualTo(new int[] {indexes.length, LEVELS});
+      Index index = result.getIndex();
+      for (int i = 0; i < indexes.length; i++) {
+        for (int z = 0; z < LEVELS; z++) {
+          assertThat(result.getFloat(index.set(i, z))).isEqualTo(value(0, indexes[i], z));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldReadMeshDimensionInMiddle() throws Exception {
+    int[] indexes = scatteredIndexes();
+    try (NetcdfDataset ncd = NetcdfDatasets.openDataset(makeFile().getPath())) {
+      Array result = read(ncd, "node_middle", indexes, 1);
+      assertThat(result.getShape()).isEqualTo(new int[] {TIMES, indexes.length, LEVELS});
+      Index index = result.getIndex();
+      for (int t = 0; t < TIMES; t++) {
+        for (int i = 0; i < indexes.length; i++) {
+          for (int z = 0; z < LEVELS; z++) {
+            assertThat(result.getFloat(index.set(t, i, z))).isEqualTo(value(t, indexes[i], z));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldReadMeshDimensionLast() throws Exception {
+    try (NetcdfDataset ncd = NetcdfDatasets.openDataset(makeFile().getPath())) {
+      // every other node, so every index joins the same run
+      int[] indexes = new int[NODES / 2];
+      for (int i = 0; i < indexes.length; i++) {
+        indexes[i] = 2 * i + 1;
+      }
+      for (int[] tried : new int[][] {indexes, scatteredIndexes(), {NODES - 1}}) {
+        Array result = read(ncd, "node_last", tried, 1);
+        assertThat(result.getShape()).isEqualTo(new int[] {TIMES, tried.length});
+        Index index = result.getIndex();
+        for (int t = 0; t < TIMES; t++) {
+          for (int i = 0; i < tried.length; i++) {
+            assertThat(result.getFloat(index.set(t, i))).isEqualTo(value(t, tried[i], 0));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldReadSparseEvenlySpreadEntities() throws Exception {
+    int[] indexes = new int[NODES / 50];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = 50 * i + 7;
+    }
+    // each is within MAX_READ_GAP of the next, but joining them would read 50 entities for each one wanted
+    assertThat(MeshVariable.splitRuns(indexes)).hasLength(indexes.length + 1);
+
+    try (NetcdfDataset ncd = NetcdfDatasets.openDataset(makeFile().getPath())) {
+      Array result = read(ncd, "node_middle", indexes, 1);
+      Index index = result.getIndex();
+      for (int t = 0; t < TIMES; t++) {
+        for (int i = 0; i < indexes.length; i++) {
+          assertThat(result.getFloat(index.set(t, i, 1))).isEqualTo(value(t, indexes[i], 1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldBoundRuns() {
+    // every other entity of a large mesh: each run is at most MAX_READ_SPAN long, and half wanted
+    int[] indexes = new int[200000];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = 2 * i;
+    }
+    int[] runs = MeshVariable.splitRuns(indexes);
+    assertThat(runs[0]).isEqualTo(0);
+    assertThat(runs[runs.length - 1]).isEqualTo(indexes.length);
+    assertThat(runs.length - 1).isEqualTo((2 * indexes.length + MeshVariable.MAX_READ_SPAN - 1)
+        / MeshVariable.MAX_READ_SPAN);
+    for (int r = 0; r + 1 < runs.length; r++) {
+      int span = indexes[runs[r + 1] - 1] - indexes[runs[r]] + 1;
+      int wanted = runs[r + 1] - runs[r];
+      assertThat(span).isAtMost(MeshVariable.MAX_READ_SPAN);
+      assertThat(span - wanted).isAtMost(wanted);
+    }
+
+    // a dense cluster still joins up, and stays apart from the entity after the gap
+    assertThat(MeshVariable.splitRuns(new int[] {10, 11, 12, 13, 300})).asList().containsExactly(0, 4, 5).inOrder();
+    assertThat(MeshVariable.splitRuns(new int[0])).asList().containsExactly(0);
+  }
+
+  @Test
+  public void shouldReadNoEntities() throws Exception {
+    try (NetcdfDataset ncd = NetcdfDatasets.openDataset(makeFile().getPath())) {
+      Array result = read(ncd, "node_middle", new int[0], 1);
+      assertThat(result.getShape()).isEqualTo(new int[] {TIMES, 0, LEVELS});
+    }
+  }
+
+  private static Array read(NetcdfDataset ncd, String name, int[] indexes, int dim)
+      throws IOException, InvalidRangeException {
+    MeshVariable meshVariable = new MeshVariable(null, (VariableDS) ncd.findVariable(name), null);
+    return meshVariable.readEntities(indexes, dim);
+  }
+}
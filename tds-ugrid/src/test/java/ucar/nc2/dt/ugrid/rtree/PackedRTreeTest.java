@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2022 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid.rtree;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import cern.colt.list.IntArrayList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compares the packed tree, as built and as read back from a file, with a scan of all boxes.
+ */
+public class PackedRTreeTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  // small boxes all over the globe, some across the dateline and some left out
+  private static double[] makeBoxes(int n, Random random) {
+    double[] bounds = new double[4 * n];
+    for (int i = 0; i < n; i++) {
+      double lat = 170 * random.nextDouble() - 85;
+      double lon = 360 * random.nextDouble() - 180;
+      double east = lon + 3 * random.nextDouble();
+      bounds[4 * i] = i % 97 == 5 ? Double.NaN : lat;
+      bounds[4 * i + 1] = lon;
+      bounds[4 * i + 2] = lat + 3 * random.nextDouble();
+      bounds[4 * i + 3] = east > 180 ? east - 360 : east;
+    }
+    return bounds;
+  }
+
+  @Test
+  public void shouldMatchScan() throws IOException {
+    Random random = new Random(3);
+    for (int n : new int[] {0, 1, 16, 17, 5000}) {
+      double[] bounds = makeBoxes(n, random);
+      PackedRTree built = PackedRTree.build(bounds, PackedRTree.DEFAULT_NODE_SIZE);
+      Path file = tempFolder.getRoot().toPath().resolve("index" + n + ".rtree");
+      built.write(file, 42L);
+      PackedRTree mapped = PackedRTree.read(file, 42L);
+      assertThat(mapped).isNotNull();
+      assertThat(mapped.size()).isEqualTo(built.size());
+
+      for (PackedRTree tree : new PackedRTree[] {built, mapped}) {
+        for (int q = 0; q < 200; q++) {
+          double south = 180 * random.nextDouble() - 90;
+          double north = Math.min(90, south + 20 * random.nextDouble());
+          double west = 360 * random.nextDouble() - 180;
+          double east = west + 30 * random.nextDouble();
+          if (east > 180)
+            east -= 360;
+          assertThat(toList(tree.search(south, west, north, east)))
+              .containsExactlyElementsIn(scanBox(bounds, south, west, north, east)).inOrder();
+
+          double lat = 180 * random.nextDouble() - 90;
+          double lon = 360 * random.nextDouble() - 180;
+          assertThat(toList(tree.nearest(lat, lon, 5, i -> boxDistance(bounds, i, lat, lon))))
+              .containsExactlyElementsIn(scanNearest(bounds, lat, lon, 5)).inOrder();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotReadOtherSignature() throws IOException {
+    Path file = tempFolder.getRoot().toPath().resolve("index.rtree");
+    PackedRTree.build(makeBoxes(100, new Random(1)), 8).write(file, 1L);
+    assertThat(PackedRTree.read(file, 2L)).isNull();
+    assertThat(PackedRTree.read(file.resolveSibling("missing.rtree"), 1L)).isNull();
+  }
+
+  @Test
+  public void shouldWriteSameFileConcurrently() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("shared.rtree");
+    double[] bounds = makeBoxes(20000, new Random(5));
+    PackedRTree built = PackedRTree.build(bounds, PackedRTree.DEFAULT_NODE_SIZE);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (int round = 0; round < 5; round++) {
+        List<Future<?>> writes = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+          writes.add(executor.submit(() -> {
+            built.write(file, 7L);
+            return null;
+          }));
+        for (Future<?> write : writes)
+          write.get();
+
+        PackedRTree mapped = PackedRTree.read(file, 7L);
+        assertThat(mapped).isNotNull();
+        assertThat(mapped.size()).isEqualTo(built.size());
+        assertThat(toList(mapped.search(-90, -180, 90, 180)))
+            .containsExactlyElementsIn(toList(built.search(-90, -180, 90, 180))).inOrder();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // no temporary files are left
+    try (Stream<Path> files = Files.list(tempFolder.getRoot().toPath())) {
+      assertThat(files.map(p -> p.getFileName().toString()).collect(Collectors.toList()))
+          .containsExactly("shared.rtree");
+    }
+  }
+
+  private static List<Integer> toList(IntArrayList list) {
+    List<Integer> result = new ArrayList<>();
+    for (int i = 0; i < list.size(); i++)
+      result.add(list.get(i));
+    return result;
+  }
+
+  private static List<Integer> scanBox(double[] bounds, double south, double west, double north, double east) {
+    if (east < west)
+      east += 360;
+    List<Integer> result = new ArrayList<>();
+    for (int i = 0; i < bounds.length / 4; i++) {
+      if (Double.isNaN(bounds[4 * i]) || bounds[4 * i] > north || bounds[4 * i + 2] < south)
+        continue;
+      double boxWest = bounds[4 * i + 1];
+      double boxEast = bounds[4 * i + 3] < boxWest ? bounds[4 * i + 3] + 360 : bounds[4 * i + 3];
+      for (int turn = -1; turn <= 1; turn++) {
+        if (boxWest <= east + 360 * turn && boxEast >= west + 360 * turn) {
+          result.add(i);
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static double boxDistance(double[] bounds, int i, double lat, double lon) {
+    double boxWest = bounds[4 * i + 1];
+    double boxEast = bounds[4 * i + 3] < boxWest ? bounds[4 * i + 3] + 360 : bounds[4 * i + 3];
+    double dy = Math.max(0, Math.max(bounds[4 * i] - lat, lat - bounds[4 * i + 2]));
+    double dx = Double.POSITIVE_INFINITY;
+    for (int turn = -1; turn <= 1; turn++) {
+      double x = lon + 360 * turn;
+      dx = Math.min(dx, Math.max(0, Math.max(boxWest - x, x - boxEast)));
+    }
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  private static List<Integer> scanNearest(double[] bounds, double lat, double lon, double radius) {
+    List<Integer> result = new ArrayList<>();
+    double best = radius;
+    for (int i = 0; i < bounds.length / 4; i++) {
+      if (Double.isNaN(bounds[4 * i]))
+        continue;
+      double d = boxDistance(bounds, i, lat, lon);
+      if (d < best) {
+        best = d;
+        result.clear();
+      }
+      if (d <= best)
+        result.add(i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2022 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.dt.ugrid.topology;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.VariableDS;
+import ucar.nc2.dt.ugrid.MeshArrays;
+import ucar.nc2.dt.ugrid.MeshSubset;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Tests the connectivity written for a subset, when the original marks its missing nodes without a _FillValue.
+ */
+public class TopologyTest {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  // a triangle and a quad, one based, with the missing node of the triangle as 0
+  private File makeFile(boolean tall) throws IOException, InvalidRangeException {
+    File file = new File(tempFolder.getRoot(), tall ? "tall.nc" : "wide.nc");
+    NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(file.getPath());
+    builder.addDimension("face", 2);
+    builder.addDimension("max_nodes", 4);
+    builder.addVariable("face_nodes", DataType.INT, tall ? "face max_nodes" : "max_nodes face")
+        .addAttribute(new Attribute("start_index", 1));
+
+    int[] tallValues = {1, 2, 3, 0, 2, 4, 5, 3};
+    int[] values = new int[8];
+    for (int i = 0; i < 2; i++) {
+      for (int k = 0; k < 4; k++) {
+        values[tall ? i * 4 + k : k * 2 + i] = tallValues[i * 4 + k];
+      }
+    }
+    try (NetcdfFormatWriter writer = builder.build()) {
+      int[] shape = tall ? new int[] {2, 4} : new int[] {4, 2};
+      writer.write("face_nodes", Array.factory(DataType.INT, shape, values));
+    }
+    return file;
+  }
+
+  @Test
+  public void shouldAddFillValueForMissingNodes() throws Exception {
+    for (boolean tall : new boolean[] {true, false}) {
+      try (NetcdfFile ncfile = NetcdfFiles.open(makeFile(tall).getPath())) {
+        Variable conn = ncfile.findVariable("face_nodes");
+        assertThat(conn.findAttributeIgnoreCase("_FillValue")).isNull();
+        Topology topology = new Topology(conn);
+
+        // the same mesh, zero based
+        int[] faceNodes = {0, 1, 2, MeshArrays.NO_NODE, 1, 3, 4, 2};
+        MeshArrays mesh = new MeshArrays(4, faceNodes, new double[5], new double[5], null, null);
+        MeshSubset subset = MeshSubset.of(mesh, new int[] {0});
+        VariableDS subsetConn = topology.subsetToVariable(subset);
+
+        Attribute fill = subsetConn.findAttributeIgnoreCase("_FillValue");
+        assertThat(fill).isNotNull();
+        assertThat(fill.getNumericValue().intValue()).isEqualTo(MeshArrays.NO_NODE);
+        assertThat(subsetConn.findAttributeIgnoreCase("start_index").getNumericValue().intValue()).isEqualTo(0);
+
+        // the triangle alone, renumbered from zero, with its missing node as the fill value
+        int[] written = (int[]) subsetConn.read().get1DJavaArray(int.class);
+        assertThat(written).asList().containsExactly(0, 1, 2, MeshArrays.NO_NODE).inOrder();
+      }
+    }
+  }
+}
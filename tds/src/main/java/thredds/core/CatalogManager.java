@@ -4,6 +4,11 @@
  */
 package thredds.core;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import thredds.client.catalog.Catalog;
@@ -18,15 +23,22 @@ import thredds.server.catalog.ConfigCatalog;
 import thredds.server.catalog.ConfigCatalogCache;
 import thredds.server.catalog.DatasetScan;
 import thredds.server.config.TdsContext;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Provides an API to find a catalog from its path. Handles static and dynamic catalogs.
+ * <p>
+ * Static catalogs change only when the config catalogs are reread, so the finished Catalog and the responses made
+ * from it are cached until then.
  *
  * @author caron
  * @since 6/7/2015
@@ -50,6 +62,34 @@ public class CatalogManager {
   @Autowired
   private AllowedServices globalServices;
 
+  // finished static catalogs, by path
+  private Cache<String, Catalog> staticCatalogs = CacheBuilder.newBuilder().maximumSize(100).build();
+  // responses made from static catalogs; null if disabled
+  private Cache<ResponseKey, CatalogResponse> staticResponses = makeResponseCache(10 * 1000 * 1000);
+
+  /**
+   * Set the cache sizes. Drops anything cached.
+   *
+   * @param maxCatalogs max number of finished static catalogs
+   * @param maxResponseBytes max total size of the cached responses; 0 disables caching responses
+   */
+  public synchronized void initCache(int maxCatalogs, long maxResponseBytes) {
+    staticCatalogs = CacheBuilder.newBuilder().maximumSize(maxCatalogs).build();
+    staticResponses = maxResponseBytes > 0 ? makeResponseCache(maxResponseBytes) : null;
+  }
+
+  private static Cache<ResponseKey, CatalogResponse> makeResponseCache(long maxBytes) {
+    return CacheBuilder.newBuilder().maximumWeight(maxBytes)
+        .weigher((ResponseKey key, CatalogResponse response) -> response.content.length).build();
+  }
+
+  /** Drop all cached catalogs and responses. Called when the config catalogs are reread. */
+  public synchronized void invalidateCache() {
+    staticCatalogs.invalidateAll();
+    if (staticResponses != null)
+      staticResponses.invalidateAll();
+  }
+
   ///////////////////////////////////////////////////////////
 
   /**
@@ -85,13 +125,129 @@ public class CatalogManager {
       return catBuilder.makeCatalog();
     }
 
+    Cache<String, Catalog> catalogs = getStaticCatalogs();
+    Catalog catalog = catalogs.getIfPresent(workPath);
+    if (catalog != null)
+      return catalog;
+
     // check cache and read if needed
     ConfigCatalog configCatalog = ccc.get(workPath);
     if (configCatalog == null)
       return null;
     CatalogBuilder catBuilder = configCatalog.makeCatalogBuilder(tdsContext.getContextPath());
     addGlobalServices(catBuilder);
-    return catBuilder.makeCatalog();
+    catalog = catBuilder.makeCatalog();
+    catalogs.put(workPath, catalog);
+    return catalog;
+  }
+
+  /** Makes the content of a response from a catalog. */
+  public interface ResponseMaker {
+    byte[] make(Catalog catalog) throws Exception;
+  }
+
+  /**
+   * Get a response made from a static catalog, calling maker to make it if it is not cached.
+   * Only static catalogs already returned by getCatalog() are used, so call that first if this returns null.
+   *
+   * @param path the path for the requested catalog.
+   * @param baseURI the base URI of the request
+   * @param contentType the content type of the response, also part of the key
+   * @param datasetId the dataset requested from the catalog, or null for the whole catalog
+   * @param maker makes the response content
+   * @return the response, or null if the catalog is not a cached static catalog, or responses are not cached
+   */
+  @Nullable
+  public CatalogResponse getStaticCatalogResponse(String path, URI baseURI, String contentType,
+      @Nullable String datasetId, ResponseMaker maker) throws Exception {
+    Cache<ResponseKey, CatalogResponse> responses;
+    Catalog catalog;
+    synchronized (this) {
+      responses = staticResponses;
+      catalog = path == null ? null : staticCatalogs.getIfPresent(path.startsWith("/") ? path.substring(1) : path);
+    }
+    if (responses == null || catalog == null)
+      return null;
+
+    ResponseKey key = new ResponseKey(path, baseURI, contentType, datasetId);
+    try {
+      return responses.get(key, () -> new CatalogResponse(maker.make(catalog), contentType));
+    } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception)
+        throw (Exception) cause;
+      throw e;
+    }
+  }
+
+  private synchronized Cache<String, Catalog> getStaticCatalogs() {
+    return staticCatalogs;
+  }
+
+  /** The content of a response made from a static catalog, with its validators. */
+  @Immutable
+  public static class CatalogResponse {
+    private final byte[] content;
+    private final String contentType;
+    private final String etag;
+    private final long lastModified;
+
+    CatalogResponse(byte[] content, String contentType) {
+      this.content = content;
+      this.contentType = contentType;
+      this.etag = "\"" + Hashing.murmur3_128().hashBytes(content) + "\"";
+      this.lastModified = System.currentTimeMillis();
+    }
+
+    /** Do not modify. */
+    public byte[] getContent() {
+      return content;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    /** Strong ETag, a hash of the content. */
+    public String getETag() {
+      return etag;
+    }
+
+    /** When the response was made. */
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+
+  @Immutable
+  private static class ResponseKey {
+    private final String path;
+    private final URI baseURI;
+    private final String contentType;
+    private final String datasetId;
+
+    ResponseKey(String path, URI baseURI, String contentType, String datasetId) {
+      this.path = path;
+      this.baseURI = baseURI;
+      this.contentType = contentType;
+      this.datasetId = datasetId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (o == null || getClass() != o.getClass())
+        return false;
+      ResponseKey that = (ResponseKey) o;
+      return path.equals(that.path) && Objects.equals(baseURI, that.baseURI) && contentType.equals(that.contentType)
+          && Objects.equals(datasetId, that.datasetId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, baseURI, contentType, datasetId);
+    }
   }
 
   // barfola on the return type
@@ -128,7 +284,7 @@ public class CatalogManager {
       if (isLatest)
         cat = dscan.makeCatalogForLatest(workPath, baseURI);
       else
-        cat = dscan.makeCatalogForDirectory(workPath, baseURI);
+        cat = dscan.makeCatalogForDirectory(workPath, baseURI, DatasetScan.getPage(filename));
 
       if (null == cat)
         log.error("makeDynamicCatalog(): DatasetScan.makeCatalogForDirectory failed = " + workPath);
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.core;
+
+import org.springframework.util.StringUtils;
+import thredds.client.catalog.CatalogRef;
+import thredds.client.catalog.Dataset;
+import thredds.server.catalog.CatalogScan;
+import thredds.server.catalog.ConfigCatalog;
+import thredds.server.catalog.DatasetScan;
+import thredds.server.catalog.FeatureCollectionRef;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads the config catalogs ahead of ConfigCatalogInitialization, on a work-stealing pool.
+ * Follows catalogRefs and catalogScans the way ConfigCatalogInitialization does, and parses each catalog it would
+ * read, so that when ConfigCatalogInitialization gets to a catalog, it has usually been parsed already.
+ * ConfigCatalogInitialization still visits the catalogs one at a time, in the same order as without the crawler,
+ * so data roots, duplicate checks and catalog ids come out the same.
+ * At most maxAhead catalogs are read and not yet taken, so a large tree is not held in memory. A catalog that is
+ * taken before the pool has started on it is read by the thread that takes it.
+ *
+ * @since 5.5
+ */
+class ConfigCatalogCrawler implements Closeable {
+  static private final org.slf4j.Logger logCatalogInit =
+      org.slf4j.LoggerFactory.getLogger(ConfigCatalogInitialization.class);
+
+  interface Reader {
+    /** @return the catalog, or null if it could not be read */
+    ConfigCatalog readCatalog(String catalogRelPath, String catalogFullPath);
+  }
+
+  private final ForkJoinPool pool;
+  private final File contentRootPath;
+  private final String contextPath;
+  private final ConfigCatalogInitialization.ReadMode readMode;
+  private final Map<String, Long> lastRead; // catalog path, lastRead; as of the start of the crawl
+  private final Reader reader;
+
+  private final Set<String> seen = ConcurrentHashMap.newKeySet(); // catalogs visited
+  private final Map<String, Read> catalogs = new ConcurrentHashMap<>(); // not yet taken
+  private final Queue<Read> waiting = new ConcurrentLinkedQueue<>(); // to read on the pool, when there is room
+  private final Semaphore ahead; // a permit for each catalog the pool is reading or has read, until it is taken
+
+  // a catalog to read
+  private static class Read {
+    final String path;
+    final File catalogFile;
+    final boolean isRoot;
+    final CompletableFuture<ConfigCatalog> future = new CompletableFuture<>();
+    final AtomicBoolean started = new AtomicBoolean(); // by the pool, or by take()
+
+    Read(String path, File catalogFile, boolean isRoot) {
+      this.path = path;
+      this.catalogFile = catalogFile;
+      this.isRoot = isRoot;
+    }
+  }
+
+  /**
+   * @param nthreads parse this many catalogs at once
+   * @param maxAhead parse at most this many catalogs that have not been taken yet
+   * @param contentRootPath catalog paths are relative to this
+   * @param contextPath the web application context path, eg "/thredds"
+   * @param readMode decides which catalogs are read, as in ConfigCatalogInitialization
+   * @param lastRead when each known catalog was last read
+   * @param reader parses a catalog; called from the pool threads
+   */
+  ConfigCatalogCrawler(int nthreads, int maxAhead, File contentRootPath, String contextPath,
+      ConfigCatalogInitialization.ReadMode readMode, Map<String, Long> lastRead, Reader reader) {
+    this.pool = new ForkJoinPool(nthreads);
+    this.ahead = new Semaphore(maxAhead);
+    this.contentRootPath = contentRootPath;
+    this.contextPath = contextPath;
+    this.readMode = readMode;
+    this.lastRead = lastRead;
+    this.reader = reader;
+  }
+
+  /**
+   * Start reading a catalog, and the catalogs it references.
+   *
+   * @param catalogRelPath relative to the content root
+   * @param isRoot a root catalog is always read
+   */
+  void visit(String catalogRelPath, boolean isRoot) {
+    String path = StringUtils.cleanPath(catalogRelPath);
+    File catalogFile = new File(contentRootPath, path);
+    if (!wouldRead(path, catalogFile, isRoot) || !seen.add(path))
+      return;
+
+    // the entry is there before the parent's future completes, so take() finds the children of a catalog it has
+    Read read = new Read(path, catalogFile, isRoot);
+    catalogs.put(path, read);
+    waiting.add(read);
+    startWaiting();
+  }
+
+  // start reading the waiting catalogs that there is room for
+  private void startWaiting() {
+    while (!waiting.isEmpty() && ahead.tryAcquire()) {
+      Read read = waiting.poll();
+      if (read == null || !read.started.compareAndSet(false, true)) {
+        ahead.release(); // gone, or read by take()
+        continue;
+      }
+      ForkJoinTask<?> task = ForkJoinTask.adapt(() -> crawl(read));
+      if (ForkJoinTask.getPool() == pool)
+        task.fork(); // onto this worker's queue, others steal it
+      else
+        pool.execute(task);
+    }
+  }
+
+  /**
+   * Get a catalog read by the crawler. Waits if it is being read, and reads it if the pool has not started on it.
+   *
+   * @param catalogRelPath cleaned path, relative to the content root
+   * @return the catalog, which is null if reading failed, or null if the crawler did not visit this catalog
+   */
+  @Nullable
+  CompletableFuture<ConfigCatalog> take(String catalogRelPath) {
+    Read read = catalogs.remove(catalogRelPath);
+    if (read == null)
+      return null;
+    if (read.started.compareAndSet(false, true)) {
+      waiting.remove(read);
+      crawl(read); // on this thread, without a permit
+    } else {
+      ahead.release(); // the pool read it, or is reading it
+      startWaiting();
+    }
+    return read.future;
+  }
+
+  // same tests as ConfigCatalogInitialization.checkCatalogToRead()
+  private boolean wouldRead(String path, File catalogFile, boolean isRoot) {
+    if (!catalogFile.exists())
+      return false;
+    if (isRoot)
+      return true;
+    if (readMode == ConfigCatalogInitialization.ReadMode.triggerOnly)
+      return false;
+    return readMode == ConfigCatalogInitialization.ReadMode.always
+        || catalogFile.lastModified() >= lastRead.getOrDefault(path, 0L);
+  }
+
+  private void crawl(Read read) {
+    String path = read.path;
+    File catalogFile = read.catalogFile;
+    ConfigCatalog cat = null;
+    try {
+      cat = reader.readCatalog(path, catalogFile.getPath());
+      if (cat == null || (read.isRoot && readMode == ConfigCatalogInitialization.ReadMode.triggerOnly))
+        return; // thats all we need
+
+      int pos = path.lastIndexOf("/");
+      String dirPath = (pos > 0) ? path.substring(0, pos + 1) : "";
+      visitCatalogRefs(dirPath, cat.getDatasetsLocal());
+      for (CatalogScan catScan : cat.getCatalogScans()) {
+        Path relLocation = Paths.get(dirPath, catScan.getLocation());
+        Path absLocation = Paths.get(catalogFile.getParent(), catScan.getLocation());
+        visitDirectory(relLocation.toString(), absLocation);
+      }
+
+    } catch (Throwable t) {
+      // ConfigCatalogInitialization reports the problem when it gets here
+      logCatalogInit.debug("ConfigCatalogCrawler failed on {}", path, t);
+
+    } finally {
+      read.future.complete(cat);
+    }
+  }
+
+  // same as ConfigCatalogInitialization.processDatasets()
+  private void visitCatalogRefs(String dirPath, List<Dataset> datasets) {
+    for (Dataset ds : datasets) {
+      if ((ds instanceof DatasetScan) || (ds instanceof FeatureCollectionRef) || (ds instanceof CatalogScan))
+        continue;
+
+      if (ds instanceof CatalogRef) {
+        String href = ((CatalogRef) ds).getXlinkHref();
+        if (!href.startsWith("http:")) {
+          String path = resolveCatalogRef(href, contextPath, dirPath);
+          if (path != null)
+            visit(path, false);
+        }
+      } else {
+        visitCatalogRefs(dirPath, ds.getDatasetsLocal());
+      }
+    }
+  }
+
+  // same as ConfigCatalogInitialization.readCatsInDirectory()
+  private void visitDirectory(String dirPath, Path directory) throws IOException {
+    for (Path p : listDirectory(directory, "*.xml")) {
+      if (!Files.isDirectory(p)) {
+        String filename = p.getFileName().toString();
+        visit(dirPath.length() == 0 ? filename : dirPath + "/" + filename, false);
+      }
+    }
+    for (Path dir : listDirectory(directory, "*")) {
+      if (Files.isDirectory(dir))
+        visitDirectory(dirPath + "/" + dir.getFileName().toString(), dir);
+    }
+  }
+
+  /**
+   * Get the path of a catalogRef's catalog. The href must not start with "http:".
+   *
+   * @param href the xlink:href
+   * @param contextPath the web application context path, eg "/thredds"
+   * @param dirPath the directory of the catalog the catalogRef is in, relative to the content root
+   * @return the path relative to the content root, or null if it is relative to the server, outside the context path
+   */
+  @Nullable
+  static String resolveCatalogRef(String href, String contextPath, String dirPath) {
+    // Clean up relative URLs that start with "./"
+    if (href.startsWith("./")) {
+      href = href.substring(2);
+    }
+
+    String contextPathPlus = contextPath + "/";
+    if (href.startsWith(contextPathPlus)) {
+      return href.substring(contextPathPlus.length()); // absolute starting from content root
+    } else if (href.startsWith("/")) {
+      return null;
+    } else {
+      return dirPath + href; // relative starting from current directory
+    }
+  }
+
+  /** List a directory in name order, so that catalogs are always visited in the same order. */
+  static List<Path> listDirectory(Path directory, String glob) throws IOException {
+    List<Path> result = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, glob)) {
+      for (Path p : ds)
+        result.add(p);
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  @Override
+  public void close() {
+    pool.shutdownNow(); // stop reading catalogs that were not wanted after all
+    waiting.clear();
+    catalogs.clear();
+  }
+}
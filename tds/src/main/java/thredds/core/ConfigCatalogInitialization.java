@@ -27,6 +27,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Reads in the Config catalogs on startup, and if triggered.
@@ -42,6 +43,8 @@ public class ConfigCatalogInitialization {
   static private final String ERROR = "*** ERROR: ";
   static private final boolean show = true;
   static private final ReadMode defaultReadMode = ReadMode.check;
+  static private final long watchQuietMsecs = 2000; // catalog changes are reloaded after this long without changes
+  static private final int readAheadPerThread = 16; // catalogs the crawler may hold parsed, for each read thread
 
   @Autowired
   private TdsContext tdsContext; // used for getContentDirectory, contextPath
@@ -55,6 +58,9 @@ public class ConfigCatalogInitialization {
   @Autowired
   private DataRootManager dataRootManager;
 
+  @Autowired
+  private CatalogManager catalogManager;
+
   @Autowired
   private DatasetManager datasetManager;
 
@@ -87,6 +93,7 @@ public class ConfigCatalogInitialization {
   private String trackerDir; // the tracker "databases" are kept in this directory
   private long maxDatasets; // chronicle limit
   private String averageValueSize;
+  private int readThreads = Runtime.getRuntime().availableProcessors(); // parse catalogs on this many threads
 
   // on reread, construct new objects, so cant be spring beans
   private DataRootPathMatcher dataRootPathMatcher;
@@ -101,6 +108,16 @@ public class ConfigCatalogInitialization {
   // track stats
   private DatasetTracker.Callback callback;
 
+  // incremental reload of changed catalogs; null if not watching
+  private CatalogWatcher catalogWatcher;
+
+  // the catalogs that each catalog references with catalogRefs, relative to the content root.
+  // Lets a reload find the catalogs that are no longer referenced. Kept across rereads, for catalogs not read again.
+  private Map<String, Set<String>> catalogRefs = new HashMap<>();
+
+  // reads catalogs ahead while rereading; null if not in use
+  private ConfigCatalogCrawler crawler;
+
   public ConfigCatalogInitialization() {}
 
   public synchronized void setTrackerDir(String trackerDir) {
@@ -115,6 +132,11 @@ public class ConfigCatalogInitialization {
     this.averageValueSize = averageValueSize;
   }
 
+  /** Number of threads used to read catalogs. Use 1 to read them one at a time, without reading ahead. */
+  public synchronized void setReadThreads(int readThreads) {
+    this.readThreads = Math.max(1, readThreads);
+  }
+
   // called from TdsInit on spring-managed auto-wired bean
   public synchronized void init(ReadMode readMode, PreferencesExt prefs) {
     if (readMode == null)
@@ -142,9 +164,13 @@ public class ConfigCatalogInitialization {
       ccc.invalidateAll(); // remove anything in cache
     if (fcCache != null)
       fcCache.invalidateAll(); // remove anything in cache
+    if (catalogManager != null)
+      catalogManager.invalidateCache();
 
     if (!isStartup && readMode == ReadMode.always)
       trackerNumber++; // must write a new database if TDS is already running and rereading all
+    if (readMode == ReadMode.always)
+      catalogRefs = new HashMap<>();
     if (!isDebugMode || this.datasetTracker == null)
       this.datasetTracker = new DatasetTrackerChronicle(trackerDir, maxDatasets, trackerNumber, averageValueSize);
 
@@ -161,6 +187,7 @@ public class ConfigCatalogInitialization {
     // going to reread global services
     allowedServices.clearGlobalServices();
 
+    List<String> rootCatalogKeys = null;
     switch (readMode) {
       case always:
         // if the database already exists, we need to close it
@@ -178,7 +205,8 @@ public class ConfigCatalogInitialization {
         this.catalogTracker = new CatalogTracker(trackerDir, true, numberCatalogs, nextCatId);
         this.dataRootTracker = new DataRootTracker(trackerDir, true, callback);
         this.dataRootPathMatcher = new DataRootPathMatcher(ccc, dataRootTracker); // starting over
-        ccc.setRootCatalogKeys(readRootCatalogs(readMode));
+        dataRootPathMatcher.beginUpdate(); // the trie is built once all the catalogs are read
+        rootCatalogKeys = readRootCatalogs(readMode);
         break;
 
       case check:
@@ -186,7 +214,8 @@ public class ConfigCatalogInitialization {
                                                                                                 // list
         this.dataRootTracker = new DataRootTracker(trackerDir, false, callback); // use existing data roots
         this.dataRootPathMatcher = new DataRootPathMatcher(ccc, dataRootTracker);
-        ccc.setRootCatalogKeys(readRootCatalogs(readMode)); // read just roots to get global services
+        dataRootPathMatcher.beginUpdate();
+        rootCatalogKeys = readRootCatalogs(readMode); // read just roots to get global services
         checkExistingCatalogs(readMode);
         break;
 
@@ -195,9 +224,14 @@ public class ConfigCatalogInitialization {
                                                                                                 // list
         this.dataRootTracker = new DataRootTracker(trackerDir, false, callback); // use existing data roots
         this.dataRootPathMatcher = new DataRootPathMatcher(ccc, dataRootTracker);
-        ccc.setRootCatalogKeys(readRootCatalogs(readMode)); // read just roots to get global services
+        dataRootPathMatcher.beginUpdate();
+        rootCatalogKeys = readRootCatalogs(readMode); // read just roots to get global services
         break;
     }
+    stopCrawler();
+    dataRootPathMatcher.endUpdate();
+    if (ccc != null)
+      ccc.setRootCatalogKeys(rootCatalogKeys);
 
     numberCatalogs = catalogTracker.size();
     nextCatId = catalogTracker.getNextCatId();
@@ -223,12 +257,18 @@ public class ConfigCatalogInitialization {
       dataRootManager.setDataRootPathMatcher(dataRootPathMatcher);
     if (datasetManager != null)
       datasetManager.setDatasetTracker(datasetTracker);
+    if (catalogManager != null)
+      catalogManager.invalidateCache(); // again, in case a catalog was made while rereading
+    DatasetScan.invalidateAllListings(); // made by the DatasetScans just replaced
 
     // cleanup old version of the database
     if (!isStartup && readMode == ReadMode.always) {
       DatasetTrackerChronicle.cleanupBefore(trackerDir, trackerNumber);
     }
 
+    if (catalogWatcher != null)
+      registerCatalogDirs();
+
     long took = System.currentTimeMillis() - readNow;
     logCatalogInit.info("ConfigCatalogInitializion finished took={} msecs", took);
 
@@ -240,6 +280,330 @@ public class ConfigCatalogInitialization {
     return true; // ok
   }
 
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // incremental reload
+
+  /**
+   * Watch the directories of the config catalogs, and reload catalogs when they change.
+   * The catalogs that were not read at startup are read for their catalogRefs on a background thread, which then
+   * starts delivering the changes. Called from TdsInit after init().
+   */
+  public synchronized void startWatching() {
+    if (catalogWatcher != null)
+      return;
+    try {
+      catalogWatcher = new CatalogWatcher(new CatalogWatcher.Listener() {
+        public void catalogsChanged(Set<Path> catalogFiles) {
+          Path root = contentRootPath.toPath();
+          List<String> catalogRelPaths = new ArrayList<>();
+          for (Path file : catalogFiles) {
+            if (file.startsWith(root))
+              catalogRelPaths.add(root.relativize(file).toString().replace('\\', '/'));
+          }
+          reloadCatalogs(catalogRelPaths);
+        }
+
+        public void overflow() {
+          logCatalogInit.warn("ConfigCatalogInitialization lost catalog change events, reading changed catalogs");
+          reread(ReadMode.check, false);
+        }
+      }, watchQuietMsecs);
+
+      catalogTracker = new CatalogTracker(trackerDir, false, numberCatalogs, nextCatId);
+      registerCatalogDirs();
+      catalogTracker = null;
+
+      // changes are queued from here on, and are delivered once the catalogRefs are known
+      CatalogWatcher watcher = catalogWatcher;
+      Thread thread = new Thread(() -> startWatcher(watcher), "ConfigCatalogRefs");
+      thread.setDaemon(true);
+      thread.start();
+
+    } catch (IOException ioe) {
+      logCatalogInit.error(ERROR + "ConfigCatalogInitialization failed to watch catalogs", ioe);
+      stopWatching();
+    }
+  }
+
+  // read the catalogRefs of the catalogs not read since startup, before any catalog is changed, then start watching
+  private synchronized void startWatcher(CatalogWatcher watcher) {
+    if (catalogWatcher != watcher)
+      return; // stopped meanwhile
+    catalogTracker = new CatalogTracker(trackerDir, false, numberCatalogs, nextCatId);
+    try {
+      findAllCatalogRefs();
+    } catch (Throwable e) {
+      logCatalogInit.error(ERROR + "ConfigCatalogInitialization failed to read the catalogRefs", e);
+    } finally {
+      catalogTracker = null;
+    }
+    watcher.start();
+  }
+
+  public synchronized void stopWatching() {
+    if (catalogWatcher == null)
+      return;
+    try {
+      catalogWatcher.close();
+    } catch (IOException ioe) {
+      logCatalogInit.error("catalogWatcher close failed", ioe);
+    }
+    catalogWatcher = null;
+  }
+
+  // watch the directories of the known catalogs, and all directories under catalogScans
+  private void registerCatalogDirs() {
+    Path root = contentRootPath.toPath();
+    Set<Path> dirs = new HashSet<>();
+    dirs.add(root);
+    for (CatalogExt catalogExt : catalogTracker.getCatalogs()) {
+      Path dir = root.resolve(catalogExt.getCatRelLocation()).getParent();
+      if (dir != null)
+        dirs.add(dir);
+    }
+    for (String catScanDir : getCatalogScanDirs()) {
+      Path dir = root.resolve(catScanDir);
+      if (Files.isDirectory(dir) && dirs.add(dir)) {
+        try {
+          catalogWatcher.registerAll(dir);
+        } catch (IOException ioe) {
+          logCatalogInit.warn("ConfigCatalogInitialization failed to watch catalogScan {}", dir, ioe);
+        }
+      }
+    }
+    for (Path dir : dirs) {
+      try {
+        if (Files.isDirectory(dir))
+          catalogWatcher.register(dir);
+      } catch (IOException ioe) {
+        logCatalogInit.warn("ConfigCatalogInitialization failed to watch {}", dir, ioe);
+      }
+    }
+    logCatalogInit.info("ConfigCatalogInitialization watching {} directories for catalog changes",
+        catalogWatcher.getNumberOfDirectories());
+  }
+
+  // the directories of the catalogScans, relative to the content root
+  private List<String> getCatalogScanDirs() {
+    List<String> result = new ArrayList<>();
+    for (Map.Entry<String, DataRootExt> entry : dataRootPathMatcher.getValues()) {
+      DataRootExt dre = entry.getValue();
+      if (dre.getType() != DataRoot.Type.catalogScan || dre.getCatLocation() == null)
+        continue;
+      int pos = dre.getCatLocation().lastIndexOf("/");
+      String dirPath = (pos > 0) ? dre.getCatLocation().substring(0, pos + 1) : "";
+      result.add(StringUtils.cleanPath(dirPath + dre.getDirLocation()));
+    }
+    return result;
+  }
+
+  /**
+   * Reload some catalogs, without reading the rest. For each catalog that was created, changed or deleted, the data
+   * roots and tracked datasets it defines are replaced, and only its entry in the config catalog cache and its
+   * feature collections are dropped. Catalogs it newly references are read too.
+   * Files that are not known catalogs, and are not under a catalogScan, are ignored.
+   * If a root catalog changed, all the root catalogs are reread, to get the global services.
+   *
+   * @param catalogRelPaths paths of the catalogs, relative to the content root
+   */
+  public synchronized void reloadCatalogs(Collection<String> catalogRelPaths) {
+    if (dataRootPathMatcher == null)
+      return; // not initialized
+    readNow = System.currentTimeMillis();
+    catPathMap = new HashSet<>();
+    fcNameMap = new HashMap<>();
+    catalogTracker = new CatalogTracker(trackerDir, false, numberCatalogs, nextCatId);
+    findAllCatalogRefs();
+
+    List<String> catScanDirs = getCatalogScanDirs();
+    List<String> changed = new ArrayList<>();
+    boolean rootChanged = false;
+    for (String path : new TreeSet<>(catalogRelPaths)) {
+      path = StringUtils.cleanPath(path);
+      CatalogExt catalogExt = catalogTracker.get(path);
+      if (catalogExt != null && catalogExt.isRoot())
+        rootChanged = true;
+      else if (catalogExt != null || isUnder(path, catScanDirs))
+        changed.add(path);
+    }
+
+    if (rootChanged || !changed.isEmpty()) {
+      logCatalogInit.info("=========================================================================================\n"
+          + "ConfigCatalogInitialization reload {} catalogs rootChanged={}", changed.size(), rootChanged);
+      Set<Long> oldCatIds = new HashSet<>();
+      dataRootPathMatcher.beginUpdate(); // requests see the old paths until the new ones are all in
+      try {
+        if (rootChanged) {
+          allowedServices.clearGlobalServices();
+          for (String rootPath : ccc.getRootCatalogKeys())
+            reloadCatalog(StringUtils.cleanPath(rootPath), true, oldCatIds);
+        }
+        for (String path : changed)
+          reloadCatalog(path, false, oldCatIds);
+      } finally {
+        dataRootPathMatcher.endUpdate();
+      }
+
+      datasetTracker.removeDatasets(oldCatIds);
+
+      numberCatalogs = catalogTracker.size();
+      nextCatId = catalogTracker.getNextCatId();
+      if (prefs != null) {
+        prefs.putLong("nextCatId", nextCatId);
+        prefs.putInt("numberCatalogs", numberCatalogs);
+      }
+
+      // the live datasetTracker is not saved, as that reopens it under running requests;
+      // the ChronicleMap writes through to its file anyway
+      try {
+        catalogTracker.save();
+        dataRootTracker.save();
+      } catch (IOException e) {
+        logCatalogInit.error("catalogTracker.save() failed", e);
+      }
+      if (catalogManager != null)
+        catalogManager.invalidateCache();
+      if (catalogWatcher != null)
+        registerCatalogDirs();
+
+      long took = System.currentTimeMillis() - readNow;
+      logCatalogInit.info("ConfigCatalogInitialization reload finished took={} msecs", took);
+    }
+
+    // cleanup
+    catPathMap = null;
+    fcNameMap = null;
+    catalogTracker = null;
+  }
+
+  private static boolean isUnder(String path, List<String> dirs) {
+    for (String dir : dirs) {
+      if (path.startsWith(dir.endsWith("/") ? dir : dir + "/"))
+        return true;
+    }
+    return false;
+  }
+
+  // read a catalog again, then drop what it used to define that it no longer does
+  private void reloadCatalog(String catalogRelPath, boolean isRoot, Set<Long> oldCatIds) {
+    if (catPathMap.contains(catalogRelPath))
+      return; // already read again in this reload, through a catalogRef
+    CatalogExt old = catalogTracker.get(catalogRelPath);
+    List<DataRootExt> oldRoots = dataRootPathMatcher.getRoots(catalogRelPath);
+    Set<String> oldRefs = catalogRefs.remove(catalogRelPath);
+    if (ccc != null)
+      ccc.invalidate(catalogRelPath);
+
+    try {
+      checkCatalogToRead(ReadMode.check, catalogRelPath, isRoot, 0); // lastRead = 0 means always read this one
+    } catch (Throwable e) {
+      logCatalogInit.error(ERROR + "reloading catalog " + catalogRelPath + "; " + e.getMessage(), e);
+    }
+
+    // it is there but could not be read, maybe as it is still being written: keep what it defined till it can be
+    if (!catalogRefs.containsKey(catalogRelPath) && new File(this.contentRootPath, catalogRelPath).exists()) {
+      logCatalogInit.warn("ConfigCatalogInitialization keeps the data roots and datasets of {}", catalogRelPath);
+      if (oldRefs != null)
+        catalogRefs.put(catalogRelPath, oldRefs);
+      return;
+    }
+
+    removeRoots(oldRoots);
+    if (old != null)
+      oldCatIds.add(old.getCatId()); // the catalog was given a new id when read again
+
+    // the catalogs it no longer references may now be unreferenced
+    if (oldRefs != null) {
+      Set<String> newRefs = catalogRefs.getOrDefault(catalogRelPath, Collections.emptySet());
+      for (String ref : oldRefs) {
+        if (!newRefs.contains(ref))
+          dropUnreferencedCatalog(ref, oldCatIds);
+      }
+    }
+  }
+
+  // forget a catalog that no catalog references any more, and then the catalogs that only it referenced
+  private void dropUnreferencedCatalog(String catalogRelPath, Set<Long> oldCatIds) {
+    CatalogExt catalogExt = catalogTracker.get(catalogRelPath);
+    if (catalogExt == null || catalogExt.isRoot() || isUnder(catalogRelPath, getCatalogScanDirs()))
+      return;
+    for (Set<String> refs : catalogRefs.values()) {
+      if (refs.contains(catalogRelPath))
+        return; // still referenced
+    }
+
+    logCatalogInit.info("ConfigCatalogInitialization catalog {} is no longer referenced", catalogRelPath);
+    catalogTracker.removeCatalog(catalogRelPath);
+    oldCatIds.add(catalogExt.getCatId());
+    if (ccc != null)
+      ccc.invalidate(catalogRelPath);
+    removeRoots(dataRootPathMatcher.getRoots(catalogRelPath));
+
+    Set<String> refs = catalogRefs.remove(catalogRelPath);
+    if (refs != null) {
+      for (String ref : refs)
+        dropUnreferencedCatalog(ref, oldCatIds);
+    }
+  }
+
+  private void removeRoots(List<DataRootExt> roots) {
+    for (DataRootExt dre : roots) {
+      dataRootPathMatcher.removeRoot(dre); // unless it was replaced
+      if (dre.getType() == DataRoot.Type.featureCollection && fcCache != null)
+        fcCache.invalidate(dre.getName()); // made again from the new catalog
+      DatasetScan scan = dre.getDataRoot() == null ? null : dre.getDataRoot().getDatasetScan();
+      if (scan != null)
+        scan.invalidateListings(); // the new catalog has its own DatasetScan
+    }
+  }
+
+  // read the catalogs whose references are not known, as they have not been read since startup
+  private void findAllCatalogRefs() {
+    int count = 0;
+    for (CatalogExt catalogExt : catalogTracker.getCatalogs()) {
+      String catalogRelPath = StringUtils.cleanPath(catalogExt.getCatRelLocation());
+      if (catalogRefs.containsKey(catalogRelPath))
+        continue;
+      File catalogFile = new File(this.contentRootPath, catalogRelPath);
+      ConfigCatalog cat = catalogFile.exists() ? readCatalog(catalogRelPath, catalogFile.getPath()) : null;
+      catalogRefs.put(catalogRelPath,
+          (cat == null) ? new HashSet<>() : findCatalogRefs(getDirPath(catalogRelPath), cat.getDatasetsLocal()));
+      count++;
+    }
+    if (count > 0)
+      logCatalogInit.info("ConfigCatalogInitialization read the catalogRefs of {} catalogs", count);
+  }
+
+  // the catalogs these datasets reference, relative to the content root; follows the same catalogRefs as
+  // processDatasets()
+  private Set<String> findCatalogRefs(String dirPath, List<Dataset> datasets) {
+    Set<String> result = new HashSet<>();
+    addCatalogRefs(dirPath, datasets, result);
+    return result;
+  }
+
+  private void addCatalogRefs(String dirPath, List<Dataset> datasets, Set<String> result) {
+    for (Dataset ds : datasets) {
+      if ((ds instanceof DatasetScan) || (ds instanceof FeatureCollectionRef) || (ds instanceof CatalogScan))
+        continue;
+      if (ds instanceof CatalogRef) {
+        String href = ((CatalogRef) ds).getXlinkHref();
+        String path = href.startsWith("http:") ? null
+            : ConfigCatalogCrawler.resolveCatalogRef(href, this.contextPath, dirPath);
+        if (path != null)
+          result.add(StringUtils.cleanPath(path));
+      } else {
+        addCatalogRefs(dirPath, ds.getDatasetsLocal(), result);
+      }
+    }
+  }
+
+  // the directory of a catalog, relative to the content root
+  private static String getDirPath(String catalogRelPath) {
+    int pos = catalogRelPath.lastIndexOf("/");
+    return (pos > 0) ? catalogRelPath.substring(0, pos + 1) : "";
+  }
+
   private List<String> readRootCatalogs(ReadMode readMode) {
     ArrayList<String> rootCatalogKeys = new ArrayList<>();
     rootCatalogKeys.add("catalog.xml"); // always first
@@ -247,6 +611,8 @@ public class ConfigCatalogInitialization {
     for (String location : ThreddsConfig.getRootList("catalogRoot"))
       rootCatalogKeys.add(location);
     logCatalogInit.info("ConfigCatalogInit: initializing " + rootCatalogKeys.size() + " root catalogs.");
+    if (readThreads > 1)
+      startCrawler(readMode, rootCatalogKeys);
 
     // all root catalogs are checked
     for (String pathname : rootCatalogKeys) {
@@ -261,6 +627,38 @@ public class ConfigCatalogInitialization {
     return rootCatalogKeys;
   }
 
+  // read catalogs on other threads, ahead of checkCatalogToRead(), which still visits them in the usual order
+  private void startCrawler(ReadMode readMode, List<String> rootCatalogKeys) {
+    Map<String, Long> lastRead = new HashMap<>();
+    for (CatalogExt catalogExt : catalogTracker.getCatalogs())
+      lastRead.put(StringUtils.cleanPath(catalogExt.getCatRelLocation()), catalogExt.getLastRead());
+
+    crawler = new ConfigCatalogCrawler(readThreads, readAheadPerThread * readThreads, contentRootPath,
+        contextPath, readMode, lastRead, this::readCatalog);
+    for (String pathname : rootCatalogKeys)
+      crawler.visit(pathname, true);
+    if (readMode == ReadMode.check) { // see checkExistingCatalogs()
+      for (CatalogExt catalogExt : catalogTracker.getCatalogs()) {
+        if (!catalogExt.isRoot())
+          crawler.visit(catalogExt.getCatRelLocation(), false);
+      }
+    }
+    logCatalogInit.info("ConfigCatalogInit: reading catalogs on {} threads", readThreads);
+  }
+
+  private void stopCrawler() {
+    if (crawler != null) {
+      crawler.close();
+      crawler = null;
+    }
+  }
+
+  // use the catalog read by the crawler if there is one, else read it now
+  private ConfigCatalog getCatalog(String catalogRelPath, String catalogFullPath) {
+    CompletableFuture<ConfigCatalog> future = (crawler == null) ? null : crawler.take(catalogRelPath);
+    return (future != null) ? future.join() : readCatalog(catalogRelPath, catalogFullPath);
+  }
+
   private void checkExistingCatalogs(ReadMode readMode) {
     for (CatalogExt catalogExt : catalogTracker.getCatalogs()) {
       if (catalogExt.isRoot())
@@ -312,7 +710,7 @@ public class ConfigCatalogInitialization {
     // if (logCatalogInit.isDebugEnabled()) logCatalogInit.debug("initCatalog {} -> {}", path, f.getAbsolutePath());
 
     // read it
-    ConfigCatalog cat = readCatalog(catalogRelPath, catalogFile.getPath());
+    ConfigCatalog cat = getCatalog(catalogRelPath, catalogFile.getPath());
     if (cat == null) {
       logCatalogInit.error(ERROR + "initCatalog(): failed to read catalog <" + catalogFile.getPath() + ">.");
       return;
@@ -350,8 +748,8 @@ public class ConfigCatalogInitialization {
         fcNameMap);
 
     // get the directory path, relative to the rootDir
-    int pos = catalogRelPath.lastIndexOf("/");
-    String dirPath = (pos > 0) ? catalogRelPath.substring(0, pos + 1) : "";
+    String dirPath = getDirPath(catalogRelPath);
+    catalogRefs.put(catalogRelPath, findCatalogRefs(dirPath, cat.getDatasetsLocal()));
     processDatasets(catId, readMode, dirPath, cat.getDatasetsLocal(), idSet); // recurse
 
     // look for catalogScans
@@ -438,24 +836,14 @@ public class ConfigCatalogInitialization {
 
         // Check that catRef is relative
         if (!href.startsWith("http:")) {
-          // Clean up relative URLs that start with "./"
-          if (href.startsWith("./")) {
-            href = href.substring(2);
-          }
-
-          String path;
-          String contextPathPlus = this.contextPath + "/";
-          if (href.startsWith(contextPathPlus)) {
-            path = href.substring(contextPathPlus.length()); // absolute starting from content root
-          } else if (href.startsWith("/")) {
+          String path = ConfigCatalogCrawler.resolveCatalogRef(href, this.contextPath, dirPath);
+          if (path == null) {
             // Drop the catRef because it points to a non-TDS served catalog.
             logCatalogInit.error(ERROR + "Skipping catalogRef <xlink:href=" + href
-                + ">. Reference is relative to the server outside the context path [" + contextPathPlus + "]. "
+                + ">. Reference is relative to the server outside the context path [" + this.contextPath + "/]. "
                 + "Parent catalog info: Name=\"" + catref.getParentCatalog().getName() + "\"; Base URI=\""
                 + catref.getParentCatalog().getUriString() + "\"; dirPath=\"" + dirPath + "\".");
             continue;
-          } else {
-            path = dirPath + href; // relative starting from current directory
           }
 
           CatalogExt ext = catalogTracker.get(path);
@@ -475,30 +863,26 @@ public class ConfigCatalogInitialization {
     if (exceedLimit)
       return;
 
-    // do any catalogs first
-    try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "*.xml")) {
-      for (Path p : ds) {
-        if (!Files.isDirectory(p)) {
-          // path must be relative to rootDir
-          String filename = p.getFileName().toString();
-          String path = dirPath.length() == 0 ? filename : dirPath + "/" + filename; // relative starting from current
-                                                                                     // directory
-
-          CatalogExt ext = catalogTracker.get(path);
-          long lastRead = (ext == null) ? 0 : ext.getLastRead();
-          checkCatalogToRead(readMode, path, false, lastRead);
-        }
+    // do any catalogs first; in name order, so catalogs are read in the same order on every platform
+    for (Path p : ConfigCatalogCrawler.listDirectory(directory, "*.xml")) {
+      if (!Files.isDirectory(p)) {
+        // path must be relative to rootDir
+        String filename = p.getFileName().toString();
+        String path = dirPath.length() == 0 ? filename : dirPath + "/" + filename; // relative starting from current
+                                                                                   // directory
+
+        CatalogExt ext = catalogTracker.get(path);
+        long lastRead = (ext == null) ? 0 : ext.getLastRead();
+        checkCatalogToRead(readMode, path, false, lastRead);
       }
     }
 
     // now recurse into the directory
-    try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
-      for (Path dir : ds) {
-        if (Files.isDirectory(dir)) {
-          String dirPathChild = dirPath + "/" + dir.getFileName().toString(); // relative starting from current
-                                                                              // directory
-          readCatsInDirectory(readMode, dirPathChild, dir);
-        }
+    for (Path dir : ConfigCatalogCrawler.listDirectory(directory, "*")) {
+      if (Files.isDirectory(dir)) {
+        String dirPathChild = dirPath + "/" + dir.getFileName().toString(); // relative starting from current
+                                                                            // directory
+        readCatsInDirectory(readMode, dirPathChild, dir);
       }
     }
   }
@@ -689,6 +1073,14 @@ public class ConfigCatalogInitialization {
   public ConfigCatalogInitialization(ReadMode readMode, File contentRootPath, String trackerDir,
       DatasetTracker datasetTracker, AllowedServices allowedServices, DatasetTracker.Callback callback,
       long maxDatasetsProcess) throws IOException {
+    this(readMode, contentRootPath, trackerDir, datasetTracker, allowedServices, callback, maxDatasetsProcess,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  public ConfigCatalogInitialization(ReadMode readMode, File contentRootPath, String trackerDir,
+      DatasetTracker datasetTracker, AllowedServices allowedServices, DatasetTracker.Callback callback,
+      long maxDatasetsProcess, int readThreads) throws IOException {
+    this.readThreads = Math.max(1, readThreads);
     this.contentRootPath = contentRootPath;
     this.contextPath = "/thredds";
     this.trackerDir = trackerDir != null ? trackerDir : new File(contentRootPath, "cache/catalog").getPath();
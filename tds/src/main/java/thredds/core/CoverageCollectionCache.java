@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.core;
+
+import org.springframework.stereotype.Component;
+import ucar.nc2.ft2.coverage.CoverageCollection;
+import ucar.nc2.ft2.coverage.FeatureDatasetCoverage;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps opened coverage datasets between requests, so that NCSS, WCS and the dataset.xml/html pages don't redo the
+ * coordinate system analysis of the same file on every request.
+ * <p>
+ * Like the NetcdfFile cache, a dataset is lent to one request at a time, because most coverage readers share a
+ * NetcdfFile, which is not safe for concurrent reads. Concurrent requests for the same dataset open more copies.
+ * A dataset is keyed by its location, and is opened again when its version (usually the last modified time of the
+ * file) changes. The total number of open datasets, lent or idle, is bounded; idle ones are closed least recently
+ * used first, and lent ones are closed when they are returned while the cache is over its bound.
+ */
+@Component
+@ThreadSafe
+public class CoverageCollectionCache {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(CoverageCollectionCache.class);
+
+  /** Opens a dataset on a cache miss. */
+  public interface Opener {
+    FeatureDatasetCoverage open() throws IOException;
+  }
+
+  private static class Entry {
+    final String key;
+    final long version;
+    final FeatureDatasetCoverage dataset;
+    final CoverageCollection collection;
+
+    Entry(String key, long version, FeatureDatasetCoverage dataset, CoverageCollection collection) {
+      this.key = key;
+      this.version = version;
+      this.dataset = dataset;
+      this.collection = collection;
+    }
+  }
+
+  /**
+   * A coverage collection lent to a request. Closing it returns the collection to the cache, or closes it if it is
+   * not cached.
+   */
+  public static class Handle implements Closeable {
+    private final CoverageCollection collection;
+    @Nullable
+    private final CoverageCollectionCache cache;
+    @Nullable
+    private final Entry entry;
+    private boolean closed;
+
+    private Handle(CoverageCollection collection, @Nullable CoverageCollectionCache cache, @Nullable Entry entry) {
+      this.collection = collection;
+      this.cache = cache;
+      this.entry = entry;
+    }
+
+    public CoverageCollection getCollection() {
+      return collection;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed)
+        return;
+      closed = true;
+      if (cache != null)
+        cache.release(entry);
+      else
+        collection.close();
+    }
+  }
+
+  /** Wraps a collection that is not cached, so that closing the handle closes the collection. */
+  public static Handle uncached(CoverageCollection collection) {
+    return new Handle(collection, null, null);
+  }
+
+  private volatile int maxDatasets; // <= 0 means disabled
+
+  @GuardedBy("this")
+  private final Map<String, Deque<Entry>> idle = new HashMap<>(); // per key, most recently returned first
+  @GuardedBy("this")
+  private final LinkedHashSet<Entry> idleOrder = new LinkedHashSet<>(); // least recently returned first
+  @GuardedBy("this")
+  private int openCount; // lent and idle
+  @GuardedBy("this")
+  private long hits, misses, evictions;
+
+  public CoverageCollectionCache() {}
+
+  // for unit tests
+  CoverageCollectionCache(int maxDatasets) {
+    init(maxDatasets);
+  }
+
+  public void init(int maxDatasets) {
+    this.maxDatasets = maxDatasets;
+  }
+
+  public boolean isEnabled() {
+    return maxDatasets > 0;
+  }
+
+  /**
+   * Lends a dataset from the cache, or opens it.
+   *
+   * @param key the location of the dataset
+   * @param version changes when the dataset changes; idle copies of other versions are closed, not lent
+   * @param opener opens the dataset on a miss
+   * @return the lent collection; close it when done
+   */
+  public Handle acquire(String key, long version, Opener opener) throws IOException {
+    if (!isEnabled())
+      return uncached(open(key, version, opener).collection);
+
+    List<Entry> toClose = new ArrayList<>();
+    Entry found = null;
+    synchronized (this) {
+      Deque<Entry> entries = idle.get(key);
+      while (found == null && entries != null && !entries.isEmpty()) {
+        Entry e = entries.pollFirst();
+        idleOrder.remove(e);
+        if (e.version == version) {
+          found = e;
+        } else {
+          toClose.add(e);
+          openCount--;
+        }
+      }
+      if (entries != null && entries.isEmpty())
+        idle.remove(key);
+      if (found != null)
+        hits++;
+      else
+        misses++;
+    }
+    closeAll(toClose);
+    if (found != null)
+      return new Handle(found.collection, this, found);
+
+    Entry made = open(key, version, opener);
+    toClose.clear();
+    synchronized (this) {
+      openCount++;
+      evictIdle(toClose);
+    }
+    closeAll(toClose);
+    return new Handle(made.collection, this, made);
+  }
+
+  private Entry open(String key, long version, Opener opener) throws IOException {
+    FeatureDatasetCoverage dataset = opener.open();
+    try {
+      return new Entry(key, version, dataset, dataset.getSingleCoverageCollection());
+    } catch (RuntimeException e) {
+      dataset.close();
+      throw e;
+    }
+  }
+
+  private void release(Entry entry) {
+    List<Entry> toClose = new ArrayList<>();
+    synchronized (this) {
+      if (isEnabled() && openCount <= maxDatasets) {
+        idle.computeIfAbsent(entry.key, k -> new ArrayDeque<>()).addFirst(entry);
+        idleOrder.add(entry);
+      } else {
+        toClose.add(entry);
+        openCount--;
+        evictions++;
+      }
+      evictIdle(toClose);
+    }
+    closeAll(toClose);
+  }
+
+  // close the least recently returned idle datasets while over the bound
+  @GuardedBy("this")
+  private void evictIdle(List<Entry> toClose) {
+    Iterator<Entry> iter = idleOrder.iterator();
+    while (openCount > maxDatasets && iter.hasNext()) {
+      Entry e = iter.next();
+      iter.remove();
+      Deque<Entry> entries = idle.get(e.key);
+      entries.remove(e);
+      if (entries.isEmpty())
+        idle.remove(e.key);
+      toClose.add(e);
+      openCount--;
+      evictions++;
+    }
+  }
+
+  private static void closeAll(List<Entry> entries) {
+    for (Entry e : entries) {
+      try {
+        e.dataset.close();
+      } catch (IOException | RuntimeException ex) {
+        logger.warn("Failed to close coverage dataset {}", e.key, ex);
+      }
+    }
+  }
+
+  /** Closes all idle datasets. Lent datasets are closed when they are returned. */
+  public void invalidateAll() {
+    List<Entry> toClose;
+    synchronized (this) {
+      toClose = new ArrayList<>(idleOrder);
+      idleOrder.clear();
+      idle.clear();
+      openCount -= toClose.size();
+    }
+    closeAll(toClose);
+  }
+
+  /** Closes all idle datasets, and stops caching. */
+  public void shutdown() {
+    maxDatasets = 0;
+    invalidateAll();
+  }
+
+  public synchronized void showCache(Formatter f) {
+    f.format("CoverageCollectionCache maxDatasets= %d open= %d idle= %d hits= %d misses= %d evictions= %d%n",
+        maxDatasets, openCount, idleOrder.size(), hits, misses, evictions);
+    for (Entry e : idleOrder)
+      f.format("  %s version= %d%n", e.key, e.version);
+  }
+}
@@ -6,6 +6,9 @@
 package thredds.core;
 
 import com.coverity.security.Escape;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import org.jdom2.Attribute;
 import org.jdom2.output.XMLOutputter;
 import org.springframework.beans.factory.InitializingBean;
@@ -15,6 +18,8 @@ import org.springframework.stereotype.Component;
 import thredds.core.DataRootManager.DataRootMatch;
 import thredds.featurecollection.FeatureCollectionCache;
 import thredds.featurecollection.InvDatasetFeatureCollection;
+import thredds.inventory.MFile;
+import thredds.inventory.MFiles;
 import thredds.server.admin.DebugCommands;
 import thredds.server.catalog.DatasetScan;
 import thredds.server.catalog.FeatureCollectionRef;
@@ -45,6 +50,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Formatter;
 
@@ -70,6 +76,9 @@ public class DatasetManager implements InitializingBean {
   @Autowired
   private FeatureCollectionCache featureCollectionCache;
 
+  @Autowired
+  private CoverageCollectionCache coverageCollectionCache;
+
   @Autowired
   @Qualifier("restrictedDatasetAuthorizer")
   private Authorizer restrictedDatasetAuthorizer;
@@ -115,6 +124,33 @@ public class DatasetManager implements InitializingBean {
     return dataRootManager.getLocationFromRequestPath(reqPath);
   }
 
+  /**
+   * Find when the dataset for a request path last changed, to validate cached responses.
+   * For a feature collection this is when its inventory last changed.
+   *
+   * @param reqPath the request path
+   * @return last modified time in msecs, or -1 if not known
+   */
+  public long getLastModified(String reqPath) throws IOException {
+    if (reqPath.startsWith("/"))
+      reqPath = reqPath.substring(1);
+
+    if (datasetTracker.findNcml(reqPath) != null)
+      return -1; // ncml may refer to anything
+
+    DataRootMatch match = dataRootManager.findDataRootMatch(reqPath);
+    if ((match != null) && (match.dataRoot.getFeatureCollection() != null)) {
+      InvDatasetFeatureCollection fc = featureCollectionCache.get(match.dataRoot.getFeatureCollection());
+      long lastInvChange = fc.getLastInvChange();
+      return (lastInvChange > 0) ? lastInvChange : -1;
+    }
+
+    String location = getLocationFromRequestPath(reqPath);
+    if (location == null || hasDatasetScanNcml(match))
+      return -1;
+    return getLastModifiedOfLocation(location);
+  }
+
   public String getLocationFromNcml(String reqPath) {
     final String ncml = datasetTracker.findNcml(reqPath);
     return ncml != null ? NcmlReader.getLocationFromNcml(ncml) : null;
@@ -227,37 +263,82 @@ public class DatasetManager implements InitializingBean {
         && match.dataRoot.getDatasetScan().getNcmlElement() != null;
   }
 
-  private NetcdfFile openNcmlDatasetScan(String location, DataRootMatch match) throws IOException {
+  // The NcML of a datasetScan, and what is needed to open a file through it, made once for each NcML element.
+  static class DatasetScanNcml {
+    final org.jdom2.Element netcdfElem;
+    final boolean addRecords;
+    final String hash; // of the NcML, so that files opened through changed NcML are not taken from the caches
+
+    DatasetScanNcml(org.jdom2.Element netcdfElem) {
+      this.netcdfElem = netcdfElem;
+      // look for addRecords attribute on the netcdf element. The new API in netCDF-Java does not handle this,
+      // so we will handle it special here.
+      Attribute addRecordsAttr = netcdfElem.getAttribute("addRecords");
+      this.addRecords = addRecordsAttr != null && Boolean.parseBoolean(addRecordsAttr.getValue());
+      String ncml = new XMLOutputter().outputString(netcdfElem);
+      this.hash = Hashing.murmur3_128().hashString(ncml, StandardCharsets.UTF_8).toString();
+    }
+  }
+
+  // weak keys compare by identity; an element lives as long as the catalog of its datasetScan
+  private final Cache<org.jdom2.Element, DatasetScanNcml> datasetScanNcmlCache =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  private DatasetScanNcml getDatasetScanNcml(DataRootMatch match) {
     org.jdom2.Element netcdfElem = match.dataRoot.getDatasetScan().getNcmlElement();
-    // if there's an ncml element, open it through NcMLReader, supplying the underlying file
-    // from NetcdfFiles.open(), therefore not being cached.
-    // This is safer given all the trouble we have with ncml and caching.
-
-    String ncmlLocation = "DatasetScan#" + location; // LOOK some descriptive name
-    // open with openFile(), not acquireFile, so we skip the caches
-
-    // look for addRecords attribute on the netcdf element. The new API in netCDF-Java does not handle this,
-    // so we will handle it special here.
-    Attribute addRecordsAttr = netcdfElem.getAttribute("addRecords");
-    boolean addRecords = false;
-    if (addRecordsAttr != null) {
-      addRecords = Boolean.valueOf(addRecordsAttr.getValue());
+    return datasetScanNcmlCache.asMap().computeIfAbsent(netcdfElem, DatasetScanNcml::new);
+  }
+
+  // used for files in a datasetScan that has an NcML element: opens the file and merges the NcML into it.
+  // The file underneath is opened with openFile(), not acquireFile(), so it belongs to the merged dataset only.
+  private static class DatasetScanNcmlFileFactory implements FileFactory {
+    private final DatasetScanNcml ncml;
+    private final String location;
+
+    DatasetScanNcmlFileFactory(DatasetScanNcml ncml, String location) {
+      this.ncml = ncml;
+      this.location = location;
     }
 
-    NetcdfFile ncf;
-    if (addRecords) {
-      DatasetUrl datasetUrl = DatasetUrl.findDatasetUrl(location);
-      // work around for presence of addRecords="true" on a netcdf element
-      ncf = NetcdfDatasets.openFile(datasetUrl, -1, null, NetcdfFile.IOSP_MESSAGE_ADD_RECORD_STRUCTURE);
-    } else {
-      ncf = NetcdfDatasets.openFile(location, null);
+    public NetcdfFile open(DatasetUrl durl, int buffer_size, ucar.nc2.util.CancelTask cancelTask, Object spiObject)
+        throws IOException {
+      NetcdfFile ncf;
+      if (ncml.addRecords) {
+        // work around for presence of addRecords="true" on a netcdf element
+        ncf = NetcdfDatasets.openFile(durl, -1, cancelTask, NetcdfFile.IOSP_MESSAGE_ADD_RECORD_STRUCTURE);
+      } else {
+        ncf = NetcdfDatasets.openFile(location, cancelTask);
+      }
+
+      try {
+        NetcdfDataset.Builder<?> modifiedDsBuilder = NcmlReader.mergeNcml(ncf, ncml.netcdfElem);
+        // set new location to indicate this is a dataset from a dataset scan wrapped with NcML.
+        modifiedDsBuilder.setLocation("DatasetScan#" + location); // LOOK some descriptive name
+        return modifiedDsBuilder.build();
+      } catch (IOException | RuntimeException e) {
+        ncf.close();
+        throw e;
+      }
     }
+  }
+
+  // cache key of a file wrapped in the NcML of its datasetScan
+  private static String getDatasetScanNcmlKey(String location, DatasetScanNcml ncml) {
+    return "DatasetScan#" + location + "#" + ncml.hash;
+  }
 
-    NetcdfDataset.Builder<?> modifiedDsBuilder = NcmlReader.mergeNcml(ncf, netcdfElem);
+  // The file wrapped in the NcML of its datasetScan, acquired from the NetcdfFile cache; closing it releases it.
+  // The key includes the hash of the NcML, so the merged dataset is never confused with the plain file,
+  // nor with the same file under other NcML. It also includes the file's last modified time, so a changed file
+  // is opened again, and the stale entry ages out of the cache.
+  private NetcdfFile openNcmlDatasetScan(String location, DataRootMatch match) throws IOException {
+    return openNcmlDatasetScan(location, getDatasetScanNcml(match));
+  }
 
-    // set new location to indicate this is a dataset from a dataset scan wrapped with NcML.
-    modifiedDsBuilder.setLocation(ncmlLocation);
-    return modifiedDsBuilder.build();
+  static NetcdfFile openNcmlDatasetScan(String location, DatasetScanNcml ncml) throws IOException {
+    String key = getDatasetScanNcmlKey(location, ncml) + "#" + getLastModifiedOfLocation(location);
+    return NetcdfDatasets.acquireFile(new DatasetScanNcmlFileFactory(ncml, location), key,
+        DatasetUrl.findDatasetUrl(location), -1, null, null);
   }
 
   /**
@@ -382,8 +463,9 @@ public class DatasetManager implements InitializingBean {
   }
 
   // return null means request has been handled, and calling routine should exit without further processing
-  public CoverageCollection openCoverageDataset(HttpServletRequest req, HttpServletResponse res, String reqPath)
-      throws IOException {
+  // close the returned handle when done with the collection
+  public CoverageCollectionCache.Handle openCoverageDataset(HttpServletRequest req, HttpServletResponse res,
+      String reqPath) throws IOException {
     if (reqPath == null)
       return null;
 
@@ -397,15 +479,23 @@ public class DatasetManager implements InitializingBean {
     // if ncml, must handle specially.
     // check this before checking for a datasetRoot or featureCollection,
     // since the urlPath doesn't need to point to a file if there is ncml
-    String ncml = datasetTracker.findNcml(reqPath);
+    final String ncml = datasetTracker.findNcml(reqPath);
     if (ncml != null) {
-      Optional<FeatureDatasetCoverage> opt = CoverageDatasetFactory.openNcmlString(ncml);
-      if (!opt.isPresent())
-        throw new FileNotFoundException("NcML is not a Grid Dataset " + reqPath + " err=" + opt.getErrorMessage());
+      final String ncmlPath = reqPath;
+      CoverageCollectionCache.Opener opener = () -> {
+        Optional<FeatureDatasetCoverage> opt = CoverageDatasetFactory.openNcmlString(ncml);
+        if (!opt.isPresent())
+          throw new FileNotFoundException("NcML is not a Grid Dataset " + ncmlPath + " err=" + opt.getErrorMessage());
+        return opt.get();
+      };
 
       if (log.isDebugEnabled())
         log.debug("  -- DatasetHandler found FeatureCollection from NcML");
-      return opt.get().getSingleCoverageCollection();
+      // NcML that wraps one file is cached until that file changes, an aggregation is not
+      long lastModified = getLastModifiedOfLocation(NcmlReader.getLocationFromNcml(ncml));
+      if (lastModified > 0)
+        return coverageCollectionCache.acquire("ncml:" + reqPath + "#" + ncml.hashCode(), lastModified, opener);
+      return CoverageCollectionCache.uncached(opener.open().getSingleCoverageCollection());
     }
 
     // then look for a feature collection
@@ -419,55 +509,79 @@ public class DatasetManager implements InitializingBean {
       CoverageCollection gds = fc.getGridCoverage(match.remaining);
       if (gds == null)
         throw new FileNotFoundException(reqPath);
-      return gds;
+      return CoverageCollectionCache.uncached(gds);
     }
 
     // otherwise, assume it's a local file with a datasetRoot in the urlPath.
-    String location = getLocationFromRequestPath(reqPath);
+    final String location = getLocationFromRequestPath(reqPath);
 
     // Ncml in datasetScan
     if (location != null && hasDatasetScanNcml(match)) {
-      return openCoverageFromDatasetScanNcml(location, match, reqPath);
+      final DatasetScanNcml ncml = getDatasetScanNcml(match);
+      final String scanPath = reqPath;
+      CoverageCollectionCache.Opener opener = () -> openCoverageFromDatasetScanNcml(location, ncml, scanPath);
+      long lastModified = getLastModifiedOfLocation(location);
+      if (lastModified > 0)
+        return coverageCollectionCache.acquire(getDatasetScanNcmlKey(location, ncml), lastModified, opener);
+      return CoverageCollectionCache.uncached(opener.open().getSingleCoverageCollection());
     }
 
     // try to open as a FeatureDatasetCoverage. This allows GRIB to be handled specially
     if (location != null) {
-      Optional<FeatureDatasetCoverage> opt = CoverageDatasetFactory.openCoverageDataset(location);
-      // hack - CoverageDatasetFactory bombs out on an object store location string during the grib check,
-      // this is the code from CoverageDatasetFactory.openCoverageDataset that comes after the grib check.
-      if (!opt.isPresent() && isLocationObjectStore(location)) {
-        // hack 2 - DtCoverageDataset not ported, so need to open the NetcdfDataset object through NetcdfDatasets
-        // and pass that to CoverageDataset
-        DtCoverageDataset gds = new DtCoverageDataset(NetcdfDatasets.openDataset(location));
-        if (!gds.getGrids().isEmpty()) {
-          FeatureDatasetCoverage result = DtCoverageAdapter.factory(gds, new Formatter());
-          opt = Optional.of(result);
+      final String filePath = reqPath;
+      CoverageCollectionCache.Opener opener = () -> {
+        Optional<FeatureDatasetCoverage> opt = CoverageDatasetFactory.openCoverageDataset(location);
+        // hack - CoverageDatasetFactory bombs out on an object store location string during the grib check,
+        // this is the code from CoverageDatasetFactory.openCoverageDataset that comes after the grib check.
+        if (!opt.isPresent() && isLocationObjectStore(location)) {
+          // hack 2 - DtCoverageDataset not ported, so need to open the NetcdfDataset object through NetcdfDatasets
+          // and pass that to CoverageDataset
+          DtCoverageDataset gds = new DtCoverageDataset(NetcdfDatasets.openDataset(location));
+          if (!gds.getGrids().isEmpty()) {
+            FeatureDatasetCoverage result = DtCoverageAdapter.factory(gds, new Formatter());
+            opt = Optional.of(result);
+          }
         }
-      }
 
-      if (!opt.isPresent())
-        throw new FileNotFoundException("Error opening grid dataset " + reqPath + ". err=" + opt.getErrorMessage());
+        if (!opt.isPresent())
+          throw new FileNotFoundException("Error opening grid dataset " + filePath + ". err=" + opt.getErrorMessage());
+        return opt.get();
+      };
 
       if (log.isDebugEnabled())
         log.debug("  -- DatasetHandler found FeatureCollection from file= " + location);
-      return opt.get().getSingleCoverageCollection(); // LOOK doesnt have to be single, then what is the URL?
+      // LOOK doesnt have to be single, then what is the URL?
+      long lastModified = getLastModifiedOfLocation(location);
+      if (lastModified > 0)
+        return coverageCollectionCache.acquire(location, lastModified, opener);
+      return CoverageCollectionCache.uncached(opener.open().getSingleCoverageCollection());
     }
 
     return null;
   }
 
-  private CoverageCollection openCoverageFromDatasetScanNcml(String location, DataRootMatch match, String reqPath)
-      throws IOException {
-    final NetcdfFile ncf = openNcmlDatasetScan(location, match);
+  // last modified time in msecs, or -1 if not known
+  private static long getLastModifiedOfLocation(String location) {
+    if (location == null)
+      return -1;
+    MFile mfile = MFiles.create(location);
+    return (mfile != null && mfile.getLastModified() > 0) ? mfile.getLastModified() : -1;
+  }
+
+  // not from the NetcdfFile cache, since the coverage cache may keep it open
+  private FeatureDatasetCoverage openCoverageFromDatasetScanNcml(String location, DatasetScanNcml ncml,
+      String reqPath) throws IOException {
+    final NetcdfFile ncf =
+        new DatasetScanNcmlFileFactory(ncml, location).open(DatasetUrl.findDatasetUrl(location), -1, null, null);
     final NetcdfDataset ncd = NetcdfDatasets.enhance(ncf, NetcdfDataset.getDefaultEnhanceMode(), null);
     final DtCoverageDataset gds = new DtCoverageDataset(ncd);
 
     if (gds.getGrids().isEmpty()) {
+      ncd.close();
       throw new FileNotFoundException("Error opening grid dataset " + reqPath + ". err= no grids found.");
     }
 
-    final FeatureDatasetCoverage coverage = DtCoverageAdapter.factory(gds, new Formatter());
-    return coverage.getSingleCoverageCollection();
+    return DtCoverageAdapter.factory(gds, new Formatter());
   }
 
   public SimpleGeometryFeatureDataset openSimpleGeometryDataset(HttpServletRequest req, HttpServletResponse res,
@@ -632,6 +746,14 @@ public class DatasetManager implements InitializingBean {
     };
     debugHandler.addAction(act);
 
+    act = new DebugCommands.Action("showCoverageCache", "Show cached coverage datasets") {
+      public void doAction(DebugCommands.Event e) {
+        Formatter f = new Formatter();
+        coverageCollectionCache.showCache(f);
+        e.pw.println(Escape.html(f.toString()));
+      }
+    };
+    debugHandler.addAction(act);
   }
 
 }
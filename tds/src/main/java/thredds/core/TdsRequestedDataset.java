@@ -14,7 +14,6 @@ import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.NetcdfDatasets;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.ft.FeatureDatasetPoint;
-import ucar.nc2.ft2.coverage.CoverageCollection;
 import ucar.nc2.ft2.simpgeometry.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -66,8 +65,9 @@ public class TdsRequestedDataset {
   }
 
   // return null means request has been handled, and calling routine should exit without further processing
-  public static CoverageCollection getCoverageCollection(HttpServletRequest request, HttpServletResponse response,
-      String path) throws IOException {
+  // close the returned handle when done with the collection
+  public static CoverageCollectionCache.Handle getCoverageCollection(HttpServletRequest request,
+      HttpServletResponse response, String path) throws IOException {
     TdsRequestedDataset trd = new TdsRequestedDataset(request, null);
     if (path != null)
       trd.path = path;
@@ -96,6 +96,13 @@ public class TdsRequestedDataset {
     return (file == null) ? -1 : file.getLastModified();
   }
 
+  /**
+   * Like getLastModified(), but also works for feature collections, and returns -1 for datasets wrapped in NcML.
+   */
+  public static long getDatasetLastModified(String reqPath) throws IOException {
+    return datasetManager.getLastModified(reqPath);
+  }
+
   public static File getFile(String reqPath) {
     String location = getLocationFromRequestPath(reqPath);
     return (location == null) ? null : new File(location);
@@ -144,8 +151,8 @@ public class TdsRequestedDataset {
   }
 
   // return null means request has been handled, and calling routine should exit without further processing
-  public CoverageCollection openAsCoverageDataset(HttpServletRequest request, HttpServletResponse response)
-      throws IOException {
+  public CoverageCollectionCache.Handle openAsCoverageDataset(HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
     return datasetManager.openCoverageDataset(request, response, path);
   }
 
@@ -75,6 +75,23 @@ public class FeatureCollectionCache implements InitializingBean {
    * }
    */
 
+  /**
+   * Remove a feature collection, when its catalog has changed. It is made again from the new catalog when next
+   * requested.
+   * A GRIB collection is closed, and its files stay open until the requests using them are done.
+   * The others hand out shared datasets without knowing when requests are done with them, so they are not closed,
+   * the same as when all catalogs are reread.
+   */
+  public void invalidate(String collectionName) {
+    InvDatasetFeatureCollection fc = cache.getIfPresent(collectionName);
+    if (fc == null)
+      return;
+    cache.invalidate(collectionName);
+    eventBus.unregister(fc);
+    if (fc instanceof InvDatasetFcGrib)
+      fc.close();
+  }
+
   public void invalidateAll() { // LOOK may need to call close on anything in the cache
     cache.invalidateAll();
   }
@@ -91,7 +91,7 @@ public class InvDatasetFcFmrc extends InvDatasetFeatureCollection {
 
     this.wantDatasets = config.fmrcConfig.datasets;
 
-    state = new State(null);
+    state.set(new State(null));
   }
 
   @Override
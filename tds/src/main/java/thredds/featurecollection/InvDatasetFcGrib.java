@@ -29,11 +29,13 @@ import ucar.nc2.units.DateRange;
 import ucar.nc2.units.DateType;
 import ucar.unidata.geoloc.LatLonRect;
 import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implement FeatureCollection GRIB - a collection of Grib1 or Grib2 files that are served as Grids.
@@ -70,7 +72,43 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
   static private final String COLLECTION_DATASET = "GC";
 
   /////////////////////////////////////////////////////////////////////////////
+  // The top level collection, shared by the States that use it and by the requests using it.
+  // Closed when it has been replaced by an update or the feature collection was closed, and the last request using it
+  // is done.
+  static class CollectionRef {
+    private final Closeable collection;
+    private final String name;
+    private final AtomicInteger refs = new AtomicInteger(1); // held by the live State
+
+    CollectionRef(Closeable collection, String name) {
+      this.collection = collection;
+      this.name = name;
+    }
+
+    // false if already closed
+    boolean acquire() {
+      while (true) {
+        int count = refs.get();
+        if (count == 0)
+          return false;
+        if (refs.compareAndSet(count, count + 1))
+          return true;
+      }
+    }
+
+    void release() {
+      if (refs.decrementAndGet() == 0) {
+        try {
+          collection.close();
+        } catch (IOException e) {
+          logger.error("Cant close {}", name, e);
+        }
+      }
+    }
+  }
+
   protected class StateGrib extends State {
+    CollectionRef collectionRef; // holds gribCollection
     GribCollectionImmutable gribCollection; // top level
     GribCollectionImmutable latest;
     String latestPath;
@@ -78,6 +116,7 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
     protected StateGrib(StateGrib from) {
       super(from);
       if (from != null) {
+        this.collectionRef = from.collectionRef;
         this.gribCollection = from.gribCollection;
         this.latest = from.latest;
         this.latestPath = from.latestPath;
@@ -103,60 +142,95 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
     if (errs.length() > 0)
       logger.warn("{}: CollectionManager parse error = {} ", name, errs);
 
-    state = new StateGrib(null);
+    state.set(new StateGrib(null));
   }
 
-  @Override
-  public void close() {
-    if (state != null) {
-      StateGrib stateGrib = (StateGrib) state;
-      if (stateGrib.gribCollection != null)
-        try {
-          stateGrib.gribCollection.close();
-        } catch (IOException e) {
-          logger.error("Cant close {}", stateGrib.gribCollection.getName(), e);
-        }
+  /**
+   * Get the live State, with its collection acquired, so that an update does not close the collection while it is
+   * in use. Never waits for an update. Call releaseState() when done.
+   *
+   * @throws IOException if the feature collection was closed
+   */
+  StateGrib acquireState() throws IOException {
+    while (true) {
+      StateGrib localState = (StateGrib) checkState();
+      if (localState.collectionRef == null || localState.collectionRef.acquire())
+        return localState;
+      // closed is set before the live collection is released
+      if (closed)
+        throw new IOException(name + ": collection closed");
+      // an update replaced the State and closed its collection since we got it, so a newer State is live
     }
-    super.close();
+  }
+
+  void releaseState(StateGrib localState) {
+    if (localState.collectionRef != null)
+      localState.collectionRef.release();
   }
 
   @Override
   protected void _showStatus(Formatter f, boolean summaryOnly, String type) throws IOException {
-    StateGrib localState;
-    synchronized (lock) {
-      localState = (StateGrib) state;
-    }
-    if (localState.gribCollection != null) {
-      if (summaryOnly)
-        localState.gribCollection.showStatusSummary(f, type);
-      else
-        localState.gribCollection.showStatus(f);
+    StateGrib localState = acquireState();
+    try {
+      if (localState.gribCollection != null) {
+        if (summaryOnly)
+          localState.gribCollection.showStatusSummary(f, type);
+        else
+          localState.gribCollection.showStatus(f);
+      }
+    } finally {
+      releaseState(localState);
     }
   }
 
+  // the previous collection is closed in retireState(), after the new one is live
   @Override
   protected void updateCollection(State state, CollectionUpdateType force) {
     try {
       StateGrib localState = (StateGrib) state;
-      GribCollectionImmutable previous = localState.gribCollection;
-      GribCollectionImmutable previousLatest = localState.latest;
-
+      GribCollectionImmutable gribCollection = GribCdmIndex.openGribCollection(this.config, force, logger);
       localState.latest = null; // will get updated next time its asked for
-      localState.gribCollection = GribCdmIndex.openGribCollection(this.config, force, logger);
-      if (localState.gribCollection == null)
+      localState.latestPath = null;
+      localState.gribCollection = gribCollection;
+      localState.collectionRef =
+          (gribCollection == null) ? null : new CollectionRef(gribCollection, gribCollection.getName());
+      if (gribCollection == null)
         logger.error("InvDatasetFcGrib.updateCollection failed " + this.config);
 
       logger.debug("{}: GribCollection object was recreated", name);
-      if (previous != null)
-        previous.close(); // LOOK may be another thread using - other thread will fail
-      if (previousLatest != null)
-        previousLatest.close();
 
     } catch (IOException ioe) {
       logger.error("GribFc updateCollection", ioe);
     }
   }
 
+  @Override
+  protected void retireState(State old, State live) {
+    StateGrib oldGrib = (StateGrib) old;
+    StateGrib liveGrib = (StateGrib) live;
+    if (oldGrib.collectionRef != null && oldGrib.collectionRef != liveGrib.collectionRef)
+      oldGrib.collectionRef.release(); // closed now, or by the last request still using it
+    if (oldGrib.latest != null && oldGrib.latest != liveGrib.latest)
+      try {
+        oldGrib.latest.close();
+      } catch (IOException e) {
+        logger.error("Cant close {}", oldGrib.latest.getName(), e);
+      }
+  }
+
+  @Override
+  protected void closeState(State live) {
+    StateGrib liveGrib = (StateGrib) live;
+    if (liveGrib.collectionRef != null)
+      liveGrib.collectionRef.release(); // closed now, or by the last request still using it
+    if (liveGrib.latest != null)
+      try {
+        liveGrib.latest.close();
+      } catch (IOException e) {
+        logger.error("Cant close {}", liveGrib.latest.getName(), e);
+      }
+  }
+
   /////////////////////////////////////////////////////////////////////////
 
   private String makeCollectionShortName(String collectionName) {
@@ -410,9 +484,7 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
   // see top javadoc for possible URLs
   @Override
   public CatalogBuilder makeCatalog(String match, String reqPath, URI catURI) throws IOException {
-    StateGrib localState = (StateGrib) checkState();
-    if (localState == null)
-      return null; // not ready yet maybe
+    StateGrib localState = acquireState();
     if (localState.gribCollection == null)
       return null; // not ready yet maybe
 
@@ -433,6 +505,8 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
     } catch (Exception e) {
       e.printStackTrace();
       logger.error("Error making catalog for " + configPath, e);
+    } finally {
+      releaseState(localState);
     }
 
     return null;
@@ -493,12 +567,15 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
   // path/latest.xml
   @Override
   public CatalogBuilder makeLatest(String matchPath, String reqPath, URI catURI) throws IOException {
-    StateGrib localState = (StateGrib) checkState();
-    if (!(localState.gribCollection instanceof PartitionCollectionImmutable))
-      return null;
+    StateGrib localState = acquireState();
+    try {
+      if (!(localState.gribCollection instanceof PartitionCollectionImmutable))
+        return null;
 
-    PartitionCollectionImmutable pc = (PartitionCollectionImmutable) localState.gribCollection;
-    if (localState.latest == null) {
+      if (localState.latest != null)
+        return makeCatalogFromCollection(localState.latest, localState.latestPath, catURI);
+
+      PartitionCollectionImmutable pc = (PartitionCollectionImmutable) localState.gribCollection;
       List<String> paths = new ArrayList<>();
       GribCollectionImmutable latest = pc.getLatestGribCollection(paths);
       if (latest == null)
@@ -513,14 +590,19 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
           f.format("/");
         f.format("%s", p);
       }
+      String latestPath = f.toString();
 
-      // synchronized (lock) {
-      localState.latest = latest;
-      localState.latestPath = f.toString();
-      // }
-    }
+      // keep it for the next request, unless an update has replaced the State meanwhile
+      StateGrib withLatest = (StateGrib) localState.copy();
+      withLatest.latest = latest;
+      withLatest.latestPath = latestPath;
+      state.compareAndSet(localState, withLatest);
+
+      return makeCatalogFromCollection(latest, latestPath, catURI);
 
-    return makeCatalogFromCollection(localState.latest, localState.latestPath, catURI);
+    } finally {
+      releaseState(localState);
+    }
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -584,11 +666,10 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
   @Override
   public File getFile(String remaining) {
     try {
-      StateGrib localState = (StateGrib) checkState();
       int pos = remaining.lastIndexOf("/");
       final String filename = (pos >= 0) && (remaining.length() > 1) ? remaining.substring(pos + 1) : remaining;
 
-      MFile result = (MFile) findDataset(remaining, localState.gribCollection, new DatasetCreator() {
+      MFile result = (MFile) findDataset(remaining, new DatasetCreator() {
         @Override
         public Object obtain(GribCollectionImmutable gc, GribCollectionImmutable.Dataset ds,
             GribCollectionImmutable.GroupGC group) throws IOException {
@@ -607,9 +688,7 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
   }
 
   public CoverageCollection getGridCoverage(String matchPath) throws IOException {
-    StateGrib localState = (StateGrib) checkState();
-
-    return (CoverageCollection) findDataset(matchPath, localState.gribCollection, new DatasetCreator() {
+    return (CoverageCollection) findDataset(matchPath, new DatasetCreator() {
       @Override
       public Object obtain(GribCollectionImmutable gc, GribCollectionImmutable.Dataset ds,
           GribCollectionImmutable.GroupGC group) throws IOException {
@@ -620,9 +699,7 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
 
   @Override
   public ucar.nc2.dt.grid.GridDataset getGridDataset(String matchPath) throws IOException {
-    StateGrib localState = (StateGrib) checkState();
-
-    return (ucar.nc2.dt.grid.GridDataset) findDataset(matchPath, localState.gribCollection, new DatasetCreator() {
+    return (ucar.nc2.dt.grid.GridDataset) findDataset(matchPath, new DatasetCreator() {
       @Override
       public Object obtain(GribCollectionImmutable gc, GribCollectionImmutable.Dataset ds,
           GribCollectionImmutable.GroupGC group) throws IOException {
@@ -633,9 +710,7 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
 
   @Override
   public NetcdfDataset getNetcdfDataset(String matchPath) throws IOException {
-    StateGrib localState = (StateGrib) checkState();
-
-    return (NetcdfDataset) findDataset(matchPath, localState.gribCollection, new DatasetCreator() {
+    return (NetcdfDataset) findDataset(matchPath, new DatasetCreator() {
       @Override
       public Object obtain(GribCollectionImmutable gc, GribCollectionImmutable.Dataset ds,
           GribCollectionImmutable.GroupGC group) throws IOException {
@@ -645,6 +720,16 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
   }
 
   // see top javadoc for possible URLs
+  // returns visitor.obtain() on the top collection of the live State
+  private Object findDataset(String matchPath, DatasetCreator visit) throws IOException {
+    StateGrib localState = acquireState();
+    try {
+      return findDataset(matchPath, localState.gribCollection, visit);
+    } finally {
+      releaseState(localState);
+    }
+  }
+
   // returns visitor.obtain(), either a GridDataset or a NetcdfDataset
   private Object findDataset(String matchPath, GribCollectionImmutable topCollection, DatasetCreator visit)
       throws IOException {
@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Abstract superclass for Feature Collection Datasets.
@@ -88,7 +89,9 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
   }
 
   /////////////////////////////////////////////////////////////////////////////
-  // heres how we manage state changes in a thread-safe way
+  // heres how we manage state changes in a thread-safe way:
+  // a State is not changed once it is live. update() changes a copy, then makes the copy live.
+  // Request threads only read the live State, and never wait for an update.
   protected class State {
     // catalog metadata
     protected ThreddsMetadata.VariableGroup vars;
@@ -131,11 +134,13 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
   protected MFileCollectionManager datasetCollection; // defines the collection of datasets in this feature collection,
                                                       // actually final NOT USED BY GRIB
 
+  // the live State
+  protected final AtomicReference<State> state = new AtomicReference<>();
   @GuardedBy("lock")
-  protected State state;
+  protected volatile boolean first = true;
   @GuardedBy("lock")
-  protected boolean first = true;
-  protected final Object lock = new Object();
+  protected volatile boolean closed; // no requests or updates once closed
+  protected final Object lock = new Object(); // serializes updates
 
   protected InvDatasetFeatureCollection(FeatureCollectionRef parent, FeatureCollectionConfig config) {
     this.parent = parent;
@@ -183,6 +188,14 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
   }
 
   public void close() {
+    synchronized (lock) {
+      if (closed)
+        return;
+      closed = true;
+      State live = state.get();
+      if (live != null)
+        closeState(live);
+    }
     if (datasetCollection != null)
       datasetCollection.close();
   }
@@ -251,9 +264,26 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
   //////////////////////////////////////////////////////////////////////////////////////////
   // for subclasses
 
-  // localState is synched, may be directly changed
+  // localState is a copy that is not yet live, and may be directly changed
   protected abstract void updateCollection(State localState, CollectionUpdateType force);
 
+  /**
+   * A State was replaced by a newer one. Objects that only the old State used can be released.
+   * Called with the lock held, after the newer State is live.
+   *
+   * @param old the State that was live
+   * @param live the State that is now live
+   */
+  protected void retireState(State old, State live) {}
+
+  /**
+   * The collection was closed. Objects that the live State uses can be released.
+   * Called once, with the lock held, after closed is set.
+   *
+   * @param live the State that was live
+   */
+  protected void closeState(State live) {}
+
   ////////////////////////////////////////////////////////////////////////////////////////////
 
   protected String getCatalogHref(String what) {
@@ -267,24 +297,29 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
 
   /**
    * A request has come in, check that the state has been initialized.
-   * this is called from the request thread.
+   * this is called from the request thread. Only the first request waits, for the first update.
    *
-   * @return a copy of the State
+   * @return the live State, which must not be changed
    */
   protected State checkState() throws IOException {
-    State localState;
-
-    synchronized (lock) {
-      if (first) {
-        firstInit();
-        updateCollection(state, config.updateConfig.updateType);
-        // makeDatasetTop(state);
-        first = false;
+    if (closed)
+      throw new IOException(name + ": collection closed");
+    if (first) {
+      synchronized (lock) {
+        if (closed)
+          throw new IOException(name + ": collection closed");
+        if (first) {
+          firstInit();
+          State localState = state.get().copy();
+          updateCollection(localState, config.updateConfig.updateType);
+          // makeDatasetTop(localState);
+          makeLive(localState);
+          first = false;
+        }
       }
-      localState = state.copy();
     }
 
-    return localState;
+    return state.get();
   }
 
   /**
@@ -295,27 +330,33 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
    */
   protected void update(CollectionUpdateType force) throws IOException { // this may be called from a background thread,
                                                                          // or from checkState() request thread
-    State localState;
-
     synchronized (lock) {
+      if (closed)
+        return; // the collection is gone, dont open a new one
       if (first) {
-        state = checkState();
-        state.lastInvChange = System.currentTimeMillis();
+        checkState();
+        State localState = state.get().copy();
+        localState.lastInvChange = System.currentTimeMillis();
+        makeLive(localState);
         return;
       }
-      // do the update in a local object
-      localState = state.copy();
-    }
 
-    updateCollection(localState, force);
-    // makeDatasetTop(localState);
-    localState.lastInvChange = System.currentTimeMillis();
+      // do the update in a local object, requests keep using the live state meanwhile
+      State localState = state.get().copy();
+      updateCollection(localState, force);
+      // makeDatasetTop(localState);
+      localState.lastInvChange = System.currentTimeMillis();
 
-    // switch to live
-    synchronized (lock) {
-      state = localState;
+      // switch to live
+      makeLive(localState);
     }
+  }
 
+  @GuardedBy("lock")
+  private void makeLive(State localState) {
+    State old = state.getAndSet(localState);
+    if (old != null)
+      retireState(old, localState);
   }
 
   /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -329,6 +370,13 @@ public abstract class InvDatasetFeatureCollection implements Closeable {
     return configPath;
   }
 
+  /**
+   * @return when the collection inventory last changed, in msecs
+   */
+  public long getLastInvChange() throws IOException {
+    return checkState().lastInvChange;
+  }
+
   public String getLatestFileName() {
     if (config.gribConfig.latestNamer != null) {
       return config.gribConfig.latestNamer;
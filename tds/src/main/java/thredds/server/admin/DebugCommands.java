@@ -5,6 +5,7 @@
 
 package thredds.server.admin;
 
+import dap4.servlet.DapCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -149,6 +150,8 @@ public class DebugCommands {
         f.format("%n%n");
         GridInventoryCacheChronicle.showCache(f);
 
+        f.format("%n%s%n", DapCache.getStatistics());
+
         e.pw.flush();
       }
     };
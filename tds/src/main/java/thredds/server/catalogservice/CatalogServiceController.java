@@ -9,13 +9,22 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.support.RequestContextUtils;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.thymeleaf.spring5.view.ThymeleafViewResolver;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import thredds.client.catalog.Catalog;
 import thredds.client.catalog.Dataset;
+import thredds.client.catalog.tools.CatalogXmlWriter;
 import thredds.core.CatalogManager;
 import thredds.core.TdsRequestedDataset;
+import thredds.servlet.ServletUtil;
+import thredds.util.ContentType;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
@@ -47,22 +56,29 @@ public class CatalogServiceController {
     boolean isHtml = path.endsWith(".html");
     String catalogPath = path.replaceAll(".html$", ".xml");
 
-    Catalog catalog;
     URI baseUri;
     String baseUriString = request.getRequestURL().toString();
     try {
       baseUri = new URI(baseUriString);
-      catalog = catalogManager.getCatalog(catalogPath, baseUri);
-
     } catch (URISyntaxException e) {
       String msg = "Bad URI syntax [" + baseUriString + "]: " + e.getMessage();
       throw new URISyntaxException(msg, e.getReason());
     }
 
+    // static catalogs are made and written once, until the catalogs are reread
+    if (sendStaticCatalogResponse(request, response, catalogPath, baseUri, isHtml, params))
+      return null;
+
+    Catalog catalog = catalogManager.getCatalog(catalogPath, baseUri);
+
     // no catalog found
     if (catalog == null)
       throw new FileNotFoundException(request.getRequestURI());
 
+    // first request for a static catalog
+    if (sendStaticCatalogResponse(request, response, catalogPath, baseUri, isHtml, params))
+      return null;
+
     if (isHtml) {
       return handleHTMLRequest(request, response, catalog, params);
     } else {
@@ -99,6 +115,56 @@ public class CatalogServiceController {
     }
   }
 
+  // return false if the catalog is not a cached static catalog
+  private boolean sendStaticCatalogResponse(HttpServletRequest request, HttpServletResponse response,
+      String catalogPath, URI baseUri, boolean isHtml, CatalogRequest params) throws Exception {
+    String contentType = isHtml ? ContentType.html.getContentHeader() : ContentType.xml.getContentHeader();
+    CatalogManager.CatalogResponse cached =
+        catalogManager.getStaticCatalogResponse(catalogPath, baseUri, contentType, params.dataset, catalog -> {
+          ModelAndView mv = isHtml ? handleHTMLRequest(request, response, catalog, params)
+              : handleXMLRequest(request, response, catalog, params);
+          return isHtml ? renderHtml(request, response, mv) : writeXml((Catalog) mv.getModel().get("catalog"));
+        });
+    if (cached == null)
+      return false;
+
+    response.setHeader("ETag", cached.getETag());
+    response.setDateHeader("Last-Modified", cached.getLastModified());
+    if (ServletUtil.isNotModified(request, cached.getETag(), cached.getLastModified())) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+
+    byte[] content = cached.getContent();
+    response.setContentType(cached.getContentType());
+    response.setContentLength(content.length);
+    if (!request.getMethod().equals("HEAD")) {
+      try (OutputStream os = response.getOutputStream()) {
+        os.write(content);
+      }
+    }
+    return true;
+  }
+
+  private byte[] writeXml(Catalog catalog) throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(8 * 1024);
+    new CatalogXmlWriter().writeXML(catalog, bos);
+    return bos.toByteArray();
+  }
+
+  // render the Thymeleaf view into a buffer. the view resolvers live in the servlet's context, not ours
+  private byte[] renderHtml(HttpServletRequest request, HttpServletResponse response, ModelAndView mv)
+      throws Exception {
+    ThymeleafViewResolver resolver =
+        RequestContextUtils.findWebApplicationContext(request).getBean(ThymeleafViewResolver.class);
+    View view = resolver.resolveViewName(mv.getViewName(), RequestContextUtils.getLocale(request));
+    if (view == null)
+      throw new IllegalStateException("No view named " + mv.getViewName());
+    ContentCachingResponseWrapper buffer = new ContentCachingResponseWrapper(response);
+    view.render(mv.getModel(), request, buffer);
+    return buffer.getContentAsByteArray();
+  }
+
   /*
    * private ModelAndView handlePublicDocumentRequest(HttpServletRequest request, HttpServletResponse response, String
    * path)
@@ -14,6 +14,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import thredds.server.wms.TdsEnhancedVariableMetadata;
 import thredds.server.wms.ThreddsWmsCatalogue;
+import thredds.server.wms.ThreddsWmsServlet;
 import thredds.server.wms.config.WmsDetailedConfig;
 import uk.ac.rdg.resc.edal.graphics.utils.ColourPalette;
 
@@ -175,7 +176,9 @@ class TdsConfigMapper {
     WMS_PALETTE_LOCATION_DIR("WMS.paletteLocationDir", null, null),
     WMS_MAXIMUM_IMAGE_WIDTH("WMS.maxImageWidth", null, "2048"),
     WMS_MAXIMUM_IMAGE_HEIGHT("WMS.maxImageHeight", null, "2048"),
-    WMS_CONFIG_FILE("WMS.configFile", null, null);
+    WMS_CONFIG_FILE("WMS.configFile", null, null),
+    WMS_CATALOGUE_CACHE_MAX_SIZE("WMS.catalogueCacheMaxSize", null, "100"),
+    WMS_IMAGE_CACHE_MAX_SIZE("WMS.imageCacheMaxSize", null, "50 Mb");
 
     private String key;
     private String alternateKey;
@@ -254,6 +257,17 @@ class TdsConfigMapper {
         // If the given maxImageHeight value is not a number, try the default value.
         wmsConfig.setMaxImageHeight(Integer.parseInt(WMS_MAXIMUM_IMAGE_HEIGHT.getDefaultValue()));
       }
+
+      int maxCatalogues;
+      try {
+        maxCatalogues = Integer.parseInt(WMS_CATALOGUE_CACHE_MAX_SIZE.getValueFromThreddsConfig());
+      } catch (NumberFormatException e) {
+        maxCatalogues = Integer.parseInt(WMS_CATALOGUE_CACHE_MAX_SIZE.getDefaultValue());
+      }
+      // getBytes understands units, and falls back to the default itself
+      long maxImageBytes = ThreddsConfig.getBytes(WMS_IMAGE_CACHE_MAX_SIZE.key, 50L * 1000 * 1000);
+      ThreddsWmsServlet.initCache(maxCatalogues, maxImageBytes);
+
       // make the wmsConfig available to the TdsEnhancedVariableMetadata and ThreddsWmsCatalogue classes,
       // which handle the default WMS values as well as WMS values based on standard names or paths.
       TdsEnhancedVariableMetadata.setWmsConfig(wmsConfig);
@@ -5,6 +5,7 @@
 
 package thredds.server.config;
 
+import dap4.servlet.DapCache;
 import org.slf4j.Logger;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.DisposableBean;
@@ -16,7 +17,9 @@ import org.springframework.stereotype.Component;
 import thredds.client.catalog.tools.CatalogXmlWriter;
 import thredds.client.catalog.tools.DataFactory;
 import thredds.core.AllowedServices;
+import thredds.core.CatalogManager;
 import thredds.core.ConfigCatalogInitialization;
+import thredds.core.CoverageCollectionCache;
 import thredds.core.DatasetManager;
 import thredds.core.StandardService;
 import thredds.featurecollection.CollectionUpdater;
@@ -24,13 +27,17 @@ import thredds.featurecollection.cache.GridInventoryCacheChronicle;
 import thredds.featurecollection.InvDatasetFeatureCollection;
 import thredds.server.catalog.ConfigCatalogCache;
 import thredds.server.catalog.DatasetScan;
+import thredds.server.catalog.DirectoryListingCache;
 import thredds.server.ncss.controller.NcssDiskCache;
+import thredds.server.ncss.controller.NcssResultCache;
 import thredds.server.ncss.format.FormatsAvailabilityService;
 import thredds.server.ncss.format.SupportedFormat;
 import thredds.server.notebook.JupyterNotebookServiceCache;
+import thredds.servlet.ServletUtil;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.dt.ugrid.MeshIndexCache;
 import ucar.nc2.grib.GribIndexCache;
 import ucar.nc2.grib.collection.GribCdmIndex;
 import ucar.nc2.jni.netcdf.Nc4Iosp;
@@ -87,6 +94,9 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
   @Autowired
   private ConfigCatalogInitialization configCatalogInitializer;
 
+  @Autowired
+  private CatalogManager catalogManager;
+
   @Autowired
   CollectionUpdater collectionUpdater;
 
@@ -103,7 +113,14 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
   @Autowired
   private NcssDiskCache ncssDiskCache;
 
+  @Autowired
+  private NcssResultCache ncssResultCache;
+
+  @Autowired
+  private CoverageCollectionCache coverageCollectionCache;
+
   private Timer cdmDiskCacheTimer;
+  private DirectoryListingCache listingCache;
   private boolean wasInitialized;
 
   private XMLStore store;
@@ -147,6 +164,8 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
           if (readMode == null)
             readMode = ConfigCatalogInitialization.ReadMode.always;
           configCatalogInitializer.init(readMode, (PreferencesExt) mainPrefs.node("configCatalog"));
+          if (ThreddsConfig.getBoolean("ConfigCatalog.watch", false))
+            configCatalogInitializer.startWatching();
 
           // set epsg database location for edal-java (comes from apache-sis)
           EpsgDatabasePath.DB_PATH =
@@ -235,6 +254,11 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     CatalogXmlWriter.useBytesForDataSize(useBytesForDataSize);
     startupLog.info("TdsInit: catalogWriting.useBytesForDataSize= " + useBytesForDataSize);
 
+    // HTTP file server
+    boolean useZeroCopy = ThreddsConfig.getBoolean("HTTPFileServer.useZeroCopy", true);
+    ServletUtil.setUseZeroCopy(useZeroCopy);
+    startupLog.info("TdsInit: HTTPFileServer.useZeroCopy= " + useZeroCopy);
+
     // datasetSource plug-in
     ThreddsConfig.getRootList("datasetSource").forEach(datasetManager::registerDatasetSource);
 
@@ -266,6 +290,15 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     DatasetScan.setSpecialServices(allowedServices.getStandardService(StandardService.resolver),
         allowedServices.getStandardService(StandardService.httpServer));
     DatasetScan.setAllowedServices(allowedServices);
+    long listingCacheMaxFiles = ThreddsConfig.getInt("DatasetScan.listingCacheMaxFiles", 1000 * 1000);
+    if (listingCacheMaxFiles > 0) {
+      int listingCacheMaxAge = ThreddsConfig.getSeconds("DatasetScan.listingCacheMaxAge", 60);
+      listingCache = new DirectoryListingCache(listingCacheMaxFiles, listingCacheMaxAge);
+      DatasetScan.setListingCache(listingCache);
+      startupLog.info("TdsInit: DatasetScan listing cache maxFiles= {} maxAge= {} secs", listingCacheMaxFiles,
+          listingCacheMaxAge);
+    }
+    DatasetScan.setPageSize(ThreddsConfig.getInt("DatasetScan.pageSize", 0));
     allowedServices.makeDebugActions();
 
     /*
@@ -369,8 +402,19 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     GribIndexCache.setDiskCache2(gribCache);
     startupLog.info("TdsInit: GribIndex=" + gribCache);
 
+    // spatial indexes of UGRID meshes, so they are mapped instead of built again when the TDS restarts
+    String ugridIndexDir =
+        ThreddsConfig.get("UgridIndex.dir", new File(tdsContext.getThreddsDirectory(), "/cache/ugrid/").getPath());
+    MeshIndexCache.setDirectory(Paths.get(ugridIndexDir));
+    startupLog.info("TdsInit: UgridIndex= " + ugridIndexDir);
+
+    long dap4CacheMaxSize = ThreddsConfig.getBytes("Dap4.cacheMaxSize", 50L * 1000 * 1000);
+    DapCache.setMaxWeight(dap4CacheMaxSize);
+    startupLog.info("TdsInit: Dap4.cacheMaxSize= " + dap4CacheMaxSize);
+
     // LOOK just create the diskCache here and send it in
     ncssDiskCache.init();
+    ncssResultCache.init();
 
     String fcCache = ThreddsConfig.get("FeatureCollectionCache.dir", null);
     if (fcCache == null)
@@ -423,6 +467,11 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
       startupLog.info("TdsInit: GribCdmIndex.initDefaultCollectionCache= [" + min + "," + max + "] scour = " + secs);
     }
 
+    // Coverage datasets opened by NCSS, WCS and dataset.xml: default is allow 50 open datasets
+    max = ThreddsConfig.getInt("CoverageCache.maxDatasets", 50);
+    coverageCollectionCache.init(max);
+    startupLog.info("TdsInit: CoverageCollectionCache maxDatasets= " + max);
+
     // RandomAccessFile.enableDefaultGlobalFileCache();
     // RandomAccessFile.setDebugLeaks(true);
 
@@ -431,6 +480,9 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     String rootPath = tdsContext.getContentRootPathProperty() + "thredds/";
     final String context = tdsContext.getContextPath();
     ccc.init(rootPath, max, context);
+    long responseCacheMaxSize = ThreddsConfig.getBytes("ConfigCatalog.responseCacheMaxSize", 10L * 1000 * 1000);
+    catalogManager.initCache(max, responseCacheMaxSize);
+    startupLog.info("TdsInit: CatalogManager cache catalogs= {} responseCacheMaxSize= {}", max, responseCacheMaxSize);
 
     // Config Dataset Tracker
     String trackerDir = ThreddsConfig.get("ConfigCatalog.dir",
@@ -445,6 +497,8 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     configCatalogInitializer.setTrackerDir(trackerDir);
     configCatalogInitializer.setMaxDatasetToTrack(trackerMax);
     configCatalogInitializer.setDatasetTrackerAverageValueSize(datasetTrackerAverageValueSize);
+    int readThreads = ThreddsConfig.getInt("ConfigCatalog.readThreads", Runtime.getRuntime().availableProcessors());
+    configCatalogInitializer.setReadThreads(readThreads);
 
     // Jupyter notebook service cache
     if (allowedServices.isAllowed(StandardService.jupyterNotebook)) {
@@ -493,14 +547,15 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     DiskCache2.exit(); // this handles background threads for all instances of DiskCache2
     GridInventoryCacheChronicle.shutdown();
     executor.shutdownNow();
-    /*
-     * try {
-     * catalogWatcher.close();
-     * } catch (IOException ioe) {
-     * ioe.printStackTrace();
-     * startupLog.error("catalogWatcher close failed", ioe);
-     * }
-     */
+    coverageCollectionCache.shutdown();
+    if (listingCache != null) {
+      try {
+        listingCache.close();
+      } catch (IOException ioe) {
+        startupLog.error("TdsInit: DatasetScan listing cache close failed", ioe);
+      }
+    }
+    configCatalogInitializer.stopWatching();
 
     // open file caches
     RandomAccessFile.shutdown();
@@ -8,6 +8,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.jdom2.Document;
 import org.jdom2.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Controller;
@@ -16,6 +18,7 @@ import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.servlet.ModelAndView;
 import thredds.core.AllowedServices;
+import thredds.core.CoverageCollectionCache;
 import thredds.core.StandardService;
 import thredds.core.TdsRequestedDataset;
 import thredds.server.config.ThreddsConfig;
@@ -28,6 +31,7 @@ import thredds.server.ncss.params.NcssGridParamsBean;
 import thredds.server.ncss.params.NcssParamsBean;
 import thredds.server.ncss.view.dsg.DsgSubsetWriter;
 import thredds.server.ncss.view.dsg.DsgSubsetWriterFactory;
+import thredds.servlet.ServletUtil;
 import thredds.util.Constants;
 import thredds.util.ContentType;
 import ucar.ma2.InvalidRangeException;
@@ -36,7 +40,6 @@ import ucar.nc2.ft2.coverage.*;
 import ucar.nc2.ft2.coverage.writer.CFGridCoverageWriter;
 import ucar.nc2.ft2.coverage.writer.CoverageAsPoint;
 import ucar.nc2.ft2.coverage.writer.CoverageDatasetCapabilities;
-import ucar.nc2.util.IO;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
@@ -56,6 +59,8 @@ import ucar.nc2.write.NetcdfFormatWriter;
 @Controller
 @RequestMapping("/ncss/grid")
 public class NcssGridController extends AbstractNcssController {
+  private static final Logger logger = LoggerFactory.getLogger(NcssGridController.class);
+
   // Compression rate used to estimate the filesize of netcdf4 compressed files
   private static final short ESTIMATED_COMPRESSION_RATE = 4;
   // pattern for valid WKT lat lon point
@@ -67,6 +72,9 @@ public class NcssGridController extends AbstractNcssController {
   @Autowired
   private AllowedServices allowedServices;
 
+  @Autowired
+  private NcssResultCache ncssResultCache;
+
   protected String getBase() {
     return StandardService.netcdfSubsetGrid.getBase();
   }
@@ -81,9 +89,10 @@ public class NcssGridController extends AbstractNcssController {
       throw new BindException(validationResult);
 
     String datasetPath = getDatasetPath(req);
-    try (CoverageCollection gcd = TdsRequestedDataset.getCoverageCollection(req, res, datasetPath)) {
-      if (gcd == null)
+    try (CoverageCollectionCache.Handle handle = TdsRequestedDataset.getCoverageCollection(req, res, datasetPath)) {
+      if (handle == null)
         return;
+      CoverageCollection gcd = handle.getCollection();
 
       Formatter errs = new Formatter();
       if (!params.intersectsTime(gcd.getCalendarDateRange(), errs)) {
@@ -114,9 +123,35 @@ public class NcssGridController extends AbstractNcssController {
           + "Grid requests with vertCoord must have variables with same vertical levels.");
     }
 
+    // identical requests against an unchanged dataset are served from the result cache
+    String canonicalParams = ncssResultCache.isEnabled() ? params.getCanonicalForm() : null;
+    long lastModified = (canonicalParams == null) ? -1 : TdsRequestedDataset.getDatasetLastModified(datasetPath);
+    if (lastModified > 0) {
+      String key = NcssResultCache.makeKey(datasetPath, lastModified, sf.getFormatName(), canonicalParams);
+      try (NcssResultCache.Result result =
+          ncssResultCache.get(key, location -> makeCFNetcdfFile(gcd, location, params, version))) {
+        sendResult(res, sf, datasetPath, result.getFile());
+      }
+      return;
+    }
+
+    // netcdf-3 goes through a temp file too: CFGridCoverageWriter only writes to a seekable file, so the
+    // result cannot be streamed to the response as it is made
     String responseFile = getResponseFileName();
-    File netcdfResult = makeCFNetcdfFile(gcd, responseFile, params, version);
+    File netcdfResult = new File(responseFile);
+    try {
+      makeCFNetcdfFile(gcd, responseFile, params, version);
+      sendResult(res, sf, datasetPath, netcdfResult);
+
+    } finally {
+      // dont leave failed or partial results for the scour
+      if (netcdfResult.exists() && !netcdfResult.delete())
+        logger.warn("Could not delete NCSS result file " + netcdfResult);
+    }
+  }
 
+  private void sendResult(HttpServletResponse res, SupportedFormat sf, String datasetPath, File netcdfResult)
+      throws IOException {
     // filename download attachment
     String suffix = sf.getFileSuffix();
     int pos = datasetPath.lastIndexOf("/");
@@ -135,12 +170,12 @@ public class NcssGridController extends AbstractNcssController {
 
     setResponseHeaders(res, httpHeaders);
 
-    IO.copyFileB(netcdfResult, res.getOutputStream(), 60000);
+    // a cached result is pinned by the caller, so it is not deleted while it is being sent.
+    // The response is a stream, so this still copies through a buffer; it only saves the read into a heap array.
+    ServletUtil.transferLocalFile(netcdfResult.toPath(), 0, netcdfResult.length(), res.getOutputStream());
     res.flushBuffer();
     res.getOutputStream().close();
     res.setStatus(HttpServletResponse.SC_OK);
-
-    netcdfResult.delete();
   }
 
   private static NetcdfFileFormat getNetcdfFileFormat(SupportedFormat supportedFormat) {
@@ -169,7 +204,9 @@ public class NcssGridController extends AbstractNcssController {
 
     // write the file
     // default chunking - let user control at some point
-    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setLocation(responseFilename).setFormat(version);
+    // every netcdf-3 variable is written in full, so skip the pass that prefills them with fill values
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setLocation(responseFilename).setFormat(version)
+        .setFill(version.isNetcdf4Format());
     CFGridCoverageWriter.Result result =
         CFGridCoverageWriter.write(gcd, params.getVar(), subset, params.isAddLatLon(), writerb, maxFileDownloadSize);
 
@@ -218,9 +255,10 @@ public class NcssGridController extends AbstractNcssController {
   public ModelAndView getDatasetDescriptionXml(HttpServletRequest req, HttpServletResponse res) throws IOException {
     String datasetPath = getDatasetPath(req);
 
-    try (CoverageCollection gcd = TdsRequestedDataset.getCoverageCollection(req, res, datasetPath)) {
-      if (gcd == null)
+    try (CoverageCollectionCache.Handle handle = TdsRequestedDataset.getCoverageCollection(req, res, datasetPath)) {
+      if (handle == null)
         return null; // restricted dataset
+      CoverageCollection gcd = handle.getCollection();
       String datasetUrlPath = buildDatasetUrl(datasetPath);
 
       CoverageDatasetCapabilities writer = new CoverageDatasetCapabilities(gcd, "path");
@@ -249,9 +287,10 @@ public class NcssGridController extends AbstractNcssController {
       throws IOException {
     String datasetPath = getDatasetPath(req);
 
-    try (CoverageCollection gcd = TdsRequestedDataset.getCoverageCollection(req, res, datasetPath)) {
-      if (gcd == null)
+    try (CoverageCollectionCache.Handle handle = TdsRequestedDataset.getCoverageCollection(req, res, datasetPath)) {
+      if (handle == null)
         return null; // restricted dataset
+      CoverageCollection gcd = handle.getCollection();
       String datasetUrlPath = buildDatasetUrl(datasetPath);
 
       Map<String, Object> model = new HashMap<>();
@@ -302,9 +341,11 @@ public class NcssGridController extends AbstractNcssController {
 
   @RequestMapping("**/datasetBoundaries.wkt")
   public void getDatasetBoundariesWKT(HttpServletRequest req, HttpServletResponse res) throws IOException {
-    try (CoverageCollection gcd = TdsRequestedDataset.getCoverageCollection(req, res, getDatasetPath(req))) {
-      if (gcd == null)
+    try (CoverageCollectionCache.Handle handle =
+        TdsRequestedDataset.getCoverageCollection(req, res, getDatasetPath(req))) {
+      if (handle == null)
         return;
+      CoverageCollection gcd = handle.getCollection();
 
       res.setContentType(SupportedFormat.WKT.getMimeType());
       res.getWriter().write(gcd.getHorizCoordSys().getLatLonBoundaryAsWKT());
@@ -314,9 +355,11 @@ public class NcssGridController extends AbstractNcssController {
 
   @RequestMapping("**/datasetBoundaries.json")
   public void getDatasetBoundariesGeoJSON(HttpServletRequest req, HttpServletResponse res) throws IOException {
-    try (CoverageCollection gcd = TdsRequestedDataset.getCoverageCollection(req, res, getDatasetPath(req))) {
-      if (gcd == null)
+    try (CoverageCollectionCache.Handle handle =
+        TdsRequestedDataset.getCoverageCollection(req, res, getDatasetPath(req))) {
+      if (handle == null)
         return;
+      CoverageCollection gcd = handle.getCollection();
 
       res.setContentType(SupportedFormat.JSON.getMimeType());
       res.getWriter().write(gcd.getHorizCoordSys().getLatLonBoundaryAsGeoJSON());
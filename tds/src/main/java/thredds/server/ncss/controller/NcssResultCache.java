@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.ncss.controller;
+
+import com.google.common.hash.Hashing;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import thredds.server.config.ThreddsConfig;
+import thredds.server.ncss.exception.NcssException;
+import thredds.servlet.ServletUtil;
+import ucar.ma2.InvalidRangeException;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of NCSS grid results, so that identical requests against an unchanged dataset are computed once.
+ * Results are files in a subdirectory of the NcssDiskCache directory, named by a hash of the request key,
+ * which includes the dataset's last modified time. The total size is bounded, and the least recently used
+ * results are deleted first, but not while a request is still sending them. Results not used within
+ * NetcdfSubsetService.maxAge are also removed by the NcssDiskCache scour.
+ */
+@Component
+@ThreadSafe
+public class NcssResultCache {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(NcssResultCache.class);
+
+  static final String RESULT_DIR = "results";
+  static final String SUFFIX = ".nc";
+  private static final long DEFAULT_MAX_SIZE = 1000L * 1000 * 1000;
+
+  /** Writes a result to the given location. */
+  public interface ResultWriter {
+    void write(String location) throws IOException, NcssException, InvalidRangeException;
+  }
+
+  @Autowired
+  private NcssDiskCache ncssDiskCache;
+
+  private File resultDir;
+  private long maxBytes; // <= 0 means disabled
+
+  // key -> size of the result file, in access order. guarded by this
+  private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+  // key -> number of open Results, which keep the file from being deleted. guarded by this
+  private final Map<String, Integer> pins = new HashMap<>();
+
+  private final ConcurrentMap<String, FutureTask<Result>> inflight = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public NcssResultCache() {}
+
+  // for unit tests
+  NcssResultCache(NcssDiskCache ncssDiskCache, long maxBytes) {
+    this.ncssDiskCache = ncssDiskCache;
+    init(new File(ncssDiskCache.getDiskCache().getRootDirectory(), RESULT_DIR), maxBytes);
+  }
+
+  public void init() {
+    long max = ThreddsConfig.getBytes("NetcdfSubsetService.resultCacheMaxSize", DEFAULT_MAX_SIZE);
+    init(new File(ncssDiskCache.getDiskCache().getRootDirectory(), RESULT_DIR), max);
+    ServletUtil.logServerStartup.info(getClass().getName() + " dir= " + resultDir + " maxSize= " + maxBytes
+        + " existing results= " + sizes.size());
+  }
+
+  private synchronized void init(File resultDir, long maxBytes) {
+    this.resultDir = resultDir;
+    this.maxBytes = maxBytes;
+    if (maxBytes <= 0)
+      return;
+
+    // results from a previous run are still valid, since the key includes the dataset's last modified time
+    File[] files = resultDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    if (files == null)
+      return;
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      String name = file.getName();
+      add(name.substring(0, name.length() - SUFFIX.length()), file.length());
+    }
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * Make the cache key of a request.
+   *
+   * @param datasetPath request path of the dataset
+   * @param lastModified when the dataset last changed
+   * @param format the output format
+   * @param canonicalParams the canonical form of the request parameters
+   * @return the key, usable as a file name
+   */
+  public static String makeKey(String datasetPath, long lastModified, String format, String canonicalParams) {
+    String request = datasetPath + '\n' + lastModified + '\n' + format + '\n' + canonicalParams;
+    return Hashing.sha256().hashString(request, StandardCharsets.UTF_8).toString();
+  }
+
+  /** A result file, which is not deleted by the cache until it is closed. */
+  public final class Result implements Closeable {
+    private final String key;
+    private final File file;
+    private boolean closed; // guarded by NcssResultCache.this
+
+    private Result(String key, File file) {
+      this.key = key;
+      this.file = file;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    @Override
+    public void close() {
+      synchronized (NcssResultCache.this) {
+        if (closed)
+          return;
+        closed = true;
+        unpin(key);
+      }
+    }
+  }
+
+  /**
+   * Get the result for a key, calling writer to make it if it is not cached. Concurrent calls with the same key
+   * share a single call of writer. The result is pinned: if it is evicted while in use, its file is only deleted
+   * once every Result for it has been closed.
+   *
+   * @param key from makeKey()
+   * @param writer makes the result
+   * @return the result, which the caller must close
+   */
+  public Result get(String key, ResultWriter writer) throws IOException, NcssException, InvalidRangeException {
+    while (true) {
+      Result result = lookup(key);
+      if (result != null) {
+        hits.incrementAndGet();
+        return result;
+      }
+
+      FutureTask<Result> task = new FutureTask<>(() -> make(key, writer));
+      FutureTask<Result> running = inflight.putIfAbsent(key, task);
+      if (running == null) {
+        misses.incrementAndGet();
+        try {
+          task.run();
+        } finally {
+          inflight.remove(key, task);
+        }
+        return waitFor(task);
+      }
+
+      waitFor(running); // that Result belongs to the caller that made it
+      result = pin(key);
+      if (result != null) {
+        hits.incrementAndGet();
+        return result;
+      }
+      // evicted before we could pin it, so look again
+    }
+  }
+
+  private static Result waitFor(FutureTask<Result> task) throws IOException, NcssException, InvalidRangeException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for NCSS result", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof NcssException)
+        throw (NcssException) cause;
+      if (cause instanceof InvalidRangeException)
+        throw (InvalidRangeException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  public String getStatistics() {
+    synchronized (this) {
+      return String.format("NcssResultCache: results=%d size=%d/%d hits=%d misses=%d evictions=%d", sizes.size(),
+          totalBytes, maxBytes, hits.get(), misses.get(), evictions.get());
+    }
+  }
+
+  private Result make(String key, ResultWriter writer) throws Exception {
+    Result cached = lookup(key); // in case it was made since we looked
+    if (cached != null)
+      return cached;
+
+    File tmp = ncssDiskCache.getDiskCache().createUniqueFile("ncss-grid", SUFFIX);
+    if (tmp == null)
+      throw new IllegalStateException("NCSS misconfigured cache");
+    try {
+      writer.write(tmp.getPath());
+      File result = resultFile(key);
+      if (!resultDir.exists() && !resultDir.mkdirs() && !resultDir.exists())
+        throw new IOException("Cant make directory " + resultDir);
+      // moved under the lock, so that an unpin of an older copy cannot delete it before it is added
+      synchronized (this) {
+        Files.move(tmp.toPath(), result.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        add(key, result.length());
+        return pin(key);
+      }
+
+    } finally {
+      if (tmp.exists() && !tmp.delete())
+        logger.warn("Could not delete " + tmp);
+    }
+  }
+
+  @Nullable
+  private synchronized Result lookup(String key) {
+    if (sizes.get(key) == null) // moves it to the most recently used position
+      return null;
+    File file = resultFile(key);
+    // touching the file also keeps it from the disk cache scour
+    if (!file.setLastModified(System.currentTimeMillis())) {
+      totalBytes -= sizes.remove(key); // scoured
+      return null;
+    }
+    return pin(key);
+  }
+
+  // files are only deleted while holding the lock, so a file that exists here stays until it is unpinned
+  @Nullable
+  private synchronized Result pin(String key) {
+    File file = resultFile(key);
+    if (!file.exists())
+      return null;
+    pins.merge(key, 1, Integer::sum);
+    return new Result(key, file);
+  }
+
+  // guarded by this
+  private void unpin(String key) {
+    if (pins.merge(key, -1, Integer::sum) > 0)
+      return;
+    pins.remove(key);
+    if (!sizes.containsKey(key)) // evicted while in use
+      delete(resultFile(key));
+  }
+
+  // guarded by this
+  private void delete(File file) {
+    if (file.exists() && !file.delete())
+      logger.warn("Could not delete " + file);
+  }
+
+  // guarded by this
+  private void add(String key, long size) {
+    Long old = sizes.put(key, size);
+    if (old != null)
+      totalBytes -= old;
+    totalBytes += size;
+
+    // the newest result is always kept, even if it alone is over the limit
+    Iterator<Map.Entry<String, Long>> iter = sizes.entrySet().iterator();
+    while (totalBytes > maxBytes && sizes.size() > 1) {
+      Map.Entry<String, Long> eldest = iter.next();
+      iter.remove();
+      totalBytes -= eldest.getValue();
+      evictions.incrementAndGet();
+      if (!pins.containsKey(eldest.getKey())) // else deleted when the last user closes it
+        delete(resultFile(eldest.getKey()));
+    }
+  }
+
+  private File resultFile(String key) {
+    return new File(resultDir, key + SUFFIX);
+  }
+}
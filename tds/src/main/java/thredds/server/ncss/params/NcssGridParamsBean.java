@@ -14,6 +14,8 @@ import ucar.nc2.time.CalendarDateFormatter;
 import ucar.nc2.time.CalendarDateRange;
 import ucar.unidata.geoloc.LatLonPoint;
 import ucar.unidata.geoloc.ProjectionRect;
+import javax.annotation.Nullable;
+import java.util.Formatter;
 
 /**
  * Parameters specific to ncss grid
@@ -275,4 +277,35 @@ public class NcssGridParamsBean extends NcssParamsBean {
     return subset;
   }
 
+  /**
+   * A canonical form of the request parameters: two requests with the same canonical form get the same response
+   * from the same version of a dataset. Call after the parameters are validated, and after "var=all" is expanded.
+   *
+   * @return canonical form, or null if the response depends on when the request is made
+   */
+  @Nullable
+  public String getCanonicalForm() {
+    if (isPresentTime() || "present".equalsIgnoreCase(time_start) || "present".equalsIgnoreCase(time_end))
+      return null;
+    boolean hasTime = time != null || temporal != null || time_start != null || time_end != null
+        || time_duration != null || runtime != null || timeOffset != null;
+    if (!hasTime)
+      return null; // defaults to the present time
+
+    Formatter f = new Formatter();
+    f.format("var=%s", var == null ? "" : String.join(",", var));
+    f.format("&latlonBB=%s,%s,%s,%s", north, south, east, west);
+    f.format("&projBB=%s,%s,%s,%s", minx, miny, maxx, maxy);
+    f.format("&point=%s,%s", latitude, longitude);
+    f.format("&horizStride=%s&addLatLon=%s", horizStride, addLatLon);
+    f.format("&time=%s&temporal=%s", time, temporal);
+    f.format("&timeRange=%s,%s,%s", time_start, time_end, time_duration);
+    f.format("&date=%s&dateRange=%s", date, dateRange);
+    f.format("&timeStride=%s", timeStride);
+    f.format("&vertCoord=%s&ensCoord=%s", vertCoord, ensCoord);
+    f.format("&runtime=%s,%s,%s,%s", runtime, runtimeDate, latestRuntime, allRuntime);
+    f.format("&timeOffset=%s,%s,%s", timeOffset, timeOffsetVal, firstTimeOffset);
+    return f.toString();
+  }
+
 }
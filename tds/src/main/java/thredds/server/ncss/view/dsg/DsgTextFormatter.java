@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.ncss.view.dsg;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+import ucar.ma2.Array;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateFormatter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Formats the values of the text (CSV and XML) DSG subset writers into a reused buffer, so that writing a row
+ * does not allocate a String for each value. The output is the same as that of
+ * CalendarDateFormatter.toDateTimeStringISO() and Array.toString().trim().
+ * Not thread-safe: use one per writer.
+ */
+public class DsgTextFormatter {
+  private static final String EOL = System.lineSeparator(); // what PrintWriter.println() writes
+
+  private final StringBuilder sb = new StringBuilder(256);
+  private char[] chars = new char[256];
+
+  public DsgTextFormatter append(char c) {
+    sb.append(c);
+    return this;
+  }
+
+  public DsgTextFormatter append(String s) {
+    sb.append(s);
+    return this;
+  }
+
+  public DsgTextFormatter append(double d) {
+    sb.append(d);
+    return this;
+  }
+
+  public DsgTextFormatter appendLine() {
+    sb.append(EOL);
+    return this;
+  }
+
+  /** Same as CalendarDateFormatter.toDateTimeStringISO(). */
+  public DsgTextFormatter appendDateTime(CalendarDate cd) {
+    appendDateTime(sb, cd);
+    return this;
+  }
+
+  /** Same as dataArray.toString().trim(). */
+  public DsgTextFormatter appendValue(Array dataArray) {
+    appendValue(sb, dataArray);
+    return this;
+  }
+
+  public int length() {
+    return sb.length();
+  }
+
+  /** Discard the contents. */
+  public void clear() {
+    sb.setLength(0);
+  }
+
+  /**
+   * The contents, valid until the next change to this formatter. Use with length().
+   */
+  public char[] getChars() {
+    int len = sb.length();
+    if (chars.length < len)
+      chars = new char[Math.max(len, 2 * chars.length)];
+    sb.getChars(0, len, chars, 0);
+    return chars;
+  }
+
+  @Override
+  public String toString() {
+    return sb.toString();
+  }
+
+  /** Write the contents and clear. */
+  public void writeTo(Writer writer) throws IOException {
+    int len = sb.length();
+    writer.write(getChars(), 0, len);
+    sb.setLength(0);
+  }
+
+  ////////////////////////////////////////////////
+
+  /**
+   * Format a date as ISO 8601 in UTC, with milliseconds only if not zero.
+   * Same as CalendarDateFormatter.toDateTimeStringISO().
+   */
+  public static void appendDateTime(StringBuilder sb, CalendarDate cd) {
+    DateTime dt = cd.getDateTime();
+    Chronology chrono = dt.getChronology().withUTC();
+    long millis = dt.getMillis();
+    int year = chrono.year().get(millis);
+    if (year < 0 || year > 9999) {
+      sb.append(CalendarDateFormatter.toDateTimeStringISO(cd));
+      return;
+    }
+
+    appendPadded(sb, year, 4);
+    sb.append('-');
+    appendPadded(sb, chrono.monthOfYear().get(millis), 2);
+    sb.append('-');
+    appendPadded(sb, chrono.dayOfMonth().get(millis), 2);
+    sb.append('T');
+    appendPadded(sb, chrono.hourOfDay().get(millis), 2);
+    sb.append(':');
+    appendPadded(sb, chrono.minuteOfHour().get(millis), 2);
+    sb.append(':');
+    appendPadded(sb, chrono.secondOfMinute().get(millis), 2);
+    int msecs = chrono.millisOfSecond().get(millis);
+    if (msecs != 0) {
+      sb.append('.');
+      appendPadded(sb, msecs, 3);
+    }
+    sb.append('Z');
+  }
+
+  /**
+   * Format the values of an array, separated by spaces. Same as dataArray.toString().trim(), but a single
+   * number is formatted without intermediate objects.
+   */
+  public static void appendValue(StringBuilder sb, Array dataArray) {
+    if (dataArray.getSize() == 1) {
+      switch (dataArray.getDataType()) {
+        case DOUBLE:
+          sb.append(dataArray.getDouble(0));
+          return;
+        case FLOAT:
+          sb.append(dataArray.getFloat(0));
+          return;
+        case LONG:
+          sb.append(dataArray.getLong(0));
+          return;
+        case INT:
+          sb.append(dataArray.getInt(0));
+          return;
+        case SHORT:
+          sb.append(dataArray.getShort(0));
+          return;
+        case BYTE:
+          sb.append(dataArray.getByte(0));
+          return;
+        default:
+          break;
+      }
+    }
+    sb.append(dataArray.toString().trim());
+  }
+
+  // non-negative values only
+  private static void appendPadded(StringBuilder sb, int value, int width) {
+    for (int limit = 10, digits = 1; digits < width; limit *= 10, digits++) {
+      if (value < limit)
+        sb.append('0');
+    }
+    sb.append(value);
+  }
+}
@@ -6,6 +6,7 @@ package thredds.server.ncss.view.dsg.point;
 
 import org.springframework.http.HttpHeaders;
 import thredds.server.ncss.exception.NcssException;
+import thredds.server.ncss.view.dsg.DsgTextFormatter;
 import thredds.server.ncss.view.dsg.HttpHeaderWriter;
 import ucar.ma2.Array;
 import ucar.ma2.StructureData;
@@ -14,7 +15,6 @@ import ucar.nc2.constants.CDM;
 import ucar.nc2.ft.FeatureDatasetPoint;
 import ucar.nc2.ft.PointFeature;
 import ucar.nc2.ft2.coverage.SubsetParams;
-import ucar.nc2.time.CalendarDateFormatter;
 import ucar.unidata.geoloc.EarthLocation;
 import ucar.unidata.util.Format;
 import javax.xml.stream.XMLOutputFactory;
@@ -30,6 +30,7 @@ public class PointSubsetWriterXML extends AbstractPointSubsetWriter {
   private final XMLStreamWriter staxWriter;
 
   private final boolean isNested;
+  private final DsgTextFormatter text = new DsgTextFormatter();
 
   public PointSubsetWriterXML(FeatureDatasetPoint fdPoint, SubsetParams ncssParams, OutputStream out)
       throws XMLStreamException, NcssException {
@@ -70,8 +71,9 @@ public class PointSubsetWriterXML extends AbstractPointSubsetWriter {
 
     staxWriter.writeCharacters("\n    ");
     staxWriter.writeStartElement("pointFeature");
-    staxWriter.writeAttribute("date",
-        CalendarDateFormatter.toDateTimeStringISO(pointFeat.getObservationTimeAsCalendarDate()));
+    text.clear();
+    text.appendDateTime(pointFeat.getObservationTimeAsCalendarDate());
+    staxWriter.writeAttribute("date", text.toString());
 
     staxWriter.writeCharacters("\n        ");
     staxWriter.writeEmptyElement("location");
@@ -89,11 +91,15 @@ public class PointSubsetWriterXML extends AbstractPointSubsetWriter {
         staxWriter.writeAttribute(CDM.UNITS, wantedVar.getUnitsString());
 
       Array dataArray = structureData.getArray(wantedVar.getShortName());
-      String ss = dataArray.toString();
       Class elemType = dataArray.getElementType();
-      if ((elemType == String.class) || (elemType == char.class) || (elemType == StructureData.class))
-        ss = ucar.nc2.util.xml.Parse.cleanCharacterData(ss); // make sure no bad chars
-      staxWriter.writeCharacters(ss.trim());
+      if ((elemType == String.class) || (elemType == char.class) || (elemType == StructureData.class)) {
+        // make sure no bad chars
+        staxWriter.writeCharacters(ucar.nc2.util.xml.Parse.cleanCharacterData(dataArray.toString()).trim());
+      } else {
+        text.clear();
+        text.appendValue(dataArray);
+        staxWriter.writeCharacters(text.getChars(), 0, text.length());
+      }
       staxWriter.writeEndElement();
     }
 
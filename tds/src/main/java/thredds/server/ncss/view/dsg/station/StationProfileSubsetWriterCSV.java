@@ -2,14 +2,14 @@ package thredds.server.ncss.view.dsg.station;
 
 import org.springframework.http.HttpHeaders;
 import thredds.server.ncss.exception.NcssException;
+import thredds.server.ncss.view.dsg.DsgTextFormatter;
 import thredds.server.ncss.view.dsg.HttpHeaderWriter;
-import ucar.ma2.Array;
+import ucar.ma2.StructureData;
 import ucar.nc2.VariableSimpleIF;
 import ucar.nc2.ft.FeatureDatasetPoint;
 import ucar.nc2.ft.StationProfileFeature;
 import ucar.nc2.ft.point.StationPointFeature;
 import ucar.nc2.ft2.coverage.SubsetParams;
-import ucar.nc2.time.CalendarDateFormatter;
 import ucar.unidata.util.Format;
 
 import java.io.IOException;
@@ -21,6 +21,11 @@ import java.nio.charset.StandardCharsets;
 public class StationProfileSubsetWriterCSV extends AbstractStationProfileSubsetWriter {
 
   final protected PrintWriter writer;
+  private final DsgTextFormatter row = new DsgTextFormatter();
+
+  // the station columns, which are the same for all the features of a station
+  private StationProfileFeature lastStation;
+  private String stationColumns;
 
   public StationProfileSubsetWriterCSV(FeatureDatasetPoint fdPoint, SubsetParams ncssParams, OutputStream out)
       throws NcssException, IOException {
@@ -54,22 +59,21 @@ public class StationProfileSubsetWriterCSV extends AbstractStationProfileSubsetW
 
   @Override
   protected void writeStationPointFeature(StationProfileFeature stn, StationPointFeature pointFeat) throws IOException {
-    writer.print(CalendarDateFormatter.toDateTimeStringISO(pointFeat.getObservationTimeAsCalendarDate()));
-    writer.print(',');
-    writer.print(pointFeat.getLocation().getAltitude());
-    writer.print(',');
-    writer.print(stn.getName());
-    writer.print(',');
-    writer.print(Format.dfrac(stn.getLatitude(), 3));
-    writer.print(',');
-    writer.print(Format.dfrac(stn.getLongitude(), 3));
+    if (stn != lastStation) {
+      stationColumns =
+          "," + stn.getName() + "," + Format.dfrac(stn.getLatitude(), 3) + "," + Format.dfrac(stn.getLongitude(), 3);
+      lastStation = stn;
+    }
 
+    row.appendDateTime(pointFeat.getObservationTimeAsCalendarDate());
+    row.append(',').append(pointFeat.getLocation().getAltitude());
+    row.append(stationColumns);
+
+    StructureData structureData = pointFeat.getDataAll();
     for (VariableSimpleIF wantedVar : wantedVariables) {
-      writer.print(',');
-      Array dataArray = pointFeat.getDataAll().getArray(wantedVar.getShortName());
-      writer.print(dataArray.toString().trim());
+      row.append(',').appendValue(structureData.getArray(wantedVar.getShortName()));
     }
-    writer.println();
+    row.appendLine().writeTo(writer);
   }
 
   @Override
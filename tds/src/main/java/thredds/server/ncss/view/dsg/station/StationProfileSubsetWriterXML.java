@@ -2,6 +2,7 @@ package thredds.server.ncss.view.dsg.station;
 
 import org.springframework.http.HttpHeaders;
 import thredds.server.ncss.exception.NcssException;
+import thredds.server.ncss.view.dsg.DsgTextFormatter;
 import thredds.server.ncss.view.dsg.HttpHeaderWriter;
 import ucar.ma2.Array;
 import ucar.ma2.StructureData;
@@ -11,7 +12,6 @@ import ucar.nc2.ft.FeatureDatasetPoint;
 import ucar.nc2.ft.StationProfileFeature;
 import ucar.nc2.ft.point.StationPointFeature;
 import ucar.nc2.ft2.coverage.SubsetParams;
-import ucar.nc2.time.CalendarDateFormatter;
 import ucar.unidata.util.Format;
 
 import javax.xml.stream.XMLOutputFactory;
@@ -24,6 +24,7 @@ public class StationProfileSubsetWriterXML extends AbstractStationProfileSubsetW
   private final XMLStreamWriter staxWriter;
 
   private final boolean isNested;
+  private final DsgTextFormatter text = new DsgTextFormatter();
 
   public StationProfileSubsetWriterXML(FeatureDatasetPoint fdPoint, SubsetParams ncssParams, OutputStream out)
       throws XMLStreamException, NcssException, IOException {
@@ -62,8 +63,9 @@ public class StationProfileSubsetWriterXML extends AbstractStationProfileSubsetW
       throws XMLStreamException, IOException {
     staxWriter.writeCharacters("\n    ");
     staxWriter.writeStartElement("stationFeature");
-    staxWriter.writeAttribute("date",
-        CalendarDateFormatter.toDateTimeStringISO(stationPointFeat.getObservationTimeAsCalendarDate()));
+    text.clear();
+    text.appendDateTime(stationPointFeat.getObservationTimeAsCalendarDate());
+    staxWriter.writeAttribute("date", text.toString());
     staxWriter.writeAttribute("altitude", Format.dfrac(stationPointFeat.getLocation().getAltitude(), 0));
     staxWriter.writeCharacters("\n        ");
     staxWriter.writeStartElement("station");
@@ -87,12 +89,15 @@ public class StationProfileSubsetWriterXML extends AbstractStationProfileSubsetW
       }
 
       Array dataArray = stationPointFeat.getDataAll().getArray(wantedVar.getShortName());
-      String ss = dataArray.toString();
       Class elemType = dataArray.getElementType();
       if ((elemType == String.class) || (elemType == char.class) || (elemType == StructureData.class)) {
-        ss = ucar.nc2.util.xml.Parse.cleanCharacterData(ss); // make sure no bad chars
+        // make sure no bad chars
+        staxWriter.writeCharacters(ucar.nc2.util.xml.Parse.cleanCharacterData(dataArray.toString()).trim());
+      } else {
+        text.clear();
+        text.appendValue(dataArray);
+        staxWriter.writeCharacters(text.getChars(), 0, text.length());
       }
-      staxWriter.writeCharacters(ss.trim());
       staxWriter.writeEndElement();
     }
     staxWriter.writeCharacters("\n    ");
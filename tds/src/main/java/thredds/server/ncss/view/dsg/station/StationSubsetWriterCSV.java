@@ -11,13 +11,13 @@ import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import org.springframework.http.HttpHeaders;
 import thredds.server.ncss.exception.NcssException;
+import thredds.server.ncss.view.dsg.DsgTextFormatter;
 import thredds.server.ncss.view.dsg.HttpHeaderWriter;
-import ucar.ma2.Array;
+import ucar.ma2.StructureData;
 import ucar.nc2.VariableSimpleIF;
 import ucar.nc2.ft.FeatureDatasetPoint;
 import ucar.nc2.ft.point.StationPointFeature;
 import ucar.nc2.ft2.coverage.SubsetParams;
-import ucar.nc2.time.CalendarDateFormatter;
 import ucar.unidata.geoloc.Station;
 import ucar.unidata.util.Format;
 
@@ -27,6 +27,11 @@ import ucar.unidata.util.Format;
 public class StationSubsetWriterCSV extends AbstractStationSubsetWriter {
 
   final protected PrintWriter writer;
+  private final DsgTextFormatter row = new DsgTextFormatter();
+
+  // the station columns, which are the same for all the features of a station
+  private Station lastStation;
+  private String stationColumns;
 
   public StationSubsetWriterCSV(FeatureDatasetPoint fdPoint, SubsetParams ncssParams, OutputStream out)
       throws NcssException, IOException {
@@ -59,21 +64,20 @@ public class StationSubsetWriterCSV extends AbstractStationSubsetWriter {
   @Override
   protected void writeStationPointFeature(StationPointFeature stationPointFeat) throws IOException {
     Station station = stationPointFeat.getStation();
+    if (station != lastStation) {
+      stationColumns = "," + station.getName() + "," + Format.dfrac(station.getLatitude(), 3) + ","
+          + Format.dfrac(station.getLongitude(), 3);
+      lastStation = station;
+    }
 
-    writer.print(CalendarDateFormatter.toDateTimeStringISO(stationPointFeat.getObservationTimeAsCalendarDate()));
-    writer.print(',');
-    writer.print(station.getName());
-    writer.print(',');
-    writer.print(Format.dfrac(station.getLatitude(), 3));
-    writer.print(',');
-    writer.print(Format.dfrac(station.getLongitude(), 3));
+    row.appendDateTime(stationPointFeat.getObservationTimeAsCalendarDate());
+    row.append(stationColumns);
 
+    StructureData structureData = stationPointFeat.getDataAll();
     for (VariableSimpleIF wantedVar : wantedVariables) {
-      writer.print(',');
-      Array dataArray = stationPointFeat.getDataAll().getArray(wantedVar.getShortName());
-      writer.print(dataArray.toString().trim());
+      row.append(',').appendValue(structureData.getArray(wantedVar.getShortName()));
     }
-    writer.println();
+    row.appendLine().writeTo(writer);
   }
 
   @Override
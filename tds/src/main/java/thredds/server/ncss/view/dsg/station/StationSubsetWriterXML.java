@@ -11,6 +11,7 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import org.springframework.http.HttpHeaders;
 import thredds.server.ncss.exception.NcssException;
+import thredds.server.ncss.view.dsg.DsgTextFormatter;
 import thredds.server.ncss.view.dsg.HttpHeaderWriter;
 import ucar.ma2.Array;
 import ucar.ma2.StructureData;
@@ -19,7 +20,6 @@ import ucar.nc2.constants.CDM;
 import ucar.nc2.ft.FeatureDatasetPoint;
 import ucar.nc2.ft.point.StationPointFeature;
 import ucar.nc2.ft2.coverage.SubsetParams;
-import ucar.nc2.time.CalendarDateFormatter;
 import ucar.unidata.geoloc.Station;
 import ucar.unidata.util.Format;
 
@@ -30,6 +30,7 @@ public class StationSubsetWriterXML extends AbstractStationSubsetWriter {
   private final XMLStreamWriter staxWriter;
 
   private final boolean isNested;
+  private final DsgTextFormatter text = new DsgTextFormatter();
 
   public StationSubsetWriterXML(FeatureDatasetPoint fdPoint, SubsetParams ncssParams, OutputStream out)
       throws XMLStreamException, NcssException, IOException {
@@ -70,8 +71,9 @@ public class StationSubsetWriterXML extends AbstractStationSubsetWriter {
 
     staxWriter.writeCharacters("\n    ");
     staxWriter.writeStartElement("stationFeature");
-    staxWriter.writeAttribute("date",
-        CalendarDateFormatter.toDateTimeStringISO(stationPointFeat.getObservationTimeAsCalendarDate()));
+    text.clear();
+    text.appendDateTime(stationPointFeat.getObservationTimeAsCalendarDate());
+    staxWriter.writeAttribute("date", text.toString());
 
     staxWriter.writeCharacters("\n        ");
     staxWriter.writeStartElement("station");
@@ -95,12 +97,15 @@ public class StationSubsetWriterXML extends AbstractStationSubsetWriter {
       }
 
       Array dataArray = stationPointFeat.getDataAll().getArray(wantedVar.getShortName());
-      String ss = dataArray.toString();
       Class elemType = dataArray.getElementType();
       if ((elemType == String.class) || (elemType == char.class) || (elemType == StructureData.class)) {
-        ss = ucar.nc2.util.xml.Parse.cleanCharacterData(ss); // make sure no bad chars
+        // make sure no bad chars
+        staxWriter.writeCharacters(ucar.nc2.util.xml.Parse.cleanCharacterData(dataArray.toString()).trim());
+      } else {
+        text.clear();
+        text.appendValue(dataArray);
+        staxWriter.writeCharacters(text.getChars(), 0, text.length());
       }
-      staxWriter.writeCharacters(ss.trim());
       staxWriter.writeEndElement();
     }
 
@@ -6,17 +6,21 @@ package thredds.server.opendap;
 
 import opendap.servlet.GuardedDataset;
 import ucar.nc2.NetcdfFile;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.io.IOException;
 
 /**
  * This creates and caches DDS, DAS, then clones them when they are needed.
+ * The DDS and DAS may come from a server-wide OpendapMetadataCache, in which case the DDS clones are rebound
+ * to this dataset's NetcdfFile.
  */
 @Immutable
 public class GuardedDatasetCacheAndClone implements GuardedDataset {
   static protected org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(GuardedDataset.class);
 
   private final boolean hasSession;
+  private final String reqPath;
   private final NetcdfFile org_file;
   private final NcDDS dds;
   private final NcDAS das;
@@ -35,14 +39,31 @@ public class GuardedDatasetCacheAndClone implements GuardedDataset {
   }
 
   public GuardedDatasetCacheAndClone(String reqPath, NetcdfFile ncfile, boolean hasSession) {
+    this(reqPath, ncfile, hasSession, null);
+  }
+
+  public GuardedDatasetCacheAndClone(String reqPath, NetcdfFile ncfile, boolean hasSession,
+      @Nullable OpendapMetadataCache metadataCache) {
+    this.reqPath = reqPath;
     this.org_file = ncfile;
-    this.dds = new NcDDS(reqPath, ncfile);
-    this.das = new NcDAS(ncfile);
     this.hasSession = hasSession;
+    if (metadataCache != null) {
+      OpendapMetadataCache.Templates templates = metadataCache.get(reqPath, ncfile);
+      this.dds = templates.dds;
+      this.das = templates.das;
+    } else {
+      this.dds = new NcDDS(reqPath, ncfile);
+      this.das = new NcDAS(ncfile);
+    }
   }
 
   public opendap.servers.ServerDDS getDDS() {
-    return (opendap.servers.ServerDDS) dds.clone();
+    NcDDS clone = (NcDDS) dds.clone();
+    if (!clone.rebind(org_file)) {
+      log.warn("cached DDS does not match " + org_file.getLocation() + ", rebuilding");
+      return new NcDDS(reqPath, org_file);
+    }
+    return clone;
   }
 
   public opendap.dap.DAS getDAS() {
@@ -29,6 +29,9 @@ public interface HasNetcdfVariable {
   /** get the underlying proxy */
   public Variable getVariable();
 
+  /** replace the underlying proxy, eg with the same Variable in a newer open of the dataset */
+  public void setVariable(Variable v);
+
   // for structure members
   public void serialize(DataOutputStream sink, StructureData sdata, StructureMembers.Member m) throws IOException;
 }
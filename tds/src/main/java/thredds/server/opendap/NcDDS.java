@@ -6,6 +6,9 @@
 package thredds.server.opendap;
 
 import opendap.dap.DAPNode;
+import opendap.dap.DConstructor;
+import opendap.dap.DVector;
+import opendap.dap.PrimitiveVector;
 import ucar.nc2.*;
 import ucar.ma2.DataType;
 import opendap.servers.*;
@@ -34,6 +37,8 @@ public class NcDDS extends ServerDDS {
   private List<Variable> ddsvars = new ArrayList<>(50); // list of currently active variables
   private Map<String, Variable> gridarrays = new HashMap<>(50);
   private Map<String, Variable> used = new HashMap<>(50);
+  private NetcdfFile ncfile; // the variables currently refer to this file; null if detached
+  private List<String> varNames; // if detached, full names of the variables, in the order that rebind() visits them
 
   private Variable findVariable(String name) {
     for (Variable v : ddsvars) {
@@ -51,6 +56,7 @@ public class NcDDS extends ServerDDS {
    */
   public NcDDS(String name, NetcdfFile ncfile) {
     super((name));
+    this.ncfile = ncfile;
 
     if (ncfile instanceof NetcdfDataset) {
       NetcdfDataset ncd = (NetcdfDataset) ncfile;
@@ -274,6 +280,120 @@ public class NcDDS extends ServerDDS {
     return new NcSDStructure(s, list);
   }
 
+  /**
+   * Point the variables of this DDS at the same Variables in another open of the dataset.
+   * Used on clones of a cached DDS, which must not read from the NetcdfFile the DDS was built from.
+   *
+   * @param other the NetcdfFile that the caller has open, must have the same structure as the original
+   * @return false if some variable was not found in other, in which case this DDS must not be used
+   */
+  boolean rebind(NetcdfFile other) {
+    if (other == ncfile)
+      return true;
+
+    Iterator<String> names = (varNames == null) ? null : varNames.iterator();
+    Enumeration vars = getVariables();
+    while (vars.hasMoreElements()) {
+      if (!rebind((BaseType) vars.nextElement(), other, names))
+        return false;
+    }
+    this.ncfile = other;
+    this.varNames = null;
+    return true;
+  }
+
+  // names is null if the variables are bound, else the names recorded by detach()
+  private static boolean rebind(BaseType bt, NetcdfFile other, Iterator<String> names) {
+    if (bt instanceof HasNetcdfVariable) {
+      HasNetcdfVariable hasVar = (HasNetcdfVariable) bt;
+      Variable v = other.findVariable(nextName(names, hasVar.getVariable()));
+      if (v == null)
+        return false;
+      hasVar.setVariable(v);
+
+    } else if (bt instanceof NcSDStructure) {
+      NcSDStructure sds = (NcSDStructure) bt;
+      Variable v = other.findVariable(nextName(names, sds.getVariable()));
+      if (!(v instanceof Structure))
+        return false;
+      sds.setStructure((Structure) v);
+    }
+
+    // grid components and structure members
+    if (bt instanceof DConstructor) {
+      Enumeration members = ((DConstructor) bt).getVariables();
+      while (members.hasMoreElements()) {
+        if (!rebind((BaseType) members.nextElement(), other, names))
+          return false;
+      }
+    }
+
+    // the element template of an array of strings or structures
+    BaseType template = getTemplate(bt);
+    if (template != null)
+      return rebind(template, other, names);
+    return true;
+  }
+
+  private static String nextName(Iterator<String> names, Variable bound) {
+    if (names == null)
+      return bound.getFullNameEscaped();
+    return names.hasNext() ? names.next() : null;
+  }
+
+  private static BaseType getTemplate(BaseType bt) {
+    if (bt instanceof DVector) {
+      PrimitiveVector pv = ((DVector) bt).getPrimitiveVector();
+      BaseType template = (pv == null) ? null : pv.getTemplate();
+      if (template instanceof HasNetcdfVariable || template instanceof NcSDStructure)
+        return template;
+    }
+    return null;
+  }
+
+  /**
+   * Drop all references to the NetcdfFile this DDS was built from, keeping only the names of its variables,
+   * so that it can be kept as a template after the file is closed. Clones must be rebound before they are used.
+   */
+  void detach() {
+    List<String> names = new ArrayList<>();
+    Enumeration vars = getVariables();
+    while (vars.hasMoreElements())
+      detach((BaseType) vars.nextElement(), names);
+    this.varNames = Collections.unmodifiableList(names);
+    this.ncfile = null;
+
+    // only needed while building
+    coordvars = new HashMap<>();
+    ddsvars = new ArrayList<>();
+    gridarrays = new HashMap<>();
+    used = new HashMap<>();
+  }
+
+  // same order as rebind()
+  private static void detach(BaseType bt, List<String> names) {
+    if (bt instanceof HasNetcdfVariable) {
+      HasNetcdfVariable hasVar = (HasNetcdfVariable) bt;
+      names.add(hasVar.getVariable().getFullNameEscaped());
+      hasVar.setVariable(null);
+
+    } else if (bt instanceof NcSDStructure) {
+      NcSDStructure sds = (NcSDStructure) bt;
+      names.add(sds.getVariable().getFullNameEscaped());
+      sds.setStructure(null);
+    }
+
+    if (bt instanceof DConstructor) {
+      Enumeration members = ((DConstructor) bt).getVariables();
+      while (members.hasMoreElements())
+        detach((BaseType) members.nextElement(), names);
+    }
+
+    BaseType template = getTemplate(bt);
+    if (template != null)
+      detach(template, names);
+  }
+
   /**
    * Returns a clone of this <code>?</code>.
    * See BaseType.cloneDAG()
@@ -284,6 +404,7 @@ public class NcDDS extends ServerDDS {
   public DAPNode cloneDAG(CloneMap map) throws CloneNotSupportedException {
     NcDDS d = (NcDDS) super.cloneDAG(map);
     d.coordvars = coordvars;
+    d.varNames = varNames; // immutable
     return d;
   }
 
@@ -11,6 +11,7 @@ import ucar.nc2.*;
 import opendap.servers.*;
 import opendap.dap.BaseType;
 import opendap.dap.DArrayDimension;
+import opendap.dap.NoSuchVariableException;
 import opendap.dap.PrimitiveVector;
 import java.io.IOException;
 import java.io.EOFException;
@@ -29,6 +30,20 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
   static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NcSDArray.class);
 
   private static final boolean debug = false, debugRead = false;
+
+  // max bytes read at once when streaming; 0 means read the whole array before writing it
+  private static long slabSize = 16 * 1000 * 1000;
+
+  /**
+   * Set the maximum number of bytes read into memory at once when serializing an array.
+   * Larger requests are read and written in slabs along the outer dimension.
+   *
+   * @param size slab size in bytes, 0 to turn off streaming
+   */
+  public static void setSlabSize(long size) {
+    slabSize = size;
+  }
+
   private Variable ncVar = null;
   // ignore protected BaseType elemType;
 
@@ -57,6 +72,10 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
     return ncVar;
   }
 
+  public void setVariable(Variable v) {
+    this.ncVar = v;
+  }
+
   /**
    * Read the data values (parameters are ignored).
    * Use the start, stop and stride values, typically set by the constraint evaluator.
@@ -117,6 +136,94 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
     return (false);
   }
 
+  /**
+   * Write the data values. If the projected array is larger than the slab size, it is read and written in slabs
+   * along the outer dimension, rather than read into memory all at once. Each slab holds at least one row of the
+   * outer dimension.
+   */
+  @Override
+  public void serialize(String dataset, DataOutputStream sink, CEEvaluator ce, Object specialO)
+      throws NoSuchVariableException, DAP2ServerSideException, IOException {
+    DataType dtype = ncVar.getDataType();
+    if (slabSize <= 0 || isRead() || !dtype.isNumeric()) {
+      super.serialize(dataset, sink, ce, specialO);
+      return;
+    }
+
+    List<Range> ranges = getProjectedRanges(dataset);
+    long rowSize = dtype.getSize();
+    for (Range r : ranges.subList(1, ranges.size()))
+      rowSize *= r.length();
+    Range outer = ranges.get(0);
+    if (rowSize * outer.length() <= slabSize) {
+      super.serialize(dataset, sink, ce, specialO);
+      return;
+    }
+
+    if (!ce.evalClauses(specialO))
+      return;
+
+    long tstart = System.currentTimeMillis();
+    int length = (int) new Section(ranges).computeSize();
+    int rowsPerSlab = (int) Math.max(1, Math.min(outer.length(), slabSize / rowSize));
+
+    // see SDArray.serialize: the length is written twice for arrays of primitives
+    sink.writeInt(length);
+    sink.writeInt(length);
+
+    try {
+      for (int row = 0; row < outer.length(); row += rowsPerSlab) {
+        int nrows = Math.min(rowsPerSlab, outer.length() - row);
+        int first = outer.element(row);
+        ranges.set(0, new Range(outer.getName(), first, first + (nrows - 1) * outer.stride(), outer.stride()));
+        Array slab = ncVar.read(ranges);
+
+        if (dtype.getSize() == 1) {
+          // bytes are padded to a multiple of 4 once, at the end, so cant externalize each slab separately
+          sink.write((byte[]) slab.get1DJavaArray(DataType.BYTE));
+        } else {
+          setData(slab);
+          getPrimitiveVector().externalize(sink);
+        }
+      }
+    } catch (InvalidRangeException e) {
+      log.error(getRequestedRange(), e);
+      throw new IllegalStateException("NcSDArray InvalidRangeException=" + e.getMessage());
+    }
+
+    if (dtype.getSize() == 1) {
+      for (int pad = (4 - length % 4) % 4; pad > 0; pad--)
+        sink.writeByte(0);
+    }
+
+    getPrimitiveVector().setInternalStorage(null); // dont hang on to the last slab
+    setRead(true);
+
+    if (log.isDebugEnabled()) {
+      long tookTime = System.currentTimeMillis() - tstart;
+      log.debug("NcSDArray streamed " + length + " elements in slabs of " + rowsPerSlab + " rows: " + tookTime * .001
+          + " seconds");
+    }
+  }
+
+  private List<Range> getProjectedRanges(String datasetName) {
+    try {
+      int n = numDimensions();
+      List<Range> ranges = new ArrayList<>(n);
+      for (int i = 0; i < n; i++)
+        ranges.add(new Range(getStart(i), getStop(i), getStride(i)));
+      return ranges;
+
+    } catch (InvalidDimensionException e) {
+      log.error(getRequestedRange(), e);
+      throw new IllegalStateException("NcSDArray InvalidDimensionException=" + e.getMessage());
+
+    } catch (InvalidRangeException e) {
+      log.error(getRequestedRange(), e);
+      throw new IllegalStateException("NcSDArray InvalidRangeException=" + e.getMessage() + " dataset= " + datasetName);
+    }
+  }
+
   private String getRequestedRange() {
     try {
       StringBuilder sbuff = new StringBuilder();
@@ -58,6 +58,10 @@ public class NcSDCharArray extends SDArray implements HasNetcdfVariable {
     return ncVar;
   }
 
+  public void setVariable(Variable v) {
+    this.ncVar = v;
+  }
+
 
   /**
    * Read the data values (parameters are ignored).
@@ -12,6 +12,7 @@ import opendap.servers.*;
 import opendap.dap.BaseType;
 import opendap.dap.NoSuchVariableException;
 import ucar.nc2.Variable;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -49,4 +50,22 @@ public class NcSDGrid extends SDGrid {
     setRead(true);
     return (false);
   }
+
+  /**
+   * Unlike SDGrid, dont read all the components up front: each projected component reads itself when serialized,
+   * which lets a large data array be streamed in slabs (see NcSDArray.serialize).
+   */
+  @Override
+  public void serialize(String dataset, DataOutputStream sink, CEEvaluator ce, Object specialO)
+      throws NoSuchVariableException, DAP2ServerSideException, IOException {
+    if (ce.evalClauses(specialO)) {
+      java.util.Enumeration vars = getVariables(); // data array first, then maps
+      while (vars.hasMoreElements()) {
+        ServerMethods sm = (ServerMethods) vars.nextElement();
+        if (sm.isProject())
+          sm.serialize(dataset, sink, ce, specialO);
+      }
+    }
+    setRead(true);
+  }
 }
@@ -59,6 +59,10 @@ public class NcSDStructure extends SDStructure {
     return ncVar;
   }
 
+  void setStructure(Structure s) {
+    this.ncVar = s;
+  }
+
   // called if its scalar
   public boolean read(String datasetName, Object specialO) throws NoSuchVariableException, IOException {
 
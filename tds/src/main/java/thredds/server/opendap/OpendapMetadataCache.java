@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.server.opendap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Server-wide cache of the DDS and DAS built for a dataset, shared by all requests and sessions.
+ * Entries are keyed by request path and the last modified time of the dataset, so a changed dataset gets new
+ * entries and the old ones age out. Eviction is by an estimate of the memory held by each entry.
+ * The cached objects are templates: callers must clone them, and rebind the DDS clone to their own NetcdfFile.
+ * The templates keep no reference to the NetcdfFile they were built from, which is closed by its request.
+ */
+@ThreadSafe
+public class OpendapMetadataCache {
+  static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OpendapMetadataCache.class);
+
+  // rough heap cost of the DDS and DAS nodes built for one variable, and for one attribute
+  private static final int BYTES_PER_VARIABLE = 2000;
+  private static final int BYTES_PER_ATTRIBUTE = 200;
+
+  private final Cache<Key, Templates> cache;
+
+  /**
+   * @param maxBytes approximate upper limit on the memory used by cached entries
+   */
+  public OpendapMetadataCache(long maxBytes) {
+    this.cache = CacheBuilder.newBuilder().maximumWeight(maxBytes).weigher((Key key, Templates t) -> t.weight)
+        .recordStats().build();
+  }
+
+  /**
+   * Get the DDS and DAS templates for a dataset, building them if not already cached.
+   * Concurrent requests for the same dataset build them only once.
+   *
+   * @param reqPath request path of the dataset, used as the DDS name
+   * @param ncfile the open dataset
+   * @return templates, do not modify
+   */
+  Templates get(String reqPath, NetcdfFile ncfile) {
+    long lastModified = ncfile.getLastModified();
+    if (lastModified <= 0) // cant tell if it has changed
+      return new Templates(reqPath, ncfile);
+
+    try {
+      return cache.get(new Key(reqPath, lastModified), () -> new Templates(reqPath, ncfile));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  @Immutable
+  static class Templates {
+    final NcDDS dds;
+    final NcDAS das;
+    final int weight;
+
+    Templates(String reqPath, NetcdfFile ncfile) {
+      this.dds = new NcDDS(reqPath, ncfile);
+      this.dds.detach(); // keep only the variable names
+      this.das = new NcDAS(ncfile);
+      this.weight = estimateWeight(ncfile);
+      if (log.isDebugEnabled())
+        log.debug("built DDS/DAS for " + reqPath + " weight= " + weight);
+    }
+  }
+
+  private static int estimateWeight(NetcdfFile ncfile) {
+    long weight = 0;
+    for (Variable v : ncfile.getVariables())
+      weight += BYTES_PER_VARIABLE + (long) BYTES_PER_ATTRIBUTE * Iterables.size(v.attributes());
+    weight += (long) BYTES_PER_ATTRIBUTE * Iterables.size(ncfile.getRootGroup().attributes());
+    return (int) Math.min(weight, Integer.MAX_VALUE);
+  }
+
+  @Immutable
+  private static class Key {
+    private final String reqPath;
+    private final long lastModified;
+
+    Key(String reqPath, long lastModified) {
+      this.reqPath = reqPath;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (o == null || getClass() != o.getClass())
+        return false;
+      Key key = (Key) o;
+      return lastModified == key.lastModified && reqPath.equals(key.reqPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(reqPath, lastModified);
+    }
+  }
+}
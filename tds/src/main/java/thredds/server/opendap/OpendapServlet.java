@@ -66,6 +66,9 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
 
   private boolean debugSession = false;
 
+  private long metadataCacheMaxSize = 100 * 1000 * 1000;
+  private OpendapMetadataCache metadataCache; // null if disabled
+
   @Override
   public void afterPropertiesSet() throws javax.servlet.ServletException {
     // Nothing to set at this point in the startup process
@@ -99,6 +102,14 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
       logServerStartup.info(getClass().getName() + " version= " + odapVersionString + " ascLimit = " + ascLimit
           + " binLimit = " + binLimit);
 
+      this.metadataCacheMaxSize = ThreddsConfig.getBytes("Opendap.metadataCacheMaxSize", metadataCacheMaxSize);
+      this.metadataCache = (metadataCacheMaxSize > 0) ? new OpendapMetadataCache(metadataCacheMaxSize) : null;
+      logServerStartup.info(getClass().getName() + " metadataCacheMaxSize = " + metadataCacheMaxSize);
+
+      long slabSize = ThreddsConfig.getBytes("Opendap.slabSize", 16L * 1000 * 1000);
+      NcSDArray.setSlabSize(slabSize);
+      logServerStartup.info(getClass().getName() + " slabSize = " + slabSize);
+
       if (tdsContext != null) // LOOK not set in mock testing enviro ?
       {
         setRootpath(tdsContext.getServletRootDirectory().getPath());
@@ -953,7 +964,7 @@ public class OpendapServlet extends AbstractServlet implements InitializingBean
     }
     // throw new FileNotFoundException("Cant find "+ reqPath);
 
-    GuardedDataset gdataset = new GuardedDatasetCacheAndClone(reqPath, ncd, acceptSession);
+    GuardedDataset gdataset = new GuardedDatasetCacheAndClone(reqPath, ncd, acceptSession, metadataCache);
 
     if (acceptSession) {
       String cookiePath = req.getRequestURI();
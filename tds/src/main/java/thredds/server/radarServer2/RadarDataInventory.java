@@ -17,35 +17,53 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class to manage generating an inventory of radar data and providing a way
  * to query what data are available.
+ * <p>
+ * The files are kept in a {@link RadarFileIndex}, so that a query does not walk the directories.
+ * The index is updated by listing only the date directories at or after the newest file of each station and
+ * variable, and the whole collection is crawled again once a day. If an index file is set, the index is
+ * saved there, and read back at startup instead of crawling the collection.
+ * Updates run on a background thread, which swaps in the new index when it is done; queries use the current
+ * index meanwhile, and only wait when there is none yet.
  *
  * @author rmay
  * @since 01/15/2015
  */
 
 public class RadarDataInventory {
+  static private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RadarDataInventory.class);
+
   public enum DirType {
     Station, Variable, Date
   }
 
   private static final long updateIntervalMsec = 600000;
-  private EnumMap<DirType, Set<String>> items;
+  private static final long fullCrawlIntervalMsec = TimeUnit.DAYS.toMillis(1);
+  private volatile EnumMap<DirType, Set<String>> items;
   private Path collectionDir;
   private DirectoryStructure structure;
   private String fileTimeFmt, dataFormat;
   private java.util.regex.Pattern fileTimeRegex;
-  private boolean dirty;
-  private CalendarDate lastUpdate;
+  private volatile boolean dirty;
+  private volatile CalendarDate lastUpdate; // of the current index, null until there is one
   private int maxCrawlItems;
   private StationList stations;
-  private CalendarPeriod nearestWindow, rangeAdjustment;
+  private CalendarPeriod nearestWindow;
   private String name, description;
   private DateRange timeCoverage;
   private RadarServerConfig.RadarConfigEntry.GeoInfo geoCoverage;
 
+  private volatile RadarFileIndex index = new RadarFileIndex(); // replaced, not changed, once in use
+  private Path indexFile;
+  private String indexSignature; // of the layout the index was made for, null if not made yet; updater only
+  private CompletableFuture<Void> pendingUpdate; // guarded by this
+
   public RadarDataInventory(Path datasetRoot, int numCrawl) {
     items = new EnumMap<>(DirType.class);
     collectionDir = datasetRoot;
@@ -125,6 +143,15 @@ public class RadarDataInventory {
     nearestWindow = pd;
   }
 
+  /** Set the file where the index is saved, and read from at startup. */
+  public void setIndexFile(Path indexFile) {
+    this.indexFile = indexFile;
+  }
+
+  long getIndexSize() {
+    return index.size();
+  }
+
   public static class DirectoryStructure {
     int maxCrawlDepth = 1;
 
@@ -220,38 +247,15 @@ public class RadarDataInventory {
 
   public void addDateDir(String fmt) {
     structure.addSubDir(DirType.Date, fmt);
-    CalendarPeriod adjust = findRangeAdjustment(fmt);
-    if (rangeAdjustment == null) {
-      rangeAdjustment = adjust;
-    } else if (adjust.getConvertFactor(rangeAdjustment) > 1.0) {
-      rangeAdjustment = adjust;
-    }
     dirty = true;
   }
 
-  // Trying to figure out how much to fudge the date range to compensate for
-  // the fact that when parsing a path for a date, such as YYYYMMDD, we
-  // have essentially truncated a portion of the date. While parsing the
-  // start time the same way will give a wider start point, the end
-  // ends up going the wrong way. Adding this adjustment should correct for
-  // this.
-  private CalendarPeriod findRangeAdjustment(String fmtString) {
-    if (fmtString.contains("H") || fmtString.contains("k"))
-      return CalendarPeriod.of(1, CalendarPeriod.Field.Hour);
-    else if (fmtString.contains("d"))
-      return CalendarPeriod.of(1, CalendarPeriod.Field.Day);
-    else if (fmtString.contains("M"))
-      return CalendarPeriod.of(31, CalendarPeriod.Field.Day);
-    else
-      return CalendarPeriod.of(366, CalendarPeriod.Field.Day);
-  }
-
   public void addFileTime(String regex, String fmt) {
     fileTimeRegex = java.util.regex.Pattern.compile(regex);
     fileTimeFmt = fmt;
   }
 
-  private void findItems(Path start, int level) {
+  private void findItems(Path start, int level, EnumMap<DirType, Set<String>> items) {
     // Add each entry from this level to the appropriate item box
     // and recurse
     if (level >= structure.order.size() || level >= structure.maxCrawlDepth)
@@ -278,7 +282,7 @@ public class RadarDataInventory {
           // if (entry.type == DirType.Station)
           // updateStations(item, p);
           if (crawled < maxCrawlItems) {
-            findItems(p, level + 1);
+            findItems(p, level + 1, items);
             ++crawled;
           }
         }
@@ -324,10 +328,223 @@ public class RadarDataInventory {
   }
 
   private void update() {
-    if (dirty || timeToUpdate()) {
-      findItems(structure.base, 0);
-      dirty = false;
-      lastUpdate = CalendarDate.present();
+    if (lastUpdate == null) {
+      // nothing to answer from yet
+      try {
+        startUpdate().join();
+      } catch (CompletionException e) {
+        // logged by the updater; answer from the empty index
+      }
+    } else if (dirty || timeToUpdate()) {
+      startUpdate();
+    }
+  }
+
+  /**
+   * Start updating the index on a background thread, unless an update is already running.
+   *
+   * @return completes when the new index is in use
+   */
+  public synchronized CompletableFuture<Void> startUpdate() {
+    if (pendingUpdate != null && !pendingUpdate.isDone())
+      return pendingUpdate;
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    Thread thread = new Thread(() -> {
+      try {
+        runUpdate();
+        result.complete(null);
+      } catch (Throwable t) {
+        log.error("Failed to update radar inventory " + collectionDir, t);
+        result.completeExceptionally(t);
+      }
+    }, "RadarDataInventory");
+    thread.setDaemon(true);
+    pendingUpdate = result;
+    thread.start();
+    return result;
+  }
+
+  // only one runs at a time
+  private void runUpdate() {
+    EnumMap<DirType, Set<String>> newItems = new EnumMap<>(DirType.class);
+    findItems(structure.base, 0, newItems);
+    RadarFileIndex newIndex = updateIndex();
+    dirty = false;
+    items = newItems;
+    index = newIndex;
+    lastUpdate = CalendarDate.present();
+  }
+
+  private String makeIndexSignature() {
+    StringBuilder sb = new StringBuilder(collectionDir.toString());
+    for (DirectoryStructure.DirEntry entry : structure.order)
+      sb.append('/').append(entry.type).append(':').append(entry.fmt);
+    sb.append('|').append(fileTimeRegex).append('|').append(fileTimeFmt);
+    return sb.toString();
+  }
+
+  // a new index, or the current one if nothing changed
+  private RadarFileIndex updateIndex() {
+    String signature = makeIndexSignature();
+    RadarFileIndex base = index;
+    if (indexSignature == null && indexFile != null) {
+      try {
+        RadarFileIndex read = new RadarFileIndex();
+        if (read.read(indexFile, signature)) {
+          base = read;
+          indexSignature = signature;
+          log.info("Read radar index {} with {} files", indexFile, read.size());
+        }
+      } catch (IOException e) {
+        log.warn("Failed to read radar index " + indexFile, e);
+      }
+    }
+
+    long now = System.currentTimeMillis();
+    boolean full = !signature.equals(indexSignature) || now - base.getLastFullCrawl() > fullCrawlIntervalMsec;
+    IndexCrawl crawl = new IndexCrawl(base, full);
+    crawl.visit(structure.base, 0, null, null, "");
+
+    RadarFileIndex result;
+    boolean changed;
+    if (full) {
+      result = new RadarFileIndex();
+      result.replaceAll(crawl.found, now);
+      indexSignature = signature;
+      changed = true;
+    } else {
+      result = base.copy();
+      changed = result.dropPurged(structure.base);
+      for (Map.Entry<String, List<RadarFileIndex.Entry>> e : crawl.found.entrySet())
+        changed |= result.merge(e.getKey(), e.getValue());
+      if (!changed)
+        result = base;
+    }
+
+    if (changed && indexFile != null) {
+      try {
+        result.write(indexFile, signature);
+      } catch (IOException e) {
+        log.warn("Failed to write radar index " + indexFile, e);
+      }
+    }
+    return result;
+  }
+
+  private boolean hasVariableDir() {
+    for (DirectoryStructure.DirEntry entry : structure.order) {
+      if (entry.type == DirType.Variable)
+        return true;
+    }
+    return false;
+  }
+
+  // Crawls the collection for the index. When not full, only lists the date directories at or after the newest
+  // file already indexed for their station and variable.
+  private class IndexCrawl {
+    private final RadarFileIndex index; // being updated
+    private final boolean full;
+    private final boolean hasVariable = hasVariableDir();
+    private final SimpleDateFormat[] dirFormats; // for each date level, the format of the date so far
+    private final SimpleDateFormat fileFormat;
+    private final Long oldestLastTime; // of all series, for date directories above the station or variable
+    private final Map<String, List<RadarFileIndex.Entry>> found = new HashMap<>();
+
+    IndexCrawl(RadarFileIndex index, boolean full) {
+      this.index = index;
+      this.full = full;
+      dirFormats = new SimpleDateFormat[structure.order.size()];
+      DirectoryStructure.DirectoryDateMatcher matcher = structure.matcher();
+      for (int i = 0; i < structure.order.size(); i++) {
+        DirectoryStructure.DirEntry entry = structure.order.get(i);
+        if (entry.type == DirType.Date) {
+          matcher.add(i, entry.fmt);
+          dirFormats[i] = matcher.getFormat();
+        }
+      }
+      fileFormat = new SimpleDateFormat(fileTimeFmt);
+      fileFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+      Long oldest = null;
+      for (String key : index.keys()) {
+        Long last = index.getLastTime(key);
+        if (last != null && (oldest == null || last < oldest))
+          oldest = last;
+      }
+      oldestLastTime = oldest;
+    }
+
+    void visit(Path dir, int level, String station, String var, String date) {
+      if (level == structure.order.size()) {
+        addFiles(dir, station, var);
+        return;
+      }
+
+      DirectoryStructure.DirEntry entry = structure.order.get(level);
+      try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir)) {
+        for (Path sub : dirStream) {
+          if (!Files.isDirectory(sub))
+            continue;
+          String item = sub.getFileName().toString();
+          switch (entry.type) {
+            case Station:
+              visit(sub, level + 1, item, var, date);
+              break;
+            case Variable:
+              visit(sub, level + 1, station, item, date);
+              break;
+            case Date:
+            default:
+              if (isWanted(level, date + item, station, var))
+                visit(sub, level + 1, station, var, date + item);
+          }
+        }
+      } catch (IOException e) {
+        log.warn("Error reading radar directory {}: {}", dir, e.getMessage());
+      }
+    }
+
+    private boolean isWanted(int level, String date, String station, String var) {
+      SimpleDateFormat fmt = dirFormats[level];
+      try {
+        Date dirDate = fmt.parse(date);
+        if (full)
+          return true;
+
+        boolean keyKnown = station != null && (var != null || !hasVariable);
+        Long since = keyKnown ? index.getLastTime(makeKey(station, var)) : oldestLastTime;
+        if (since == null)
+          return true;
+        // truncate to what this directory level resolves, as for the directory date
+        Date sinceDate = fmt.parse(fmt.format(new Date(since)));
+        return dirDate.getTime() >= sinceDate.getTime();
+      } catch (ParseException e) {
+        return false;
+      }
+    }
+
+    private void addFiles(Path dir, String station, String var) {
+      String relDir = structure.base.relativize(dir).toString();
+      List<RadarFileIndex.Entry> files = found.computeIfAbsent(makeKey(station, var), k -> new ArrayList<>());
+      try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir)) {
+        for (Path f : dirStream) {
+          java.util.regex.Matcher regexMatcher = fileTimeRegex.matcher(f.toString());
+          if (!regexMatcher.find())
+            continue;
+          try {
+            Date d = fileFormat.parse(regexMatcher.group());
+            files.add(new RadarFileIndex.Entry(d.getTime(), relDir, f.getFileName().toString()));
+          } catch (ParseException e) {
+            // Ignore file
+          }
+        }
+      } catch (IOException e) {
+        log.warn("Error reading radar directory {}: {}", dir, e.getMessage());
+      }
+    }
+
+    private String makeKey(String station, String var) {
+      return RadarFileIndex.makeKey(station == null ? "" : station, hasVariable ? var : null);
     }
   }
 
@@ -390,138 +607,53 @@ public class RadarDataInventory {
       addCriteria(DirType.Date, range);
     }
 
-    private CalendarDateRange rangeFromFormat(SimpleDateFormat fmt, CalendarDateRange range) {
-      if (range == null)
-        return null;
-      CalendarDate newStart = reparseDate(fmt, range.getStart());
-      CalendarDate newEnd = reparseDate(fmt, range.getEnd());
-      return CalendarDateRange.of(newStart, newEnd.add(rangeAdjustment));
-    }
-
-    private CalendarDate reparseDate(SimpleDateFormat fmt, CalendarDate d) {
-      try {
-        Date newDate = fmt.parse(fmt.format(d.toDate()));
-        return CalendarDate.of(newDate);
-      } catch (ParseException e) {
-        return d; // Better than just returning null
-      }
-    }
-
-    private boolean checkDate(CalendarDateRange range, CalendarDate d) {
-      // Range null indicates no time filter
-      return range == null || range.includes(d);
-    }
-
     public Collection<QueryResultItem> results() {
-      List<Path> results = new ArrayList<>();
-      DirectoryStructure.DirectoryDateMatcher matcher = structure.matcher();
-      results.add(structure.base);
-
       // Grab the range of dates up front
       List<Object> dates = q.get(DirType.Date);
-      CalendarDateRange range = (CalendarDateRange) dates.get(0);
+      CalendarDateRange originalRange = (CalendarDateRange) dates.get(0);
+      CalendarDateRange range = originalRange;
 
       // If we're given a single point for time, signifying we are looking
       // for the file nearest, turn it into a window for query purposes.
-      if (range != null && range.isPoint()) {
+      boolean nearest = range != null && range.isPoint();
+      if (nearest) {
         range = CalendarDateRange.of(range.getStart().subtract(nearestWindow), range.getEnd().add(nearestWindow));
       }
 
-      // Loop over each entry in the directory structure and handle
-      // as appropriate. For stn/var we check if the desired item
-      // exists. For dates, add the items that are within the filter
-      for (int i = 0; i < structure.order.size(); ++i) {
-        DirectoryStructure.DirEntry entry = structure.order.get(i);
-        List<Path> newResults = new ArrayList<>();
-        List<Object> queryItem = q.get(entry.type);
-        switch (entry.type) {
-          // Loop over results and add subdirs that are within the
-          // appropriate range, which is found by successively adding
-          // the date format to a matcher string
-          case Date:
-            matcher.add(i, entry.fmt);
-            SimpleDateFormat fmt = matcher.getFormat();
-            CalendarDateRange dirRange = rangeFromFormat(fmt, range);
-
-            for (Path p : results)
-              try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(p)) {
-                for (Path sub : dirStream) {
-                  Date d = matcher.getDate(sub);
-                  if (d != null && checkDate(dirRange, CalendarDate.of(d)))
-                    newResults.add(sub);
-                }
-              } catch (IOException e) {
-                System.out.println("results(): Error reading dir: " + p.toString());
-              }
-            break;
-
-          // Add to results and prune non-existent
-          // Add station/var name to matcher string
-          case Station:
-          case Variable:
-          default:
-            for (Object next : queryItem) {
-              for (Path p : results) {
-                Path nextPath = p.resolve(next.toString());
-                if (Files.exists(nextPath))
-                  newResults.add(nextPath);
-              }
-            }
-        }
-        results = newResults;
-      }
+      List<Object> stations = q.getOrDefault(DirType.Station, Collections.emptyList());
+      List<Object> variables = hasVariableDir() ? q.getOrDefault(DirType.Variable, Collections.emptyList())
+          : Collections.singletonList(null);
 
-      // Now get the contents of the remaining directories
-      Collection<QueryResultItem> filteredFiles = new ArrayList<>();
-      for (Path p : results) {
-        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(p)) {
-          for (Path f : dirStream) {
-            java.util.regex.Matcher regexMatcher = fileTimeRegex.matcher(f.toString());
-            if (!regexMatcher.find())
-              continue;
-
-            try {
-              SimpleDateFormat fmt = new SimpleDateFormat(fileTimeFmt);
-              fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
-              Date d = fmt.parse(regexMatcher.group());
-              if (d != null) {
-                CalendarDate cd = CalendarDate.of(d);
-                if (checkDate(range, cd))
-                  filteredFiles.add(new QueryResultItem(f, cd));
-              }
-            } catch (ParseException e) {
-              // Ignore file
-            }
-          }
-        } catch (IOException e) {
-          System.out.println("results(): Error getting files for: " + p.toString());
-        }
-      }
+      RadarFileIndex index = RadarDataInventory.this.index;
 
-      // If only looking for nearest, perform that reduction now
-      CalendarDateRange originalRange = (CalendarDateRange) dates.get(0);
-      if (originalRange != null && originalRange.isPoint()) {
-        Map<String, Long> offsets = new TreeMap<>();
-        Map<String, QueryResultItem> best = new TreeMap<>();
-
-        for (QueryResultItem it : filteredFiles) {
-          String key = structure.getKey(it.file);
-          Long offset = offsets.get(key);
-          if (offset == null)
-            offset = Long.MAX_VALUE;
-
-          long check = Math.abs(it.time.getDifferenceInMsecs(originalRange.getStart()));
-          if (check < offset) {
-            offsets.put(key, check);
-            best.put(key, it);
+      Collection<QueryResultItem> filteredFiles = new ArrayList<>();
+      for (Object station : stations) {
+        for (Object var : variables) {
+          RadarFileIndex.Series series =
+              index.get(RadarFileIndex.makeKey(station.toString(), var == null ? null : var.toString()));
+          if (series == null)
+            continue;
+
+          if (nearest) {
+            // the single file nearest to the time, if it is within the window
+            int i = series.nearest(originalRange.getStart().getMillis());
+            if (i >= 0 && range.includes(CalendarDate.of(series.getTime(i))))
+              filteredFiles.add(makeItem(series, i));
+          } else {
+            // Range null indicates no time filter
+            int from = range == null ? 0 : series.lowerBound(range.getStart().getMillis());
+            int to = range == null ? series.size() : series.upperBound(range.getEnd().getMillis());
+            for (int i = from; i < to; i++)
+              filteredFiles.add(makeItem(series, i));
           }
         }
-
-        // Return the best matches in the map
-        filteredFiles = best.values();
       }
 
       return filteredFiles;
     }
+
+    private QueryResultItem makeItem(RadarFileIndex.Series series, int i) {
+      return new QueryResultItem(series.getPath(collectionDir, i), CalendarDate.of(series.getTime(i)));
+    }
   }
 }
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.radarServer2;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The files of a radar collection, for each station and variable, sorted by time.
+ * Lookups by time are binary searches. Each series is immutable and replaced as a whole when it changes,
+ * so queries do not need to lock. The index can be written to a file, to be read at the next startup.
+ */
+@ThreadSafe
+class RadarFileIndex {
+  private static final int MAGIC = 0x52444958; // "RDIX"
+  private static final int VERSION = 1;
+
+  /** A file found while crawling the collection. */
+  @Immutable
+  static class Entry {
+    final long time;
+    final String dir; // relative to the collection directory
+    final String name;
+
+    Entry(long time, String dir, String name) {
+      this.time = time;
+      this.dir = dir;
+      this.name = name;
+    }
+  }
+
+  /** The files of one station and variable, sorted by time. */
+  @Immutable
+  static class Series {
+    private final long[] times;
+    private final int[] dirs; // index into dirTable
+    private final String[] names;
+    private final String[] dirTable;
+
+    private Series(long[] times, int[] dirs, String[] names, String[] dirTable) {
+      this.times = times;
+      this.dirs = dirs;
+      this.names = names;
+      this.dirTable = dirTable;
+    }
+
+    static Series of(List<Entry> entries) {
+      List<Entry> sorted = new ArrayList<>(entries);
+      sorted.sort(Comparator.comparingLong((Entry e) -> e.time).thenComparing(e -> e.dir).thenComparing(e -> e.name));
+
+      Map<String, Integer> dirIndex = new HashMap<>();
+      long[] times = new long[sorted.size()];
+      int[] dirs = new int[sorted.size()];
+      String[] names = new String[sorted.size()];
+      int n = 0;
+      Entry prev = null;
+      for (Entry e : sorted) {
+        // sorted, so a duplicate follows its twin
+        if (prev != null && prev.time == e.time && prev.dir.equals(e.dir) && prev.name.equals(e.name))
+          continue;
+        times[n] = e.time;
+        dirs[n] = dirIndex.computeIfAbsent(e.dir, d -> dirIndex.size());
+        names[n] = e.name;
+        n++;
+        prev = e;
+      }
+
+      String[] dirTable = new String[dirIndex.size()];
+      for (Map.Entry<String, Integer> e : dirIndex.entrySet())
+        dirTable[e.getValue()] = e.getKey();
+      return new Series(Arrays.copyOf(times, n), Arrays.copyOf(dirs, n), Arrays.copyOf(names, n), dirTable);
+    }
+
+    int size() {
+      return times.length;
+    }
+
+    long getTime(int i) {
+      return times[i];
+    }
+
+    Path getPath(Path collectionDir, int i) {
+      return collectionDir.resolve(dirTable[dirs[i]]).resolve(names[i]);
+    }
+
+    /** @return index of the first file at or after time, or size() if none */
+    int lowerBound(long time) {
+      int lo = 0, hi = times.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (times[mid] < time)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo;
+    }
+
+    /** @return index of the first file after time, or size() if none */
+    int upperBound(long time) {
+      int lo = 0, hi = times.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (times[mid] <= time)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo;
+    }
+
+    /** @return index of the file nearest to time, the earlier on a tie, or -1 if empty */
+    int nearest(long time) {
+      if (times.length == 0)
+        return -1;
+      int after = lowerBound(time);
+      if (after == 0)
+        return 0;
+      if (after == times.length)
+        return after - 1;
+      return (time - times[after - 1] <= times[after] - time) ? after - 1 : after;
+    }
+
+    List<Entry> entries() {
+      List<Entry> result = new ArrayList<>(times.length);
+      for (int i = 0; i < times.length; i++)
+        result.add(new Entry(times[i], dirTable[dirs[i]], names[i]));
+      return result;
+    }
+
+    boolean contains(Entry e) {
+      String dir = e.dir;
+      for (int i = lowerBound(e.time); i < times.length && times[i] == e.time; i++) {
+        if (names[i].equals(e.name) && dirTable[dirs[i]].equals(dir))
+          return true;
+      }
+      return false;
+    }
+  }
+
+  private final Map<String, Series> series = new ConcurrentHashMap<>();
+  private volatile long lastFullCrawl;
+
+  static String makeKey(String station, String var) {
+    return var == null ? station : station + '/' + var;
+  }
+
+  Series get(String key) {
+    return series.get(key);
+  }
+
+  Set<String> keys() {
+    return new TreeSet<>(series.keySet());
+  }
+
+  long size() {
+    long size = 0;
+    for (Series s : series.values())
+      size += s.size();
+    return size;
+  }
+
+  /** @return time of the newest file of the series, or null if there is none */
+  Long getLastTime(String key) {
+    Series s = series.get(key);
+    return (s == null || s.size() == 0) ? null : s.getTime(s.size() - 1);
+  }
+
+  long getLastFullCrawl() {
+    return lastFullCrawl;
+  }
+
+  /** A copy that can be changed without changing this one. */
+  synchronized RadarFileIndex copy() {
+    RadarFileIndex result = new RadarFileIndex();
+    result.series.putAll(series);
+    result.lastFullCrawl = lastFullCrawl;
+    return result;
+  }
+
+  /** Replace the whole index with the result of a full crawl. */
+  synchronized void replaceAll(Map<String, List<Entry>> found, long crawlTime) {
+    Map<String, Series> made = new HashMap<>();
+    for (Map.Entry<String, List<Entry>> e : found.entrySet())
+      made.put(e.getKey(), Series.of(e.getValue()));
+    series.keySet().retainAll(made.keySet());
+    series.putAll(made);
+    lastFullCrawl = crawlTime;
+  }
+
+  /**
+   * Add files found by a partial crawl. Files already in the index are ignored.
+   *
+   * @return true if any were added
+   */
+  synchronized boolean merge(String key, List<Entry> found) {
+    Series old = series.get(key);
+    List<Entry> added = new ArrayList<>();
+    for (Entry e : found) {
+      if (old == null || !old.contains(e))
+        added.add(e);
+    }
+    if (added.isEmpty())
+      return false;
+    if (old != null)
+      added.addAll(old.entries());
+    series.put(key, Series.of(added));
+    return true;
+  }
+
+  /**
+   * Drop the oldest files of each series while their directory no longer exists,
+   * which is how archives are usually purged.
+   *
+   * @return true if any were dropped
+   */
+  synchronized boolean dropPurged(Path collectionDir) {
+    boolean changed = false;
+    for (Map.Entry<String, Series> e : series.entrySet()) {
+      Series s = e.getValue();
+      int first = 0;
+      String checked = null;
+      while (first < s.size()) {
+        String dir = s.dirTable[s.dirs[first]];
+        if (!dir.equals(checked)) {
+          if (Files.isDirectory(collectionDir.resolve(dir)))
+            break;
+          checked = dir;
+        }
+        first++;
+      }
+      if (first > 0) {
+        List<Entry> kept = s.entries();
+        e.setValue(Series.of(kept.subList(first, kept.size())));
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Write the index to a file, replacing it atomically.
+   *
+   * @param signature describes the collection layout; the file is only read back with the same signature
+   */
+  synchronized void write(Path file, String signature) throws IOException {
+    Files.createDirectories(file.getParent());
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(signature);
+      out.writeLong(lastFullCrawl);
+      out.writeInt(series.size());
+      for (Map.Entry<String, Series> e : series.entrySet()) {
+        Series s = e.getValue();
+        out.writeUTF(e.getKey());
+        out.writeInt(s.dirTable.length);
+        for (String dir : s.dirTable)
+          out.writeUTF(dir);
+        out.writeInt(s.size());
+        for (int i = 0; i < s.size(); i++) {
+          out.writeLong(s.times[i]);
+          out.writeInt(s.dirs[i]);
+          out.writeUTF(s.names[i]);
+        }
+      }
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read an index written by write().
+   *
+   * @return false if the file does not exist, or was written for another layout, and nothing was read
+   */
+  synchronized boolean read(Path file, String signature) throws IOException {
+    if (!Files.exists(file))
+      return false;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(signature))
+        return false;
+      long fullCrawl = in.readLong();
+      int nseries = in.readInt();
+      Map<String, Series> made = new HashMap<>();
+      for (int k = 0; k < nseries; k++) {
+        String key = in.readUTF();
+        String[] dirTable = new String[in.readInt()];
+        for (int i = 0; i < dirTable.length; i++)
+          dirTable[i] = in.readUTF();
+        int n = in.readInt();
+        long[] times = new long[n];
+        int[] dirs = new int[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+          times[i] = in.readLong();
+          dirs[i] = in.readInt();
+          names[i] = in.readUTF();
+        }
+        made.put(key, new Series(times, dirs, names, dirTable));
+      }
+      series.clear();
+      series.putAll(made);
+      lastFullCrawl = fullCrawl;
+      return true;
+    }
+  }
+}
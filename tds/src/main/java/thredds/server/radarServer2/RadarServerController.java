@@ -8,6 +8,7 @@ package thredds.server.radarServer2;
 
 import com.google.common.base.Joiner;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -100,6 +101,7 @@ public class RadarServerController implements InitializingBean {
             }
             e.pw.printf("Collection Dir: %s%n", di.getCollectionDir().toString());
             e.pw.printf("Last Update: %s%n", di.getLastUpdate());
+            e.pw.printf("Indexed files: %d%n", di.getIndexSize());
             e.pw.println("Dates:");
             for (String item : di.listItems(RadarDataInventory.DirType.Date)) {
               e.pw.println("\t" + item);
@@ -151,6 +153,8 @@ public class RadarServerController implements InitializingBean {
         RadarDataInventory di = new RadarDataInventory(conf.dataPath, conf.crawlItems);
         di.setName(conf.name);
         di.setDescription(conf.doc);
+        di.setIndexFile(Paths.get(contentPath, "cache", "radarServer",
+            conf.urlPath.replaceAll("[^A-Za-z0-9._-]", "_") + ".index"));
 
         for (String part : conf.layout.split("/")) {
           switch (part) {
@@ -177,6 +181,7 @@ public class RadarServerController implements InitializingBean {
         vars.put(conf.urlPath, conf.vars);
         StationList sl = di.getStationList();
         sl.loadFromXmlFile(contentPath + "/" + conf.stationFile);
+        di.startUpdate(); // index in the background, rather than in the first request
       }
     }
   }
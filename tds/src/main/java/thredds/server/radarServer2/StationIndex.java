@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.radarServer2;
+
+import ucar.unidata.geoloc.Bearing;
+import ucar.unidata.geoloc.LatLonPointImmutable;
+import ucar.unidata.geoloc.LatLonPoints;
+import ucar.unidata.geoloc.LatLonRect;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A spatial index of stations, so that nearest and bounding box queries do not scan every station.
+ * <p>
+ * Nearest queries use a KD-tree of the stations on the unit sphere, where the straight line distance orders stations
+ * the same as the great circle distance. The few stations that are about as near are then compared with
+ * {@link Bearing}, so the result is the same as a scan using the distance on the ellipsoid.
+ * Bounding box queries use a KD-tree of longitude and latitude, with boxes that cross the dateline split in two.
+ * Immutable once built.
+ */
+@Immutable
+class StationIndex {
+  // ellipsoid and sphere distances differ by well under 1%, so every station that may be nearest on the ellipsoid
+  // is within this factor of the nearest one on the sphere
+  private static final double NEAR_FACTOR = 1.02;
+  private static final double BOX_SLOP = 1.0e-6;
+
+  private final List<StationList.Station> stations; // sorted by id
+  private final KdTree sphere;
+  private final KdTree lonLat;
+
+  StationIndex(Collection<StationList.Station> stations) {
+    this.stations = new ArrayList<>(stations);
+    this.stations.sort(Comparator.comparing(StationList.Station::getStid));
+
+    int n = this.stations.size();
+    double[][] xyz = new double[n][];
+    double[][] lonlat = new double[n][];
+    for (int i = 0; i < n; i++) {
+      StationList.Station s = this.stations.get(i);
+      double lon = LatLonPoints.lonNormal(s.getLongitude());
+      xyz[i] = toUnitSphere(s.getLatitude(), lon);
+      lonlat[i] = new double[] {lon, s.getLatitude()};
+    }
+    this.sphere = new KdTree(xyz);
+    this.lonLat = new KdTree(lonlat);
+  }
+
+  int size() {
+    return stations.size();
+  }
+
+  /** @return the station nearest to the point on the ellipsoid, the one with the lowest id on a tie */
+  @Nullable
+  StationList.Station getNearest(double longitude, double latitude) {
+    if (stations.isEmpty())
+      return null;
+
+    double[] target = toUnitSphere(latitude, longitude);
+    int first = sphere.nearest(target);
+    double chord = Math.sqrt(KdTree.distance2(sphere.points[first], target));
+    double angle = Math.min(Math.PI, 2 * Math.asin(Math.min(1.0, chord / 2)) * NEAR_FACTOR + 1.0e-9);
+    double radius = 2 * Math.sin(angle / 2);
+
+    List<Integer> candidates = new ArrayList<>();
+    sphere.withinRadius(target, radius * radius, candidates);
+    candidates.sort(null); // by id
+
+    LatLonPointImmutable pt = new LatLonPointImmutable(latitude, longitude);
+    StationList.Station nearest = null;
+    double minDist = Double.POSITIVE_INFINITY;
+    for (int i : candidates) {
+      StationList.Station s = stations.get(i);
+      double dist = Bearing.calculateBearing(pt, s.getLocation()).getDistance();
+      if (dist < minDist) {
+        minDist = dist;
+        nearest = s;
+      }
+    }
+    return nearest;
+  }
+
+  /** @return the stations in the box, sorted by id */
+  List<StationList.Station> getStations(double east, double west, double north, double south) {
+    LatLonRect rect = new LatLonRect(new LatLonPointImmutable(south, west), new LatLonPointImmutable(north, east));
+    double latMin = rect.getLatMin() - BOX_SLOP;
+    double latMax = rect.getLatMax() + BOX_SLOP;
+    double lonMin = LatLonPoints.lonNormal(rect.getLonMin());
+    double lonMax = lonMin + rect.getWidth();
+
+    List<Integer> candidates = new ArrayList<>();
+    lonLat.inBox(new double[] {lonMin - BOX_SLOP, latMin}, new double[] {lonMax + BOX_SLOP, latMax}, candidates);
+    if (lonMax > 180 - BOX_SLOP) // crosses the dateline
+      lonLat.inBox(new double[] {-180, latMin}, new double[] {lonMax - 360 + BOX_SLOP, latMax}, candidates);
+    if (lonMin < -180 + BOX_SLOP)
+      lonLat.inBox(new double[] {lonMin + 360 - BOX_SLOP, latMin}, new double[] {180, latMax}, candidates);
+    candidates.sort(null);
+
+    List<StationList.Station> result = new ArrayList<>();
+    int last = -1;
+    for (int i : candidates) {
+      if (i == last)
+        continue;
+      last = i;
+      // the box query is only a filter, the rectangle decides
+      StationList.Station s = stations.get(i);
+      if (rect.contains(s.getLocation()))
+        result.add(s);
+    }
+    return result;
+  }
+
+  private static double[] toUnitSphere(double lat, double lon) {
+    double latr = Math.toRadians(lat);
+    double lonr = Math.toRadians(lon);
+    double cosLat = Math.cos(latr);
+    return new double[] {cosLat * Math.cos(lonr), cosLat * Math.sin(lonr), Math.sin(latr)};
+  }
+
+  /** A KD-tree stored as a permutation of the points, with the median of each subrange at its middle. */
+  @Immutable
+  private static class KdTree {
+    private final double[][] points;
+    private final int[] order;
+    private final int dims;
+
+    KdTree(double[][] points) {
+      this.points = points;
+      this.dims = points.length == 0 ? 0 : points[0].length;
+      this.order = new int[points.length];
+      for (int i = 0; i < order.length; i++)
+        order[i] = i;
+      build(0, order.length, 0);
+    }
+
+    private void build(int from, int to, int depth) {
+      if (to - from <= 1)
+        return;
+      int axis = depth % dims;
+      int mid = (from + to) >>> 1;
+      select(from, to - 1, mid, axis);
+      build(from, mid, depth + 1);
+      build(mid + 1, to, depth + 1);
+    }
+
+    // quickselect, so that order[k] has the k-th smallest coordinate on axis within [lo, hi]
+    private void select(int lo, int hi, int k, int axis) {
+      while (lo < hi) {
+        double pivot = points[order[(lo + hi) >>> 1]][axis];
+        int i = lo, j = hi;
+        while (i <= j) {
+          while (points[order[i]][axis] < pivot)
+            i++;
+          while (points[order[j]][axis] > pivot)
+            j--;
+          if (i <= j) {
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+            i++;
+            j--;
+          }
+        }
+        if (k <= j)
+          hi = j;
+        else if (k >= i)
+          lo = i;
+        else
+          return;
+      }
+    }
+
+    static double distance2(double[] a, double[] b) {
+      double sum = 0;
+      for (int d = 0; d < a.length; d++) {
+        double diff = a[d] - b[d];
+        sum += diff * diff;
+      }
+      return sum;
+    }
+
+    int nearest(double[] target) {
+      int[] best = {-1};
+      double[] bestDist = {Double.POSITIVE_INFINITY};
+      nearest(target, 0, order.length, 0, best, bestDist);
+      return best[0];
+    }
+
+    private void nearest(double[] target, int from, int to, int depth, int[] best, double[] bestDist) {
+      if (from >= to)
+        return;
+      int mid = (from + to) >>> 1;
+      int index = order[mid];
+      double dist = distance2(points[index], target);
+      if (dist < bestDist[0]) {
+        bestDist[0] = dist;
+        best[0] = index;
+      }
+      double diff = target[depth % dims] - points[index][depth % dims];
+      if (diff < 0) {
+        nearest(target, from, mid, depth + 1, best, bestDist);
+        if (diff * diff < bestDist[0])
+          nearest(target, mid + 1, to, depth + 1, best, bestDist);
+      } else {
+        nearest(target, mid + 1, to, depth + 1, best, bestDist);
+        if (diff * diff < bestDist[0])
+          nearest(target, from, mid, depth + 1, best, bestDist);
+      }
+    }
+
+    void withinRadius(double[] target, double radius2, List<Integer> result) {
+      withinRadius(target, radius2, 0, order.length, 0, result);
+    }
+
+    private void withinRadius(double[] target, double radius2, int from, int to, int depth, List<Integer> result) {
+      if (from >= to)
+        return;
+      int mid = (from + to) >>> 1;
+      int index = order[mid];
+      if (distance2(points[index], target) <= radius2)
+        result.add(index);
+      double diff = target[depth % dims] - points[index][depth % dims];
+      if (diff <= 0 || diff * diff <= radius2)
+        withinRadius(target, radius2, from, mid, depth + 1, result);
+      if (diff >= 0 || diff * diff <= radius2)
+        withinRadius(target, radius2, mid + 1, to, depth + 1, result);
+    }
+
+    void inBox(double[] min, double[] max, List<Integer> result) {
+      inBox(min, max, 0, order.length, 0, result);
+    }
+
+    private void inBox(double[] min, double[] max, int from, int to, int depth, List<Integer> result) {
+      if (from >= to)
+        return;
+      int mid = (from + to) >>> 1;
+      int index = order[mid];
+      double[] p = points[index];
+      boolean inside = true;
+      for (int d = 0; d < dims; d++) {
+        if (p[d] < min[d] || p[d] > max[d]) {
+          inside = false;
+          break;
+        }
+      }
+      if (inside)
+        result.add(index);
+      int axis = depth % dims;
+      if (min[axis] <= p[axis])
+        inBox(min, max, from, mid, depth + 1, result);
+      if (max[axis] >= p[axis])
+        inBox(min, max, mid + 1, to, depth + 1, result);
+    }
+  }
+}
@@ -112,6 +112,7 @@ public class StationList {
   }
 
   private Map<String, Station> stations;
+  private volatile StationIndex index; // null when it needs to be made
 
   public StationList() {
     stations = new TreeMap<>();
@@ -139,36 +140,33 @@ public class StationList {
     }
   }
 
-  public Station addStation(String stid, LatLonPoint loc) {
+  public synchronized Station addStation(String stid, LatLonPoint loc) {
     Station added = new Station(stid, new LatLonPointImmutable(loc));
     stations.put(stid, added);
+    index = null;
     return added;
   }
 
-  public Station getNearest(double longitude, double latitude) {
-    LatLonPointImmutable pt = new LatLonPointImmutable(latitude, longitude);
-    Station nearest = null;
-    double minDist = Double.POSITIVE_INFINITY;
-    for (Station s : stations.values()) {
-      Bearing b = Bearing.calculateBearing(pt, s.location);
-      if (b.getDistance() < minDist) {
-        minDist = b.getDistance();
-        nearest = s;
+  private StationIndex getIndex() {
+    StationIndex result = index;
+    if (result == null) {
+      synchronized (this) {
+        result = index;
+        if (result == null) {
+          result = new StationIndex(stations.values());
+          index = result;
+        }
       }
     }
-    return nearest;
+    return result;
   }
 
-  public List<Station> getStations(double east, double west, double north, double south) {
-    LatLonRect rect = new LatLonRect(new LatLonPointImmutable(south, west), new LatLonPointImmutable(north, east));
-
-    List<Station> result = new ArrayList<>();
-
-    for (Station s : stations.values())
-      if (rect.contains(s.location))
-        result.add(s);
+  public Station getNearest(double longitude, double latitude) {
+    return getIndex().getNearest(longitude, latitude);
+  }
 
-    return result;
+  public List<Station> getStations(double east, double west, double north, double south) {
+    return getIndex().getStations(east, west, north, south);
   }
 
   @XmlElement(name = "station")
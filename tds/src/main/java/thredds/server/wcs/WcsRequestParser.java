@@ -4,6 +4,7 @@
  */
 package thredds.server.wcs;
 
+import thredds.core.CoverageCollectionCache;
 import thredds.core.TdsRequestedDataset;
 import thredds.servlet.ServletUtil;
 import javax.servlet.http.HttpServletRequest;
@@ -52,7 +53,7 @@ public class WcsRequestParser {
 
 
     TdsRequestedDataset trd = new TdsRequestedDataset(req, "/wcs");
-    CoverageCollection gridDataset = null;
+    CoverageCollectionCache.Handle gridDataset = null;
     try {
       gridDataset = trd.openAsCoverageDataset(req, res);
       if (gridDataset == null)
@@ -4,6 +4,7 @@
  */
 package thredds.server.wcs.v1_0_0_1;
 
+import thredds.core.CoverageCollectionCache;
 import ucar.nc2.ft2.coverage.Coverage;
 import ucar.nc2.ft2.coverage.CoverageCoordSys;
 import ucar.nc2.ft2.coverage.CoverageCollection;
@@ -18,8 +19,15 @@ public class WcsDataset {
   private String datasetPath;
   private String datasetName;
   private CoverageCollection dataset;
+  private CoverageCollectionCache.Handle handle; // null if the dataset is not lent from the cache
   private Map<String, WcsCoverage> availableCoverages;
 
+  /** Closing this returns the dataset to the cache. */
+  public WcsDataset(CoverageCollectionCache.Handle handle, String datasetPath) {
+    this(handle.getCollection(), datasetPath);
+    this.handle = handle;
+  }
+
   public WcsDataset(CoverageCollection dataset, String datasetPath) {
     this.datasetPath = datasetPath;
     int pos = datasetPath.lastIndexOf("/");
@@ -61,7 +69,9 @@ public class WcsDataset {
   }
 
   public void close() throws IOException {
-    if (this.dataset != null)
+    if (this.handle != null)
+      this.handle.close();
+    else if (this.dataset != null)
       this.dataset.close();
   }
 
@@ -1,5 +1,9 @@
 package thredds.server.wfs;
 
+import java.io.StringWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import ucar.nc2.ft2.simpgeometry.*;
 
 /**
@@ -10,6 +14,8 @@ import ucar.nc2.ft2.simpgeometry.*;
  */
 public class GMLFeatureWriter {
 
+  public static final String GML_NAMESPACE = "http://opengis.net/gml/3.2";
+
   /**
    * Checks the type of the Simple Geom and calls the appropriate method to build the xml
    *
@@ -17,94 +23,85 @@ public class GMLFeatureWriter {
    * @return the xml
    */
   public String writeFeature(SimpleGeometry geom) {
+    if (!(geom instanceof Point || geom instanceof Line || geom instanceof Polygon))
+      return null;
+
+    StringWriter xml = new StringWriter();
+    try {
+      XMLStreamWriter out = XMLOutputFactory.newInstance().createXMLStreamWriter(xml);
+      writeFeature(out, geom);
+      out.flush();
+    } catch (XMLStreamException e) {
+      throw new IllegalStateException(e);
+    }
+    return xml.toString();
+  }
 
+  /**
+   * Checks the type of the Simple Geom and writes its xml to a stream. The gml prefix must already be bound.
+   *
+   * @param out the stream
+   * @param geom the Simple Geom
+   * @throws XMLStreamException
+   */
+  public void writeFeature(XMLStreamWriter out, SimpleGeometry geom) throws XMLStreamException {
     if (geom instanceof Point)
-      return writePoint((Point) geom);
+      writePoint(out, (Point) geom);
     else if (geom instanceof Line)
-      return writeLine((Line) geom);
+      writeLine(out, (Line) geom);
     else if (geom instanceof Polygon)
-      return writePolygon((Polygon) geom);
-    else
-      return null;
-
+      writePolygon(out, (Polygon) geom);
   }
 
   /**
    * Takes in a point and writes its xml
    *
    * @param point the point
-   * @return the xml
    */
-  private String writePoint(Point point) {
-
-    String xml = "";
-    xml += "<gml:Point srsName=\"http://www.opengis.net/gml/srs/epsg.xml@900913\" srsDimension=\"2\">" + "<gml:pos>"
-        + point.getX() + " " + point.getY() + "</gml:pos>" + "</gml:Point>";
-
-    return xml;
+  private void writePoint(XMLStreamWriter out, Point point) throws XMLStreamException {
+    out.writeStartElement("gml", "Point", GML_NAMESPACE);
+    out.writeAttribute("srsName", "http://www.opengis.net/gml/srs/epsg.xml@900913");
+    out.writeAttribute("srsDimension", "2");
+    out.writeStartElement("gml", "pos", GML_NAMESPACE);
+    out.writeCharacters(point.getX() + " " + point.getY());
+    out.writeEndElement();
+    out.writeEndElement();
   }
 
   /**
    * Takes in a line and iterates through all its points, writing the posList to xml
    *
    * @param line the line
-   * @return the xml
    */
-  private String writeLine(Line line) {
-
-    String xml = "";
-    xml += "<gml:LineString><gml:posList>";
-
-    for (Point point : line.getPoints()) {
-      xml += point.getX() + " " + point.getY() + " ";
-    }
-
-    xml += "</gml:posList></gml:LineString>";
-
-    return xml;
+  private void writeLine(XMLStreamWriter out, Line line) throws XMLStreamException {
+    out.writeStartElement("gml", "LineString", GML_NAMESPACE);
+    writePosList(out, line.getPoints());
+    out.writeEndElement();
   }
 
   /**
    * Takes in a polygon, checks whether it is an interior or exterior ring, and writes the corresponding xml.
-   * Iterates through all linked polygons
    *
-   * @param polygon the polygon
-   * @return the xml
+   * @param poly the polygon
    */
-  private String writePolygon(Polygon poly) {
-
-    String xml = "";
-    xml += "<gml:Polygon>";
-
-    Polygon polygon = poly;
-
-    // while (polygon != null) {
-
-    if (!polygon.getInteriorRing()) {
-      xml += "<gml:exterior><gml:LinearRing><gml:posList>";
-
-      for (Point point : polygon.getPoints()) {
-        xml += point.getX() + " " + point.getY() + " ";
-      }
-
-      xml += "</gml:posList></gml:LinearRing></gml:exterior>";
-
-    }
-
-    else {
-      xml += "<gml:interior><gml:LinearRing><gml:posList>";
-
-      for (Point point : polygon.getPoints()) {
-        xml += point.getX() + " " + point.getY() + " ";
-      }
+  private void writePolygon(XMLStreamWriter out, Polygon poly) throws XMLStreamException {
+    out.writeStartElement("gml", "Polygon", GML_NAMESPACE);
+    out.writeStartElement("gml", poly.getInteriorRing() ? "interior" : "exterior", GML_NAMESPACE);
+    out.writeStartElement("gml", "LinearRing", GML_NAMESPACE);
+    writePosList(out, poly.getPoints());
+    out.writeEndElement();
+    out.writeEndElement();
+    out.writeEndElement();
+  }
 
-      xml += "</gml:posList></gml:LinearRing></gml:interior>";
+  private void writePosList(XMLStreamWriter out, Iterable<Point> points) throws XMLStreamException {
+    out.writeStartElement("gml", "posList", GML_NAMESPACE);
+    StringBuilder pos = new StringBuilder(64);
+    for (Point point : points) {
+      pos.setLength(0);
+      pos.append(point.getX()).append(' ').append(point.getY()).append(' ');
+      out.writeCharacters(pos.toString());
     }
-
-    // polygon = polygon.getNext();
-    // }
-
-    xml += "</gml:Polygon>";
-    return xml;
+    out.writeEndElement();
   }
 }
@@ -1,5 +1,9 @@
 package thredds.server.wfs;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import thredds.core.DatasetManager;
@@ -16,9 +20,11 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Controller for WFS Simple Geometry Web Service
@@ -32,6 +38,10 @@ public class WFSController extends HttpServlet {
 
   public static final String TDSNAMESPACE = "tdswfs";
 
+  // the bounding boxes of the features, weighed by their number
+  private static final Cache<String, WFSFeatureIndex> featureIndexCache = CacheBuilder.newBuilder()
+      .maximumWeight(1000 * 1000).weigher((String key, WFSFeatureIndex index) -> index.size() + 1).build();
+
   /**
    * Gets the namespace associated with the WFS Controller and this specific THREDDS server
    *
@@ -96,14 +106,15 @@ public class WFSController extends HttpServlet {
 
   /**
    * Processes GetFeature requests.
+   * The features are found from their bounding boxes, then only the requested page of geometries is read, and
+   * written as it is read.
    *
    * @param out
    * @return
    */
   private WFSExceptionWriter getFeature(PrintWriter out, HttpServletRequest hsreq, SimpleGeometryCSBuilder sgcs,
-      String ftName, String fullFtName) {
-
-    List<SimpleGeometry> geometryList = new ArrayList<SimpleGeometry>();
+      String ftName, String fullFtName, String indexKey, String count, String startIndex, String bbox)
+      throws XMLStreamException {
 
     GeometryType geoT = sgcs.getGeometryType(ftName);
 
@@ -112,61 +123,104 @@ public class WFSController extends HttpServlet {
           "OperationProcessingFailed");
     }
 
+    // Paging and filtering parameters
+    int maxCount = Integer.MAX_VALUE;
+    int start = 0;
+    double[] filterBox = null;
     try {
-
-      switch (geoT) {
-        case POINT:
-          Point pt = sgcs.getPoint(ftName, 0);
-          int j = 0;
-          while (pt != null) {
-            geometryList.add(pt);
-            j++;
-            pt = sgcs.getPoint(ftName, j);
-          }
-          break;
-
-        case LINE:
-
-          Line line = sgcs.getLine(ftName, 0);
-          int k = 0;
-          while (line != null) {
-            geometryList.add(line);
-            k++;
-            line = sgcs.getLine(ftName, k);
-          }
-
-          break;
-
-        case POLYGON:
-
-          Polygon poly = sgcs.getPolygon(ftName, 0);
-          int i = 0;
-          while (poly != null) {
-            geometryList.add(poly);
-            i++;
-            poly = sgcs.getPolygon(ftName, i);
-          }
-
-          break;
-
-      }
+      if (count != null)
+        maxCount = Integer.parseInt(count.trim());
+      if (startIndex != null)
+        start = Integer.parseInt(startIndex.trim());
+    } catch (NumberFormatException e) {
+      return new WFSExceptionWriter("WFS server error. COUNT and STARTINDEX must be integers.", "GetFeature",
+          "InvalidParameterValue");
+    }
+    if (maxCount < 0 || start < 0) {
+      return new WFSExceptionWriter("WFS server error. COUNT and STARTINDEX must not be negative.", "GetFeature",
+          "InvalidParameterValue");
     }
 
-    // Perhaps will change this to be implemented in the CFPolygon class
-    catch (ArrayIndexOutOfBoundsException aout) {
-
+    if (bbox != null) {
+      try {
+        filterBox = parseBbox(bbox);
+      } catch (IllegalArgumentException e) {
+        return new WFSExceptionWriter("WFS server error. BBOX must be minX,minY,maxX,maxY, with min <= max.",
+            "GetFeature", "InvalidParameterValue");
+      }
     }
 
+    WFSFeatureIndex index = getFeatureIndex(indexKey, sgcs, geoT, ftName);
+    int[] matched = index.findFeatures(filterBox);
+    int[] page = getPage(matched.length, start, maxCount);
+    int from = page[0];
+    int to = page[1];
 
     WFSGetFeatureWriter gfdw = new WFSGetFeatureWriter(out, WFSController.constructServerPath(hsreq),
-        WFSController.getXMLNamespaceXMLNSValue(hsreq), geometryList, ftName);
-    gfdw.startXML();
-    gfdw.writeMembers();
+        WFSController.getXMLNamespaceXMLNSValue(hsreq), ftName);
+    gfdw.startXML(matched.length, to - from, index.getBoundingBox(matched, from, to));
+    for (int k = from; k < to; k++) {
+      SimpleGeometry geometry = WFSFeatureIndex.getGeometry(sgcs, geoT, ftName, matched[k]);
+      if (geometry != null)
+        gfdw.writeMember(geometry, matched[k] + 1);
+    }
     gfdw.finishXML();
 
     return null;
   }
 
+  /**
+   * Parses the BBOX parameter of a GetFeature request.
+   *
+   * @param bbox minX,minY,maxX,maxY[,crs], in the axis order of the envelopes that are written
+   * @return minX, minY, maxX, maxY
+   * @throws IllegalArgumentException if there are not four numbers, or a min is greater than its max
+   */
+  static double[] parseBbox(String bbox) {
+    String[] parts = bbox.split(",");
+    if (parts.length < 4)
+      throw new IllegalArgumentException("BBOX needs 4 values: " + bbox);
+    double[] result = new double[4];
+    for (int i = 0; i < 4; i++)
+      result[i] = Double.parseDouble(parts[i].trim());
+    if (!(result[0] <= result[2]) || !(result[1] <= result[3])) // also rejects NaN
+      throw new IllegalArgumentException("BBOX min is greater than max: " + bbox);
+    return result;
+  }
+
+  /**
+   * Finds the page of the matched features to return.
+   *
+   * @param nmatched number of matched features
+   * @param start STARTINDEX, not negative
+   * @param maxCount COUNT, not negative
+   * @return from, to (exclusive) in the matched features; empty if start is past the end
+   */
+  static int[] getPage(int nmatched, int start, int maxCount) {
+    int from = Math.min(start, nmatched);
+    int to = (int) Math.min((long) from + maxCount, nmatched);
+    return new int[] {from, to};
+  }
+
+  /**
+   * Gets the feature index of a feature type, from the cache if the dataset has not changed.
+   *
+   * @param indexKey identifies the dataset and its version, or null if it cannot be cached
+   */
+  private static WFSFeatureIndex getFeatureIndex(String indexKey, SimpleGeometryCSBuilder sgcs, GeometryType geoT,
+      String ftName) {
+    if (indexKey == null)
+      return WFSFeatureIndex.build(sgcs, geoT, ftName);
+
+    try {
+      // concurrent requests for the same feature type wait for a single index
+      return featureIndexCache.get(indexKey + "#" + ftName, () -> WFSFeatureIndex.build(sgcs, geoT, ftName));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
   /**
    * Checks request parameters for errors.
    * Will send back an XML Exception if any errors are encountered.
@@ -292,6 +346,7 @@ public class WFSController extends HttpServlet {
    */
   @RequestMapping("**")
   public void httpHandler(HttpServletRequest hsreq, HttpServletResponse hsres) {
+    NetcdfDataset dataset = null;
     try {
 
       PrintWriter wr = hsres.getWriter();
@@ -308,7 +363,9 @@ public class WFSController extends HttpServlet {
       String datasetReqPath = null;
       String actualPath = null;
       String actualFTName = null;
-      NetcdfDataset dataset = null;
+      String count = null;
+      String startIndex = null;
+      String bbox = null;
 
       if (hsreq.getServletPath().length() > 4) {
         datasetReqPath = hsreq.getServletPath().substring(4, hsreq.getServletPath().length());
@@ -326,6 +383,10 @@ public class WFSController extends HttpServlet {
       else
         return;
 
+      // the feature indexes of a dataset can be reused until it changes
+      long lastModified = TdsRequestedDataset.getLastModified(datasetReqPath);
+      String indexKey = lastModified > 0 ? actualPath + "@" + lastModified : null;
+
       List<CoordinateSystem> csList = dataset.getCoordinateSystems();
       SimpleGeometryCSBuilder cs = new SimpleGeometryCSBuilder(dataset, csList.get(0), null);
 
@@ -349,6 +410,18 @@ public class WFSController extends HttpServlet {
           service = hsreq.getParameter(paramName);
         }
 
+        if (paramName.equalsIgnoreCase("COUNT") || paramName.equalsIgnoreCase("MAXFEATURES")) {
+          count = hsreq.getParameter(paramName);
+        }
+
+        if (paramName.equalsIgnoreCase("STARTINDEX")) {
+          startIndex = hsreq.getParameter(paramName);
+        }
+
+        if (paramName.equalsIgnoreCase("BBOX")) {
+          bbox = hsreq.getParameter(paramName);
+        }
+
         if (paramName.equalsIgnoreCase("TYPENAMES") || paramName.equalsIgnoreCase("TYPENAME")) {
           typeNames = hsreq.getParameter(paramName);
 
@@ -379,7 +452,8 @@ public class WFSController extends HttpServlet {
             break;
 
           case GetFeature:
-            requestProcessingError = getFeature(wr, hsreq, cs, actualFTName, typeNames);
+            requestProcessingError =
+                getFeature(wr, hsreq, cs, actualFTName, typeNames, indexKey, count, startIndex, bbox);
             break;
         }
 
@@ -405,5 +479,19 @@ public class WFSController extends HttpServlet {
       throw new RuntimeException(
           "The writer may not have been able to been have retrieved" + " or the requested dataset was not found", io);
     }
+
+    catch (XMLStreamException xse) {
+      throw new RuntimeException("The GetFeature response could not be written", xse);
+    }
+
+    finally {
+      if (dataset != null) {
+        try {
+          dataset.close();
+        } catch (IOException io) {
+          // nothing more to do
+        }
+      }
+    }
   }
 }
@@ -0,0 +1,124 @@
+package thredds.server.wfs;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.Immutable;
+import ucar.nc2.ft2.simpgeometry.GeometryType;
+import ucar.nc2.ft2.simpgeometry.SimpleGeometry;
+import ucar.nc2.ft2.simpgeometry.adapter.SimpleGeometryCSBuilder;
+
+/**
+ * The bounding box of each feature of a feature type, so that a GetFeature request can find the features it wants
+ * without reading every geometry again. Features are identified by their index in the dataset.
+ */
+@Immutable
+public class WFSFeatureIndex {
+
+  // minX, minY, maxX, maxY for each feature
+  private final double[] boxes;
+  private final int size;
+
+  // boxes holds minX, minY, maxX, maxY for each feature; also for unit tests
+  WFSFeatureIndex(double[] boxes, int size) {
+    this.boxes = boxes;
+    this.size = size;
+  }
+
+  /**
+   * Reads every geometry of a feature type once, keeping only its bounding box.
+   *
+   * @param sgcs the geometries
+   * @param geoT the type of the geometries
+   * @param ftName the feature type name
+   * @return the index
+   */
+  public static WFSFeatureIndex build(SimpleGeometryCSBuilder sgcs, GeometryType geoT, String ftName) {
+    double[] boxes = new double[4 * 64];
+    int n = 0;
+    SimpleGeometry geometry = getGeometry(sgcs, geoT, ftName, 0);
+    while (geometry != null) {
+      if (4 * n == boxes.length)
+        boxes = Arrays.copyOf(boxes, 2 * boxes.length);
+      double[] lower = geometry.getBBLower();
+      double[] upper = geometry.getBBUpper();
+      boxes[4 * n] = lower[0];
+      boxes[4 * n + 1] = lower[1];
+      boxes[4 * n + 2] = upper[0];
+      boxes[4 * n + 3] = upper[1];
+      n++;
+      geometry = getGeometry(sgcs, geoT, ftName, n);
+    }
+    return new WFSFeatureIndex(Arrays.copyOf(boxes, 4 * n), n);
+  }
+
+  /**
+   * Gets a geometry by its index.
+   *
+   * @return the geometry, or null if there is none with this index
+   */
+  public static SimpleGeometry getGeometry(SimpleGeometryCSBuilder sgcs, GeometryType geoT, String ftName,
+      int index) {
+    try {
+      switch (geoT) {
+        case POINT:
+          return sgcs.getPoint(ftName, index);
+        case LINE:
+          return sgcs.getLine(ftName, index);
+        case POLYGON:
+          return sgcs.getPolygon(ftName, index);
+        default:
+          return null;
+      }
+    }
+
+    // Perhaps will change this to be implemented in the CFPolygon class
+    catch (ArrayIndexOutOfBoundsException aout) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the number of features
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Finds the features whose bounding box intersects a box.
+   *
+   * @param bbox minX, minY, maxX, maxY, or null for all features
+   * @return the indices of the features, in increasing order
+   */
+  public int[] findFeatures(double[] bbox) {
+    int[] result = new int[size];
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      if (bbox == null || (boxes[4 * i] <= bbox[2] && boxes[4 * i + 2] >= bbox[0] && boxes[4 * i + 1] <= bbox[3]
+          && boxes[4 * i + 3] >= bbox[1]))
+        result[n++] = i;
+    }
+    return n == size ? result : Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Finds the bounding box of some features.
+   *
+   * @param features the indices of the features
+   * @param from first index in features
+   * @param to last index in features, exclusive
+   * @return minX, minY, maxX, maxY, or null if there are no features
+   */
+  public double[] getBoundingBox(int[] features, int from, int to) {
+    if (from >= to)
+      return null;
+    double[] result = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int k = from; k < to; k++) {
+      int i = features[k];
+      result[0] = Math.min(result[0], boxes[4 * i]);
+      result[1] = Math.min(result[1], boxes[4 * i + 1]);
+      result[2] = Math.max(result[2], boxes[4 * i + 2]);
+      result[3] = Math.max(result[3], boxes[4 * i + 3]);
+    }
+    return result;
+  }
+}
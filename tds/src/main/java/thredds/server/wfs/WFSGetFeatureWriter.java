@@ -1,147 +1,130 @@
 package thredds.server.wfs;
 
-import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.List;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import ucar.nc2.ft2.simpgeometry.SimpleGeometry;
 
 /**
  * A writer for a WFS compliant Feature Collection GML file.
  * Answers to GetFeature requests.
- * 
+ *
+ * Members are streamed to the response as they are written, so that the geometries do not need to be kept in memory.
+ *
  * @author wchen@usgs.gov
  *
  */
 public class WFSGetFeatureWriter {
 
-  private PrintWriter response;
-  private String fileOutput;
+  private static final String WFS_NAMESPACE = "http://opengis.net/wfs/2.0";
+  private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+  private static final String SRS_NAME = "urn:ogc:def:crs:EPSG::4326";
+
+  private final PrintWriter response;
+  private final XMLStreamWriter out;
   private final String namespace;
   private final String server;
   private final String ftName;
-  private List<SimpleGeometry> geometries;
+  private final GMLFeatureWriter writer = new GMLFeatureWriter();
 
   /**
    * Writes headers and bounding box
    */
-  private void writeHeadersAndBB() {
-    fileOutput += "<wfs:FeatureCollection xsi:schemaLocation="
-        + WFSXMLHelper.encQuotes(
-            "http://www.opengis.net/wfs/2.0 http://schemas.opengis.net/wfs/2.0/wfs.xsd " + namespace + " " + server
-                + "?request=DescribeFeatureType" + WFSXMLHelper.AMPERSAND + "service=wfs" + WFSXMLHelper.AMPERSAND
-                + "version=2.0.0" + WFSXMLHelper.AMPERSAND + "typename=" + WFSController.TDSNAMESPACE + "%3A" + ftName)
-        + " xmlns:xsi=" + WFSXMLHelper.encQuotes("http://www.w3.org/2001/XMLSchema-instance") + " xmlns:xlink="
-        + WFSXMLHelper.encQuotes("http://www.w3.org/1999/xlink") + " xmlns:gml="
-        + WFSXMLHelper.encQuotes("http://opengis.net/gml/3.2") + " xmlns:fes="
-        + WFSXMLHelper.encQuotes("http://www.opengis.net/fes/2.0") + " xmlns:ogc="
-        + WFSXMLHelper.encQuotes("http://www.opengis.net/ogc") + " xmlns:wfs="
-        + WFSXMLHelper.encQuotes("http://opengis.net/wfs/2.0") + " xmlns:" + WFSController.TDSNAMESPACE + "="
-        + WFSXMLHelper.encQuotes(namespace) + " xmlns=" + WFSXMLHelper.encQuotes("http://www.opengis.net/wfs/2.0")
-        + " version=\"2.0.0\" numberMatched=" + WFSXMLHelper.encQuotes(String.valueOf(geometries.size()))
-        + " numberReturned=" + WFSXMLHelper.encQuotes(String.valueOf(geometries.size())) + ">";
-
-    double[] boundLower;
-    double[] boundUpper;
-    if (geometries.isEmpty()) {
-      boundLower = new double[2];
-      boundUpper = new double[2];
-      boundLower[0] = -180;
-      boundLower[1] = -90;
-      boundUpper[0] = 180;
-      boundUpper[1] = 90;
-    }
-
-    else {
-      boundLower = geometries.get(0).getBBLower();
-      boundUpper = geometries.get(0).getBBUpper();
-    }
+  private void writeHeadersAndBB(int numberMatched, int numberReturned, double[] bbox) throws XMLStreamException {
+    out.writeStartElement("wfs", "FeatureCollection", WFS_NAMESPACE);
+    out.writeAttribute("xsi", XSI_NAMESPACE, "schemaLocation",
+        "http://www.opengis.net/wfs/2.0 http://schemas.opengis.net/wfs/2.0/wfs.xsd " + namespace + " " + server
+            + "?request=DescribeFeatureType&service=wfs&version=2.0.0&typename=" + WFSController.TDSNAMESPACE + "%3A"
+            + ftName);
+    out.writeNamespace("xsi", XSI_NAMESPACE);
+    out.writeNamespace("xlink", "http://www.w3.org/1999/xlink");
+    out.writeNamespace("gml", GMLFeatureWriter.GML_NAMESPACE);
+    out.writeNamespace("fes", "http://www.opengis.net/fes/2.0");
+    out.writeNamespace("ogc", "http://www.opengis.net/ogc");
+    out.writeNamespace("wfs", WFS_NAMESPACE);
+    out.writeNamespace(WFSController.TDSNAMESPACE, namespace);
+    out.writeDefaultNamespace("http://www.opengis.net/wfs/2.0");
+    out.writeAttribute("version", "2.0.0");
+    out.writeAttribute("numberMatched", String.valueOf(numberMatched));
+    out.writeAttribute("numberReturned", String.valueOf(numberReturned));
 
     // WFS Bounding Box
-    for (SimpleGeometry item : geometries) {
-
-      // Find the overall BB
-
-      // Test Lower
-      double[] low = item.getBBLower();
-      if (boundLower[0] > low[0])
-        boundLower[0] = low[0];
-      if (boundLower[1] > low[1])
-        boundLower[1] = low[1];
-
-      // Test Upper
-      double[] upper = item.getBBUpper();
-      if (boundUpper[0] < upper[0])
-        boundUpper[0] = upper[0];
-      if (boundUpper[1] < upper[1])
-        boundUpper[1] = upper[1];
-
-      // Add some padding
-      boundLower[0] -= 10;
-      boundLower[1] -= 10;
-      boundUpper[0] += 10;
-      boundUpper[1] += 10;
-    }
+    if (bbox == null)
+      bbox = new double[] {-180, -90, 180, 90};
+    out.writeStartElement("wfs", "boundedBy", WFS_NAMESPACE);
+    out.writeStartElement("wfs", "Envelope", WFS_NAMESPACE);
+    out.writeAttribute("srsName", SRS_NAME);
+    writeCorners("wfs", WFS_NAMESPACE, bbox);
+    out.writeEndElement();
+    out.writeEndElement();
+  }
 
-    fileOutput += "<wfs:boundedBy>" + "<wfs:Envelope srsName=" + "\"urn:ogc:def:crs:EPSG::4326\"" + ">"
-        + "<wfs:lowerCorner>" + boundLower[0] + " " + boundLower[1] + "</wfs:lowerCorner>" + "<wfs:upperCorner>"
-        + boundUpper[0] + " " + boundUpper[1] + "</wfs:upperCorner>" + "</wfs:Envelope>" + "</wfs:boundedBy>";
+  private void writeCorners(String prefix, String uri, double[] bbox) throws XMLStreamException {
+    out.writeStartElement(prefix, "lowerCorner", uri);
+    out.writeCharacters(bbox[0] + " " + bbox[1]);
+    out.writeEndElement();
+    out.writeStartElement(prefix, "upperCorner", uri);
+    out.writeCharacters(bbox[2] + " " + bbox[3]);
+    out.writeEndElement();
   }
 
   /**
    * Initiate the response with an XML file with an XML header and the FeatureCollection tag. Write bounding box and
    * namespace information.
+   *
+   * @param numberMatched the number of features that match the request
+   * @param numberReturned the number of members that will be written
+   * @param bbox minX, minY, maxX, maxY of the members, or null if there are none
    */
-  public void startXML() {
-    fileOutput += "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
-    writeHeadersAndBB();
+  public void startXML(int numberMatched, int numberReturned, double[] bbox) throws XMLStreamException {
+    out.writeStartDocument("UTF-8", "1.0");
+    writeHeadersAndBB(numberMatched, numberReturned, bbox);
   }
 
   /**
-   * In the WFS specification for GetFeature each feature type is its own
-   * member and so writeMembers add each member to the fileOutput
+   * In the WFS specification for GetFeature each feature type is its own member, written as it is read
+   *
+   * @param geometryItem the geometry of the member
+   * @param id identifies the member, unique within the feature type
    */
-  public void writeMembers() {
-    int index = 1;
-    GMLFeatureWriter writer = new GMLFeatureWriter();
-    for (SimpleGeometry geometryItem : geometries) {
-
-      // Find bounding box information
-      double[] lowerCorner = geometryItem.getBBLower();
-      double[] upperCorner = geometryItem.getBBUpper();
-
-      fileOutput += "<wfs:member>"
-
-          // Write Geometry Information
-          + "<" + WFSController.TDSNAMESPACE + ":" + ftName + " gml:id=\"" + ftName + "." + index + "\">"
-
-          // GML Bounding Box
-          + "<gml:boundedBy>" + "<gml:Envelope srsName=" + "\"urn:ogc:def:crs:EPSG::4326\"" + ">" + "<gml:lowerCorner>"
-          + lowerCorner[0] + " " + lowerCorner[1] + "</gml:lowerCorner>" + "<gml:upperCorner>" + upperCorner[0] + " "
-          + upperCorner[1] + "</gml:upperCorner>" + "</gml:Envelope>" + "</gml:boundedBy>"
-
-          + "<" + WFSController.TDSNAMESPACE + ":geometryInformation>";
-
-      // write GML features
-      fileOutput += writer.writeFeature(geometryItem);
-
-      // Cap off headers
-      fileOutput += "</" + WFSController.TDSNAMESPACE + ":geometryInformation>" + "</" + WFSController.TDSNAMESPACE
-          + ":" + ftName + ">" + "</wfs:member>";
-
-      index++;
-    }
+  public void writeMember(SimpleGeometry geometryItem, int id) throws XMLStreamException {
+    out.writeStartElement("wfs", "member", WFS_NAMESPACE);
+
+    // Write Geometry Information
+    out.writeStartElement(WFSController.TDSNAMESPACE, ftName, namespace);
+    out.writeAttribute("gml", GMLFeatureWriter.GML_NAMESPACE, "id", ftName + "." + id);
+
+    // GML Bounding Box
+    double[] lowerCorner = geometryItem.getBBLower();
+    double[] upperCorner = geometryItem.getBBUpper();
+    out.writeStartElement("gml", "boundedBy", GMLFeatureWriter.GML_NAMESPACE);
+    out.writeStartElement("gml", "Envelope", GMLFeatureWriter.GML_NAMESPACE);
+    out.writeAttribute("srsName", SRS_NAME);
+    writeCorners("gml", GMLFeatureWriter.GML_NAMESPACE,
+        new double[] {lowerCorner[0], lowerCorner[1], upperCorner[0], upperCorner[1]});
+    out.writeEndElement();
+    out.writeEndElement();
+
+    // write GML features
+    out.writeStartElement(WFSController.TDSNAMESPACE, "geometryInformation", namespace);
+    writer.writeFeature(out, geometryItem);
+
+    // Cap off headers
+    out.writeEndElement();
+    out.writeEndElement();
+    out.writeEndElement();
   }
 
   /**
-   * Finish writing the XML file, write the end tag for FeatureCollection and append it all to the PrintWriter.
+   * Finish writing the XML file, write the end tag for FeatureCollection and flush it to the PrintWriter.
    *
    * Once a XML is finished, the WFSDataWriter is no longer usable.
    */
-  public void finishXML() {
-    fileOutput += "</wfs:FeatureCollection>";
-    response.append(fileOutput);
-    fileOutput = null;
-    response = null;
+  public void finishXML() throws XMLStreamException {
+    out.writeEndDocument();
+    out.close();
+    response.flush();
   }
 
   /**
@@ -150,15 +133,15 @@ public class WFSGetFeatureWriter {
    * @param response to write to
    * @param server WFS Server URI
    * @param namespace WFS TDS Namespace URI
-   * @throws IOException
+   * @param ftName the feature type name
+   * @throws XMLStreamException
    */
-  public WFSGetFeatureWriter(PrintWriter response, String server, String namespace, List<SimpleGeometry> geometries,
-      String ftName) {
-    this.fileOutput = "";
+  public WFSGetFeatureWriter(PrintWriter response, String server, String namespace, String ftName)
+      throws XMLStreamException {
     this.response = response;
+    this.out = XMLOutputFactory.newInstance().createXMLStreamWriter(response);
     this.server = server;
     this.namespace = namespace;
-    this.geometries = geometries;
     this.ftName = ftName;
   }
 }
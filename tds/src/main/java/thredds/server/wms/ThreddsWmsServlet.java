@@ -28,16 +28,27 @@
 
 package thredds.server.wms;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.util.ContentCachingResponseWrapper;
 import ucar.nc2.dataset.NetcdfDatasets;
 import uk.ac.rdg.resc.edal.graphics.exceptions.EdalLayerNotFoundException;
 import uk.ac.rdg.resc.edal.wms.RequestParams;
 import uk.ac.rdg.resc.edal.wms.WmsCatalogue;
 import uk.ac.rdg.resc.edal.wms.WmsServlet;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import thredds.core.TdsRequestedDataset;
@@ -49,9 +60,10 @@ import ucar.nc2.dataset.NetcdfDataset;
  * data.
  * 
  * This is example is well commented and demonstrates how to properly integrate
- * the EDAL WMS into the THREDDS catalogue. It doesn't show how to implement
- * caching, or WMS-specific configuration, but these things are recommended in
- * the final version.
+ * the EDAL WMS into the THREDDS catalogue.
+ * <p>
+ * The catalogue of each dataset is cached, and so are the rendered GetMap images, since map clients request
+ * the same tiles over and over. Both caches are bounded, and are checked against the last modified time of the dataset.
  *
  * @author Guy Griffiths
  */
@@ -59,21 +71,103 @@ import ucar.nc2.dataset.NetcdfDataset;
 @Controller
 @RequestMapping("/wms")
 public class ThreddsWmsServlet extends WmsServlet {
+  static private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ThreddsWmsServlet.class);
 
+  private static final int DEFAULT_MAX_CATALOGUES = 100;
+  private static final long DEFAULT_MAX_IMAGE_BYTES = 50L * 1000 * 1000;
+
+  /**
+   * A catalogue and the dataset it reads. The dataset is closed once the catalogue has been removed from the cache,
+   * and no request is using it.
+   */
   private static class CachedWmsCatalogue {
     public final ThreddsWmsCatalogue wmsCatalogue;
     public final long lastModified;
+    private final NetcdfDataset ncd;
+
+    @GuardedBy("this")
+    private int users;
+    @GuardedBy("this")
+    private boolean removed;
 
-    public CachedWmsCatalogue(ThreddsWmsCatalogue wmsCatalogue, long lastModified) {
+    public CachedWmsCatalogue(ThreddsWmsCatalogue wmsCatalogue, long lastModified, NetcdfDataset ncd) {
       this.wmsCatalogue = wmsCatalogue;
       this.lastModified = lastModified;
+      this.ncd = ncd;
+    }
+
+    // return false if it has been removed, and may already be closed
+    synchronized boolean acquire() {
+      if (removed)
+        return false;
+      users++;
+      return true;
+    }
+
+    synchronized void release() {
+      users--;
+      closeIfUnused();
+    }
+
+    synchronized void remove() {
+      removed = true;
+      closeIfUnused();
+    }
+
+    private void closeIfUnused() {
+      if (!removed || users > 0)
+        return;
+      try {
+        ncd.close();
+      } catch (IOException e) {
+        log.warn("Failed to close " + ncd.getLocation(), e);
+      }
     }
   }
 
-  private static final Map<String, CachedWmsCatalogue> catalogueCache = new HashMap<>();
+  @Immutable
+  private static class CachedImage {
+    final byte[] content;
+    final String contentType;
+
+    CachedImage(byte[] content, String contentType) {
+      this.content = content;
+      this.contentType = contentType;
+    }
+  }
+
+  private static volatile Cache<String, CachedWmsCatalogue> catalogueCache =
+      makeCatalogueCache(DEFAULT_MAX_CATALOGUES);
+  private static volatile Cache<String, CachedImage> imageCache = makeImageCache(DEFAULT_MAX_IMAGE_BYTES);
+  private static volatile boolean cacheImages = true;
+
+  /**
+   * Set the size of the caches. Called at startup, before any requests.
+   *
+   * @param maxCatalogues max number of dataset catalogues to keep
+   * @param maxImageBytes max total size of the cached GetMap images; 0 to not cache them
+   */
+  public static void initCache(int maxCatalogues, long maxImageBytes) {
+    Cache<String, CachedWmsCatalogue> old = catalogueCache;
+    catalogueCache = makeCatalogueCache(maxCatalogues);
+    imageCache = makeImageCache(maxImageBytes);
+    cacheImages = maxImageBytes > 0;
+    old.invalidateAll();
+  }
+
+  private static Cache<String, CachedWmsCatalogue> makeCatalogueCache(int maxCatalogues) {
+    return CacheBuilder.newBuilder().maximumSize(maxCatalogues)
+        .removalListener((RemovalNotification<String, CachedWmsCatalogue> n) -> n.getValue().remove()).build();
+  }
+
+  private static Cache<String, CachedImage> makeImageCache(long maxImageBytes) {
+    return CacheBuilder.newBuilder().maximumWeight(maxImageBytes)
+        .weigher((String key, CachedImage image) -> key.length() + image.content.length).build();
+  }
 
   static void resetCache() {
-    catalogueCache.clear();
+    catalogueCache.invalidateAll();
+    imageCache.invalidateAll();
   }
 
   @Override
@@ -84,9 +178,9 @@ public class ThreddsWmsServlet extends WmsServlet {
      * The super implementation of this gets called with a servlet-wide
      * catalogue, which "should" have been injected with the
      * WmsServlet.setCatalogue() method. Since we want one catalogue per
-     * dataset, we never call setCatalogue(), but instead we generate a
-     * WmsCatalogue (or more likely in a final version, retrieve a cached
-     * one) on each request, and pass that to the super implementation.
+     * dataset, we never call setCatalogue(), but instead we retrieve a cached
+     * WmsCatalogue, or generate one, on each request, and pass that to the
+     * super implementation.
      */
 
     /*
@@ -95,60 +189,139 @@ public class ThreddsWmsServlet extends WmsServlet {
     // Look - is setting this to null the right thing to do??
     String removePrefix = null;
     TdsRequestedDataset tdsDataset = new TdsRequestedDataset(httpServletRequest, removePrefix);
-    if (useCachedCatalogue(tdsDataset.getPath())) {
-      catalogue = catalogueCache.get(tdsDataset.getPath()).wmsCatalogue;
-    } else {
-      NetcdfFile ncf = TdsRequestedDataset.getNetcdfFile(httpServletRequest, httpServletResponse, tdsDataset.getPath());
-      NetcdfDataset ncd;
-      if (TdsRequestedDataset.useNetcdfJavaBuilders()) {
-        ncd = NetcdfDatasets.enhance(ncf, NetcdfDataset.getDefaultEnhanceMode(), null);
-      } else {
-        ncd = NetcdfDataset.wrap(ncf, NetcdfDataset.getDefaultEnhanceMode());
-      }
+    String path = tdsDataset.getPath();
 
-      String netcdfFilePath = ncf.getLocation();
+    // a cached catalogue or image must not get around a restricted dataset
+    if (!TdsRequestedDataset.resourceControlOk(httpServletRequest, httpServletResponse, path))
+      return;
 
+    CachedWmsCatalogue cached = acquireCatalogue(path, httpServletRequest, httpServletResponse);
+    try {
       /*
-       * Generate a new catalogue for the given dataset
-       * 
-       * In the full system, we should keep a cache of these
-       * ThreddsWmsCatalogues, but in this example we just create each new one
-       * on the fly.
-       * 
-       * If a feature cache is required on the WMS (a Good Idea), I recommend
-       * a single cache in this servlet which gets passed to each WmsCatalogue
-       * upon construction (i.e. HERE). That's a TDS implementation detail
-       * though, hence not in this example.
+       * Now that we've got a WmsCatalogue, we can pass this request to the
+       * super implementation which will handle things from here.
        */
-      if (netcdfFilePath == null) {
-        throw new EdalLayerNotFoundException("The requested dataset is not available on this server");
+      if (cacheImages && "GetMap".equalsIgnoreCase(request)) {
+        String imageKey = makeImageKey(path, cached.lastModified, httpServletRequest.getParameterMap());
+        if (sendCachedImage(imageKey, httpServletResponse))
+          return;
+
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(httpServletResponse);
+        super.dispatchWmsRequest(request, params, httpServletRequest, wrapper, cached.wmsCatalogue);
+        String contentType = wrapper.getContentType();
+        if (wrapper.getStatus() == HttpServletResponse.SC_OK && contentType != null
+            && contentType.startsWith("image/")) {
+          imageCache.put(imageKey, new CachedImage(wrapper.getContentAsByteArray(), contentType));
+        }
+        wrapper.copyBodyToResponse();
+      } else {
+        super.dispatchWmsRequest(request, params, httpServletRequest, httpServletResponse, cached.wmsCatalogue);
+      }
+    } finally {
+      cached.release();
+    }
+  }
+
+  /*
+   * Get the catalogue of the dataset, making it if it is not cached or is out of date.
+   * Concurrent requests for the same dataset wait for a single catalogue.
+   * The caller must release it.
+   */
+  private static CachedWmsCatalogue acquireCatalogue(String path, HttpServletRequest httpServletRequest,
+      HttpServletResponse httpServletResponse) throws Exception {
+    while (true) {
+      CachedWmsCatalogue cached = catalogueCache.getIfPresent(path);
+      // This date last modified will be updated e.g. in the case of an aggregation with a recheckEvery
+      if (cached != null && cached.lastModified < cached.wmsCatalogue.getLastModified()) {
+        catalogueCache.asMap().remove(path, cached);
+      }
+
+      try {
+        cached = catalogueCache.get(path, () -> makeCatalogue(path, httpServletRequest, httpServletResponse));
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception)
+          throw (Exception) cause;
+        throw e;
       }
-      catalogue = new ThreddsWmsCatalogue(ncd, tdsDataset.getPath());
-      final CachedWmsCatalogue cachedWmsCatalogue =
-          new CachedWmsCatalogue((ThreddsWmsCatalogue) catalogue, ncd.getLastModified());
-      catalogueCache.put(tdsDataset.getPath(), cachedWmsCatalogue);
+      // else it was evicted before it could be used, so try again
+      if (cached.acquire())
+        return cached;
     }
+  }
 
+  private static CachedWmsCatalogue makeCatalogue(String path, HttpServletRequest httpServletRequest,
+      HttpServletResponse httpServletResponse) throws Exception {
+    NetcdfFile ncf = TdsRequestedDataset.getNetcdfFile(httpServletRequest, httpServletResponse, path);
     /*
-     * Now that we've got a WmsCatalogue, we can pass this request to the
-     * super implementation which will handle things from here.
+     * If a feature cache is required on the WMS (a Good Idea), I recommend
+     * a single cache in this servlet which gets passed to each WmsCatalogue
+     * upon construction (i.e. HERE). That's a TDS implementation detail
+     * though, hence not in this example.
      */
-    super.dispatchWmsRequest(request, params, httpServletRequest, httpServletResponse, catalogue);
+    if (ncf == null || ncf.getLocation() == null) {
+      if (ncf != null)
+        ncf.close();
+      throw new EdalLayerNotFoundException("The requested dataset is not available on this server");
+    }
+
+    NetcdfDataset ncd;
+    if (TdsRequestedDataset.useNetcdfJavaBuilders()) {
+      ncd = NetcdfDatasets.enhance(ncf, NetcdfDataset.getDefaultEnhanceMode(), null);
+    } else {
+      ncd = NetcdfDataset.wrap(ncf, NetcdfDataset.getDefaultEnhanceMode());
+    }
+
+    try {
+      return new CachedWmsCatalogue(new ThreddsWmsCatalogue(ncd, path), ncd.getLastModified(), ncd);
+    } catch (Exception e) {
+      ncd.close();
+      throw e;
+    }
+  }
+
+  private static boolean sendCachedImage(String imageKey, HttpServletResponse httpServletResponse)
+      throws IOException {
+    CachedImage image = imageCache.getIfPresent(imageKey);
+    if (image == null)
+      return false;
+    httpServletResponse.setContentType(image.contentType);
+    httpServletResponse.setContentLength(image.content.length);
+    httpServletResponse.getOutputStream().write(image.content);
+    return true;
+  }
+
+  /*
+   * The key of a GetMap image. All the parameters are used, since besides the layer, style, bbox, CRS, size, time and
+   * elevation, many others (colorscalerange, palette, transparent, ...) change the image.
+   * WMS parameter names are case insensitive, so they are lower cased and sorted.
+   * The last modified time of the catalogue is included, so that images of an out of date dataset are never used.
+   */
+  // package private for testing
+  static String makeImageKey(String path, long lastModified, Map<String, String[]> parameters) {
+    Map<String, String[]> sorted = new TreeMap<>();
+    for (Map.Entry<String, String[]> entry : parameters.entrySet())
+      sorted.put(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue());
+
+    StringBuilder sb = new StringBuilder(path).append('@').append(lastModified);
+    for (Map.Entry<String, String[]> entry : sorted.entrySet())
+      sb.append('&').append(entry.getKey()).append('=').append(Arrays.toString(entry.getValue()));
+    return sb.toString();
   }
 
   // package private for testing
   static boolean useCachedCatalogue(String tdsDatasetPath) {
-    if (containsCachedCatalogue(tdsDatasetPath)) {
+    CachedWmsCatalogue cached = catalogueCache.getIfPresent(tdsDatasetPath);
+    if (cached != null) {
       // This date last modified will be updated e.g. in the case of an aggregation with a recheckEvery
-      final long netcdfDatasetLastModified = catalogueCache.get(tdsDatasetPath).wmsCatalogue.getLastModified();
-      final long cacheLastModified = catalogueCache.get(tdsDatasetPath).lastModified;
-      return cacheLastModified >= netcdfDatasetLastModified;
+      final long netcdfDatasetLastModified = cached.wmsCatalogue.getLastModified();
+      return cached.lastModified >= netcdfDatasetLastModified;
     }
     return false;
   }
 
   // package private for testing
   static boolean containsCachedCatalogue(String tdsDatasetPath) {
-    return catalogueCache.containsKey(tdsDatasetPath);
+    return catalogueCache.getIfPresent(tdsDatasetPath) != null;
   }
 }
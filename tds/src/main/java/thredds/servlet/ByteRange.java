@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A satisfiable byte range of a resource, as requested by an HTTP Range header (RFC 7233).
+ * Positions are inclusive, and always lie within the resource.
+ */
+@Immutable
+public class ByteRange {
+  // ignore absurd Range headers rather than answering them with thousands of tiny parts
+  static final int MAX_RANGES = 100;
+
+  private final long first;
+  private final long last;
+
+  public ByteRange(long first, long last) {
+    if (first < 0 || last < first)
+      throw new IllegalArgumentException("Illegal byte range " + first + "-" + last);
+    this.first = first;
+    this.last = last;
+  }
+
+  /** first byte position, inclusive */
+  public long getFirst() {
+    return first;
+  }
+
+  /** last byte position, inclusive */
+  public long getLast() {
+    return last;
+  }
+
+  /** number of bytes in the range */
+  public long getLength() {
+    return last - first + 1;
+  }
+
+  /**
+   * Value of the Content-Range header for this range.
+   *
+   * @param resourceLength complete length of the resource
+   * @return eg "bytes 0-499/1234"
+   */
+  public String getContentRange(long resourceLength) {
+    return "bytes " + first + "-" + last + "/" + resourceLength;
+  }
+
+  /**
+   * Parse the value of a Range header. Overlapping or adjacent ranges are coalesced, and the result is sorted.
+   *
+   * @param rangeHeader value of the Range header, eg "bytes=0-499,1000-", "bytes=-500"
+   * @param resourceLength complete length of the resource
+   * @return null if the header is malformed, or otherwise should be ignored (in which case the entire resource is
+   *         returned); an empty list if none of the ranges are satisfiable (416); otherwise the satisfiable ranges.
+   */
+  @Nullable
+  public static List<ByteRange> parse(@Nullable String rangeHeader, long resourceLength) {
+    if (rangeHeader == null)
+      return null;
+
+    int pos = rangeHeader.indexOf('=');
+    if (pos < 0 || !rangeHeader.substring(0, pos).trim().equalsIgnoreCase("bytes"))
+      return null;
+
+    String[] specs = rangeHeader.substring(pos + 1).split(",");
+    if (specs.length > MAX_RANGES)
+      return null;
+
+    List<ByteRange> result = new ArrayList<>();
+    for (String spec : specs) {
+      spec = spec.trim();
+      int dash = spec.indexOf('-');
+      if (dash < 0)
+        return null;
+
+      String firstString = spec.substring(0, dash).trim();
+      String lastString = spec.substring(dash + 1).trim();
+      try {
+        if (firstString.isEmpty()) { // suffix range: "-500" is the final 500 bytes
+          long suffix = Long.parseLong(lastString);
+          if (suffix < 0)
+            return null;
+          if (suffix > 0 && resourceLength > 0)
+            result.add(new ByteRange(Math.max(0, resourceLength - suffix), resourceLength - 1));
+
+        } else {
+          long first = Long.parseLong(firstString);
+          long last = lastString.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastString);
+          if (first < 0 || last < first)
+            return null;
+          if (first < resourceLength)
+            result.add(new ByteRange(first, Math.min(last, resourceLength - 1)));
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    return coalesce(result);
+  }
+
+  private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+    if (ranges.size() < 2)
+      return ranges;
+
+    ranges.sort(Comparator.comparingLong(ByteRange::getFirst));
+    List<ByteRange> result = new ArrayList<>();
+    ByteRange current = ranges.get(0);
+    for (ByteRange next : ranges.subList(1, ranges.size())) {
+      if (next.first <= current.last + 1) {
+        current = new ByteRange(current.first, Math.max(current.last, next.last));
+      } else {
+        result.add(current);
+        current = next;
+      }
+    }
+    result.add(current);
+    return Collections.unmodifiableList(result);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+    ByteRange that = (ByteRange) o;
+    return first == that.first && last == that.last;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(first) * 31 + Long.hashCode(last);
+  }
+
+  @Override
+  public String toString() {
+    return first + "-" + last;
+  }
+}
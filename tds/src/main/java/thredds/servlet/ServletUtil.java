@@ -6,9 +6,12 @@
 package thredds.servlet;
 
 import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
 import javax.servlet.ServletContext;
 import thredds.core.ConfigCatalogHtmlWriter;
 import thredds.core.TdsRequestedDataset;
+import thredds.filesystem.MFileOS;
+import thredds.filesystem.MFileOS7;
 import thredds.inventory.MFile;
 import thredds.inventory.MFiles;
 import thredds.util.ContentType;
@@ -25,12 +28,36 @@ import javax.servlet.http.HttpSession;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class ServletUtil {
   public static final org.slf4j.Logger logServerStartup = org.slf4j.LoggerFactory.getLogger("serverStartup");
   private static org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ServletUtil.class);
 
+  // request attributes used by Tomcat's sendfile support
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+  private static boolean useZeroCopy = true;
+
+  /**
+   * Whether local files served by writeMFileToResponse() are handed to the container's sendfile, which is the only
+   * zero-copy path, or else copied from a FileChannel, rather than with MFile.writeToStream(). Set from
+   * threddsConfig.xml.
+   *
+   * @param b use sendfile when the container supports it
+   */
+  public static void setUseZeroCopy(boolean b) {
+    useZeroCopy = b;
+  }
+
   /**
    * Return the file path dealing with leading and trailing path
    * separators (which must be a slash ("/")) for the given directory
@@ -270,7 +297,8 @@ public class ServletUtil {
   }
 
   /**
-   * Write an MFile to the response stream.
+   * Write an MFile to the response stream. Answers conditional requests (If-None-Match, If-Modified-Since) with a
+   * 304, and handles single and multiple Range requests, subject to If-Range.
    *
    * @param request the HttpServletRequest
    * @param response the HttpServletResponse
@@ -301,30 +329,238 @@ public class ServletUtil {
       return;
     }
 
-    response.setContentType(getContentType(requestPath, request.getServletContext()));
-    response.addDateHeader("Last-Modified", file.getLastModified());
+    final long length = file.getLength();
+    final long lastModified = file.getLastModified();
+    final String etag = makeETag(length, lastModified);
+
+    response.addDateHeader("Last-Modified", lastModified);
+    response.setHeader("ETag", etag);
     response.addHeader("Accept-Ranges", "bytes");
 
-    final long startPosition = getContentStartPosition(request.getHeader("Range"));
-    final long endPosition = getContentEndPosition(request.getHeader("Range"), file.getLength());
-    final long contentLength = endPosition - startPosition;
-    addContentLengthHeader(response, contentLength);
+    if (isNotModified(request, etag, lastModified)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
 
-    if (request.getMethod().equals("HEAD")) {
+    final String contentType = getContentType(requestPath, request.getServletContext());
+    final boolean isHead = request.getMethod().equals("HEAD");
+
+    // a Range is ignored if If-Range says the client's copy is out of date
+    List<ByteRange> ranges = null;
+    if (ifRangeMatches(request, etag, lastModified)) {
+      ranges = ByteRange.parse(request.getHeader("Range"), length);
+    }
+
+    if (ranges == null) {
+      response.setContentType(contentType);
+      addContentLengthHeader(response, length);
+      if (!isHead) {
+        writeMFileRange(request, response, file, 0, length);
+      }
+      return;
+    }
+
+    if (ranges.isEmpty()) {
+      response.setHeader("Content-Range", "bytes */" + length);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+    if (ranges.size() == 1) {
+      ByteRange range = ranges.get(0);
+      response.setContentType(contentType);
+      response.addHeader("Content-Range", range.getContentRange(length));
+      addContentLengthHeader(response, range.getLength());
+      if (!isHead) {
+        writeMFileRange(request, response, file, range.getFirst(), range.getLength());
+      }
+      return;
+    }
+
+    writeMultipartByteRanges(response, file, ranges, contentType, isHead);
+  }
+
+  /**
+   * Strong validator for a file, changes whenever its length or modification time does.
+   *
+   * @param length length of the file in bytes
+   * @param lastModified last modified time of the file in msecs
+   * @return quoted ETag value
+   */
+  public static String makeETag(long length, long lastModified) {
+    return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+  }
+
+  /**
+   * Evaluate If-None-Match and If-Modified-Since (RFC 7232). If-None-Match takes precedence when present.
+   *
+   * @param request the request
+   * @param etag our quoted ETag
+   * @param lastModified our last modified time in msecs
+   * @return true if a 304 Not Modified should be returned
+   */
+  public static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+    if (!request.getMethod().equals("GET") && !request.getMethod().equals("HEAD"))
+      return false;
+
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null)
+      return etagListMatches(ifNoneMatch, etag);
+
+    long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+    // HTTP dates have one second resolution
+    return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+
+  /**
+   * Evaluate If-Range. It matches only a strong ETag equal to ours, or an HTTP date equal to our modification time.
+   *
+   * @return true if there is no If-Range header, or if it matches, ie the Range header should be honored
+   */
+  private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+    String ifRange = request.getHeader("If-Range");
+    if (ifRange == null)
+      return true;
+
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+      return ifRange.equals(etag);
+
+    long date = getDateHeader(request, "If-Range");
+    return date >= 0 && date / 1000 == lastModified / 1000;
+  }
+
+  private static boolean etagListMatches(String etagList, String etag) {
+    for (String candidate : etagList.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*"))
+        return true;
+      // If-None-Match uses the weak comparison
+      if (candidate.startsWith("W/"))
+        candidate = candidate.substring(2);
+      if (candidate.equals(etag))
+        return true;
+    }
+    return false;
+  }
+
+  private static long getDateHeader(HttpServletRequest request, String name) {
+    try {
+      return request.getDateHeader(name);
+    } catch (IllegalArgumentException e) {
+      return -1; // unparseable dates are ignored
+    }
+  }
+
+  /**
+   * Write several ranges of an MFile as a multipart/byteranges response (RFC 7233, appendix A).
+   */
+  private static void writeMultipartByteRanges(HttpServletResponse response, MFile file, List<ByteRange> ranges,
+      String contentType, boolean isHead) throws IOException {
+    final long length = file.getLength();
+    final String boundary = "THREDDS_" + UUID.randomUUID().toString().replace("-", "");
+
+    List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+    long contentLength = 0;
+    for (ByteRange range : ranges) {
+      String partHeader = "\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: "
+          + range.getContentRange(length) + "\r\n\r\n";
+      byte[] bytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+      partHeaders.add(bytes);
+      contentLength += bytes.length + range.getLength();
+    }
+    byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    contentLength += closing.length;
+
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    addContentLengthHeader(response, contentLength);
+    if (isHead) {
       return;
     }
 
     ServletOutputStream outputStream = response.getOutputStream();
+    Path localPath = useZeroCopy ? getLocalPath(file) : null;
+    for (int i = 0; i < ranges.size(); i++) {
+      ByteRange range = ranges.get(i);
+      outputStream.write(partHeaders.get(i));
+      if (localPath != null) {
+        transferLocalFile(localPath, range.getFirst(), range.getLength(), outputStream);
+      } else {
+        file.writeToStream(outputStream, range.getFirst(), range.getLength());
+      }
+    }
+    outputStream.write(closing);
+  }
 
-    if (!isRangeRequest(request.getHeader("Range"))) {
-      file.writeToStream(outputStream);
+  /**
+   * Write one contiguous section of an MFile as the entire response body. Content-Length must already be set.
+   * Local files are handed to the container's sendfile when it is available, or else copied from a FileChannel with
+   * transferLocalFile(). Other MFiles (eg object stores) are copied with MFile.writeToStream().
+   */
+  private static void writeMFileRange(HttpServletRequest request, HttpServletResponse response, MFile file,
+      long start, long length) throws IOException {
+    Path localPath = useZeroCopy ? getLocalPath(file) : null;
+    if (localPath == null) {
+      if (start == 0 && length == file.getLength()) {
+        file.writeToStream(response.getOutputStream());
+      } else {
+        file.writeToStream(response.getOutputStream(), start, length);
+      }
       return;
     }
 
-    response.addHeader("Content-Range", "bytes " + startPosition + "-" + (endPosition - 1) + "/" + file.getLength());
-    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+      // the container sends the file after we return, so nothing may be written to the output stream
+      request.setAttribute(SENDFILE_FILENAME, localPath.toAbsolutePath().toString());
+      request.setAttribute(SENDFILE_START, start);
+      request.setAttribute(SENDFILE_END, start + length);
+      return;
+    }
 
-    file.writeToStream(outputStream, startPosition, contentLength);
+    transferLocalFile(localPath, start, length, response.getOutputStream());
+  }
+
+  /**
+   * Copy a section of a local file with FileChannel.transferTo(). The target is a stream, not a file or socket
+   * channel, so this is not zero-copy: the JDK copies through a small temporary buffer. It does avoid
+   * MFile.writeToStream(), and positions directly at the start of the range.
+   *
+   * @param path local file
+   * @param start starting byte position
+   * @param length number of bytes
+   * @param out write to this stream, which is not closed
+   * @throws IOException on read or write error, or if the file is shorter than expected
+   */
+  public static void transferLocalFile(Path path, long start, long length, OutputStream out) throws IOException {
+    WritableByteChannel target = Channels.newChannel(out); // not closed, that would close the response stream
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long position = start;
+      long remaining = length;
+      while (remaining > 0) {
+        long count = channel.transferTo(position, remaining, target);
+        if (count <= 0) {
+          throw new EOFException("File transfer not complete: " + path + " ended at byte " + position);
+        }
+        position += count;
+        remaining -= count;
+      }
+    }
+  }
+
+  /**
+   * @return the local file system path of the MFile, or null if it is not a local file
+   */
+  @Nullable
+  static Path getLocalPath(MFile file) {
+    if (file instanceof MFileOS) {
+      return ((MFileOS) file).getFile().toPath();
+    }
+    if (file instanceof MFileOS7) {
+      return ((MFileOS7) file).getNioPath();
+    }
+    return null;
   }
 
   /**
@@ -0,0 +1,96 @@
+package thredds.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.server.catalog.ConfigCatalog;
+import thredds.server.catalog.builder.ConfigCatalogBuilder;
+
+/**
+ * The crawler holds at most maxAhead catalogs that were read and not taken, and still hands out every catalog, in
+ * whatever order they are taken.
+ */
+public class TestConfigCatalogCrawler {
+  private static final String CONTEXT_PATH = "/thredds";
+  private static final int NCHILDREN = 40;
+  private static final int MAX_AHEAD = 5;
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File contentDir;
+  private final AtomicInteger reads = new AtomicInteger();
+  private final AtomicInteger taken = new AtomicInteger();
+  private final AtomicInteger mostAhead = new AtomicInteger();
+
+  @Before
+  public void setup() throws IOException {
+    contentDir = tempFolder.newFolder("content");
+    StringBuilder root = new StringBuilder();
+    for (int i = 0; i < NCHILDREN; i++) {
+      root.append("  <catalogRef xlink:href='child").append(i).append(".xml' xlink:title='child").append(i)
+          .append("' name=''/>\n");
+      writeCatalog("child" + i + ".xml", "");
+    }
+    writeCatalog("catalog.xml", root.toString());
+  }
+
+  private ConfigCatalog readCatalog(String catalogRelPath, String catalogFullPath) {
+    mostAhead.accumulateAndGet(reads.incrementAndGet() - taken.get(), Math::max);
+    try {
+      ConfigCatalogBuilder builder = new ConfigCatalogBuilder(CONTEXT_PATH);
+      return (ConfigCatalog) builder.buildFromLocation(catalogFullPath,
+          new URI(CONTEXT_PATH + "/catalog/" + catalogRelPath));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private ConfigCatalog take(ConfigCatalogCrawler crawler, String catalogRelPath) {
+    taken.incrementAndGet(); // before take() makes room for another read
+    CompletableFuture<ConfigCatalog> future = crawler.take(catalogRelPath);
+    assertThat(future).isNotNull();
+    return future.join();
+  }
+
+  @Test
+  public void shouldBoundReadAhead() throws InterruptedException {
+    try (ConfigCatalogCrawler crawler = new ConfigCatalogCrawler(4, MAX_AHEAD, contentDir, CONTEXT_PATH,
+        ConfigCatalogInitialization.ReadMode.always, Collections.emptyMap(), this::readCatalog)) {
+      crawler.visit("catalog.xml", true);
+      assertThat(take(crawler, "catalog.xml").getName()).isEqualTo("catalog.xml");
+
+      Thread.sleep(200); // the pool fills the room it has, and then stops
+      assertThat(reads.get()).isAtMost(1 + MAX_AHEAD);
+
+      // the last ones are read by take(), the first ones were read by the pool
+      for (int i = NCHILDREN - 1; i >= 0; i--)
+        assertThat(take(crawler, "child" + i + ".xml").getName()).isEqualTo("child" + i + ".xml");
+
+      assertThat(crawler.take("catalog.xml")).isNull(); // already taken
+      assertThat(reads.get()).isEqualTo(1 + NCHILDREN);
+      assertThat(mostAhead.get()).isAtMost(MAX_AHEAD);
+    }
+  }
+
+  private void writeCatalog(String relPath, String body) throws IOException {
+    String catalog = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<catalog name='" + relPath + "' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'"
+        + " xmlns:xlink='http://www.w3.org/1999/xlink' version='1.2'>\n" + body + "</catalog>\n";
+    Path path = contentDir.toPath().resolve(relPath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, catalog.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,185 @@
+package thredds.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.server.catalog.tracker.CatalogExt;
+import thredds.server.catalog.tracker.CatalogTracker;
+import thredds.server.catalog.tracker.DataRootExt;
+import thredds.server.catalog.tracker.DataRootTracker;
+import thredds.server.catalog.tracker.DatasetTrackerChronicle;
+
+/**
+ * Reload single catalogs that were edited, added or deleted, and check the data roots, tracked datasets and
+ * catalog ids that are left.
+ */
+public class TestConfigCatalogReload {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File contentDir;
+  private File dataDir;
+  private String trackerDir;
+  private DatasetTrackerChronicle datasetTracker;
+  private ConfigCatalogInitialization cci;
+
+  @Before
+  public void setup() throws IOException {
+    contentDir = tempFolder.newFolder("content");
+    dataDir = tempFolder.newFolder("data");
+    trackerDir = tempFolder.newFolder("tracker").getPath();
+
+    writeCatalog("catalog.xml", catalogRef("a/parent.xml"));
+    writeCatalog("a/parent.xml", datasetRoot("parent") + catalogRef("child1.xml") + catalogRef("child2.xml"));
+    writeCatalog("a/child1.xml", datasetRoot("child1") + restricted("child1/data.nc", "roleA"));
+    writeCatalog("a/child2.xml", datasetRoot("child2") + restricted("child2/data.nc", "roleA")
+        + catalogRef("grandchild.xml"));
+    writeCatalog("a/grandchild.xml", datasetRoot("grandchild"));
+
+    datasetTracker = new DatasetTrackerChronicle(trackerDir, 1000, 1);
+    cci = new ConfigCatalogInitialization(ConfigCatalogInitialization.ReadMode.always, contentDir, trackerDir,
+        datasetTracker, new AllowedServices(),
+        new ConfigCatalogInitialization.StatCallback(ConfigCatalogInitialization.ReadMode.always), -1, 1);
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    datasetTracker.close();
+  }
+
+  @Test
+  public void shouldReplaceRootsOfEditedCatalog() throws IOException {
+    assertThat(getDataRoots()).containsExactly("parent in a/parent.xml", "child1 in a/child1.xml",
+        "child2 in a/child2.xml", "grandchild in a/grandchild.xml");
+    assertThat(datasetTracker.findResourceControl("child1/data.nc")).isEqualTo("roleA");
+    long oldCatId = getCatIds().get("a/child1.xml");
+
+    writeCatalog("a/child1.xml", datasetRoot("child1b") + restricted("child1/data.nc", "roleB"));
+    cci.reloadCatalogs(Arrays.asList("a/child1.xml"));
+
+    assertThat(getDataRoots()).containsExactly("parent in a/parent.xml", "child1b in a/child1.xml",
+        "child2 in a/child2.xml", "grandchild in a/grandchild.xml");
+    assertThat(datasetTracker.findResourceControl("child1/data.nc")).isEqualTo("roleB");
+    assertThat(getCatIds().get("a/child1.xml")).isGreaterThan(oldCatId);
+    assertThat(getCatIds()).hasSize(5);
+  }
+
+  @Test
+  public void shouldReadAddedCatalog() throws IOException {
+    writeCatalog("a/parent.xml", datasetRoot("parent") + catalogRef("child1.xml") + catalogRef("child2.xml")
+        + catalogRef("child3.xml"));
+    writeCatalog("a/child3.xml", datasetRoot("child3") + restricted("child3/data.nc", "roleC"));
+    cci.reloadCatalogs(Arrays.asList("a/parent.xml", "a/child3.xml"));
+
+    assertThat(getDataRoots()).containsExactly("parent in a/parent.xml", "child1 in a/child1.xml",
+        "child2 in a/child2.xml", "grandchild in a/grandchild.xml", "child3 in a/child3.xml");
+    assertThat(datasetTracker.findResourceControl("child3/data.nc")).isEqualTo("roleC");
+    assertThat(getCatIds()).containsKey("a/child3.xml");
+
+    // then delete it again
+    Files.delete(contentDir.toPath().resolve("a/child3.xml"));
+    cci.reloadCatalogs(Arrays.asList("a/child3.xml"));
+
+    assertThat(getDataRoots()).doesNotContain("child3 in a/child3.xml");
+    assertThat(datasetTracker.findResourceControl("child3/data.nc")).isNull();
+    assertThat(getCatIds()).doesNotContainKey("a/child3.xml");
+  }
+
+  @Test
+  public void shouldDropCatalogsThatAreNoLongerReferenced() throws IOException {
+    writeCatalog("a/parent.xml", datasetRoot("parent") + catalogRef("child1.xml"));
+    cci.reloadCatalogs(Arrays.asList("a/parent.xml"));
+
+    // child2.xml still exists, but nothing references it or the grandchild it references
+    assertThat(getDataRoots()).containsExactly("parent in a/parent.xml", "child1 in a/child1.xml");
+    assertThat(datasetTracker.findResourceControl("child1/data.nc")).isEqualTo("roleA");
+    assertThat(datasetTracker.findResourceControl("child2/data.nc")).isNull();
+    assertThat(getCatIds().keySet()).containsExactly("catalog.xml", "a/parent.xml", "a/child1.xml");
+  }
+
+  @Test
+  public void shouldKeepCatalogsReferencedElsewhere() throws IOException {
+    writeCatalog("a/child1.xml", datasetRoot("child1") + restricted("child1/data.nc", "roleA")
+        + catalogRef("grandchild.xml"));
+    cci.reloadCatalogs(Arrays.asList("a/child1.xml"));
+
+    writeCatalog("a/parent.xml", datasetRoot("parent") + catalogRef("child1.xml"));
+    cci.reloadCatalogs(Arrays.asList("a/parent.xml"));
+
+    assertThat(getDataRoots()).containsExactly("parent in a/parent.xml", "child1 in a/child1.xml",
+        "grandchild in a/grandchild.xml");
+    assertThat(getCatIds().keySet()).containsExactly("catalog.xml", "a/parent.xml", "a/child1.xml",
+        "a/grandchild.xml");
+  }
+
+  @Test
+  public void shouldKeepCatalogThatFailsToParse() throws IOException {
+    Map<String, Long> oldCatIds = getCatIds();
+    Files.write(contentDir.toPath().resolve("a/child2.xml"), "<catalog".getBytes(StandardCharsets.UTF_8));
+    cci.reloadCatalogs(Arrays.asList("a/child2.xml"));
+
+    assertThat(getDataRoots()).containsExactly("parent in a/parent.xml", "child1 in a/child1.xml",
+        "child2 in a/child2.xml", "grandchild in a/grandchild.xml");
+    assertThat(datasetTracker.findResourceControl("child2/data.nc")).isEqualTo("roleA");
+    assertThat(getCatIds()).isEqualTo(oldCatIds);
+
+    // its catalogRefs are still known, so the grandchild is dropped once it no longer references it
+    writeCatalog("a/child2.xml", datasetRoot("child2") + restricted("child2/data.nc", "roleA"));
+    cci.reloadCatalogs(Arrays.asList("a/child2.xml"));
+
+    assertThat(getDataRoots()).doesNotContain("grandchild in a/grandchild.xml");
+    assertThat(getCatIds()).doesNotContainKey("a/grandchild.xml");
+  }
+
+  private Set<String> getDataRoots() {
+    Set<String> result = new TreeSet<>();
+    for (DataRootExt dataRootExt : new DataRootTracker(trackerDir, false, null).getDataRoots())
+      result.add(dataRootExt.getPath() + " in " + dataRootExt.getCatLocation());
+    return result;
+  }
+
+  private Map<String, Long> getCatIds() {
+    Map<String, Long> result = new HashMap<>();
+    for (CatalogExt catalogExt : new CatalogTracker(trackerDir, false, 10, 1).getCatalogs())
+      result.put(catalogExt.getCatRelLocation(), catalogExt.getCatId());
+    return result;
+  }
+
+  private String datasetRoot(String path) {
+    return "  <datasetRoot path='" + path + "' location='" + dataDir.getPath() + "'/>\n";
+  }
+
+  private static String catalogRef(String href) {
+    return "  <catalogRef xlink:href='" + href + "' xlink:title='" + href + "' name=''/>\n";
+  }
+
+  private static String restricted(String urlPath, String role) {
+    return "  <dataset name='" + urlPath + "' urlPath='" + urlPath + "' restrictAccess='" + role + "'>\n"
+        + "    <serviceName>odap</serviceName>\n" + "  </dataset>\n";
+  }
+
+  private void writeCatalog(String relPath, String body) throws IOException {
+    String catalog = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<catalog name='" + relPath + "' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'"
+        + " xmlns:xlink='http://www.w3.org/1999/xlink' version='1.2'>\n"
+        + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n" + body + "</catalog>\n";
+    Path path = contentDir.toPath().resolve(relPath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, catalog.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,165 @@
+package thredds.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import thredds.server.catalog.tracker.CatalogExt;
+import thredds.server.catalog.tracker.CatalogTracker;
+import thredds.server.catalog.tracker.DataRootExt;
+import thredds.server.catalog.tracker.DataRootTracker;
+import thredds.server.catalog.tracker.DatasetTrackerChronicle;
+import ucar.unidata.util.test.category.NotPullRequest;
+
+/**
+ * Compare reading a synthetic tree of config catalogs one at a time, and on a pool of threads.
+ * Both must give the same catalogs, catalog ids, data roots and counts. Use -Dtds.benchmark.catalogs=20000 and
+ * -Dtds.benchmark.readThreads=16 for a bigger tree.
+ */
+@Category(NotPullRequest.class)
+public class TestConfigCatalogStartup {
+  private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final int ITERATIONS = 2;
+  private static final int GROUPS = 20;
+
+  @ClassRule
+  public static final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static File contentDir;
+  private static int ncatalogs;
+  private static int expectedCatalogs;
+
+  @BeforeClass
+  public static void makeCatalogs() throws IOException {
+    ncatalogs = Integer.getInteger("tds.benchmark.catalogs", 1000);
+    contentDir = tempFolder.newFolder("content");
+    File dataDir = tempFolder.newFolder("data");
+    int nscan = ncatalogs / 10; // read by the catalogScan
+    int nleaves = Math.max(GROUPS, ncatalogs - nscan - GROUPS - 1);
+    expectedCatalogs = 1 + GROUPS + nleaves + nscan;
+
+    StringBuilder root = new StringBuilder();
+    root.append("  <datasetRoot path='root' location='").append(dataDir.getPath()).append("'/>\n");
+    for (int g = 0; g < GROUPS; g++)
+      root.append("  <catalogRef xlink:href='group").append(g).append("/catalog.xml' xlink:title='group ").append(g)
+          .append("' name=''/>\n");
+    root.append("  <catalogScan location='scan' path='scan' name='scanned catalogs'/>\n");
+    writeCatalog("catalog.xml", root);
+
+    for (int g = 0; g < GROUPS; g++) {
+      StringBuilder group = new StringBuilder();
+      for (int leaf = g; leaf < nleaves; leaf += GROUPS)
+        group.append("  <catalogRef xlink:href='leaf").append(leaf).append(".xml' xlink:title='leaf ").append(leaf)
+            .append("' name=''/>\n");
+      if (g == 0)
+        group.append("  <catalogRef xlink:href='../catalog.xml' xlink:title='loop' name=''/>\n");
+      writeCatalog("group" + g + "/catalog.xml", group);
+
+      for (int leaf = g; leaf < nleaves; leaf += GROUPS)
+        writeCatalog("group" + g + "/leaf" + leaf + ".xml", makeDatasets("leaf" + leaf, dataDir));
+    }
+
+    for (int i = 0; i < nscan; i++)
+      writeCatalog("scan/dir" + (i % 10) + "/scan" + i + ".xml", makeDatasets("scan" + i, dataDir));
+  }
+
+  private static StringBuilder makeDatasets(String name, File dataDir) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("  <datasetRoot path='").append(name).append("' location='").append(dataDir.getPath()).append("'/>\n");
+    sb.append("  <datasetScan name='").append(name).append(" scan' ID='").append(name).append("/scan' path='")
+        .append(name).append("/scan' location='").append(dataDir.getPath()).append("'/>\n");
+    sb.append("  <dataset name='").append(name).append("' ID='").append(name).append("'>\n");
+    sb.append("    <serviceName>odap</serviceName>\n");
+    for (int i = 0; i < 10; i++) {
+      sb.append("    <dataset name='ds").append(i).append("' ID='").append(name).append("/ds").append(i)
+          .append("' urlPath='").append(name).append("/ds").append(i).append(".nc'");
+      if (i % 3 == 0)
+        sb.append(" restrictAccess='role").append(i).append("'");
+      sb.append(">\n");
+      if (i % 3 == 1)
+        sb.append("      <ncml:netcdf><ncml:attribute name='title' value='").append(name).append(i)
+            .append("'/></ncml:netcdf>\n");
+      sb.append("    </dataset>\n");
+    }
+    sb.append("    <dataset name='duplicate' ID='").append(name).append("/ds0' urlPath='").append(name)
+        .append("/dup.nc'/>\n");
+    sb.append("  </dataset>\n");
+    return sb;
+  }
+
+  private static void writeCatalog(String relPath, StringBuilder body) throws IOException {
+    String catalog = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<catalog name='" + relPath + "' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'"
+        + " xmlns:xlink='http://www.w3.org/1999/xlink'"
+        + " xmlns:ncml='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2' version='1.2'>\n"
+        + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n" + body + "</catalog>\n";
+    Path path = contentDir.toPath().resolve(relPath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, catalog.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void compareSerialAndParallelRead() throws IOException {
+    int nthreads = Integer.getInteger("tds.benchmark.readThreads", Runtime.getRuntime().availableProcessors());
+    for (int i = 0; i < ITERATIONS; i++) {
+      Result serial = read(1);
+      Result parallel = read(Math.max(2, nthreads));
+
+      assertThat(parallel.catalogs).containsExactlyElementsIn(serial.catalogs).inOrder();
+      assertThat(parallel.dataRoots).containsExactlyElementsIn(serial.dataRoots).inOrder();
+      assertThat(parallel.stats.catrefs).isEqualTo(serial.stats.catrefs);
+      assertThat(parallel.stats.datasets).isEqualTo(serial.stats.datasets);
+      assertThat(parallel.stats.trackedDatasets).isEqualTo(serial.stats.trackedDatasets);
+      assertThat(parallel.stats.dataRoot).isEqualTo(serial.stats.dataRoot);
+    }
+  }
+
+  private Result read(int readThreads) throws IOException {
+    String trackerDir = tempFolder.newFolder().getPath();
+    ConfigCatalogInitialization.StatCallback callback =
+        new ConfigCatalogInitialization.StatCallback(ConfigCatalogInitialization.ReadMode.always);
+
+    long start = System.nanoTime();
+    try (DatasetTrackerChronicle tracker = new DatasetTrackerChronicle(trackerDir, 100 * ncatalogs, 1)) {
+      new ConfigCatalogInitialization(ConfigCatalogInitialization.ReadMode.always, contentDir, trackerDir, tracker,
+          new AllowedServices(), callback, -1, readThreads);
+    }
+    long took = System.nanoTime() - start;
+    logger.info("Read {} catalogs with readThreads={} took {} msecs", callback.stat2.catrefs, readThreads,
+        took / 1000 / 1000);
+
+    Result result = new Result(callback.stat2);
+    for (CatalogExt catalogExt : new CatalogTracker(trackerDir, false, ncatalogs, 1).getCatalogs())
+      result.catalogs.add(catalogExt.getCatRelLocation() + " id=" + catalogExt.getCatId());
+    for (DataRootExt dataRootExt : new DataRootTracker(trackerDir, false, null).getDataRoots())
+      result.dataRoots.add(dataRootExt.getPath() + " in " + dataRootExt.getCatLocation());
+    Collections.sort(result.catalogs);
+    Collections.sort(result.dataRoots);
+    assertThat(result.catalogs).hasSize(expectedCatalogs);
+    return result;
+  }
+
+  private static class Result {
+    final ConfigCatalogInitialization.Stats stats;
+    final List<String> catalogs = new ArrayList<>();
+    final List<String> dataRoots = new ArrayList<>();
+
+    Result(ConfigCatalogInitialization.Stats stats) {
+      this.stats = stats;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package thredds.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import ucar.nc2.ft2.coverage.CoverageCollection;
+import ucar.nc2.ft2.coverage.CoverageDatasetFactory;
+
+public class TestCoverageCollectionCache {
+  private static final String FILE = "src/test/content/thredds/public/testdata/testGridAsPoint.nc";
+
+  private final AtomicInteger opens = new AtomicInteger();
+
+  private CoverageCollectionCache.Handle acquire(CoverageCollectionCache cache, String key, long version)
+      throws IOException {
+    return cache.acquire(key, version, () -> {
+      opens.incrementAndGet();
+      return CoverageDatasetFactory.open(FILE);
+    });
+  }
+
+  @Test
+  public void shouldLendIdleDataset() throws IOException {
+    CoverageCollectionCache cache = new CoverageCollectionCache(10);
+    CoverageCollection first;
+    try (CoverageCollectionCache.Handle handle = acquire(cache, FILE, 1)) {
+      first = handle.getCollection();
+      assertThat(first.getCoverageCount()).isGreaterThan(0);
+    }
+    try (CoverageCollectionCache.Handle handle = acquire(cache, FILE, 1)) {
+      assertThat(handle.getCollection()).isSameInstanceAs(first);
+    }
+    assertThat(opens.get()).isEqualTo(1);
+    cache.shutdown();
+  }
+
+  @Test
+  public void shouldOpenCopyWhileLent() throws IOException {
+    CoverageCollectionCache cache = new CoverageCollectionCache(10);
+    try (CoverageCollectionCache.Handle first = acquire(cache, FILE, 1);
+        CoverageCollectionCache.Handle second = acquire(cache, FILE, 1)) {
+      assertThat(second.getCollection()).isNotSameInstanceAs(first.getCollection());
+    }
+    assertThat(opens.get()).isEqualTo(2);
+
+    // both copies are now idle, and are lent again
+    try (CoverageCollectionCache.Handle first = acquire(cache, FILE, 1);
+        CoverageCollectionCache.Handle second = acquire(cache, FILE, 1)) {
+      assertThat(opens.get()).isEqualTo(2);
+    }
+    cache.shutdown();
+  }
+
+  @Test
+  public void shouldReopenChangedDataset() throws IOException {
+    CoverageCollectionCache cache = new CoverageCollectionCache(10);
+    CoverageCollection first;
+    try (CoverageCollectionCache.Handle handle = acquire(cache, FILE, 1)) {
+      first = handle.getCollection();
+    }
+    try (CoverageCollectionCache.Handle handle = acquire(cache, FILE, 2)) {
+      assertThat(handle.getCollection()).isNotSameInstanceAs(first);
+    }
+    assertThat(opens.get()).isEqualTo(2);
+    cache.shutdown();
+  }
+
+  @Test
+  public void shouldCloseLeastRecentlyUsed() throws IOException {
+    CoverageCollectionCache cache = new CoverageCollectionCache(1);
+    acquire(cache, "a", 1).close();
+    acquire(cache, "b", 1).close();
+    acquire(cache, "b", 1).close();
+    assertThat(opens.get()).isEqualTo(2);
+
+    // a was closed to make room for b
+    acquire(cache, "a", 1).close();
+    assertThat(opens.get()).isEqualTo(3);
+    cache.shutdown();
+  }
+
+  @Test
+  public void shouldOpenEveryTimeWhenDisabled() throws IOException {
+    CoverageCollectionCache cache = new CoverageCollectionCache(0);
+    acquire(cache, FILE, 1).close();
+    acquire(cache, FILE, 1).close();
+    assertThat(opens.get()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,105 @@
+package thredds.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Files under a datasetScan with NcML are merged with the NcML once, and taken from the NetcdfFile cache
+ * until the file changes.
+ */
+public class TestDatasetScanNcmlCache {
+  private static boolean madeCache;
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private DatasetManager.DatasetScanNcml ncml;
+
+  @BeforeClass
+  public static void initCache() {
+    if (NetcdfDatasets.getNetcdfFileCache() == null) {
+      NetcdfDatasets.initNetcdfFileCache(1, 10, 0);
+      madeCache = true;
+    }
+  }
+
+  @AfterClass
+  public static void disableCache() {
+    if (madeCache)
+      NetcdfDatasets.disableNetcdfFileCache();
+  }
+
+  @Before
+  public void setup() throws IOException, JDOMException {
+    String xml = "<netcdf xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2'>"
+        + "<attribute name='title' value='from the datasetScan'/></netcdf>";
+    Element netcdfElem = new SAXBuilder().build(new StringReader(xml)).getRootElement();
+    ncml = new DatasetManager.DatasetScanNcml(netcdfElem);
+  }
+
+  private static void writeFile(File file, int length) throws IOException, InvalidRangeException {
+    NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(file.getPath());
+    builder.addDimension("x", length);
+    builder.addVariable("data", DataType.INT, "x");
+    try (NetcdfFormatWriter writer = builder.build()) {
+      // the values are left as fill values
+    }
+  }
+
+  @Test
+  public void shouldTakeUnchangedFileFromCache() throws Exception {
+    File file = tempFolder.newFile("scan.nc");
+    writeFile(file, 3);
+
+    NetcdfFile first = DatasetManager.openNcmlDatasetScan(file.getPath(), ncml);
+    assertThat(first.getRootGroup().findAttributeString("title", null)).isEqualTo("from the datasetScan");
+    first.close(); // released to the cache
+
+    NetcdfFile second = DatasetManager.openNcmlDatasetScan(file.getPath(), ncml);
+    try {
+      assertThat(second).isSameInstanceAs(first);
+    } finally {
+      second.close();
+    }
+  }
+
+  @Test
+  public void shouldReopenChangedFile() throws Exception {
+    File file = tempFolder.newFile("changing.nc");
+    writeFile(file, 3);
+
+    NetcdfFile first = DatasetManager.openNcmlDatasetScan(file.getPath(), ncml);
+    assertThat(first.findDimension("x").getLength()).isEqualTo(3);
+    first.close();
+
+    writeFile(file, 5);
+    // some file systems only keep the last modified time to the second
+    assertThat(file.setLastModified(file.lastModified() + 2000)).isTrue();
+
+    NetcdfFile second = DatasetManager.openNcmlDatasetScan(file.getPath(), ncml);
+    try {
+      assertThat(second).isNotSameInstanceAs(first);
+      assertThat(second.findDimension("x").getLength()).isEqualTo(5);
+      assertThat(second.getRootGroup().findAttributeString("title", null)).isEqualTo("from the datasetScan");
+    } finally {
+      second.close();
+    }
+  }
+}
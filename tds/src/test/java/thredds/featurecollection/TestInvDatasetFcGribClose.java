@@ -0,0 +1,193 @@
+package thredds.featurecollection;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.core.AllowedServices;
+import thredds.featurecollection.InvDatasetFcGrib.CollectionRef;
+import thredds.inventory.CollectionUpdateType;
+import thredds.server.catalog.ConfigCatalog;
+import thredds.server.catalog.FeatureCollectionRef;
+import thredds.server.catalog.TestConfigCatalogBuilder;
+
+/**
+ * The top level GRIB collection is closed once it is replaced or the feature collection is closed, and the last
+ * request using it is done.
+ */
+public class TestInvDatasetFcGribClose {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private FeatureCollectionRef fcRef;
+  private final List<FakeCollection> opened = new CopyOnWriteArrayList<>();
+  private final Map<CollectionRef, FakeCollection> refs = new ConcurrentHashMap<>();
+  private final AtomicBoolean closedInUse = new AtomicBoolean();
+  private final AtomicBoolean closedTwice = new AtomicBoolean();
+
+  @Before
+  public void setup() throws IOException {
+    File dir = tempFolder.newFolder("grib");
+    String catalog = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<catalog name='grib' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'"
+        + " xmlns:xlink='http://www.w3.org/1999/xlink' version='1.2'>\n"
+        + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n"
+        + "  <featureCollection name='GribFc' ID='gribFc' featureType='GRIB2' path='grib/fc'>\n"
+        + "    <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n"
+        + "    <collection name='GribFc' spec='" + dir.getPath() + "/.*grib2$'/>\n" + "  </featureCollection>\n"
+        + "</catalog>\n";
+    File catFile = tempFolder.newFile("catalog.xml");
+    Files.write(catFile.toPath(), catalog.getBytes(StandardCharsets.UTF_8));
+    ConfigCatalog cat = TestConfigCatalogBuilder.open("file:" + catFile.getPath());
+    fcRef = (FeatureCollectionRef) cat.findDatasetByID("gribFc");
+    assertThat(fcRef).isNotNull();
+
+    InvDatasetFeatureCollection.setAllowedServices(new AllowedServices());
+  }
+
+  // stands in for the GribCollectionImmutable
+  private class FakeCollection implements Closeable {
+    final AtomicInteger users = new AtomicInteger();
+    final AtomicBoolean closed = new AtomicBoolean();
+
+    @Override
+    public void close() {
+      if (users.get() != 0)
+        closedInUse.set(true);
+      if (!closed.compareAndSet(false, true))
+        closedTwice.set(true);
+    }
+  }
+
+  // each update opens a new collection
+  private class FakeFcGrib extends InvDatasetFcGrib {
+    FakeFcGrib() {
+      super(fcRef, fcRef.getConfig());
+    }
+
+    @Override
+    protected void updateCollection(State localState, CollectionUpdateType force) {
+      FakeCollection collection = new FakeCollection();
+      CollectionRef collectionRef = new CollectionRef(collection, "fake" + opened.size());
+      opened.add(collection);
+      refs.put(collectionRef, collection);
+      ((StateGrib) localState).collectionRef = collectionRef;
+    }
+  }
+
+  @Test
+  public void shouldCloseRetiredCollectionAfterLastRelease() throws IOException {
+    FakeFcGrib fc = new FakeFcGrib();
+    InvDatasetFcGrib.StateGrib inFlight = fc.acquireState();
+    assertThat(opened).hasSize(1);
+
+    fc.update(CollectionUpdateType.always);
+    assertThat(opened).hasSize(2);
+    assertThat(opened.get(0).closed.get()).isFalse(); // still used by the request
+
+    // new requests get the new collection
+    InvDatasetFcGrib.StateGrib next = fc.acquireState();
+    assertThat(next.collectionRef).isNotSameInstanceAs(inFlight.collectionRef);
+    fc.releaseState(next);
+
+    fc.releaseState(inFlight);
+    assertThat(opened.get(0).closed.get()).isTrue();
+    assertThat(opened.get(1).closed.get()).isFalse();
+
+    fc.close();
+    assertThat(opened.get(1).closed.get()).isTrue();
+    assertThat(closedTwice.get()).isFalse();
+  }
+
+  @Test
+  public void shouldRefuseRequestsAfterClose() throws IOException {
+    FakeFcGrib fc = new FakeFcGrib();
+    InvDatasetFcGrib.StateGrib inFlight = fc.acquireState();
+
+    fc.close();
+    fc.close(); // does nothing
+    assertThat(opened.get(0).closed.get()).isFalse(); // still used by the request
+    assertThrows(IOException.class, fc::acquireState);
+
+    fc.releaseState(inFlight);
+    assertThat(opened.get(0).closed.get()).isTrue();
+    assertThat(closedTwice.get()).isFalse();
+
+    // an update after close does not open the collection again
+    fc.update(CollectionUpdateType.always);
+    assertThat(opened).hasSize(1);
+    assertThrows(IOException.class, fc::acquireState);
+  }
+
+  @Test
+  public void shouldNotCloseCollectionsInUse() throws Exception {
+    FakeFcGrib fc = new FakeFcGrib();
+    fc.releaseState(fc.acquireState());
+
+    CountDownLatch started = new CountDownLatch(8);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(pool.submit(() -> {
+          int requests = 0;
+          while (true) {
+            InvDatasetFcGrib.StateGrib localState;
+            try {
+              localState = fc.acquireState();
+            } catch (IOException e) {
+              return requests; // closed
+            }
+            FakeCollection collection = refs.get(localState.collectionRef);
+            collection.users.incrementAndGet();
+            if (collection.closed.get())
+              closedInUse.set(true);
+            Thread.yield();
+            collection.users.decrementAndGet();
+            fc.releaseState(localState);
+            if (requests++ == 0)
+              started.countDown();
+          }
+        }));
+      }
+
+      assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+      for (int i = 0; i < 200; i++)
+        fc.update(CollectionUpdateType.always);
+      fc.close();
+
+      // every request thread sees the close, instead of retrying forever
+      for (Future<Integer> result : results)
+        assertThat(result.get(10, TimeUnit.SECONDS)).isGreaterThan(0);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    assertThat(closedInUse.get()).isFalse();
+    assertThat(closedTwice.get()).isFalse();
+    assertThat(opened).hasSize(201);
+    for (FakeCollection collection : opened)
+      assertThat(collection.closed.get()).isTrue();
+  }
+}
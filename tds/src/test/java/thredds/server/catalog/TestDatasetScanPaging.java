@@ -0,0 +1,138 @@
+package thredds.server.catalog;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.client.catalog.Catalog;
+import thredds.client.catalog.CatalogRef;
+import thredds.client.catalog.Dataset;
+
+public class TestDatasetScanPaging {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private ConfigCatalog cat;
+  private DirectoryListingCache listingCache;
+
+  @Before
+  public void setup() throws IOException {
+    File dir = tempFolder.newFolder("data");
+    for (int i = 0; i < 7; i++)
+      Files.write(new File(dir, "f" + i + ".nc").toPath(), new byte[10]);
+    assertThat(new File(dir, "sub").mkdir()).isTrue();
+
+    String catalog = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<catalog name='paging' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'"
+        + " xmlns:xlink='http://www.w3.org/1999/xlink' version='1.2'>\n"
+        + "  <service name='odap' serviceType='OpenDAP' base='/thredds/dodsC/'/>\n"
+        + "  <datasetScan name='Paged' ID='paged' path='paged' location='" + dir.getPath() + "'>\n"
+        + "    <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n" + "  </datasetScan>\n"
+        + "  <datasetScan name='Other' ID='other' path='other' location='" + dir.getPath() + "'>\n"
+        + "    <metadata inherited='true'><serviceName>odap</serviceName></metadata>\n" + "  </datasetScan>\n"
+        + "</catalog>\n";
+    File catFile = tempFolder.newFile("catalog.xml");
+    Files.write(catFile.toPath(), catalog.getBytes(StandardCharsets.UTF_8));
+    cat = TestConfigCatalogBuilder.open("file:" + catFile.getPath());
+    assertThat(cat).isNotNull();
+
+    listingCache = new DirectoryListingCache(1000, 3600);
+    DatasetScan.setListingCache(listingCache);
+    DatasetScan.setPageSize(3);
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    DatasetScan.setPageSize(0);
+    DatasetScan.setListingCache(null);
+    listingCache.close();
+  }
+
+  @Test
+  public void shouldSplitDirectoryIntoPages() throws IOException {
+    DatasetScan scan = (DatasetScan) cat.findDatasetByID("paged");
+
+    // files first, then directories
+    Dataset page1 = makePage(scan, 1);
+    assertThat(page1.getName()).isEqualTo("Paged (page 1 of 3)");
+    assertThat(names(page1)).containsExactly("f0.nc", "f1.nc", "f2.nc", "Next page (2 of 3)").inOrder();
+    assertThat(href(page1, "Next page (2 of 3)")).isEqualTo("catalog_page2.xml");
+
+    Dataset page2 = makePage(scan, 2);
+    assertThat(names(page2)).containsExactly("Previous page (1 of 3)", "f3.nc", "f4.nc", "f5.nc",
+        "Next page (3 of 3)").inOrder();
+    assertThat(href(page2, "Previous page (1 of 3)")).isEqualTo("catalog.xml");
+    assertThat(href(page2, "Next page (3 of 3)")).isEqualTo("catalog_page3.xml");
+
+    // the last page is short, and has no next page
+    Dataset page3 = makePage(scan, 3);
+    assertThat(names(page3)).containsExactly("Previous page (2 of 3)", "f6.nc", "sub").inOrder();
+
+    assertThrows(FileNotFoundException.class, () -> makePage(scan, 4));
+  }
+
+  @Test
+  public void shouldNotPageSmallDirectories() throws IOException {
+    DatasetScan.setPageSize(8);
+    Dataset top = makePage((DatasetScan) cat.findDatasetByID("paged"), 1);
+    assertThat(top.getName()).isEqualTo("Paged");
+    assertThat(names(top)).hasSize(8);
+  }
+
+  @Test
+  public void shouldParsePageFilenames() {
+    assertThat(DatasetScan.getPage("catalog.xml")).isEqualTo(1);
+    assertThat(DatasetScan.getPage("catalog_page3.xml")).isEqualTo(3);
+    assertThat(DatasetScan.getPage("catalog_page0.xml")).isEqualTo(1);
+    assertThat(DatasetScan.getPage("catalog_pageX.xml")).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldDropListingsOfReplacedScan() throws IOException {
+    DatasetScan scan = (DatasetScan) cat.findDatasetByID("paged");
+    DatasetScan other = (DatasetScan) cat.findDatasetByID("other");
+    makePage(scan, 1);
+    makePage(other, 1);
+    assertThat(listingCache.size()).isEqualTo(2);
+
+    scan.invalidateListings();
+    assertThat(listingCache.size()).isEqualTo(1);
+
+    DatasetScan.invalidateAllListings();
+    assertThat(listingCache.size()).isEqualTo(0);
+  }
+
+  private Dataset makePage(DatasetScan scan, int page) throws IOException {
+    String path = scan.getConfig().path;
+    Catalog scanCat = scan.makeCatalogForDirectory(path, cat.getBaseURI(), page).makeCatalog();
+    assertThat(scanCat.getDatasets()).hasSize(1);
+    return scanCat.getDatasets().get(0);
+  }
+
+  private static List<String> names(Dataset top) {
+    List<String> result = new ArrayList<>();
+    for (Dataset ds : top.getDatasets())
+      result.add(ds.getName());
+    return result;
+  }
+
+  private static String href(Dataset top, String name) {
+    for (Dataset ds : top.getDatasets()) {
+      if (ds.getName().equals(name))
+        return ((CatalogRef) ds).getXlinkHref();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,90 @@
+package thredds.server.catalogservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import thredds.core.CatalogManager;
+import thredds.mock.web.MockTdsContextLoader;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+@ContextConfiguration(locations = {"/WEB-INF/applicationContext.xml", "/WEB-INF/spring-servlet.xml"},
+    loader = MockTdsContextLoader.class)
+public class TestStaticCatalogResponse {
+  private static final String PATH = "/catalog/catalog.xml";
+
+  @Autowired
+  private WebApplicationContext wac;
+
+  @Autowired
+  private CatalogManager catalogManager;
+
+  private MockMvc mockMvc;
+
+  @Before
+  public void setup() {
+    catalogManager.invalidateCache();
+    this.mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
+  }
+
+  @Test
+  public void shouldReturnSameResponseWithETag() throws Exception {
+    MvcResult first = get(PATH, null);
+    MvcResult second = get(PATH, null);
+
+    String etag = first.getResponse().getHeader("ETag");
+    assertThat(etag).isNotNull();
+    assertThat(second.getResponse().getHeader("ETag")).isEqualTo(etag);
+    assertThat(second.getResponse().getContentAsString()).isEqualTo(first.getResponse().getContentAsString());
+    assertThat(first.getResponse().getContentAsString()).contains("<catalog");
+  }
+
+  @Test
+  public void shouldAnswerConditionalRequest() throws Exception {
+    String etag = get(PATH, null).getResponse().getHeader("ETag");
+
+    MvcResult result = get(PATH, etag);
+    assertThat(result.getResponse().getStatus()).isEqualTo(304);
+    assertThat(result.getResponse().getContentAsByteArray()).isEmpty();
+  }
+
+  @Test
+  public void shouldCacheHtml() throws Exception {
+    String html = PATH.replace(".xml", ".html");
+    MvcResult first = get(html, null);
+    MvcResult second = get(html, first.getResponse().getHeader("ETag"));
+
+    assertThat(first.getResponse().getContentType()).isEqualTo("text/html;charset=UTF-8");
+    assertThat(first.getResponse().getContentAsString()).contains("<html");
+    assertThat(second.getResponse().getStatus()).isEqualTo(304);
+  }
+
+  @Test
+  public void shouldRemakeSameResponseAfterInvalidate() throws Exception {
+    MvcResult first = get(PATH, null);
+    catalogManager.invalidateCache();
+
+    // content is the same, so the ETag is too
+    MvcResult second = get(PATH, first.getResponse().getHeader("ETag"));
+    assertThat(second.getResponse().getStatus()).isEqualTo(304);
+  }
+
+  private MvcResult get(String path, String ifNoneMatch) throws Exception {
+    MockHttpServletRequestBuilder rb = MockMvcRequestBuilders.get(path).servletPath(path);
+    if (ifNoneMatch != null)
+      rb.header("If-None-Match", ifNoneMatch);
+    return mockMvc.perform(rb).andReturn();
+  }
+}
@@ -68,4 +68,39 @@ public class FileServerControllerTest {
 
     mockMvc.perform(rb).andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
   }
+
+  @Test
+  public void shouldReturnNotModifiedForMatchingETag() throws Exception {
+    String path = "/fileServer/testNAMfmrc/files/20060925_0600.nc";
+    RequestBuilder rb = MockMvcRequestBuilders.get(path).servletPath(path);
+    MvcResult result = mockMvc.perform(rb).andReturn();
+    String etag = result.getResponse().getHeader("ETag");
+    assertThat(etag).isNotNull();
+
+    RequestBuilder conditional = MockMvcRequestBuilders.get(path).servletPath(path).header("If-None-Match", etag);
+    MvcResult notModified = mockMvc.perform(conditional).andReturn();
+    assertThat(notModified.getResponse().getStatus()).isEqualTo(HttpStatus.SC_NOT_MODIFIED);
+    assertThat(notModified.getResponse().getContentAsByteArray()).isEmpty();
+  }
+
+  @Test
+  public void shouldReturnMultipartForMultipleRanges() throws Exception {
+    String path = "/fileServer/testNAMfmrc/files/20060925_0600.nc";
+    RequestBuilder rb = MockMvcRequestBuilders.get(path).servletPath(path).header("Range", "bytes=0-9,100-109");
+
+    MvcResult result = mockMvc.perform(rb).andReturn();
+    assertThat(result.getResponse().getStatus()).isEqualTo(HttpStatus.SC_PARTIAL_CONTENT);
+    assertThat(result.getResponse().getContentType()).startsWith("multipart/byteranges; boundary=");
+    assertThat(result.getResponse().getContentAsString()).contains("Content-Range: bytes 100-109/");
+  }
+
+  @Test
+  public void shouldIgnoreRangeWhenIfRangeDoesNotMatch() throws Exception {
+    String path = "/fileServer/testNAMfmrc/files/20060925_0600.nc";
+    RequestBuilder rb =
+        MockMvcRequestBuilders.get(path).servletPath(path).header("Range", "bytes=0-9").header("If-Range", "\"stale\"");
+
+    MvcResult result = mockMvc.perform(rb).andReturn();
+    assertThat(result.getResponse().getStatus()).isEqualTo(HttpStatus.SC_OK);
+  }
 }
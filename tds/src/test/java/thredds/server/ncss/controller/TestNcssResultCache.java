@@ -0,0 +1,193 @@
+package thredds.server.ncss.controller;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestNcssResultCache {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private NcssDiskCache diskCache;
+
+  @Before
+  public void setup() throws Exception {
+    diskCache = new NcssDiskCache(tempFolder.newFolder("ncss").getPath());
+  }
+
+  @Test
+  public void shouldReuseResult() throws Exception {
+    NcssResultCache cache = new NcssResultCache(diskCache, 1000);
+    AtomicInteger writes = new AtomicInteger();
+    String key = NcssResultCache.makeKey("ds/test.nc", 1234, "netcdf3", "var=a");
+
+    File first = getAndClose(cache, key, 10, writes);
+    File second = getAndClose(cache, key, 10, writes);
+
+    assertThat(second).isEqualTo(first);
+    assertThat(writes.get()).isEqualTo(1);
+    assertThat(first.length()).isEqualTo(10);
+  }
+
+  @Test
+  public void shouldKeyOnLastModified() {
+    assertThat(NcssResultCache.makeKey("ds/test.nc", 1234, "netcdf3", "var=a"))
+        .isNotEqualTo(NcssResultCache.makeKey("ds/test.nc", 1235, "netcdf3", "var=a"));
+  }
+
+  @Test
+  public void shouldComputeConcurrentRequestsOnce() throws Exception {
+    NcssResultCache cache = new NcssResultCache(diskCache, 1000);
+    AtomicInteger writes = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    String key = NcssResultCache.makeKey("ds/test.nc", 1234, "netcdf3", "var=a");
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<NcssResultCache.Result>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(executor.submit(() -> cache.get(key, location -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          write(location, 10, writes);
+        })));
+      }
+      assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+      Thread.sleep(100); // let the others block on the first
+      release.countDown();
+
+      File expected = results.get(0).get().getFile();
+      for (Future<NcssResultCache.Result> result : results) {
+        assertThat(result.get().getFile()).isEqualTo(expected);
+        result.get().close();
+      }
+      assertThat(writes.get()).isEqualTo(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsed() throws Exception {
+    NcssResultCache cache = new NcssResultCache(diskCache, 25);
+    AtomicInteger writes = new AtomicInteger();
+
+    File a = getAndClose(cache, "a", 10, writes);
+    File b = getAndClose(cache, "b", 10, writes);
+    getAndClose(cache, "a", 10, writes); // a is now more recent than b
+    File c = getAndClose(cache, "c", 10, writes);
+
+    assertThat(writes.get()).isEqualTo(3);
+    assertThat(a.exists()).isTrue();
+    assertThat(b.exists()).isFalse();
+    assertThat(c.exists()).isTrue();
+  }
+
+  @Test
+  public void shouldFindResultsAfterRestart() throws Exception {
+    AtomicInteger writes = new AtomicInteger();
+    getAndClose(new NcssResultCache(diskCache, 1000), "a", 10, writes);
+
+    NcssResultCache restarted = new NcssResultCache(diskCache, 1000);
+    getAndClose(restarted, "a", 10, writes);
+    assertThat(writes.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldNotDeleteResultWhileItIsSent() throws Exception {
+    NcssResultCache cache = new NcssResultCache(diskCache, 25);
+    AtomicInteger writes = new AtomicInteger();
+
+    try (NcssResultCache.Result sending = cache.get("a", location -> write(location, 10, writes))) {
+      File b = getAndClose(cache, "b", 10, writes);
+      File c = getAndClose(cache, "c", 10, writes); // evicts a
+
+      assertThat(sending.getFile().exists()).isTrue();
+      assertThat(Files.readAllBytes(sending.getFile().toPath())).hasLength(10);
+      assertThat(b.exists()).isTrue();
+      assertThat(c.exists()).isTrue();
+      assertThat(cache.getStatistics()).contains("evictions=1");
+
+      // an evicted result is made again for a new request, and not deleted when the old one closes
+      getAndClose(cache, "a", 10, writes);
+      assertThat(writes.get()).isEqualTo(4);
+    }
+    assertThat(new File(diskCache.getDiskCache().getRootDirectory(), "results/a.nc").exists()).isTrue();
+
+    // b is made again, which evicts c
+    try (NcssResultCache.Result sending = cache.get("b", location -> write(location, 10, writes))) {
+      getAndClose(cache, "d", 10, writes); // evicts a
+      getAndClose(cache, "e", 10, writes); // evicts b
+      assertThat(sending.getFile().exists()).isTrue();
+      sending.close();
+      assertThat(sending.getFile().exists()).isFalse();
+    }
+  }
+
+  @Test
+  public void shouldPinResultsUnderConcurrentEviction() throws Exception {
+    NcssResultCache cache = new NcssResultCache(diskCache, 30);
+    AtomicInteger writes = new AtomicInteger();
+    AtomicInteger missing = new AtomicInteger();
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        int seed = t;
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 200; i++) {
+            String key = "k" + ((seed + i) % 10);
+            try (NcssResultCache.Result result = cache.get(key, location -> write(location, 10, writes))) {
+              Thread.yield();
+              if (!result.getFile().exists() || result.getFile().length() != 10)
+                missing.incrementAndGet();
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> result : results)
+        result.get();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(missing.get()).isEqualTo(0);
+    File[] left = new File(diskCache.getDiskCache().getRootDirectory(), "results").listFiles();
+    assertThat(left).isNotNull();
+    assertThat(left.length).isAtMost(3);
+  }
+
+  private static File getAndClose(NcssResultCache cache, String key, int size, AtomicInteger writes)
+      throws Exception {
+    try (NcssResultCache.Result result = cache.get(key, location -> write(location, size, writes))) {
+      return result.getFile();
+    }
+  }
+
+  private static void write(String location, int size, AtomicInteger writes) throws IOException {
+    writes.incrementAndGet();
+    Files.write(new File(location).toPath(), new byte[size]);
+  }
+}
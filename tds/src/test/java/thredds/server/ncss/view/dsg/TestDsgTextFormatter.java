@@ -0,0 +1,61 @@
+package thredds.server.ncss.view.dsg;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.StringWriter;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.time.Calendar;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateFormatter;
+
+public class TestDsgTextFormatter {
+
+  @Test
+  public void shouldFormatDatesLikeCalendarDateFormatter() {
+    CalendarDate[] dates = {CalendarDate.of(Calendar.gregorian, 1970, 1, 1, 0, 0, 0),
+        CalendarDate.of(Calendar.gregorian, 2021, 12, 31, 23, 59, 59),
+        CalendarDate.parseISOformat(null, "2014-05-27T10:03:04.005Z"),
+        CalendarDate.parseISOformat(null, "0987-06-05T04:03:02.100Z"),
+        CalendarDate.of(Calendar.gregorian, 12345, 1, 1, 0, 0, 0),
+        CalendarDate.of(Calendar.uniform30day, 2000, 2, 30, 12, 0, 0),
+        CalendarDate.of(Calendar.noleap, 2001, 2, 28, 6, 30, 0)};
+
+    for (CalendarDate date : dates) {
+      StringBuilder sb = new StringBuilder();
+      DsgTextFormatter.appendDateTime(sb, date);
+      assertThat(sb.toString()).isEqualTo(CalendarDateFormatter.toDateTimeStringISO(date));
+    }
+  }
+
+  @Test
+  public void shouldFormatValuesLikeArrayToString() {
+    Array[] arrays = {Array.factory(DataType.DOUBLE, new int[0], new double[] {1.5e-7}),
+        Array.factory(DataType.FLOAT, new int[0], new float[] {-273.15f}),
+        Array.factory(DataType.INT, new int[] {1}, new int[] {42}),
+        Array.factory(DataType.SHORT, new int[0], new short[] {-7}),
+        Array.factory(DataType.BYTE, new int[0], new byte[] {3}),
+        Array.factory(DataType.LONG, new int[0], new long[] {Long.MAX_VALUE}),
+        Array.factory(DataType.DOUBLE, new int[] {3}, new double[] {1, 2.5, Double.NaN}),
+        Array.factory(DataType.CHAR, new int[] {4}, new char[] {'a', 'b', ' ', ' '})};
+
+    for (Array array : arrays) {
+      StringBuilder sb = new StringBuilder();
+      DsgTextFormatter.appendValue(sb, array);
+      assertThat(sb.toString()).isEqualTo(array.toString().trim());
+    }
+  }
+
+  @Test
+  public void shouldReuseBuffer() throws Exception {
+    DsgTextFormatter text = new DsgTextFormatter();
+    StringWriter writer = new StringWriter();
+
+    text.append("a").append(',').append(1.5).appendLine().writeTo(writer);
+    assertThat(text.length()).isEqualTo(0);
+    text.append("bb").writeTo(writer);
+
+    assertThat(writer.toString()).isEqualTo("a,1.5" + System.lineSeparator() + "bb");
+  }
+}
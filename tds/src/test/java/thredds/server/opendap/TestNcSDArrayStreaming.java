@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.opendap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import opendap.servers.CEEvaluator;
+import opendap.servers.ServerDDS;
+import org.junit.After;
+import org.junit.Test;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+
+/** Streaming an array in slabs must produce exactly the same bytes as reading it all at once. */
+public class TestNcSDArrayStreaming {
+  private static final String PATH = "src/test/data/testdata2/temp_air_01082000.nc";
+
+  @After
+  public void resetSlabSize() {
+    NcSDArray.setSlabSize(16 * 1000 * 1000);
+  }
+
+  @Test
+  public void shouldMatchUnstreamedOutput() throws Exception {
+    for (String constraint : new String[] {"?t", "?t[0:2:3][3:4][4:5][0:2:6]", "?t.t", "?latitude,longitude"}) {
+      NcSDArray.setSlabSize(0);
+      byte[] expected = send(constraint);
+
+      NcSDArray.setSlabSize(64);
+      byte[] streamed = send(constraint);
+
+      assertThat(streamed).isEqualTo(expected);
+    }
+  }
+
+  private byte[] send(String constraint) throws Exception {
+    try (NetcdfFile ncfile = NetcdfFiles.open(PATH)) {
+      GuardedDatasetCacheAndClone ds = new GuardedDatasetCacheAndClone("temp_air", ncfile, false);
+      ServerDDS dds = ds.getDDS();
+      CEEvaluator ce = new CEEvaluator(dds);
+      ce.parseConstraint(constraint, null);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream sink = new DataOutputStream(bytes);
+      ce.send(dds.getEncodedName(), sink, ds);
+      sink.flush();
+      return bytes.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.opendap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Enumeration;
+import opendap.dap.BaseType;
+import opendap.servers.ServerDDS;
+import opendap.servers.ServerMethods;
+import org.junit.Test;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+
+public class TestOpendapMetadataCache {
+  private static final String PATH = "src/test/data/testdata2/temp_air_01082000.nc";
+
+  @Test
+  public void shouldShareTemplatesAcrossOpens() throws Exception {
+    OpendapMetadataCache cache = new OpendapMetadataCache(10 * 1000 * 1000);
+
+    try (NetcdfFile first = NetcdfFiles.open(PATH); NetcdfFile second = NetcdfFiles.open(PATH)) {
+      OpendapMetadataCache.Templates t1 = cache.get("testdata2/temp_air", first);
+      OpendapMetadataCache.Templates t2 = cache.get("testdata2/temp_air", second);
+      assertThat(t2).isSameInstanceAs(t1);
+      assertThat(cache.getStats().hitCount()).isEqualTo(1);
+
+      assertThat(cache.get("other/temp_air", second)).isNotSameInstanceAs(t1);
+      assertThat(cache.size()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void shouldNotKeepTheFileInTemplates() throws Exception {
+    OpendapMetadataCache cache = new OpendapMetadataCache(10 * 1000 * 1000);
+
+    OpendapMetadataCache.Templates templates;
+    try (NetcdfFile ncfile = NetcdfFiles.open(PATH)) {
+      templates = cache.get("temp_air", ncfile);
+    }
+
+    int count = 0;
+    Enumeration vars = templates.dds.getVariables();
+    while (vars.hasMoreElements()) {
+      BaseType bt = (BaseType) vars.nextElement();
+      if (bt instanceof HasNetcdfVariable) {
+        assertThat(((HasNetcdfVariable) bt).getVariable()).isNull();
+        count++;
+      }
+    }
+    assertThat(count).isGreaterThan(0);
+  }
+
+  @Test
+  public void shouldRebindClonesToCallersFile() throws Exception {
+    OpendapMetadataCache cache = new OpendapMetadataCache(10 * 1000 * 1000);
+
+    try (NetcdfFile first = NetcdfFiles.open(PATH)) {
+      new GuardedDatasetCacheAndClone("temp_air", first, false, cache).getDDS();
+    }
+
+    try (NetcdfFile second = NetcdfFiles.open(PATH)) {
+      ServerDDS dds = new GuardedDatasetCacheAndClone("temp_air", second, false, cache).getDDS();
+      assertThat(cache.getStats().hitCount()).isEqualTo(1);
+
+      Enumeration vars = dds.getVariables();
+      while (vars.hasMoreElements()) {
+        BaseType bt = (BaseType) vars.nextElement();
+        if (bt instanceof HasNetcdfVariable) {
+          HasNetcdfVariable hasVar = (HasNetcdfVariable) bt;
+          assertThat(hasVar.getVariable())
+              .isSameInstanceAs(second.findVariable(hasVar.getVariable().getFullNameEscaped()));
+          // the first file is closed, so this fails unless the clone was rebound
+          ((ServerMethods) bt).read("temp_air", null);
+        }
+      }
+    }
+  }
+}
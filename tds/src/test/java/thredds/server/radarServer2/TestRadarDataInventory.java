@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.radarServer2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.nc2.time.CalendarPeriod;
+
+public class TestRadarDataInventory {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Path root;
+
+  @Before
+  public void setup() throws IOException {
+    root = tempFolder.newFolder("radar").toPath();
+    addFile("N0R", "FTG", "20150101", "0000");
+    addFile("N0R", "FTG", "20150101", "1200");
+    addFile("N0R", "FTG", "20150102", "0600");
+    addFile("N0R", "ABC", "20150101", "0600");
+    addFile("N0Q", "FTG", "20150101", "0600");
+  }
+
+  @Test
+  public void shouldFindRange() {
+    RadarDataInventory di = makeInventory(null);
+    Collection<RadarDataInventory.Query.QueryResultItem> results =
+        query(di, "FTG", "N0R", CalendarDateRange.of(date("2015-01-01T06:00:00Z"), date("2015-01-02T06:00:00Z")));
+
+    assertThat(names(results)).containsExactly("FTG_20150101_1200.nids", "FTG_20150102_0600.nids").inOrder();
+    assertThat(di.getIndexSize()).isEqualTo(5);
+  }
+
+  @Test
+  public void shouldFindNearest() {
+    RadarDataInventory di = makeInventory(null);
+    CalendarDate time = date("2015-01-01T11:30:00Z");
+    assertThat(names(query(di, "FTG", "N0R", CalendarDateRange.of(time, time))))
+        .containsExactly("FTG_20150101_1200.nids");
+
+    // outside of the window
+    time = date("2015-01-03T06:00:00Z");
+    assertThat(query(di, "FTG", "N0R", CalendarDateRange.of(time, time))).isEmpty();
+  }
+
+  @Test
+  public void shouldFindAll() {
+    RadarDataInventory di = makeInventory(null);
+    assertThat(query(di, "FTG", "N0R", null)).hasSize(3);
+    assertThat(query(di, "XYZ", "N0R", null)).isEmpty();
+  }
+
+  @Test
+  public void shouldReadIndexFile() throws IOException {
+    Path indexFile = tempFolder.getRoot().toPath().resolve("cache/radar.index");
+    makeInventory(indexFile).newQuery();
+    assertThat(Files.exists(indexFile)).isTrue();
+
+    // a file the second inventory could only know about from the index
+    Files.delete(root.resolve("N0Q/FTG/20150101/FTG_20150101_0600.nids"));
+    RadarDataInventory di = makeInventory(indexFile);
+    assertThat(query(di, "FTG", "N0Q", null)).hasSize(1);
+  }
+
+  @Test
+  public void shouldMergeNewFilesAndDropPurged() throws Exception {
+    RadarDataInventory di = makeInventory(null);
+    assertThat(query(di, "FTG", "N0R", null)).hasSize(3);
+
+    addFile("N0R", "FTG", "20150102", "1800");
+    addFile("N0R", "FTG", "20150103", "0000");
+    // older than the newest file of ABC, so an incremental update does not list its directory
+    addFile("N0R", "ABC", "20141231", "0000");
+    Path purged = root.resolve("N0R/FTG/20150101");
+    Files.delete(purged.resolve("FTG_20150101_0000.nids"));
+    Files.delete(purged.resolve("FTG_20150101_1200.nids"));
+    Files.delete(purged);
+
+    di.startUpdate().get(10, TimeUnit.SECONDS);
+    assertThat(names(query(di, "FTG", "N0R", null)))
+        .containsExactly("FTG_20150102_0600.nids", "FTG_20150102_1800.nids", "FTG_20150103_0000.nids").inOrder();
+    assertThat(names(query(di, "ABC", "N0R", null))).containsExactly("ABC_20150101_0600.nids");
+    assertThat(di.getIndexSize()).isEqualTo(5);
+  }
+
+  private RadarDataInventory makeInventory(Path indexFile) {
+    RadarDataInventory di = new RadarDataInventory(root, 5);
+    di.addVariableDir();
+    di.addStationDir();
+    di.addDateDir("yyyyMMdd");
+    di.addFileTime("(\\d{8}_\\d{4})\\.nids$", "yyyyMMdd_HHmm");
+    di.setNearestWindow(CalendarPeriod.of(1, CalendarPeriod.Field.Hour));
+    if (indexFile != null)
+      di.setIndexFile(indexFile);
+    return di;
+  }
+
+  private Collection<RadarDataInventory.Query.QueryResultItem> query(RadarDataInventory di, String station,
+      String var, CalendarDateRange range) {
+    RadarDataInventory.Query q = di.newQuery();
+    q.addStation(station);
+    q.addVariable(var);
+    q.addDateRange(range);
+    return q.results();
+  }
+
+  private void addFile(String var, String station, String day, String time) throws IOException {
+    Path dir = Files.createDirectories(root.resolve(var).resolve(station).resolve(day));
+    Files.write(dir.resolve(station + "_" + day + "_" + time + ".nids"), new byte[1]);
+  }
+
+  private static CalendarDate date(String iso) {
+    return CalendarDate.parseISOformat(null, iso);
+  }
+
+  private static List<String> names(Collection<RadarDataInventory.Query.QueryResultItem> results) {
+    List<String> names = new ArrayList<>();
+    for (RadarDataInventory.Query.QueryResultItem item : results)
+      names.add(item.file.getFileName().toString());
+    return names;
+  }
+}
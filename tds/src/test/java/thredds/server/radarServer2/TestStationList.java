@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 1998-2018 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.radarServer2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ucar.unidata.geoloc.Bearing;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImmutable;
+import ucar.unidata.geoloc.LatLonRect;
+import ucar.unidata.util.test.category.NotPullRequest;
+
+/**
+ * Compares the indexed queries with a scan of all stations, and times both. The comparisons against all
+ * {@value #NSTATIONS} stations are not run for pull requests.
+ */
+public class TestStationList {
+  private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final int NSTATIONS = 20000;
+  private static StationList stations;
+
+  @BeforeClass
+  public static void makeStations() {
+    Random random = new Random(42);
+    stations = new StationList();
+    for (int i = 0; i < NSTATIONS; i++) {
+      double lat = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+      double lon = 360 * random.nextDouble() - 180;
+      stations.addStation(String.format("S%05d", i), LatLonPoint.create(lat, lon));
+    }
+  }
+
+  @Test
+  @Category(NotPullRequest.class)
+  public void shouldFindNearest() {
+    Random random = new Random(1);
+    for (int i = 0; i < 500; i++) {
+      double lat = 180 * random.nextDouble() - 90;
+      double lon = 360 * random.nextDouble() - 180;
+      assertThat(stations.getNearest(lon, lat)).isSameInstanceAs(scanNearest(lon, lat));
+    }
+  }
+
+  @Test
+  public void shouldFindNearestAcrossDateline() {
+    StationList list = new StationList();
+    list.addStation("WEST", LatLonPoint.create(0, -179.5));
+    list.addStation("EAST", LatLonPoint.create(0, 170));
+    assertThat(list.getNearest(179.8, 0).getStid()).isEqualTo("WEST");
+    assertThat(new StationList().getNearest(0, 0)).isNull();
+  }
+
+  @Test
+  @Category(NotPullRequest.class)
+  public void shouldFindInBox() {
+    Random random = new Random(2);
+    for (int i = 0; i < 500; i++) {
+      double south = 180 * random.nextDouble() - 90;
+      double north = Math.min(90, south + 40 * random.nextDouble());
+      double west = 360 * random.nextDouble() - 180;
+      double east = west + 60 * random.nextDouble();
+      if (east > 180)
+        east -= 360; // crosses the dateline
+      assertThat(stations.getStations(east, west, north, south))
+          .containsExactlyElementsIn(scanBox(east, west, north, south)).inOrder();
+    }
+  }
+
+  @Test
+  public void shouldFindInBoxAcrossDateline() {
+    StationList list = new StationList();
+    list.addStation("WEST", LatLonPoint.create(10, -179.5));
+    list.addStation("EAST", LatLonPoint.create(10, 179.5));
+    list.addStation("ZERO", LatLonPoint.create(10, 0));
+    List<String> ids = new ArrayList<>();
+    for (StationList.Station s : list.getStations(-170, 170, 20, 0))
+      ids.add(s.getStid());
+    assertThat(ids).containsExactly("EAST", "WEST").inOrder();
+  }
+
+  @Test
+  @Category(NotPullRequest.class)
+  public void compareTimes() {
+    int nqueries = 2000;
+    Random random = new Random(3);
+    double[][] points = new double[nqueries][];
+    for (int i = 0; i < nqueries; i++)
+      points[i] = new double[] {360 * random.nextDouble() - 180, 180 * random.nextDouble() - 90};
+
+    stations.getNearest(0, 0); // make the index
+    long start = System.nanoTime();
+    for (double[] p : points)
+      stations.getNearest(p[0], p[1]);
+    long indexed = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (double[] p : points)
+      scanNearest(p[0], p[1]);
+    long scanned = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (double[] p : points)
+      stations.getStations(p[0] + 5, p[0], Math.min(90, p[1] + 5), p[1]);
+    long indexedBox = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (double[] p : points)
+      scanBox(p[0] + 5, p[0], Math.min(90, p[1] + 5), p[1]);
+    long scannedBox = System.nanoTime() - start;
+
+    logger.info("{} stations, {} queries: nearest {} ms indexed, {} ms scanned; box {} ms indexed, {} ms scanned",
+        NSTATIONS, nqueries, indexed / 1000000, scanned / 1000000, indexedBox / 1000000, scannedBox / 1000000);
+  }
+
+  // the queries before the index
+  private static StationList.Station scanNearest(double longitude, double latitude) {
+    LatLonPointImmutable pt = new LatLonPointImmutable(latitude, longitude);
+    StationList.Station nearest = null;
+    double minDist = Double.POSITIVE_INFINITY;
+    for (StationList.Station s : stations.getAll()) {
+      Bearing b = Bearing.calculateBearing(pt, s.getLocation());
+      if (b.getDistance() < minDist) {
+        minDist = b.getDistance();
+        nearest = s;
+      }
+    }
+    return nearest;
+  }
+
+  private static List<StationList.Station> scanBox(double east, double west, double north, double south) {
+    LatLonRect rect = new LatLonRect(new LatLonPointImmutable(south, west), new LatLonPointImmutable(north, east));
+    List<StationList.Station> result = new ArrayList<>();
+    for (StationList.Station s : stations.getAll())
+      if (rect.contains(s.getLocation()))
+        result.add(s);
+    return result;
+  }
+}
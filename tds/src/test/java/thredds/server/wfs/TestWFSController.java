@@ -0,0 +1,71 @@
+package thredds.server.wfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class TestWFSController {
+
+  @Test
+  public void shouldParseBbox() {
+    assertThat(WFSController.parseBbox("-10,-20.5,10,20.5")).usingExactEquality()
+        .containsExactly(-10.0, -20.5, 10.0, 20.5).inOrder();
+    // spaces and a trailing crs are allowed
+    assertThat(WFSController.parseBbox(" 1 , 2 , 3 , 4 ,urn:ogc:def:crs:EPSG::4326")).usingExactEquality()
+        .containsExactly(1.0, 2.0, 3.0, 4.0).inOrder();
+    // a point
+    assertThat(WFSController.parseBbox("1,2,1,2")).usingExactEquality().containsExactly(1.0, 2.0, 1.0, 2.0).inOrder();
+  }
+
+  @Test
+  public void shouldRejectBadBbox() {
+    assertThrows(IllegalArgumentException.class, () -> WFSController.parseBbox(""));
+    assertThrows(IllegalArgumentException.class, () -> WFSController.parseBbox("1,2,3"));
+    assertThrows(IllegalArgumentException.class, () -> WFSController.parseBbox("1,2,3,x"));
+    assertThrows(IllegalArgumentException.class, () -> WFSController.parseBbox("1,,3,4"));
+    assertThrows(IllegalArgumentException.class, () -> WFSController.parseBbox("1,2,NaN,4"));
+    assertThrows(IllegalArgumentException.class, () -> WFSController.parseBbox("3,2,1,4"));
+    assertThrows(IllegalArgumentException.class, () -> WFSController.parseBbox("1,4,3,2"));
+  }
+
+  @Test
+  public void shouldPage() {
+    assertThat(WFSController.getPage(10, 0, Integer.MAX_VALUE)).asList().containsExactly(0, 10).inOrder();
+    assertThat(WFSController.getPage(10, 2, 3)).asList().containsExactly(2, 5).inOrder();
+    // the last page is short
+    assertThat(WFSController.getPage(10, 8, 3)).asList().containsExactly(8, 10).inOrder();
+  }
+
+  @Test
+  public void shouldReturnEmptyPageAtBoundaries() {
+    // start at or past the end
+    assertThat(WFSController.getPage(10, 10, 5)).asList().containsExactly(10, 10).inOrder();
+    assertThat(WFSController.getPage(10, Integer.MAX_VALUE, Integer.MAX_VALUE)).asList().containsExactly(10, 10)
+        .inOrder();
+    // count=0
+    assertThat(WFSController.getPage(10, 3, 0)).asList().containsExactly(3, 3).inOrder();
+    // nothing matched
+    assertThat(WFSController.getPage(0, 0, 5)).asList().containsExactly(0, 0).inOrder();
+  }
+
+  @Test
+  public void shouldWriteEmptyPage() throws Exception {
+    WFSFeatureIndex index = new WFSFeatureIndex(new double[] {1, 2, 3, 4}, 1);
+    int[] matched = index.findFeatures(null);
+    int[] page = WFSController.getPage(matched.length, 5, 10);
+
+    StringWriter sw = new StringWriter();
+    WFSGetFeatureWriter writer =
+        new WFSGetFeatureWriter(new PrintWriter(sw), "http://server/thredds/wfs/", "http://namespace", "ft");
+    writer.startXML(matched.length, page[1] - page[0], index.getBoundingBox(matched, page[0], page[1]));
+    writer.finishXML();
+
+    String xml = sw.toString();
+    assertThat(xml).contains("numberMatched=\"1\"");
+    assertThat(xml).contains("numberReturned=\"0\"");
+    assertThat(xml).doesNotContain("member");
+  }
+}
@@ -0,0 +1,53 @@
+package thredds.server.wfs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class TestWFSFeatureIndex {
+
+  // minX, minY, maxX, maxY of three features: one west, one east, one spanning both
+  private final WFSFeatureIndex index =
+      new WFSFeatureIndex(new double[] {-10, -10, -5, -5, 5, 5, 10, 10, -6, -1, 6, 1}, 3);
+
+  @Test
+  public void shouldFindAllFeaturesWithoutBbox() {
+    assertThat(index.size()).isEqualTo(3);
+    assertThat(index.findFeatures(null)).asList().containsExactly(0, 1, 2).inOrder();
+  }
+
+  @Test
+  public void shouldFindIntersectingFeatures() {
+    assertThat(index.findFeatures(new double[] {-20, -20, -7, -7})).asList().containsExactly(0);
+    assertThat(index.findFeatures(new double[] {0, -1, 20, 20})).asList().containsExactly(1, 2).inOrder();
+    // boxes that only touch intersect
+    assertThat(index.findFeatures(new double[] {10, 10, 20, 20})).asList().containsExactly(1);
+    assertThat(index.findFeatures(new double[] {-4, 2, 4, 4})).isEmpty();
+  }
+
+  @Test
+  public void shouldFindNothingInEmptyIndex() {
+    WFSFeatureIndex empty = new WFSFeatureIndex(new double[0], 0);
+    assertThat(empty.size()).isEqualTo(0);
+    assertThat(empty.findFeatures(null)).isEmpty();
+    assertThat(empty.findFeatures(new double[] {-180, -90, 180, 90})).isEmpty();
+  }
+
+  @Test
+  public void shouldGetBoundingBoxOfPage() {
+    int[] all = index.findFeatures(null);
+    assertThat(index.getBoundingBox(all, 0, 3)).usingExactEquality().containsExactly(-10.0, -10.0, 10.0, 10.0)
+        .inOrder();
+    assertThat(index.getBoundingBox(all, 1, 3)).usingExactEquality().containsExactly(-6.0, -1.0, 10.0, 10.0)
+        .inOrder();
+    assertThat(index.getBoundingBox(all, 2, 3)).usingExactEquality().containsExactly(-6.0, -1.0, 6.0, 1.0).inOrder();
+  }
+
+  @Test
+  public void shouldHaveNoBoundingBoxForEmptyPage() {
+    int[] all = index.findFeatures(null);
+    assertThat(index.getBoundingBox(all, 3, 3)).isNull();
+    assertThat(index.getBoundingBox(all, 1, 1)).isNull();
+    assertThat(index.getBoundingBox(new int[0], 0, 0)).isNull();
+  }
+}
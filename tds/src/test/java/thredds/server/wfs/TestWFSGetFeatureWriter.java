@@ -0,0 +1,143 @@
+package thredds.server.wfs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import ucar.nc2.ft2.simpgeometry.Line;
+import ucar.nc2.ft2.simpgeometry.Point;
+import ucar.nc2.ft2.simpgeometry.Polygon;
+
+/** Write features through WFSGetFeatureWriter and GMLFeatureWriter, and read back the GML. */
+public class TestWFSGetFeatureWriter {
+  private static final String WFS = "http://opengis.net/wfs/2.0";
+  private static final String GML = GMLFeatureWriter.GML_NAMESPACE;
+  private static final String NAMESPACE = "http://namespace";
+
+  // the geometries only need the methods the writers call
+  private static <T> T geometry(Class<T> type, Map<String, Object> values) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+      if (values.containsKey(method.getName()))
+        return values.get(method.getName());
+      if (method.getName().equals("toString"))
+        return type.getSimpleName();
+      throw new UnsupportedOperationException(method.getName());
+    }));
+  }
+
+  private static Point point(double x, double y) {
+    Map<String, Object> values = new HashMap<>();
+    values.put("getX", x);
+    values.put("getY", y);
+    values.put("getBBLower", new double[] {x, y});
+    values.put("getBBUpper", new double[] {x, y});
+    return geometry(Point.class, values);
+  }
+
+  private static Map<String, Object> pointsAndBox(double... xy) {
+    List<Point> points = new ArrayList<>();
+    double[] lower = {Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] upper = {-Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int i = 0; i < xy.length; i += 2) {
+      points.add(point(xy[i], xy[i + 1]));
+      lower[0] = Math.min(lower[0], xy[i]);
+      lower[1] = Math.min(lower[1], xy[i + 1]);
+      upper[0] = Math.max(upper[0], xy[i]);
+      upper[1] = Math.max(upper[1], xy[i + 1]);
+    }
+    Map<String, Object> values = new HashMap<>();
+    values.put("getPoints", points);
+    values.put("getBBLower", lower);
+    values.put("getBBUpper", upper);
+    return values;
+  }
+
+  private static Document parse(String xml) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+  }
+
+  private static Element only(Element parent, String ns, String localName) {
+    NodeList list = parent.getElementsByTagNameNS(ns, localName);
+    assertThat(list.getLength()).isEqualTo(1);
+    return (Element) list.item(0);
+  }
+
+  @Test
+  public void shouldWritePolygonMember() throws Exception {
+    Map<String, Object> values = pointsAndBox(0, 0, 2, 0, 2, 1, 0, 0);
+    values.put("getInteriorRing", false);
+    Polygon polygon = geometry(Polygon.class, values);
+
+    StringWriter sw = new StringWriter();
+    WFSGetFeatureWriter writer =
+        new WFSGetFeatureWriter(new PrintWriter(sw), "http://server/thredds/wfs/", NAMESPACE, "ft");
+    writer.startXML(5, 1, new double[] {0, 0, 2, 1});
+    writer.writeMember(polygon, 7);
+    writer.finishXML();
+
+    Element collection = parse(sw.toString()).getDocumentElement();
+    assertThat(collection.getNamespaceURI()).isEqualTo(WFS);
+    assertThat(collection.getLocalName()).isEqualTo("FeatureCollection");
+    assertThat(collection.getAttribute("numberMatched")).isEqualTo("5");
+    assertThat(collection.getAttribute("numberReturned")).isEqualTo("1");
+
+    // the member, and its properties
+    Element member = only(collection, WFS, "member");
+    Element feature = only(member, NAMESPACE, "ft");
+    assertThat(feature.getAttributeNS(GML, "id")).isEqualTo("ft.7");
+    Element envelope = only(only(feature, GML, "boundedBy"), GML, "Envelope");
+    assertThat(only(envelope, GML, "lowerCorner").getTextContent()).isEqualTo("0.0 0.0");
+    assertThat(only(envelope, GML, "upperCorner").getTextContent()).isEqualTo("2.0 1.0");
+
+    // its geometry
+    Element info = only(feature, NAMESPACE, "geometryInformation");
+    Element ring = only(only(only(info, GML, "Polygon"), GML, "exterior"), GML, "LinearRing");
+    assertThat(only(ring, GML, "posList").getTextContent().trim()).isEqualTo("0.0 0.0 2.0 0.0 2.0 1.0 0.0 0.0");
+  }
+
+  @Test
+  public void shouldWritePointAndLine() throws Exception {
+    StringWriter sw = new StringWriter();
+    WFSGetFeatureWriter writer =
+        new WFSGetFeatureWriter(new PrintWriter(sw), "http://server/thredds/wfs/", NAMESPACE, "ft");
+    writer.startXML(2, 2, new double[] {-3, -2.5, 4, 5});
+    writer.writeMember(point(1.5, -2.5), 0);
+    writer.writeMember(geometry(Line.class, pointsAndBox(-3, 0, 4, 5)), 1);
+    writer.finishXML();
+
+    NodeList members = parse(sw.toString()).getDocumentElement().getElementsByTagNameNS(WFS, "member");
+    assertThat(members.getLength()).isEqualTo(2);
+
+    Element first = only((Element) members.item(0), NAMESPACE, "ft");
+    assertThat(first.getAttributeNS(GML, "id")).isEqualTo("ft.0");
+    Element pointElem = only(first, GML, "Point");
+    assertThat(pointElem.getAttribute("srsDimension")).isEqualTo("2");
+    assertThat(only(pointElem, GML, "pos").getTextContent()).isEqualTo("1.5 -2.5");
+
+    Element second = only((Element) members.item(1), NAMESPACE, "ft");
+    assertThat(second.getAttributeNS(GML, "id")).isEqualTo("ft.1");
+    assertThat(only(only(second, GML, "LineString"), GML, "posList").getTextContent().trim())
+        .isEqualTo("-3.0 0.0 4.0 5.0");
+  }
+
+  @Test
+  public void shouldWriteFeatureAsString() {
+    String xml = new GMLFeatureWriter().writeFeature(point(1, 2));
+    assertThat(xml).contains("<gml:Point");
+    assertThat(xml).contains("<gml:pos>1.0 2.0</gml:pos>");
+  }
+}
@@ -0,0 +1,40 @@
+package thredds.server.wms;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class TestWmsImageKey {
+
+  @Test
+  public void shouldIgnoreParameterCaseAndOrder() {
+    Map<String, String[]> params = new HashMap<>();
+    params.put("REQUEST", new String[] {"GetMap"});
+    params.put("LAYERS", new String[] {"Temperature"});
+    params.put("BBOX", new String[] {"-180,-90,0,90"});
+
+    Map<String, String[]> other = new HashMap<>();
+    other.put("bbox", new String[] {"-180,-90,0,90"});
+    other.put("layers", new String[] {"Temperature"});
+    other.put("request", new String[] {"GetMap"});
+
+    assertThat(ThreddsWmsServlet.makeImageKey("a/b.nc", 1, params))
+        .isEqualTo(ThreddsWmsServlet.makeImageKey("a/b.nc", 1, other));
+  }
+
+  @Test
+  public void shouldDependOnValuesAndLastModified() {
+    Map<String, String[]> params = new HashMap<>();
+    params.put("layers", new String[] {"Temperature"});
+    params.put("time", new String[] {"2020-01-01T00:00:00Z"});
+    String key = ThreddsWmsServlet.makeImageKey("a/b.nc", 1, params);
+
+    assertThat(ThreddsWmsServlet.makeImageKey("a/b.nc", 2, params)).isNotEqualTo(key);
+    assertThat(ThreddsWmsServlet.makeImageKey("a/c.nc", 1, params)).isNotEqualTo(key);
+
+    params.put("time", new String[] {"2020-01-02T00:00:00Z"});
+    assertThat(ThreddsWmsServlet.makeImageKey("a/b.nc", 1, params)).isNotEqualTo(key);
+  }
+}
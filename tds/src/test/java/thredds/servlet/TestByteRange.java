@@ -0,0 +1,56 @@
+package thredds.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import org.junit.Test;
+
+public class TestByteRange {
+
+  @Test
+  public void shouldParseSingleRange() {
+    assertThat(ByteRange.parse("bytes=0-499", 1000)).containsExactly(new ByteRange(0, 499));
+    assertThat(ByteRange.parse("bytes=500-", 1000)).containsExactly(new ByteRange(500, 999));
+    assertThat(ByteRange.parse("bytes=-100", 1000)).containsExactly(new ByteRange(900, 999));
+  }
+
+  @Test
+  public void shouldClipToResourceLength() {
+    assertThat(ByteRange.parse("bytes=900-5000", 1000)).containsExactly(new ByteRange(900, 999));
+    assertThat(ByteRange.parse("bytes=-5000", 1000)).containsExactly(new ByteRange(0, 999));
+  }
+
+  @Test
+  public void shouldParseMultipleRanges() {
+    List<ByteRange> ranges = ByteRange.parse("bytes=600-699, 0-99,200-299", 1000);
+    assertThat(ranges).containsExactly(new ByteRange(0, 99), new ByteRange(200, 299), new ByteRange(600, 699))
+        .inOrder();
+  }
+
+  @Test
+  public void shouldCoalesceOverlappingRanges() {
+    assertThat(ByteRange.parse("bytes=0-99,50-149,150-199", 1000)).containsExactly(new ByteRange(0, 199));
+  }
+
+  @Test
+  public void shouldIgnoreMalformedHeader() {
+    assertThat(ByteRange.parse(null, 1000)).isNull();
+    assertThat(ByteRange.parse("items=0-10", 1000)).isNull();
+    assertThat(ByteRange.parse("bytes=abc", 1000)).isNull();
+    assertThat(ByteRange.parse("bytes=10-5", 1000)).isNull();
+    assertThat(ByteRange.parse("bytes=0-1,x-2", 1000)).isNull();
+  }
+
+  @Test
+  public void shouldReturnEmptyWhenUnsatisfiable() {
+    assertThat(ByteRange.parse("bytes=1000-", 1000)).isEmpty();
+    assertThat(ByteRange.parse("bytes=-0", 1000)).isEmpty();
+    assertThat(ByteRange.parse("bytes=0-", 0)).isEmpty();
+  }
+
+  @Test
+  public void shouldFormatContentRange() {
+    assertThat(new ByteRange(0, 499).getContentRange(1234)).isEqualTo("bytes 0-499/1234");
+    assertThat(new ByteRange(0, 499).getLength()).isEqualTo(500);
+  }
+}
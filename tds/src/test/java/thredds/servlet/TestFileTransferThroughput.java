@@ -0,0 +1,170 @@
+package thredds.servlet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import thredds.inventory.MFile;
+import thredds.inventory.MFiles;
+import ucar.unidata.util.test.category.NotPullRequest;
+
+/**
+ * Compare throughput of the paths used by ServletUtil.writeMFileToResponse() for local files.
+ * MFile.writeToStream() and ServletUtil.transferLocalFile() write to a stream, so both copy through a buffer.
+ * Sendfile is done by the container, with FileChannel.transferTo() to the socket; here it is timed on a loopback
+ * socket, against transferLocalFile() to the same socket's stream.
+ * Use -Dtds.benchmark.fileSizeMb=4096 for multi-GB files.
+ */
+@Category(NotPullRequest.class)
+public class TestFileTransferThroughput {
+  private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final long MB = 1024 * 1024;
+  private static final int ITERATIONS = 3;
+
+  @ClassRule
+  public static final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static File file;
+  private static long fileSize;
+
+  @BeforeClass
+  public static void makeFile() throws IOException {
+    fileSize = Long.getLong("tds.benchmark.fileSizeMb", 256) * MB;
+    file = tempFolder.newFile("transfer.bin");
+    byte[] block = new byte[(int) MB];
+    for (int i = 0; i < block.length; i++) {
+      block[i] = (byte) i;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      for (long written = 0; written < fileSize; written += block.length) {
+        raf.write(block, 0, (int) Math.min(block.length, fileSize - written));
+      }
+    }
+  }
+
+  @Test
+  public void compareStreamAndChannel() throws IOException {
+    MFile mfile = MFiles.create(file.getPath());
+    assertThat(ServletUtil.getLocalPath(mfile)).isNotNull();
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      CountingOutputStream streamSink = new CountingOutputStream();
+      long start = System.nanoTime();
+      mfile.writeToStream(streamSink);
+      report("MFile.writeToStream", System.nanoTime() - start);
+      assertThat(streamSink.count).isEqualTo(fileSize);
+
+      CountingOutputStream channelSink = new CountingOutputStream();
+      start = System.nanoTime();
+      ServletUtil.transferLocalFile(file.toPath(), 0, fileSize, channelSink);
+      report("transferLocalFile", System.nanoTime() - start);
+      assertThat(channelSink.count).isEqualTo(fileSize);
+    }
+  }
+
+  @Test
+  public void compareSendfileAndStreamToSocket() throws Exception {
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      long count = sendToSocket(socket -> {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+          long position = 0;
+          while (position < fileSize)
+            position += channel.transferTo(position, fileSize - position, socket);
+        }
+      });
+      report("sendfile to socket", System.nanoTime() - start);
+      assertThat(count).isEqualTo(fileSize);
+
+      start = System.nanoTime();
+      count = sendToSocket(
+          socket -> ServletUtil.transferLocalFile(file.toPath(), 0, fileSize, Channels.newOutputStream(socket)));
+      report("transferLocalFile socket", System.nanoTime() - start);
+      assertThat(count).isEqualTo(fileSize);
+    }
+  }
+
+  private interface Sender {
+    void send(SocketChannel socket) throws IOException;
+  }
+
+  // send to a loopback socket, returning the number of bytes that arrived
+  private static long sendToSocket(Sender sender) throws Exception {
+    ExecutorService reader = Executors.newSingleThreadExecutor();
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      Future<Long> received = reader.submit(() -> {
+        try (SocketChannel in = server.accept()) {
+          ByteBuffer buffer = ByteBuffer.allocateDirect((int) MB);
+          long total = 0;
+          int n;
+          while ((n = in.read(buffer)) >= 0) {
+            total += n;
+            buffer.clear();
+          }
+          return total;
+        }
+      });
+      try (SocketChannel out = SocketChannel.open(server.getLocalAddress())) {
+        sender.send(out);
+      }
+      return received.get();
+    } finally {
+      reader.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldTransferRange() throws IOException {
+    CountingOutputStream sink = new CountingOutputStream();
+    ServletUtil.transferLocalFile(file.toPath(), MB + 7, MB, sink);
+    assertThat(sink.count).isEqualTo(MB);
+    assertThat(sink.first).isEqualTo((byte) 7);
+  }
+
+  private static void report(String what, long nanos) {
+    double secs = nanos / 1.0e9;
+    logger.info(String.format("%-24s %6d MB in %7.3f secs = %8.1f MB/sec", what, fileSize / MB, secs,
+        fileSize / MB / secs));
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+    long count;
+    Byte first;
+
+    @Override
+    public void write(int b) {
+      if (first == null)
+        first = (byte) b;
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (first == null && len > 0)
+        first = b[off];
+      count += len;
+    }
+  }
+}